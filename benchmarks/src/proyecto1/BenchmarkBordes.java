@@ -0,0 +1,92 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Costo de los modos de borde: "procesar" compara la operacion completa con
+ * halo rellenado contra el motor original (modo "legado", que comprueba cada
+ * vecino en la franja del borde), y "soloRelleno" mide solo la copia al
+ * buffer con halo. La diferencia entre ambos es lo que ahorra no tener
+ * bordes en el calculo.
+ *
+ * Se ejecuta con ant bench -Dbench.args="BenchmarkBordes".
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Dmorfologia.metricas=false"})
+public class BenchmarkBordes {
+
+    @Param({"legado", "ignorar", "replicar", "reflejar", "constante"})
+    public String modo;
+
+    @Param({"cruz", "cuadrado15", "cuadrado31"})
+    public String elemento;
+
+    @Param({"512", "2048"})
+    public int lado;
+
+    // 0 = motor secuencial; el resto, hilos del motor paralelo
+    @Param({"0", "4"})
+    public int hilos;
+
+    private BufferedImage imagen;
+    private int[] pixeles;
+    private ElementoEstructurante ee;
+    private ModoBorde modoBorde;
+    private boolean paralelo;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        modoBorde = modo.equals("legado") ? null : ModoBorde.desdeNombre(modo);
+        if (modoBorde == null && !modo.equals("legado")) {
+            throw new IllegalArgumentException("Modo no valido: " + modo);
+        }
+        paralelo = hilos > 0;
+        ee = BenchmarkMorfologia.crearElemento(elemento);
+        imagen = BenchmarkMorfologia.generarImagen(lado, lado, BufferedImage.TYPE_INT_RGB);
+        pixeles = RasterRapido.leerPixeles(imagen);
+        if (paralelo) {
+            MorfologiaMatematicaOptimizada.setParalelismo(hilos);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() {
+        MorfologiaMatematicaOptimizada.cerrarEjecutor();
+    }
+
+    @Benchmark
+    public BufferedImage procesar() {
+        return paralelo
+                ? MorfologiaMatematicaOptimizada.operacionParalela(imagen, ee, Operacion.EROSION, modoBorde, 0)
+                : MorfologiaMatematicaOptimizada.operacionSecuencial(imagen, ee, Operacion.EROSION, modoBorde, 0);
+    }
+
+    @Benchmark
+    public int[] soloRelleno() {
+        if (modoBorde == null) {
+            return pixeles;
+        }
+        return ProcesadorBordes.rellenar(pixeles, lado, lado,
+                ee.anclaX, ee.anclaY, ee.width - 1 - ee.anclaX, ee.height - 1 - ee.anclaY,
+                modoBorde, 0, true);
+    }
+}
@@ -0,0 +1,163 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Benchmarks JMH de los motores de morfologia.
+ *
+ * Se ejecutan con "ant bench"; los parametros se cambian con
+ * -Dbench.args="-p lado=4096 -p hilos=0,8 ..." (la combinacion completa tarda
+ * mas de una hora). El contador "megapixeles" da el rendimiento en
+ * megapixeles/s y el perfilador "gc" (activo por defecto) la tasa de
+ * asignacion. Las imagenes se generan en memoria con una semilla fija, asi que
+ * no hace falta ningun archivo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector", "-Dmorfologia.metricas=false"})
+public class BenchmarkMorfologia {
+
+    @Param({"erosion", "dilatacion", "apertura", "gradiente"})
+    public String operacion;
+
+    @Param({"cruz", "linea", "x", "l", "cuadrado15", "cuadrado31"})
+    public String elemento;
+
+    @Param({"512", "2048"})
+    public int lado;
+
+    @Param({"INT_RGB", "3BYTE_BGR", "BYTE_GRAY"})
+    public String tipo;
+
+    // 0 = motor secuencial; el resto, hilos del motor paralelo
+    @Param({"0", "1", "4", "8"})
+    public int hilos;
+
+    private BufferedImage imagen;
+    private ElementoEstructurante ee;
+    private Operacion op;
+    private boolean paralelo;
+
+    /**
+     * Pixeles procesados por iteracion, reportados como tasa por segundo
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Megapixeles {
+
+        public double megapixeles;
+
+        @Setup(Level.Iteration)
+        public void reiniciar() {
+            megapixeles = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        op = Operacion.desdeNombre(operacion);
+        if (op == null) {
+            throw new IllegalArgumentException("Operacion no valida: " + operacion);
+        }
+        paralelo = hilos > 0;
+        ee = crearElemento(elemento);
+        imagen = generarImagen(lado, lado, tipoImagen(tipo));
+        if (paralelo) {
+            MorfologiaMatematicaOptimizada.setParalelismo(hilos);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cerrar() {
+        MorfologiaMatematicaOptimizada.cerrarEjecutor();
+    }
+
+    @Benchmark
+    public BufferedImage procesar(Megapixeles contador) {
+        BufferedImage resultado = paralelo
+                ? MorfologiaMatematicaOptimizada.operacionParalela(imagen, ee, op)
+                : MorfologiaMatematicaOptimizada.operacionSecuencial(imagen, ee, op);
+        contador.megapixeles += (double) lado * lado / 1_000_000;
+        return resultado;
+    }
+
+    static ElementoEstructurante crearElemento(String nombre) {
+        switch (nombre) {
+            case "cruz":
+                return MorfologiaMatematicaOptimizada.crearCruz3x3();
+            case "linea":
+                return MorfologiaMatematicaOptimizada.crearLineaHorizontal();
+            case "x":
+                return MorfologiaMatematicaOptimizada.crearX();
+            case "l":
+                return MorfologiaMatematicaOptimizada.crearLNormal();
+            default:
+                if (nombre.startsWith("cuadrado")) {
+                    int n = Integer.parseInt(nombre.substring("cuadrado".length()));
+                    int[][] estructura = new int[n][n];
+                    for (int[] fila : estructura) {
+                        Arrays.fill(fila, 1);
+                    }
+                    return new ElementoEstructurante(estructura, n / 2, n / 2);
+                }
+                throw new IllegalArgumentException("Elemento no valido: " + nombre);
+        }
+    }
+
+    static int tipoImagen(String nombre) {
+        switch (nombre) {
+            case "INT_RGB":
+                return BufferedImage.TYPE_INT_RGB;
+            case "INT_ARGB":
+                return BufferedImage.TYPE_INT_ARGB;
+            case "3BYTE_BGR":
+                return BufferedImage.TYPE_3BYTE_BGR;
+            case "BYTE_GRAY":
+                return BufferedImage.TYPE_BYTE_GRAY;
+            default:
+                throw new IllegalArgumentException("Tipo no valido: " + nombre);
+        }
+    }
+
+    /**
+     * Imagen sintetica: gradientes suaves con ruido y algunos bloques, para
+     * que las operaciones no trabajen sobre valores constantes
+     */
+    static BufferedImage generarImagen(int width, int height, int tipo) {
+        Random random = new Random(42);
+        int[] pixeles = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int ruido = random.nextInt(32);
+                int r = (x * 255 / Math.max(1, width - 1) + ruido) & 0xFF;
+                int g = (y * 255 / Math.max(1, height - 1) + ruido) & 0xFF;
+                int b = ((x / 16 + y / 16) % 2 == 0) ? 200 + ruido : ruido;
+                pixeles[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        BufferedImage imagen = new BufferedImage(width, height, tipo);
+        imagen.setRGB(0, 0, width, height, pixeles, 0, width);
+        return imagen;
+    }
+}
@@ -0,0 +1,515 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Autoajuste del motor de enteros.
+ *
+ * Para cada cubeta de tamaño de imagen y de EE se mide, con pasadas cortas
+ * sobre imagenes de prueba, la forma mas rapida de calcular: en el hilo que
+ * llama o en el pool (y con cuantos hilos), con teselas cuadradas de que
+ * lado o con franjas de filas completas, y con que kernel (tabla de
+ * desplazamientos, vectorial o union de rectangulos). operacionParalela
+ * consulta el perfil en cada llamada y operacionSecuencial toma de ahi solo
+ * el kernel; sin autoajuste activo se comportan como siempre.
+ *
+ * El kernel se elige sobre una imagen chica, porque su costo por pixel casi
+ * no depende del tamaño; el reparto se mide sobre una imagen del tamaño de
+ * la cubeta con ese kernel. Las cubetas de EE separan los rectangulares del
+ * resto, que se descomponen en mas piezas.
+ *
+ * Con -Dmorfologia.autoajuste=archivo el perfil se carga de ese archivo al
+ * primer uso, las cubetas que falten se calibran la primera vez que se
+ * necesitan y el archivo se actualiza, asi que los arranques siguientes no
+ * vuelven a medir. Un perfil de otra maquina (otro paralelismo u otro ancho
+ * vectorial) se descarta.
+ */
+final class AutoajusteMorfologia {
+
+    // Limite superior (exclusivo) de pixeles de cada cubeta de imagen
+    private static final long[] LIMITES_PIXELES = {1 << 16, 1 << 18, 1 << 20, 1 << 22, Long.MAX_VALUE};
+    private static final String[] NOMBRES_IMAGEN = {"64K", "256K", "1M", "4M", "mas"};
+    // Imagen de calibracion de cada cubeta, cerca de su centro geometrico
+    private static final int[][] REPRESENTANTES = {{192, 144}, {384, 288}, {768, 576}, {1536, 1152}, {2560, 1600}};
+
+    // Lado mayor (inclusivo) del EE de cada cubeta, y el lado de su representante
+    private static final int[] LIMITES_ELEMENTO = {3, 7, 15, Integer.MAX_VALUE};
+    private static final String[] NOMBRES_ELEMENTO = {"3", "7", "15", "mas"};
+    private static final int[] LADOS_REPRESENTANTES = {3, 7, 15, 31};
+
+    private static final int[] LADOS_TESELA = {64, 128, 256};
+    // Filas minimas de las franjas; el reparto igual las agranda hasta
+    // unas pocas por hilo
+    private static final int FILAS_FRANJA = 32;
+    // Filas por banda cuando se calcula en el hilo que llama
+    private static final int FILAS_SECUENCIAL = 256;
+    // Lado de la imagen sobre la que se elige el kernel
+    private static final int LADO_KERNEL = 256;
+
+    // Rondas de medicion: al menos MINIMO_RONDAS, y mas (hasta MAXIMO_RONDAS)
+    // mientras no se junten NANOS_MEDICION
+    private static final int MINIMO_RONDAS = 5;
+    private static final int MAXIMO_RONDAS = 40;
+    private static final long NANOS_MEDICION = 150_000_000L;
+    // Las candidatas que tardan mas que esto por la mejor se dejan de medir
+    private static final int DESCARTE = 3;
+    // Calentamiento de cada kernel la primera vez, para que el JIT los
+    // compile antes de comparar
+    private static final long NANOS_CALENTAMIENTO_KERNEL = 60_000_000L;
+
+    // Cubetas de imagen que calibra calibrar() por defecto: hasta 1 Mpx
+    static final long PIXELES_CALIBRACION = 1 << 20;
+
+    private static final Map<String, Estrategia> perfil = new ConcurrentHashMap<>();
+    private static volatile boolean activo;
+    // Si ya se calentaron los kernels en esta JVM; con el monitor de la clase
+    private static boolean calentado;
+    // Archivo del perfil, o null si queda solo en memoria; con el monitor de la clase
+    private static Path archivo;
+
+    static {
+        String ruta = System.getProperty("morfologia.autoajuste");
+        if (ruta != null) {
+            try {
+                activar(Paths.get(ruta));
+            } catch (IOException e) {
+                System.err.println("ERROR: No se puede leer el perfil de autoajuste " + ruta + ": " + e.getMessage());
+                reiniciar(null);
+            }
+        }
+    }
+
+    private AutoajusteMorfologia() {
+    }
+
+    /**
+     * Forma de repartir y calcular una operacion
+     */
+    static final class Estrategia {
+
+        // Con 1 hilo se calcula en el hilo que llama, por franjas de lado filas
+        final int hilos;
+        // Franjas de filas completas en lugar de teselas cuadradas
+        final boolean franjas;
+        // Lado minimo de las teselas, o filas minimas de las franjas
+        final int lado;
+        final PlanDescomposicion.Kernel kernel;
+
+        Estrategia(int hilos, boolean franjas, int lado, PlanDescomposicion.Kernel kernel) {
+            if (hilos < 1 || lado < 1 || kernel == null) {
+                throw new IllegalArgumentException("Estrategia invalida");
+            }
+            this.hilos = hilos;
+            this.franjas = franjas;
+            this.lado = lado;
+            this.kernel = kernel;
+        }
+
+        String aTexto() {
+            return hilos + "," + (franjas ? "franjas" : "teselas") + "," + lado + "," + kernel;
+        }
+
+        /**
+         * Lee el formato de aTexto; devuelve null si no lo es
+         */
+        static Estrategia desdeTexto(String texto) {
+            String[] partes = texto.split(",");
+            if (partes.length != 4 || !(partes[1].equals("franjas") || partes[1].equals("teselas"))) {
+                return null;
+            }
+            try {
+                return new Estrategia(Integer.parseInt(partes[0].trim()), partes[1].equals("franjas"),
+                        Integer.parseInt(partes[2].trim()), PlanDescomposicion.Kernel.valueOf(partes[3].trim()));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            String reparto = hilos == 1 ? "en el hilo que llama, franjas de " + lado + " filas"
+                    : hilos + " hilos, " + (franjas ? "franjas de al menos " + lado + " filas"
+                            : "teselas de al menos " + lado + "x" + lado);
+            return reparto + ", kernel " + kernel.name().toLowerCase();
+        }
+    }
+
+    /**
+     * Activa el autoajuste con el perfil del archivo (si existe y es de esta
+     * maquina); las cubetas nuevas se guardan ahi. Con null el perfil queda
+     * solo en memoria.
+     */
+    static synchronized void activar(Path ruta) throws IOException {
+        reiniciar(ruta);
+        if (ruta != null) {
+            cargar(ruta);
+        }
+    }
+
+    /**
+     * Activa el autoajuste con el perfil vacio
+     */
+    private static synchronized void reiniciar(Path ruta) {
+        perfil.clear();
+        archivo = ruta;
+        activo = true;
+    }
+
+    static void desactivar() {
+        activo = false;
+    }
+
+    static boolean isActivo() {
+        return activo;
+    }
+
+    /**
+     * Estrategia para la imagen y el plan, o null si el autoajuste no esta
+     * activo. Una cubeta sin medir se calibra aqui, con el EE del plan como
+     * representante, lo que demora esa llamada.
+     */
+    static Estrategia estrategia(int width, int height, PlanDescomposicion plan) {
+        if (!activo) {
+            return null;
+        }
+        int cubetaImagen = cubetaImagen((long) width * height);
+        String clave = clave(cubetaImagen, plan);
+        Estrategia estrategia = perfil.get(clave);
+        return estrategia != null ? estrategia : calibrarCubeta(clave, cubetaImagen, plan.getElemento());
+    }
+
+    /**
+     * Calibra todas las cubetas cuya imagen de prueba no pasa de maxPixeles,
+     * con un cuadrado y un disco (o la cruz) de cada cubeta de EE como
+     * representantes, y guarda el perfil. Activa el autoajuste en memoria si
+     * no estaba activo.
+     */
+    static synchronized void calibrar(long maxPixeles) {
+        if (!activo) {
+            reiniciar(null);
+        }
+        for (int i = 0; i < REPRESENTANTES.length; i++) {
+            if ((long) REPRESENTANTES[i][0] * REPRESENTANTES[i][1] > maxPixeles) {
+                break;
+            }
+            for (int lado : LADOS_REPRESENTANTES) {
+                for (ElementoEstructurante elemento : new ElementoEstructurante[]{cuadrado(lado), disco(lado)}) {
+                    PlanDescomposicion plan = PlanDescomposicion.planificar(elemento);
+                    perfil.put(clave(i, plan), medir(i, plan));
+                }
+            }
+        }
+        guardar();
+    }
+
+    private static synchronized Estrategia calibrarCubeta(String clave, int cubetaImagen,
+            ElementoEstructurante elemento) {
+        // Otro hilo pudo calibrarla mientras este esperaba
+        Estrategia estrategia = perfil.get(clave);
+        if (estrategia == null) {
+            estrategia = medir(cubetaImagen, PlanDescomposicion.planificar(elemento));
+            perfil.put(clave, estrategia);
+            guardar();
+        }
+        return estrategia;
+    }
+
+    /**
+     * Mide los kernels sobre una imagen chica y despues los repartos sobre la
+     * imagen de la cubeta, con el mejor kernel
+     */
+    private static Estrategia medir(int cubetaImagen, PlanDescomposicion plan) {
+        Random aleatorio = new Random(cubetaImagen);
+        int[] muestra = new int[LADO_KERNEL * LADO_KERNEL];
+        for (int i = 0; i < muestra.length; i++) {
+            muestra[i] = aleatorio.nextInt() & 0xFFFFFF;
+        }
+        int[] salida = new int[muestra.length];
+        calentar(muestra, salida);
+
+        PlanDescomposicion.Kernel[] kernels = PlanDescomposicion.Kernel.values();
+        Runnable[] pasadas = new Runnable[kernels.length];
+        for (int i = 0; i < kernels.length; i++) {
+            // Los que no se pueden usar quedan en null y no se miden
+            if (plan.admite(kernels[i])) {
+                PlanDescomposicion conKernel = plan.conKernel(kernels[i]);
+                pasadas[i] = () -> conKernel.procesarRegion(muestra, 0, LADO_KERNEL, LADO_KERNEL, LADO_KERNEL,
+                        true, true, 0, 0, LADO_KERNEL, LADO_KERNEL, salida, 0, LADO_KERNEL);
+            }
+        }
+        PlanDescomposicion.Kernel kernel = kernels[elegir(pasadas)];
+
+        int width = REPRESENTANTES[cubetaImagen][0];
+        int height = REPRESENTANTES[cubetaImagen][1];
+        BufferedImage imagen = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixeles = RasterRapido.arregloEnteros(imagen);
+        for (int i = 0; i < pixeles.length; i++) {
+            pixeles[i] = aleatorio.nextInt() & 0xFFFFFF;
+        }
+        BufferedImage resultado = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] destino = RasterRapido.arregloEnteros(resultado);
+        PlanDescomposicion elegido = plan.conKernel(kernel);
+
+        Estrategia[] candidatas = candidatas(kernel);
+        pasadas = new Runnable[candidatas.length];
+        for (int i = 0; i < candidatas.length; i++) {
+            Estrategia candidata = candidatas[i];
+            pasadas[i] = () -> MorfologiaMatematicaOptimizada.calcularTeselas(Operacion.EROSION,
+                    elegido, pixeles, width, height, candidata, resultado, destino);
+        }
+        return candidatas[elegir(pasadas)];
+    }
+
+    /**
+     * Sin esto el primer kernel medido sale favorecido: los demas todavia
+     * corren sin compilar del todo
+     */
+    private static synchronized void calentar(int[] muestra, int[] salida) {
+        if (calentado) {
+            return;
+        }
+        calentado = true;
+        // Varias formas, porque cada kernel tiene caminos distintos segun el EE
+        for (ElementoEstructurante elemento : new ElementoEstructurante[]{cuadrado(3), disco(3), disco(7), cuadrado(15)}) {
+            PlanDescomposicion plan = PlanDescomposicion.planificar(elemento);
+            for (PlanDescomposicion.Kernel kernel : PlanDescomposicion.Kernel.values()) {
+                PlanDescomposicion conKernel = plan.conKernel(kernel);
+                long inicio = System.nanoTime();
+                while (System.nanoTime() - inicio < NANOS_CALENTAMIENTO_KERNEL) {
+                    conKernel.procesarRegion(muestra, 0, LADO_KERNEL, LADO_KERNEL, LADO_KERNEL, true, true,
+                            0, 0, LADO_KERNEL, LADO_KERNEL, salida, 0, LADO_KERNEL);
+                }
+            }
+        }
+    }
+
+    private static Estrategia[] candidatas(PlanDescomposicion.Kernel kernel) {
+        int paralelismo = EjecutorMorfologia.getParalelismo();
+        int cantidadHilos = 0;
+        int[] hilos = new int[32];
+        for (int n = 2; n < paralelismo; n *= 2) {
+            hilos[cantidadHilos++] = n;
+        }
+        if (paralelismo > 1) {
+            hilos[cantidadHilos++] = paralelismo;
+        }
+
+        Estrategia[] candidatas = new Estrategia[1 + cantidadHilos * (LADOS_TESELA.length + 1)];
+        int k = 0;
+        candidatas[k++] = new Estrategia(1, true, FILAS_SECUENCIAL, kernel);
+        for (int i = 0; i < cantidadHilos; i++) {
+            for (int lado : LADOS_TESELA) {
+                candidatas[k++] = new Estrategia(hilos[i], false, lado, kernel);
+            }
+            candidatas[k++] = new Estrategia(hilos[i], true, FILAS_FRANJA, kernel);
+        }
+        return candidatas;
+    }
+
+    /**
+     * Indice de la pasada mas rapida (las null no se miden). Se miden
+     * intercaladas, por rondas, quedandose con el mejor tiempo de cada una:
+     * una compilacion del JIT u otro proceso que frena unos milisegundos
+     * afecta a cualquiera por igual, en lugar de decidir por si solo contra
+     * la que se estaba midiendo. Las que tardan mas de DESCARTE veces la
+     * mejor dejan de medirse.
+     */
+    private static int elegir(Runnable[] pasadas) {
+        long[] mejores = new long[pasadas.length];
+        Arrays.fill(mejores, Long.MAX_VALUE);
+        boolean[] medir = new boolean[pasadas.length];
+        for (int i = 0; i < pasadas.length; i++) {
+            medir[i] = pasadas[i] != null;
+        }
+
+        long comienzo = System.nanoTime();
+        int mejor = -1;
+        for (int ronda = 0; ronda < MAXIMO_RONDAS; ronda++) {
+            for (int i = 0; i < pasadas.length; i++) {
+                if (medir[i]) {
+                    long inicio = System.nanoTime();
+                    pasadas[i].run();
+                    mejores[i] = Math.min(mejores[i], System.nanoTime() - inicio);
+                }
+            }
+            mejor = 0;
+            for (int i = 1; i < mejores.length; i++) {
+                if (mejores[i] < mejores[mejor]) {
+                    mejor = i;
+                }
+            }
+            for (int i = 0; i < mejores.length; i++) {
+                if (mejores[i] / DESCARTE > mejores[mejor]) {
+                    medir[i] = false;
+                }
+            }
+            if (ronda + 1 >= MINIMO_RONDAS && System.nanoTime() - comienzo > NANOS_MEDICION) {
+                break;
+            }
+        }
+        return mejor;
+    }
+
+    private static int cubetaImagen(long pixeles) {
+        int i = 0;
+        while (pixeles >= LIMITES_PIXELES[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String clave(int cubetaImagen, PlanDescomposicion plan) {
+        ElementoEstructurante elemento = plan.getElemento();
+        int lado = Math.max(elemento.width, elemento.height);
+        int cubetaElemento = 0;
+        while (lado > LIMITES_ELEMENTO[cubetaElemento]) {
+            cubetaElemento++;
+        }
+        // Un solo rectangulo maximo cubre todas las celdas activas
+        boolean rectangular = plan.getRectangulos().size() == 1;
+        return "imagen" + NOMBRES_IMAGEN[cubetaImagen] + ".ee" + NOMBRES_ELEMENTO[cubetaElemento]
+                + (rectangular ? ".rectangular" : ".libre");
+    }
+
+    private static ElementoEstructurante cuadrado(int lado) {
+        return MorfologiaMatematicaOptimizada.crearPorNombre("cuadrado" + lado);
+    }
+
+    /**
+     * Disco de diametro lado; el de 3 seria el cuadrado, asi que ahi se usa
+     * la cruz
+     */
+    private static ElementoEstructurante disco(int lado) {
+        if (lado <= 3) {
+            return MorfologiaMatematicaOptimizada.crearCruz3x3();
+        }
+        int radio = lado / 2;
+        int[][] estructura = new int[lado][lado];
+        for (int y = 0; y < lado; y++) {
+            for (int x = 0; x < lado; x++) {
+                int dx = x - radio;
+                int dy = y - radio;
+                estructura[y][x] = dx * dx + dy * dy <= radio * radio ? 1 : 0;
+            }
+        }
+        return new ElementoEstructurante(estructura, radio, radio);
+    }
+
+    private static void cargar(Path ruta) throws IOException {
+        Properties propiedades = new Properties();
+        try (InputStream in = Files.newInputStream(ruta)) {
+            propiedades.load(in);
+        } catch (NoSuchFileException e) {
+            return;
+        }
+        // Lo medido con otro paralelismo u otros vectores no sirve aqui
+        if (!String.valueOf(EjecutorMorfologia.getParalelismo()).equals(propiedades.getProperty("paralelismo"))
+                || !String.valueOf(SoporteVectorial.carriles()).equals(propiedades.getProperty("carriles"))) {
+            return;
+        }
+        for (String clave : propiedades.stringPropertyNames()) {
+            if (clave.startsWith("imagen")) {
+                Estrategia estrategia = Estrategia.desdeTexto(propiedades.getProperty(clave));
+                if (estrategia != null) {
+                    perfil.put(clave, estrategia);
+                }
+            }
+        }
+    }
+
+    /**
+     * Escribe el perfil en un temporal y lo mueve encima del archivo; si no
+     * se puede, el perfil sigue valiendo en memoria
+     */
+    private static synchronized void guardar() {
+        if (archivo == null) {
+            return;
+        }
+        Properties propiedades = new Properties();
+        propiedades.setProperty("paralelismo", String.valueOf(EjecutorMorfologia.getParalelismo()));
+        propiedades.setProperty("carriles", String.valueOf(SoporteVectorial.carriles()));
+        for (Map.Entry<String, Estrategia> entrada : perfil.entrySet()) {
+            propiedades.setProperty(entrada.getKey(), entrada.getValue().aTexto());
+        }
+
+        Path temporal = null;
+        try {
+            Path directorio = archivo.toAbsolutePath().getParent();
+            Files.createDirectories(directorio);
+            temporal = Files.createTempFile(directorio, "perfil", ".tmp");
+            try (OutputStream out = Files.newOutputStream(temporal)) {
+                propiedades.store(out, "Perfil de autoajuste de morfologia (hilos,forma,lado,kernel)");
+            }
+            try {
+                Files.move(temporal, archivo, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporal, archivo, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("ERROR: No se pudo guardar el perfil de autoajuste " + archivo + ": " + e.getMessage());
+            if (temporal != null) {
+                try {
+                    Files.deleteIfExists(temporal);
+                } catch (IOException ignorada) {
+                    // se informo el error de arriba
+                }
+            }
+        }
+    }
+
+    /**
+     * Perfil actual, una cubeta por linea
+     */
+    static String resumen() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== AUTOAJUSTE ===\n");
+        sb.append(activo ? "Activo" : "Inactivo").append(", paralelismo ")
+                .append(EjecutorMorfologia.getParalelismo()).append(", ")
+                .append(SoporteVectorial.carriles()).append(" carril(es) vectoriales\n");
+        for (Map.Entry<String, Estrategia> entrada : new TreeMap<>(perfil).entrySet()) {
+            sb.append("  ").append(entrada.getKey()).append(": ").append(entrada.getValue()).append('\n');
+        }
+        sb.append("==================");
+        return sb.toString();
+    }
+
+    /**
+     * Uso: autoajuste [archivo] [maxMpx]
+     *
+     * Calibra las cubetas hasta maxMpx megapixeles (por defecto 1) y guarda
+     * el perfil en el archivo, para usarlo con -Dmorfologia.autoajuste.
+     */
+    public static void main(String[] args) {
+        try {
+            Path ruta = Paths.get(args.length > 0 ? args[0] : "morfologia.autoajuste");
+            long maxPixeles = args.length > 1
+                    ? Math.round(Double.parseDouble(args[1]) * (1 << 20)) : PIXELES_CALIBRACION;
+            // Se empieza de cero: el archivo se reemplaza con lo medido ahora
+            reiniciar(ruta);
+            long inicio = System.nanoTime();
+            calibrar(maxPixeles);
+            System.out.println(resumen());
+            System.out.println("Calibrado en " + (System.nanoTime() - inicio) / 1_000_000 + " ms, perfil en " + ruta);
+        } catch (NumberFormatException e) {
+            System.err.println("Uso: autoajuste [archivo] [maxMpx]");
+        } finally {
+            MorfologiaMatematicaOptimizada.cerrarEjecutor();
+        }
+    }
+}
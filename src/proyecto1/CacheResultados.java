@@ -0,0 +1,671 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Cache de resultados direccionada por contenido, en memoria y en disco.
+ *
+ * La clave de un resultado es un hash de 128 bits (MurmurHash3) de los
+ * pixeles, el tamaño y el tipo de la imagen de entrada, combinado con la
+ * operacion, la matriz y el ancla del EE, el modo de borde y el motor. Las
+ * etapas de una cadena encadenan las claves (la de la etapa k sale de la de
+ * la etapa k - 1), asi que los resultados intermedios tambien se guardan y
+ * no hace falta volver a hashear pixeles entre etapas.
+ *
+ * Cada nivel tiene un presupuesto en bytes y desaloja lo usado hace mas
+ * tiempo. Todo resultado nuevo se escribe en los dos niveles; un acierto en
+ * disco vuelve a subir a memoria. Los archivos se escriben en un temporal y
+ * se renombran, asi que varios procesos pueden compartir el directorio.
+ * Si dos hilos piden a la vez una clave que falta, uno calcula y el otro
+ * espera su resultado.
+ */
+public final class CacheResultados {
+
+    static final String EXTENSION = ".res";
+
+    // MRES: cabecera de 16 bytes (magia, ancho, alto, tipo) y los pixeles
+    private static final int MAGIA = 0x4D524553;
+    private static final int CABECERA = 16;
+    private static final int PIXELES_POR_BLOQUE = 16384;
+
+    // Lo que ocupa un resultado en memoria ademas de sus pixeles
+    private static final long SOBRECARGA = 96;
+
+    private final long limiteMemoria;
+    private final Path directorio;
+    private final long limiteDisco;
+
+    // Los dos mapas estan en orden de acceso y se protegen con su propio monitor
+    private final LinkedHashMap<Clave, Resultado> memoria = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<Clave, Long> disco = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytesMemoria;
+    private long bytesDisco;
+
+    private final ConcurrentHashMap<Clave, CompletableFuture<Resultado>> enCurso = new ConcurrentHashMap<>();
+
+    private final LongAdder aciertosMemoria = new LongAdder();
+    private final LongAdder aciertosDisco = new LongAdder();
+    private final LongAdder fallos = new LongAdder();
+    private final LongAdder esperas = new LongAdder();
+    private final LongAdder desalojosMemoria = new LongAdder();
+    private final LongAdder desalojosDisco = new LongAdder();
+    private final LongAdder erroresDisco = new LongAdder();
+
+    /**
+     * Cache solo en memoria
+     */
+    public CacheResultados(long limiteMemoria) {
+        this.limiteMemoria = limiteMemoria;
+        this.directorio = null;
+        this.limiteDisco = 0;
+    }
+
+    /**
+     * Cache en memoria y en el directorio indicado (se crea si no existe).
+     * Los resultados que ya haya en el directorio se aprovechan, del mas
+     * reciente al mas viejo, hasta llenar limiteDisco.
+     */
+    public CacheResultados(long limiteMemoria, Path directorio, long limiteDisco) throws IOException {
+        if (limiteDisco < 0) {
+            throw new IllegalArgumentException("Limite de disco invalido: " + limiteDisco);
+        }
+        this.limiteMemoria = limiteMemoria;
+        this.directorio = directorio;
+        this.limiteDisco = limiteDisco;
+        Files.createDirectories(directorio);
+        cargarIndice();
+    }
+
+    /**
+     * Cache configurada con morfologia.cache.memoria y morfologia.cache.disco
+     * (bytes, por defecto 256 MB y 1 GB) y morfologia.cache.dir; sin
+     * directorio, o si no se puede usar, queda solo en memoria
+     */
+    static CacheResultados desdePropiedades(String directorio) {
+        long memoria = Long.getLong("morfologia.cache.memoria", 256L << 20);
+        String ruta = directorio != null ? directorio : System.getProperty("morfologia.cache.dir");
+        if (ruta != null) {
+            try {
+                return new CacheResultados(memoria, Paths.get(ruta), Long.getLong("morfologia.cache.disco", 1L << 30));
+            } catch (IOException e) {
+                System.err.println("ERROR: No se puede usar la cache en " + ruta + ": " + e.getMessage());
+            }
+        }
+        return new CacheResultados(memoria);
+    }
+
+    /**
+     * Hash de 128 bits de una etapa de calculo; inmutable
+     */
+    public static final class Clave {
+
+        private final long alta;
+        private final long baja;
+
+        private Clave(long alta, long baja) {
+            this.alta = alta;
+            this.baja = baja;
+        }
+
+        /**
+         * Clave del resultado de aplicar el paso a la imagen con esta clave
+         */
+        Clave con(Operacion operacion, ElementoEstructurante elemento, ModoBorde modo,
+                int constante, boolean paralelo) {
+            Murmur h = new Murmur(alta, baja);
+            h.agregar(operacion.ordinal());
+            // Sin modo, el motor paralelo y el secuencial difieren en los pixeles sin vecinos
+            h.agregar(modo == null ? (paralelo ? -1 : -2) : modo.ordinal());
+            h.agregar(modo == ModoBorde.CONSTANTE ? constante : 0);
+            h.agregar(elemento.width);
+            h.agregar(elemento.height);
+            h.agregar(elemento.anclaX);
+            h.agregar(elemento.anclaY);
+            for (int ey = 0; ey < elemento.height; ey++) {
+                for (int ex = 0; ex < elemento.width; ex++) {
+                    h.agregar(elemento.isActive(ex, ey) ? 1 : 0);
+                }
+            }
+            return h.clave();
+        }
+
+        @Override
+        public boolean equals(Object otro) {
+            if (!(otro instanceof Clave)) {
+                return false;
+            }
+            Clave clave = (Clave) otro;
+            return alta == clave.alta && baja == clave.baja;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (baja ^ (baja >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%016x%016x", alta, baja);
+        }
+    }
+
+    /**
+     * Clave de la imagen de entrada: hash de sus pixeles ARGB, su tamaño y
+     * su tipo
+     */
+    public static Clave claveImagen(BufferedImage imagen) {
+        int width = imagen.getWidth();
+        int height = imagen.getHeight();
+        int total = width * height;
+        int[] buffer = PoolBuffers.tomarEnteros(total);
+        int[] pixeles = RasterRapido.leerPixeles(imagen, buffer);
+
+        Murmur h = new Murmur(0x6D6F7266L, 0x6F6C6F67L);
+        h.agregar(width);
+        h.agregar(height);
+        h.agregar(imagen.getType());
+        h.agregar(pixeles, total);
+
+        PoolBuffers.devolver(buffer);
+        return h.clave();
+    }
+
+    /**
+     * MurmurHash3 x64 de 128 bits sobre enteros, de a cuatro por bloque
+     */
+    private static final class Murmur {
+
+        private static final long C1 = 0x87c37b91114253d5L;
+        private static final long C2 = 0x4cf5ad432745937fL;
+
+        private long h1;
+        private long h2;
+        private final int[] pendientes = new int[4];
+        private int cantidadPendientes;
+        private long largo;
+
+        Murmur(long semilla1, long semilla2) {
+            h1 = semilla1;
+            h2 = semilla2;
+        }
+
+        void agregar(int valor) {
+            pendientes[cantidadPendientes++] = valor;
+            if (cantidadPendientes == 4) {
+                bloque(pendientes[0], pendientes[1], pendientes[2], pendientes[3]);
+                cantidadPendientes = 0;
+            }
+        }
+
+        void agregar(int[] valores, int cantidad) {
+            int i = 0;
+            while (cantidadPendientes != 0 && i < cantidad) {
+                agregar(valores[i++]);
+            }
+            for (; i + 4 <= cantidad; i += 4) {
+                bloque(valores[i], valores[i + 1], valores[i + 2], valores[i + 3]);
+            }
+            for (; i < cantidad; i++) {
+                agregar(valores[i]);
+            }
+        }
+
+        private void bloque(int a, int b, int c, int d) {
+            long k1 = (a & 0xFFFFFFFFL) | ((long) b << 32);
+            long k2 = (c & 0xFFFFFFFFL) | ((long) d << 32);
+            largo += 16;
+
+            k1 *= C1;
+            k1 = Long.rotateLeft(k1, 31);
+            k1 *= C2;
+            h1 ^= k1;
+            h1 = Long.rotateLeft(h1, 27);
+            h1 += h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            k2 *= C2;
+            k2 = Long.rotateLeft(k2, 33);
+            k2 *= C1;
+            h2 ^= k2;
+            h2 = Long.rotateLeft(h2, 31);
+            h2 += h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        Clave clave() {
+            // La cola se completa con ceros; el largo distingue los casos
+            if (cantidadPendientes > 0) {
+                Arrays.fill(pendientes, cantidadPendientes, 4, 0);
+                bloque(pendientes[0], pendientes[1], pendientes[2], pendientes[3]);
+                largo -= 4L * (4 - cantidadPendientes);
+                cantidadPendientes = 0;
+            }
+            long a = h1 ^ largo;
+            long b = h2 ^ largo;
+            a += b;
+            b += a;
+            a = mezclar(a);
+            b = mezclar(b);
+            a += b;
+            b += a;
+            return new Clave(a, b);
+        }
+
+        private static long mezclar(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+    }
+
+    /**
+     * Pixeles ARGB de un resultado guardado; no se modifican una vez creados
+     */
+    private static final class Resultado {
+
+        final int width;
+        final int height;
+        final int tipo;
+        final int[] pixeles;
+
+        Resultado(int width, int height, int tipo, int[] pixeles) {
+            this.width = width;
+            this.height = height;
+            this.tipo = tipo;
+            this.pixeles = pixeles;
+        }
+
+        static Resultado desdeImagen(BufferedImage imagen) {
+            int total = imagen.getWidth() * imagen.getHeight();
+            // Los tipos TYPE_INT_* se copian de su propio arreglo; el resto se
+            // convierte directamente en el arreglo que se guarda
+            int[] propios = RasterRapido.arregloEnteros(imagen);
+            int[] pixeles = propios != null ? Arrays.copyOf(propios, total)
+                    : RasterRapido.leerPixeles(imagen, new int[total]);
+            return new Resultado(imagen.getWidth(), imagen.getHeight(), imagen.getType(), pixeles);
+        }
+
+        long bytes() {
+            return 4L * pixeles.length + SOBRECARGA;
+        }
+
+        BufferedImage imagen() {
+            BufferedImage imagen = new BufferedImage(width, height, tipo);
+            RasterRapido.escribirPixeles(pixeles, imagen);
+            return imagen;
+        }
+    }
+
+    /**
+     * Resultado guardado con la clave, o null si no esta en ninguno de los
+     * niveles. Cada llamada devuelve una imagen nueva.
+     */
+    public BufferedImage buscar(Clave clave) {
+        Resultado resultado = buscarResultado(clave);
+        return resultado == null ? null : resultado.imagen();
+    }
+
+    /**
+     * Resultado guardado con la clave o, si falta, el que produce calculo,
+     * que se guarda. Si otro hilo ya esta calculando la misma clave, espera
+     * ese resultado en lugar de repetirlo.
+     */
+    public BufferedImage obtener(Clave clave, Supplier<BufferedImage> calculo) {
+        Resultado resultado = buscarResultado(clave);
+        if (resultado != null) {
+            return resultado.imagen();
+        }
+
+        CompletableFuture<Resultado> propio = new CompletableFuture<>();
+        CompletableFuture<Resultado> ajeno = enCurso.putIfAbsent(clave, propio);
+        if (ajeno != null) {
+            esperas.increment();
+            try {
+                Resultado calculado = ajeno.join();
+                // null: el otro hilo obtuvo una imagen que no se puede guardar
+                return calculado != null ? calculado.imagen() : calculo.get();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        try {
+            fallos.increment();
+            BufferedImage imagen = calculo.get();
+            if (imagen.getType() == BufferedImage.TYPE_CUSTOM) {
+                // No se puede volver a crear con new BufferedImage: no se guarda
+                propio.complete(null);
+                return imagen;
+            }
+            resultado = Resultado.desdeImagen(imagen);
+            guardar(clave, resultado);
+            propio.complete(resultado);
+            return imagen;
+        } catch (RuntimeException | Error e) {
+            propio.completeExceptionally(e);
+            throw e;
+        } finally {
+            enCurso.remove(clave, propio);
+        }
+    }
+
+    /**
+     * Guarda un resultado calculado por fuera de obtener
+     */
+    public void guardar(Clave clave, BufferedImage imagen) {
+        if (imagen.getType() != BufferedImage.TYPE_CUSTOM) {
+            guardar(clave, Resultado.desdeImagen(imagen));
+        }
+    }
+
+    private Resultado buscarResultado(Clave clave) {
+        synchronized (memoria) {
+            Resultado resultado = memoria.get(clave);
+            if (resultado != null) {
+                aciertosMemoria.increment();
+                return resultado;
+            }
+        }
+        if (directorio == null) {
+            return null;
+        }
+        synchronized (disco) {
+            if (disco.get(clave) == null) {
+                return null;
+            }
+        }
+        Resultado resultado = leer(clave);
+        if (resultado == null) {
+            return null;
+        }
+        aciertosDisco.increment();
+        agregarEnMemoria(clave, resultado);
+        return resultado;
+    }
+
+    private void guardar(Clave clave, Resultado resultado) {
+        agregarEnMemoria(clave, resultado);
+        if (directorio != null) {
+            escribir(clave, resultado);
+        }
+    }
+
+    private void agregarEnMemoria(Clave clave, Resultado resultado) {
+        long bytes = resultado.bytes();
+        if (bytes > limiteMemoria) {
+            return;
+        }
+        synchronized (memoria) {
+            Resultado anterior = memoria.put(clave, resultado);
+            if (anterior != null) {
+                bytesMemoria -= anterior.bytes();
+            }
+            bytesMemoria += bytes;
+            Iterator<Resultado> viejos = memoria.values().iterator();
+            while (bytesMemoria > limiteMemoria && viejos.hasNext()) {
+                bytesMemoria -= viejos.next().bytes();
+                viejos.remove();
+                desalojosMemoria.increment();
+            }
+        }
+    }
+
+    private Path archivo(Clave clave) {
+        return directorio.resolve(clave + EXTENSION);
+    }
+
+    private void escribir(Clave clave, Resultado resultado) {
+        long bytes = CABECERA + 4L * resultado.pixeles.length;
+        if (bytes > limiteDisco) {
+            return;
+        }
+        synchronized (disco) {
+            if (disco.containsKey(clave)) {
+                return;
+            }
+        }
+
+        Path temporal = null;
+        try {
+            temporal = Files.createTempFile(directorio, "escribiendo", ".tmp");
+            try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(4 * PIXELES_POR_BLOQUE);
+                buffer.putInt(MAGIA).putInt(resultado.width).putInt(resultado.height).putInt(resultado.tipo);
+                buffer.flip();
+                escribirTodo(canal, buffer);
+
+                // La vista de enteros cubre el buffer completo
+                IntBuffer enteros = buffer.clear().asIntBuffer();
+                for (int i = 0; i < resultado.pixeles.length; i += PIXELES_POR_BLOQUE) {
+                    int cantidad = Math.min(PIXELES_POR_BLOQUE, resultado.pixeles.length - i);
+                    enteros.clear();
+                    enteros.put(resultado.pixeles, i, cantidad);
+                    buffer.clear().limit(4 * cantidad);
+                    escribirTodo(canal, buffer);
+                }
+            }
+            try {
+                Files.move(temporal, archivo(clave), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporal, archivo(clave), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // Un disco lleno o sin permisos no debe hacer fallar el calculo
+            erroresDisco.increment();
+            if (temporal != null) {
+                try {
+                    Files.deleteIfExists(temporal);
+                } catch (IOException ignorada) {
+                    // se anota el error de arriba
+                }
+            }
+            return;
+        }
+        agregarEnDisco(clave, bytes);
+    }
+
+    private static void escribirTodo(FileChannel canal, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            canal.write(buffer);
+        }
+    }
+
+    private Resultado leer(Clave clave) {
+        Path ruta = archivo(clave);
+        try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4 * PIXELES_POR_BLOQUE);
+            buffer.limit(CABECERA);
+            leerTodo(canal, buffer);
+            buffer.flip();
+            if (buffer.getInt() != MAGIA) {
+                throw new IOException("Archivo de cache invalido: " + ruta);
+            }
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int tipo = buffer.getInt();
+            long total = (long) width * height;
+            if (width <= 0 || height <= 0 || canal.size() != CABECERA + 4 * total) {
+                throw new IOException("Archivo de cache truncado: " + ruta);
+            }
+
+            int[] pixeles = new int[(int) total];
+            IntBuffer enteros = buffer.clear().asIntBuffer();
+            for (int i = 0; i < pixeles.length; i += PIXELES_POR_BLOQUE) {
+                int cantidad = Math.min(PIXELES_POR_BLOQUE, pixeles.length - i);
+                buffer.clear().limit(4 * cantidad);
+                leerTodo(canal, buffer);
+                enteros.clear();
+                enteros.get(pixeles, i, cantidad);
+            }
+            // La fecha de modificacion hace de ultimo acceso al recargar el indice
+            Files.setLastModifiedTime(ruta, FileTime.fromMillis(System.currentTimeMillis()));
+            return new Resultado(width, height, tipo, pixeles);
+        } catch (IOException e) {
+            // Borrado por otro proceso o corrupto: se olvida y se recalcula
+            erroresDisco.increment();
+            quitarDeDisco(clave);
+            return null;
+        }
+    }
+
+    private static void leerTodo(FileChannel canal, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (canal.read(buffer) < 0) {
+                throw new IOException("Fin de archivo inesperado");
+            }
+        }
+    }
+
+    private void agregarEnDisco(Clave clave, long bytes) {
+        List<Clave> desalojadas = new ArrayList<>();
+        synchronized (disco) {
+            Long anterior = disco.put(clave, bytes);
+            if (anterior != null) {
+                bytesDisco -= anterior;
+            }
+            bytesDisco += bytes;
+            Iterator<Map.Entry<Clave, Long>> viejas = disco.entrySet().iterator();
+            while (bytesDisco > limiteDisco && viejas.hasNext()) {
+                Map.Entry<Clave, Long> vieja = viejas.next();
+                bytesDisco -= vieja.getValue();
+                viejas.remove();
+                desalojadas.add(vieja.getKey());
+            }
+        }
+        for (Clave vieja : desalojadas) {
+            desalojosDisco.increment();
+            try {
+                Files.deleteIfExists(archivo(vieja));
+            } catch (IOException e) {
+                erroresDisco.increment();
+            }
+        }
+    }
+
+    private void quitarDeDisco(Clave clave) {
+        synchronized (disco) {
+            Long bytes = disco.remove(clave);
+            if (bytes != null) {
+                bytesDisco -= bytes;
+            }
+        }
+        try {
+            Files.deleteIfExists(archivo(clave));
+        } catch (IOException e) {
+            erroresDisco.increment();
+        }
+    }
+
+    /**
+     * Indexa los archivos del directorio del mas viejo al mas nuevo, asi el
+     * orden de desalojo sigue el de las ejecuciones anteriores
+     */
+    private void cargarIndice() throws IOException {
+        Map<Path, Long> fechas = new LinkedHashMap<>();
+        try (DirectoryStream<Path> contenido = Files.newDirectoryStream(directorio, "*" + EXTENSION)) {
+            for (Path ruta : contenido) {
+                if (desdeNombre(ruta.getFileName().toString()) != null) {
+                    fechas.put(ruta, Files.getLastModifiedTime(ruta).toMillis());
+                }
+            }
+        }
+        List<Path> archivos = new ArrayList<>(fechas.keySet());
+        archivos.sort(Comparator.comparingLong(fechas::get));
+        for (Path ruta : archivos) {
+            agregarEnDisco(desdeNombre(ruta.getFileName().toString()), Files.size(ruta));
+        }
+    }
+
+    /**
+     * Clave a partir de un nombre de archivo, o null si no es uno de la cache
+     */
+    private static Clave desdeNombre(String nombre) {
+        if (nombre.length() != 32 + EXTENSION.length()) {
+            return null;
+        }
+        try {
+            return new Clave(Long.parseUnsignedLong(nombre.substring(0, 16), 16),
+                    Long.parseUnsignedLong(nombre.substring(16, 32), 16));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Suelta todo lo que hay en memoria; lo del disco se conserva
+     */
+    public void vaciarMemoria() {
+        synchronized (memoria) {
+            memoria.clear();
+            bytesMemoria = 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        long memoriaActual;
+        int entradasMemoria;
+        synchronized (memoria) {
+            memoriaActual = bytesMemoria;
+            entradasMemoria = memoria.size();
+        }
+        long discoActual;
+        int entradasDisco;
+        synchronized (disco) {
+            discoActual = bytesDisco;
+            entradasDisco = disco.size();
+        }
+        long aciertos = aciertosMemoria.sum() + aciertosDisco.sum();
+        long consultas = aciertos + fallos.sum();
+        return String.format(Locale.ROOT, "Cache: %d aciertos en memoria, %d en disco, %d fallos (%.1f%% aciertos), "
+                + "%d esperas; memoria %d resultados / %.1f MB, %d desalojos; disco %d / %.1f MB, %d desalojos, %d errores",
+                aciertosMemoria.sum(), aciertosDisco.sum(), fallos.sum(),
+                consultas == 0 ? 0.0 : 100.0 * aciertos / consultas, esperas.sum(),
+                entradasMemoria, memoriaActual / 1048576.0, desalojosMemoria.sum(),
+                entradasDisco, discoActual / 1048576.0, desalojosDisco.sum(), erroresDisco.sum());
+    }
+
+    public long getAciertosMemoria() {
+        return aciertosMemoria.sum();
+    }
+
+    public long getAciertosDisco() {
+        return aciertosDisco.sum();
+    }
+
+    public long getFallos() {
+        return fallos.sum();
+    }
+}
@@ -0,0 +1,280 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Secuencia de operaciones para usar la morfologia como biblioteca, sin menu.
+ *
+ * Una cadena es inmutable y no guarda estado entre llamadas: cada aplicar
+ * trabaja sobre la imagen que recibe y devuelve una nueva, asi que la misma
+ * cadena se puede usar desde muchos hilos a la vez. Lo unico compartido es
+ * el pool de hilos del motor paralelo y el de buffers, que ya admiten
+ * llamadas concurrentes.
+ *
+ * En texto, los pasos se separan con comas y cada uno es
+ * operacion[:elemento[:borde]], por ejemplo "apertura:cuadrado5,gradiente"
+ * o "erosion:010/111/010:replicar". El elemento es lo que acepta
+ * crearDesdeDefinicion; el borde, un nombre de ModoBorde, con el color en
+ * hexadecimal para el constante ("constante=ff0000"). Los pasos sin
+ * elemento usan el elemento por defecto de desdeTexto.
+ */
+public final class CadenaOperaciones {
+
+    private final List<Paso> pasos;
+    private final boolean paralelo;
+
+    public CadenaOperaciones(List<Paso> pasos, boolean paralelo) {
+        if (pasos == null || pasos.isEmpty()) {
+            throw new IllegalArgumentException("La cadena no tiene operaciones");
+        }
+        this.pasos = Collections.unmodifiableList(new ArrayList<>(pasos));
+        this.paralelo = paralelo;
+    }
+
+    /**
+     * Un paso de la cadena
+     */
+    public static final class Paso {
+
+        private final Operacion operacion;
+        private final ElementoEstructurante elemento;
+        private final ModoBorde modo;
+        private final int constante;
+
+        /**
+         * modo null usa el borde original de cada motor; constante es el
+         * color RGB del modo CONSTANTE
+         */
+        public Paso(Operacion operacion, ElementoEstructurante elemento, ModoBorde modo, int constante) {
+            if (operacion == null || elemento == null) {
+                throw new IllegalArgumentException("El paso necesita operacion y elemento");
+            }
+            this.operacion = operacion;
+            this.elemento = elemento;
+            this.modo = modo;
+            this.constante = constante;
+        }
+
+        public Paso(Operacion operacion, ElementoEstructurante elemento) {
+            this(operacion, elemento, null, 0);
+        }
+
+        public Operacion getOperacion() {
+            return operacion;
+        }
+
+        public ElementoEstructurante getElemento() {
+            return elemento;
+        }
+
+        public ModoBorde getModo() {
+            return modo;
+        }
+
+        public int getConstante() {
+            return constante;
+        }
+
+        BufferedImage aplicar(BufferedImage imagen, boolean paralelo) {
+            if (paralelo) {
+                return MorfologiaMatematicaOptimizada.operacionParalela(imagen, elemento, operacion, modo, constante);
+            }
+            return MorfologiaMatematicaOptimizada.operacionSecuencial(imagen, elemento, operacion, modo, constante);
+        }
+    }
+
+    /**
+     * Lee una cadena en texto; elementoPorDefecto (una definicion, o null)
+     * se usa en los pasos que no dicen el suyo. Lanza
+     * IllegalArgumentException con el paso que no se entiende.
+     */
+    public static CadenaOperaciones desdeTexto(String texto, String elementoPorDefecto, boolean paralelo) {
+        List<Paso> pasos = new ArrayList<>();
+        for (String paso : texto.split(",")) {
+            String[] partes = paso.trim().split(":");
+            if (partes.length > 3) {
+                throw new IllegalArgumentException("Paso no válido: " + paso);
+            }
+
+            Operacion operacion = Operacion.desdeNombre(partes[0]);
+            if (operacion == null) {
+                throw new IllegalArgumentException("Operacion no válida: " + partes[0]);
+            }
+
+            String definicion = partes.length > 1 ? partes[1] : elementoPorDefecto;
+            if (definicion == null) {
+                throw new IllegalArgumentException("Falta el elemento en el paso: " + paso);
+            }
+            ElementoEstructurante elemento = MorfologiaMatematicaOptimizada.crearDesdeDefinicion(definicion);
+            if (elemento == null) {
+                throw new IllegalArgumentException("Elemento no válido: " + definicion);
+            }
+
+            ModoBorde modo = null;
+            int constante = 0;
+            if (partes.length > 2) {
+                String[] borde = partes[2].split("=");
+                modo = ModoBorde.desdeNombre(borde[0]);
+                if (modo == null || borde.length > 2 || (borde.length == 2) != (modo == ModoBorde.CONSTANTE)) {
+                    throw new IllegalArgumentException("Borde no válido: " + partes[2]);
+                }
+                if (borde.length == 2) {
+                    try {
+                        constante = Integer.parseInt(borde[1].trim(), 16);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException("Color no válido: " + borde[1]);
+                    }
+                }
+            }
+            pasos.add(new Paso(operacion, elemento, modo, constante));
+        }
+        return new CadenaOperaciones(pasos, paralelo);
+    }
+
+    public List<Paso> getPasos() {
+        return pasos;
+    }
+
+    public boolean isParalelo() {
+        return paralelo;
+    }
+
+    /**
+     * Aplica los pasos en orden; la imagen recibida no se modifica
+     */
+    public BufferedImage aplicar(BufferedImage imagen) {
+        BufferedImage resultado = imagen;
+        for (Paso paso : pasos) {
+            resultado = paso.aplicar(resultado, paralelo);
+        }
+        return resultado;
+    }
+
+    /**
+     * Aplica los pasos a todas las imagenes; da lo mismo que aplicar sobre
+     * cada una. En el motor paralelo, cada paso con el borde original calcula
+     * las teselas de todas las imagenes en una sola pasada por el pool (ver
+     * operacionParalelaJuntas); los demas pasos van imagen por imagen.
+     */
+    BufferedImage[] aplicarJuntas(BufferedImage[] imagenes) {
+        BufferedImage[] resultados = imagenes.clone();
+        for (Paso paso : pasos) {
+            if (paralelo && paso.modo == null && resultados.length > 1) {
+                resultados = MorfologiaMatematicaOptimizada.operacionParalelaJuntas(resultados,
+                        paso.elemento, paso.operacion);
+            } else {
+                for (int i = 0; i < resultados.length; i++) {
+                    resultados[i] = paso.aplicar(resultados[i], paralelo);
+                }
+            }
+        }
+        return resultados;
+    }
+
+    /**
+     * Igual que aplicar(imagen), con los resultados de cada paso guardados
+     * en la cache. Se busca desde el ultimo paso hacia atras el primero que
+     * ya este calculado y se sigue desde ahi, asi que dos cadenas con el
+     * mismo comienzo comparten los pasos intermedios.
+     */
+    public BufferedImage aplicar(BufferedImage imagen, CacheResultados cache) {
+        CacheResultados.Clave[] claves = new CacheResultados.Clave[pasos.size()];
+        CacheResultados.Clave clave = CacheResultados.claveImagen(imagen);
+        for (int i = 0; i < claves.length; i++) {
+            Paso paso = pasos.get(i);
+            clave = clave.con(paso.operacion, paso.elemento, paso.modo, paso.constante, paralelo);
+            claves[i] = clave;
+        }
+
+        BufferedImage resultado = imagen;
+        int desde = 0;
+        for (int i = claves.length - 1; i >= 0; i--) {
+            BufferedImage guardado = cache.buscar(claves[i]);
+            if (guardado != null) {
+                resultado = guardado;
+                desde = i + 1;
+                break;
+            }
+        }
+        for (int i = desde; i < claves.length; i++) {
+            Paso paso = pasos.get(i);
+            BufferedImage entrada = resultado;
+            resultado = cache.obtener(claves[i], () -> paso.aplicar(entrada, paralelo));
+        }
+        return resultado;
+    }
+
+    /**
+     * Decodifica la imagen, aplica la cadena y la codifica en el formato
+     * indicado ("png", "bmp", ...)
+     */
+    public byte[] aplicar(byte[] codificada, String formato) throws IOException {
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(codificada.length);
+        aplicar(new ByteArrayInputStream(codificada), salida, formato);
+        return salida.toByteArray();
+    }
+
+    /**
+     * Igual que aplicar(byte[], String) sobre flujos. Los flujos no se
+     * cierran.
+     */
+    public void aplicar(InputStream entrada, OutputStream salida, String formato) throws IOException {
+        escribir(aplicar(leer(entrada)), formato, salida);
+    }
+
+    /**
+     * Decodifica una imagen; lanza IOException si el formato no se reconoce.
+     * El flujo se almacena en memoria y no en archivos temporales, sin tocar
+     * la configuracion global de ImageIO.
+     */
+    public static BufferedImage leer(InputStream entrada) throws IOException {
+        BufferedImage imagen = ImageIO.read(new MemoryCacheImageInputStream(entrada));
+        if (imagen == null) {
+            throw new IOException("No se pudo leer la imagen: formato no reconocido");
+        }
+        return imagen;
+    }
+
+    /**
+     * Codifica la imagen; lanza IOException si no hay escritor para el
+     * formato y el tipo de imagen
+     */
+    public static void escribir(BufferedImage imagen, String formato, OutputStream salida) throws IOException {
+        // Cerrar el ImageOutputStream vuelca lo pendiente pero no cierra salida
+        try (ImageOutputStream flujo = new MemoryCacheImageOutputStream(salida)) {
+            if (!ImageIO.write(imagen, formato, flujo)) {
+                throw new IOException("Formato de salida no soportado: " + formato);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Paso paso : pasos) {
+            if (sb.length() > 0) {
+                sb.append(" -> ");
+            }
+            sb.append(paso.operacion.getNombre());
+            sb.append(" (").append(paso.elemento.width).append('x').append(paso.elemento.height);
+            if (paso.modo != null) {
+                sb.append(", borde ").append(paso.modo.getNombre());
+            }
+            sb.append(')');
+        }
+        return sb.append(paralelo ? " [paralela]" : " [secuencial]").toString();
+    }
+}
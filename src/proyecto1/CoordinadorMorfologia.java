@@ -0,0 +1,667 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Aplica una cadena de operaciones repartiendo la imagen entre procesos
+ * trabajadores (TrabajadorMorfologia), en la misma maquina o en otras.
+ *
+ * La imagen se corta en bandas de filas completas, varias por trabajador, y
+ * cada banda se queda en su trabajador durante toda la cadena. Antes de
+ * cada etapa una banda necesita las filas vecinas que alcanza el elemento
+ * (el halo); el trabajador devuelve las filas de sus bordes con cada etapa y
+ * el coordinador las pasa a las bandas de al lado, asi que entre etapas solo
+ * viajan los halos. Las bandas tienen al menos el halo mas alto de la cadena,
+ * de modo que cada halo sale de una sola banda vecina.
+ *
+ * El coordinador guarda los halos que mando a cada banda. Si un trabajador
+ * se cae o no responde, sus bandas pasan a los que quedan, que las cargan de
+ * nuevo desde la imagen original y repiten las etapas ya hechas con los
+ * mismos halos; el resultado es identico al de
+ * CadenaOperaciones.aplicar en paralelo. Las caidas quedan en getPerdidos.
+ *
+ * Los pasos con modo de borde no se admiten: el borde se resuelve con la
+ * imagen entera y no con bandas.
+ */
+final class CoordinadorMorfologia implements Closeable {
+
+    // Bandas por trabajador, para que una caida reparta el trabajo entre varios
+    static final int BANDAS_POR_TRABAJADOR = 4;
+
+    // Tiempo sin respuesta tras el cual se da por caido a un trabajador
+    private static final int ESPERA_MS = 120_000;
+
+    private static final int[] VACIO = new int[0];
+
+    /**
+     * Conexion con un trabajador; proceso no es null si lo lanzo el
+     * coordinador
+     */
+    private static final class Trabajador {
+
+        final String nombre;
+        final Process proceso;
+        Socket socket;
+        DataInputStream in;
+        DataOutputStream out;
+        int procesadores;
+        volatile boolean vivo = true;
+        int bandas;
+
+        Trabajador(String nombre, Process proceso) {
+            this.nombre = nombre;
+            this.proceso = proceso;
+        }
+
+        void conectar(String host, int puerto) throws IOException {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, puerto), ESPERA_MS);
+            socket.setSoTimeout(ESPERA_MS);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            out.writeInt(ProtocoloDistribuido.MAGIA);
+            out.flush();
+            if (in.readInt() != ProtocoloDistribuido.MAGIA) {
+                throw new IOException(nombre + " no es un trabajador de morfologia");
+            }
+            procesadores = in.readInt();
+        }
+
+        void cerrar() {
+            vivo = false;
+            try {
+                if (socket != null) {
+                    socket.close();
+                }
+            } catch (IOException e) {
+                // la conexion ya no se usa
+            }
+        }
+    }
+
+    /**
+     * Banda de filas [y0, y1). hechas es la cantidad de etapas que ya tiene
+     * calculadas su trabajador (-1 si todavia no la cargo). Por etapa se
+     * guardan los halos que recibio y los bordes que devolvio.
+     */
+    private static final class Banda {
+
+        final int id, y0, y1;
+        Trabajador trabajador;
+        int hechas = -1;
+        final int[][] haloArriba, haloAbajo;
+        final int[][] bordeArriba, bordeAbajo;
+
+        Banda(int id, int y0, int y1, int etapas) {
+            this.id = id;
+            this.y0 = y0;
+            this.y1 = y1;
+            haloArriba = new int[etapas][];
+            haloAbajo = new int[etapas][];
+            bordeArriba = new int[etapas][];
+            bordeAbajo = new int[etapas][];
+        }
+    }
+
+    /**
+     * Lo que comparten todas las bandas de una llamada a aplicar. arriba[s] y
+     * abajo[s] son las filas de halo de la etapa s (0 despues de la ultima).
+     */
+    private static final class Corrida {
+
+        final List<CadenaOperaciones.Paso> pasos;
+        final int[] pixeles;
+        final int width, height, tipo;
+        final int[] arriba, abajo;
+        Banda[] bandas;
+
+        Corrida(List<CadenaOperaciones.Paso> pasos, int[] pixeles, int width, int height, int tipo) {
+            this.pasos = pasos;
+            this.pixeles = pixeles;
+            this.width = width;
+            this.height = height;
+            this.tipo = tipo;
+            arriba = new int[pasos.size() + 1];
+            abajo = new int[pasos.size() + 1];
+        }
+    }
+
+    private final List<Trabajador> trabajadores;
+
+    // "nombre: motivo" de cada trabajador que se cayo, en orden
+    private final List<String> perdidos = Collections.synchronizedList(new ArrayList<>());
+
+    private CoordinadorMorfologia(List<Trabajador> trabajadores) {
+        this.trabajadores = trabajadores;
+    }
+
+    /**
+     * Se conecta a trabajadores ya iniciados, dados como host:puerto
+     */
+    static CoordinadorMorfologia conectar(List<String> direcciones) throws IOException {
+        if (direcciones.isEmpty()) {
+            throw new IllegalArgumentException("Hace falta al menos un trabajador");
+        }
+        List<Trabajador> trabajadores = new ArrayList<>();
+        try {
+            for (String direccion : direcciones) {
+                int separador = direccion.lastIndexOf(':');
+                if (separador <= 0) {
+                    throw new IllegalArgumentException("Trabajador no válido (host:puerto): " + direccion);
+                }
+                int puerto;
+                try {
+                    puerto = Integer.parseInt(direccion.substring(separador + 1));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Puerto no válido: " + direccion);
+                }
+                Trabajador trabajador = new Trabajador(direccion, null);
+                trabajadores.add(trabajador);
+                trabajador.conectar(direccion.substring(0, separador), puerto);
+            }
+        } catch (IOException | RuntimeException e) {
+            new CoordinadorMorfologia(trabajadores).close();
+            throw e;
+        }
+        return new CoordinadorMorfologia(trabajadores);
+    }
+
+    /**
+     * Lanza cantidad procesos trabajadores en esta maquina, con la misma JVM
+     * y classpath, y se conecta a ellos. Terminan con close() o, si el
+     * coordinador muere, cuando termina este proceso.
+     */
+    static CoordinadorMorfologia locales(int cantidad) throws IOException {
+        if (cantidad < 1) {
+            throw new IllegalArgumentException("Hace falta al menos un trabajador");
+        }
+        List<String> comando = new ArrayList<>();
+        comando.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            comando.add("--add-modules");
+            comando.add("jdk.incubator.vector");
+        }
+        comando.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+                "proyecto1.TestMorfologiaOptimizada", "trabajador", "0", "local"));
+
+        List<Trabajador> trabajadores = new ArrayList<>();
+        try {
+            for (int i = 0; i < cantidad; i++) {
+                Process proceso = new ProcessBuilder(comando)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+                Trabajador trabajador = new Trabajador("local " + (i + 1), proceso);
+                trabajadores.add(trabajador);
+
+                // La primera linea es "Trabajador en el puerto N"
+                BufferedReader salida = new BufferedReader(
+                        new InputStreamReader(proceso.getInputStream(), StandardCharsets.UTF_8));
+                String linea = salida.readLine();
+                if (linea == null || !linea.startsWith("Trabajador en el puerto ")) {
+                    throw new IOException("El trabajador local no inicio: " + linea);
+                }
+                trabajador.conectar(InetAddress.getLoopbackAddress().getHostAddress(), Integer.parseInt(linea.substring(linea.lastIndexOf(' ') + 1)));
+            }
+        } catch (IOException | RuntimeException e) {
+            new CoordinadorMorfologia(trabajadores).close();
+            throw e;
+        }
+        return new CoordinadorMorfologia(trabajadores);
+    }
+
+    /**
+     * Trabajadores que siguen respondiendo
+     */
+    int getVivos() {
+        int vivos = 0;
+        for (Trabajador trabajador : trabajadores) {
+            if (trabajador.vivo) {
+                vivos++;
+            }
+        }
+        return vivos;
+    }
+
+    /**
+     * Trabajadores que se cayeron desde que se creo el coordinador, como
+     * "nombre: motivo"
+     */
+    List<String> getPerdidos() {
+        synchronized (perdidos) {
+            return new ArrayList<>(perdidos);
+        }
+    }
+
+    /**
+     * Procesadores que informaron los trabajadores vivos
+     */
+    int getProcesadores() {
+        int procesadores = 0;
+        for (Trabajador trabajador : trabajadores) {
+            if (trabajador.vivo) {
+                procesadores += trabajador.procesadores;
+            }
+        }
+        return procesadores;
+    }
+
+    /**
+     * Mata el proceso del trabajador local i, para probar la recuperacion
+     */
+    void terminarProceso(int i) {
+        Process proceso = trabajadores.get(i).proceso;
+        if (proceso != null) {
+            proceso.destroyForcibly();
+        }
+    }
+
+    /**
+     * Aplica la cadena repartida entre los trabajadores y devuelve una imagen
+     * nueva del mismo tipo. Lanza IOException si se caen todos los
+     * trabajadores e IllegalArgumentException con pasos con modo de borde.
+     */
+    synchronized BufferedImage aplicar(BufferedImage imagen, CadenaOperaciones cadena) throws IOException {
+        int width = imagen.getWidth();
+        int height = imagen.getHeight();
+        List<CadenaOperaciones.Paso> pasos = cadena.getPasos();
+        int etapas = pasos.size();
+        Corrida corrida = new Corrida(pasos, RasterRapido.leerPixeles(imagen), width, height, imagen.getType());
+        int maximoHalo = 1;
+        for (int s = 0; s < etapas; s++) {
+            CadenaOperaciones.Paso paso = pasos.get(s);
+            if (paso.getModo() != null) {
+                throw new IllegalArgumentException("El modo distribuido no admite modos de borde: "
+                        + paso.getOperacion().getNombre());
+            }
+            ElementoEstructurante elemento = paso.getElemento();
+            corrida.arriba[s] = paso.getOperacion().etapas() * elemento.anclaY;
+            corrida.abajo[s] = paso.getOperacion().etapas() * (elemento.height - 1 - elemento.anclaY);
+            maximoHalo = Math.max(maximoHalo, Math.max(corrida.arriba[s], corrida.abajo[s]));
+        }
+
+        // Tantas bandas como haga falta para no pasar del maximo que acepta un
+        // trabajador, y sin bajar de la altura del halo
+        int porPixeles = (int) Math.min(height,
+                ((long) width * height + ProtocoloDistribuido.MAXIMO_PIXELES_BANDA - 1)
+                        / ProtocoloDistribuido.MAXIMO_PIXELES_BANDA);
+        int cantidad = Math.max(1, Math.min(Math.max(getVivos() * BANDAS_POR_TRABAJADOR, porPixeles),
+                height / maximoHalo));
+        if ((long) width * ((height + cantidad - 1) / cantidad) > ProtocoloDistribuido.MAXIMO_PIXELES_BANDA) {
+            throw new IllegalArgumentException("Imagen demasiado grande para repartir en bandas de "
+                    + ProtocoloDistribuido.MAXIMO_PIXELES_BANDA + " pixeles: " + width + "x" + height);
+        }
+        Banda[] bandas = new Banda[cantidad];
+        for (int b = 0; b < cantidad; b++) {
+            bandas[b] = new Banda(b, (int) ((long) height * b / cantidad),
+                    (int) ((long) height * (b + 1) / cantidad), etapas);
+        }
+        corrida.bandas = bandas;
+        for (Trabajador trabajador : trabajadores) {
+            trabajador.bandas = 0;
+        }
+        for (Banda banda : bandas) {
+            asignar(banda);
+        }
+
+        int[] resultado = new int[width * height];
+        boolean terminado = false;
+        try {
+            for (int s = 0; s < etapas; s++) {
+                for (int b = 0; b < cantidad; b++) {
+                    Banda banda = bandas[b];
+                    if (s == 0) {
+                        int filasArriba = Math.min(corrida.arriba[0], banda.y0);
+                        int filasAbajo = Math.min(corrida.abajo[0], height - banda.y1);
+                        banda.haloArriba[0] = Arrays.copyOfRange(corrida.pixeles,
+                                (banda.y0 - filasArriba) * width, banda.y0 * width);
+                        banda.haloAbajo[0] = Arrays.copyOfRange(corrida.pixeles,
+                                banda.y1 * width, (banda.y1 + filasAbajo) * width);
+                    } else {
+                        banda.haloArriba[s] = b > 0 ? bandas[b - 1].bordeAbajo[s - 1] : VACIO;
+                        banda.haloAbajo[s] = b < cantidad - 1 ? bandas[b + 1].bordeArriba[s - 1] : VACIO;
+                    }
+                }
+                completar(corrida, s + 1, null);
+            }
+            completar(corrida, etapas, resultado);
+            terminado = true;
+        } finally {
+            if (!terminado) {
+                liberar();
+            }
+        }
+
+        BufferedImage salida = new BufferedImage(width, height, imagen.getType());
+        RasterRapido.escribirPixeles(resultado, salida);
+        return salida;
+    }
+
+    /**
+     * Lleva todas las bandas hasta objetivo etapas (y trae sus pixeles a
+     * resultado si no es null), cada trabajador en su propio hilo. Las bandas
+     * de los que se caen se reasignan y se vuelve a intentar.
+     */
+    private void completar(Corrida corrida, int objetivo, int[] resultado) throws IOException {
+        Banda[] bandas = corrida.bandas;
+        int width = corrida.width;
+        boolean[] listas = new boolean[bandas.length];
+        while (true) {
+            List<Future<?>> tareas = new ArrayList<>();
+            try (ExecutorService hilos = Executors.newVirtualThreadPerTaskExecutor()) {
+                for (Trabajador trabajador : trabajadores) {
+                    if (!trabajador.vivo) {
+                        continue;
+                    }
+                    tareas.add(hilos.submit(() -> {
+                        try {
+                            for (Banda banda : bandas) {
+                                if (banda.trabajador != trabajador || listas[banda.id]) {
+                                    continue;
+                                }
+                                avanzar(corrida, banda, objetivo);
+                                if (resultado != null) {
+                                    trabajador.out.writeInt(ProtocoloDistribuido.RESULTADO);
+                                    trabajador.out.writeInt(banda.id);
+                                    trabajador.out.flush();
+                                    ProtocoloDistribuido.leerEstado(trabajador.in, trabajador.nombre);
+                                    ProtocoloDistribuido.leerEnteros(trabajador.in, resultado, banda.y0 * width,
+                                            (banda.y1 - banda.y0) * width);
+                                }
+                                listas[banda.id] = true;
+                            }
+                        } catch (IOException e) {
+                            perdidos.add(trabajador.nombre + ": " + e);
+                            trabajador.cerrar();
+                        }
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> tarea : tareas) {
+                try {
+                    tarea.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new IllegalStateException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrumpido esperando a los trabajadores");
+                }
+            }
+
+            boolean faltan = false;
+            for (Banda banda : bandas) {
+                if (!listas[banda.id]) {
+                    faltan = true;
+                    if (!banda.trabajador.vivo) {
+                        banda.trabajador.bandas--;
+                        banda.hechas = -1;
+                        asignar(banda);
+                    }
+                }
+            }
+            if (!faltan) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Carga la banda si hace falta y calcula las etapas que le faltan hasta
+     * objetivo, con los halos guardados
+     */
+    private static void avanzar(Corrida corrida, Banda banda, int objetivo) throws IOException {
+        Trabajador trabajador = banda.trabajador;
+        DataOutputStream out = trabajador.out;
+        DataInputStream in = trabajador.in;
+        int width = corrida.width;
+        if (banda.hechas < 0) {
+            out.writeInt(ProtocoloDistribuido.CARGAR);
+            out.writeInt(banda.id);
+            out.writeInt(width);
+            out.writeInt(corrida.height);
+            out.writeInt(banda.y0);
+            out.writeInt(banda.y1);
+            out.writeInt(corrida.tipo);
+            ProtocoloDistribuido.escribirEnteros(out, corrida.pixeles, banda.y0 * width,
+                    (banda.y1 - banda.y0) * width);
+            out.flush();
+            ProtocoloDistribuido.leerEstado(in, trabajador.nombre);
+            banda.hechas = 0;
+        }
+
+        while (banda.hechas < objetivo) {
+            int s = banda.hechas;
+            CadenaOperaciones.Paso paso = corrida.pasos.get(s);
+            // Filas que la banda de arriba y la de abajo van a necesitar en la etapa siguiente
+            int filasArriba = banda.id > 0 ? corrida.abajo[s + 1] : 0;
+            int filasAbajo = banda.id < corrida.bandas.length - 1 ? corrida.arriba[s + 1] : 0;
+
+            out.writeInt(ProtocoloDistribuido.ETAPA);
+            out.writeInt(banda.id);
+            out.writeInt(paso.getOperacion().ordinal());
+            ProtocoloDistribuido.escribirElemento(out, paso.getElemento());
+            out.writeInt(banda.haloArriba[s].length / width);
+            ProtocoloDistribuido.escribirEnteros(out, banda.haloArriba[s], 0, banda.haloArriba[s].length);
+            out.writeInt(banda.haloAbajo[s].length / width);
+            ProtocoloDistribuido.escribirEnteros(out, banda.haloAbajo[s], 0, banda.haloAbajo[s].length);
+            out.writeInt(filasArriba);
+            out.writeInt(filasAbajo);
+            out.flush();
+
+            ProtocoloDistribuido.leerEstado(in, trabajador.nombre);
+            int[] bordeArriba = new int[filasArriba * width];
+            int[] bordeAbajo = new int[filasAbajo * width];
+            ProtocoloDistribuido.leerEnteros(in, bordeArriba, 0, bordeArriba.length);
+            ProtocoloDistribuido.leerEnteros(in, bordeAbajo, 0, bordeAbajo.length);
+            banda.bordeArriba[s] = bordeArriba;
+            banda.bordeAbajo[s] = bordeAbajo;
+            banda.hechas = s + 1;
+        }
+    }
+
+    /**
+     * Asigna la banda al trabajador vivo con menos bandas
+     */
+    private void asignar(Banda banda) throws IOException {
+        Trabajador elegido = null;
+        for (Trabajador trabajador : trabajadores) {
+            if (trabajador.vivo && (elegido == null || trabajador.bandas < elegido.bandas)) {
+                elegido = trabajador;
+            }
+        }
+        if (elegido == null) {
+            throw new IOException("No quedan trabajadores para terminar la cadena");
+        }
+        banda.trabajador = elegido;
+        elegido.bandas++;
+    }
+
+    /**
+     * Descarta las bandas que quedaron en los trabajadores tras un error
+     */
+    private void liberar() {
+        for (Trabajador trabajador : trabajadores) {
+            if (!trabajador.vivo) {
+                continue;
+            }
+            try {
+                trabajador.out.writeInt(ProtocoloDistribuido.LIBERAR);
+                trabajador.out.flush();
+                ProtocoloDistribuido.leerEstado(trabajador.in, trabajador.nombre);
+            } catch (IOException | IllegalStateException e) {
+                trabajador.cerrar();
+            }
+        }
+    }
+
+    /**
+     * Cierra las conexiones y termina los trabajadores locales
+     */
+    @Override
+    public void close() {
+        for (Trabajador trabajador : trabajadores) {
+            trabajador.cerrar();
+            if (trabajador.proceso != null) {
+                trabajador.proceso.destroy();
+            }
+        }
+    }
+
+    /**
+     * Repite la cadena con 1, 2, ... trabajadores (los primeros de la lista,
+     * o tantos locales como haya) e imprime tiempo, aceleracion y eficiencia
+     * T1 / (k * Tk) contra el primero, y si el resultado coincide con el
+     * calculo en este proceso
+     */
+    private static void escalado(BufferedImage imagen, CadenaOperaciones cadena,
+            List<String> direcciones, int locales) throws IOException {
+        int maximo = direcciones != null ? direcciones.size() : locales;
+        int[] esperado = RasterRapido.leerPixeles(cadena.aplicar(imagen));
+
+        System.out.println("=== ESCALADO ===");
+        System.out.println("Trabajadores       ms   Aceleracion  Eficiencia  Coincide");
+        double base = 0;
+        for (int k = 1; k <= maximo; k++) {
+            try (CoordinadorMorfologia coordinador = direcciones != null
+                    ? conectar(direcciones.subList(0, k)) : locales(k)) {
+                // La primera corrida calienta el JIT de los trabajadores; se toma la mejor de las siguientes
+                BufferedImage salida = coordinador.aplicar(imagen, cadena);
+                long mejor = Long.MAX_VALUE;
+                for (int i = 0; i < 3; i++) {
+                    long inicio = System.nanoTime();
+                    salida = coordinador.aplicar(imagen, cadena);
+                    mejor = Math.min(mejor, System.nanoTime() - inicio);
+                }
+                double ms = mejor / 1e6;
+                if (k == 1) {
+                    base = ms;
+                }
+                boolean coincide = Arrays.equals(esperado, RasterRapido.leerPixeles(salida));
+                System.out.println(String.format(Locale.ROOT, "%12d %8.1f %13.2f %11.2f  %s",
+                        k, ms, base / ms, base / (k * ms), coincide ? "si" : "NO"));
+            }
+        }
+        System.out.println("================");
+    }
+
+    /**
+     * Uso: distribuido entrada salida cadena [opciones]
+     *
+     * Opciones: --elemento E (para los pasos sin elemento, por defecto cruz),
+     * --trabajadores host:puerto,... (trabajadores ya iniciados con
+     * "trabajador [puerto] --direccion D") o --locales N (lanza N en esta maquina, por
+     * defecto 2) y --escalado (repite con 1 a N trabajadores e imprime la
+     * eficiencia en lugar de escribir la salida).
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Uso: distribuido <entrada> <salida> <cadena> [--elemento E]"
+                    + " [--trabajadores host:puerto,...|--locales N] [--escalado]");
+            return;
+        }
+
+        try {
+            String elemento = "cruz";
+            List<String> direcciones = null;
+            int locales = 2;
+            boolean escalado = false;
+            for (int i = 3; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--elemento":
+                        elemento = valor(args, ++i);
+                        break;
+                    case "--trabajadores":
+                        direcciones = Arrays.asList(valor(args, ++i).split(","));
+                        break;
+                    case "--locales":
+                        locales = Integer.parseInt(valor(args, ++i));
+                        break;
+                    case "--escalado":
+                        escalado = true;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Opcion desconocida: " + args[i]);
+                }
+            }
+
+            CadenaOperaciones cadena = CadenaOperaciones.desdeTexto(args[2], elemento, true);
+            BufferedImage imagen = ImageIO.read(new File(args[0]));
+            if (imagen == null) {
+                System.err.println("ERROR: No se pudo leer la imagen: " + args[0]);
+                return;
+            }
+
+            if (escalado) {
+                escalado(imagen, cadena, direcciones, locales);
+                return;
+            }
+
+            try (CoordinadorMorfologia coordinador = direcciones != null
+                    ? conectar(direcciones) : locales(locales)) {
+                long inicio = System.nanoTime();
+                BufferedImage salida = coordinador.aplicar(imagen, cadena);
+                long nanos = System.nanoTime() - inicio;
+
+                String nombre = args[1];
+                int punto = nombre.lastIndexOf('.');
+                String formato = punto >= 0 ? nombre.substring(punto + 1) : "png";
+                try (var out = Files.newOutputStream(Paths.get(nombre))) {
+                    CadenaOperaciones.escribir(salida, formato, out);
+                }
+                System.out.println(String.format(Locale.ROOT,
+                        "Procesado %dx%d con %d trabajadores (%d vivos al final, %d procesadores) en %.1f ms: %s",
+                        imagen.getWidth(), imagen.getHeight(), direcciones != null ? direcciones.size() : locales,
+                        coordinador.getVivos(), coordinador.getProcesadores(), nanos / 1e6, nombre));
+                for (String perdido : coordinador.getPerdidos()) {
+                    System.out.println("Trabajador perdido: " + perdido);
+                }
+            }
+
+        } catch (IOException e) {
+            System.err.println("ERROR en el modo distribuido: " + e.getMessage());
+            e.printStackTrace();
+        } catch (NumberFormatException e) {
+            System.err.println("ERROR: Número no válido: " + e.getMessage());
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        } finally {
+            MorfologiaMatematicaOptimizada.cerrarEjecutor();
+        }
+    }
+
+    private static String valor(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Falta el valor de " + args[i - 1]);
+        }
+        return args[i];
+    }
+}
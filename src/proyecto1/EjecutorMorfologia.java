@@ -0,0 +1,321 @@
+package proyecto1;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Planificador compartido para las operaciones paralelas.
+ *
+ * Mantiene un unico ForkJoinPool reutilizable entre llamadas, en lugar de
+ * crear hilos nuevos en cada una. La imagen se divide recursivamente en
+ * teselas 2D hasta un tamaño que depende del paralelismo y del tamaño de la
+ * imagen; el robo de trabajo del pool reparte las teselas entre los hilos.
+ */
+final class EjecutorMorfologia {
+
+    // Teselas por hilo, para que el robo de trabajo compense desbalances
+    private static final int TESELAS_POR_HILO = 4;
+
+    // pools[n] tiene n hilos; se crean al primer uso, el de paralelismo hilos
+    // para las llamadas normales y los menores para las que el autoajuste
+    // decide repartir en menos hilos
+    private static Pool[] pools = new Pool[0];
+    private static int paralelismo = Runtime.getRuntime().availableProcessors();
+
+    private EjecutorMorfologia() {
+    }
+
+    /**
+     * Trabajo a realizar sobre la region [x0, x1) x [y0, y1)
+     */
+    interface TareaRegion {
+
+        void procesar(int x0, int y0, int x1, int y1);
+    }
+
+    /**
+     * Un pool y cuantas llamadas lo estan usando. Un pool retirado ya no se
+     * entrega y se cierra cuando termina la ultima llamada que lo tenia, asi
+     * que nunca rechaza el trabajo de una llamada en curso. Los campos se
+     * protegen con el monitor de EjecutorMorfologia.
+     */
+    private static final class Pool {
+
+        final ForkJoinPool pool;
+        int enUso;
+        boolean retirado;
+
+        Pool(int hilos) {
+            this.pool = new ForkJoinPool(hilos);
+        }
+    }
+
+    /**
+     * Cambia el numero de hilos del pool. Las llamadas siguientes usan pools
+     * nuevos; los actuales se cierran cuando terminan las que ya los tienen.
+     */
+    static synchronized void setParalelismo(int hilos) {
+        if (hilos < 1) {
+            throw new IllegalArgumentException("Paralelismo invalido: " + hilos);
+        }
+        if (hilos != paralelismo) {
+            for (ForkJoinPool libre : retirar()) {
+                libre.shutdown();
+            }
+            paralelismo = hilos;
+        }
+    }
+
+    static synchronized int getParalelismo() {
+        return paralelismo;
+    }
+
+    /**
+     * Pool de hilos hilos, acotado a [1, paralelismo]. Cada llamada debe
+     * devolverlo con devolver al terminar.
+     */
+    private static synchronized Pool obtenerPool(int hilos) {
+        int n = Math.max(1, Math.min(hilos, paralelismo));
+        if (pools.length <= n) {
+            pools = Arrays.copyOf(pools, paralelismo + 1);
+        }
+        if (pools[n] == null) {
+            pools[n] = new Pool(n);
+        }
+        pools[n].enUso++;
+        return pools[n];
+    }
+
+    private static void devolver(Pool pool) {
+        boolean cerrarlo;
+        synchronized (EjecutorMorfologia.class) {
+            cerrarlo = --pool.enUso == 0 && pool.retirado;
+        }
+        if (cerrarlo) {
+            pool.pool.shutdown();
+        }
+    }
+
+    /**
+     * Saca los pools actuales de la tabla y devuelve los que nadie esta
+     * usando, para cerrarlos; los demas los cierra su ultima llamada
+     */
+    private static synchronized List<ForkJoinPool> retirar() {
+        List<ForkJoinPool> libres = new ArrayList<>();
+        for (int i = 0; i < pools.length; i++) {
+            Pool pool = pools[i];
+            if (pool == null) {
+                continue;
+            }
+            pool.retirado = true;
+            if (pool.enUso == 0) {
+                libres.add(pool.pool);
+            }
+            pools[i] = null;
+        }
+        return libres;
+    }
+
+    /**
+     * Cierra los pools esperando el trabajo en curso. Una llamada posterior
+     * a ejecutar crea un pool nuevo.
+     */
+    static void cerrar() {
+        for (ForkJoinPool pool : retirar()) {
+            pool.shutdown();
+            try {
+                if (!pool.awaitTermination(30, TimeUnit.SECONDS)) {
+                    pool.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                pool.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Ejecuta la tarea sobre toda la imagen, dividida en teselas de al menos
+     * ladoMinimo pixeles por lado (salvo que la imagen sea mas chica)
+     */
+    static void ejecutar(int width, int height, int ladoMinimo, TareaRegion tarea) {
+        ejecutar(width, height, ladoMinimo, ladoMinimo, getParalelismo(), tarea);
+    }
+
+    /**
+     * Igual que ejecutar, con teselas de al menos anchoMinimo x altoMinimo
+     * (con anchoMinimo igual al ancho de la imagen quedan franjas de filas
+     * completas) y en un pool de hilos hilos, como mucho el paralelismo
+     */
+    static void ejecutar(int width, int height, int anchoMinimo, int altoMinimo, int hilos,
+            TareaRegion tarea) {
+        Pool pool = obtenerPool(hilos);
+        try {
+            ForkJoinPool actual = pool.pool;
+            long areaObjetivo = Math.max((long) anchoMinimo * altoMinimo,
+                    (long) width * height / ((long) actual.getParallelism() * TESELAS_POR_HILO));
+
+            Metricas.Ejecucion ejecucion = Metricas.ACTIVAS
+                    ? Metricas.iniciarEjecucion(actual.getParallelism()) : null;
+            actual.invoke(new Tesela(tarea, 0, 0, width, height, anchoMinimo, altoMinimo, areaObjetivo,
+                    ejecucion));
+            if (Metricas.ACTIVAS) {
+                ejecucion.terminar();
+            }
+        } finally {
+            devolver(pool);
+        }
+    }
+
+    /**
+     * Division fija de la imagen en teselas de al menos ladoMinimo de lado,
+     * tantas como para el paralelismo actual, en el formato de
+     * ejecutarRegiones (cuatro enteros por tesela). Para quien necesita la
+     * misma division en varias pasadas aunque el paralelismo cambie entre
+     * una y otra.
+     */
+    static int[] dividir(int width, int height, int ladoMinimo) {
+        long areaObjetivo = (long) width * height / ((long) getParalelismo() * TESELAS_POR_HILO);
+        int lado = (int) Math.max(ladoMinimo, Math.ceil(Math.sqrt((double) areaObjetivo)));
+        int teselasX = (width + lado - 1) / lado;
+        int teselasY = (height + lado - 1) / lado;
+        int[] regiones = new int[4 * teselasX * teselasY];
+        int n = 0;
+        for (int y0 = 0; y0 < height; y0 += lado) {
+            for (int x0 = 0; x0 < width; x0 += lado) {
+                regiones[n++] = x0;
+                regiones[n++] = y0;
+                regiones[n++] = Math.min(width, x0 + lado);
+                regiones[n++] = Math.min(height, y0 + lado);
+            }
+        }
+        return regiones;
+    }
+
+    /**
+     * Ejecuta la tarea sobre cada region de la lista, en paralelo. regiones
+     * tiene cuatro enteros por region (x0, y0, x1, y1); cada region es una
+     * tesela y no se vuelve a dividir.
+     */
+    static void ejecutarRegiones(int[] regiones, int cantidad, TareaRegion tarea) {
+        if (cantidad == 0) {
+            return;
+        }
+        Pool pool = obtenerPool(getParalelismo());
+        try {
+            ForkJoinPool actual = pool.pool;
+            Metricas.Ejecucion ejecucion = Metricas.ACTIVAS
+                    ? Metricas.iniciarEjecucion(actual.getParallelism()) : null;
+            actual.invoke(new Lista(tarea, regiones, 0, cantidad, ejecucion));
+            if (Metricas.ACTIVAS) {
+                ejecucion.terminar();
+            }
+        } finally {
+            devolver(pool);
+        }
+    }
+
+    private static void procesarHoja(TareaRegion tarea, int x0, int y0, int x1, int y1,
+            Metricas.Ejecucion ejecucion) {
+        if (Metricas.ACTIVAS) {
+            long comienzo = System.nanoTime();
+            long bytesInicio = Metricas.bytesDelHilo();
+            tarea.procesar(x0, y0, x1, y1);
+            ejecucion.registrarTesela(comienzo, bytesInicio, x0, y0, x1, y1);
+        } else {
+            tarea.procesar(x0, y0, x1, y1);
+        }
+    }
+
+    /**
+     * Parte la lista de regiones [desde, hasta) a la mitad hasta quedarse
+     * con una
+     */
+    private static final class Lista extends RecursiveAction {
+
+        // Las tareas nunca se serializan; los campos transient evitan los avisos
+        private static final long serialVersionUID = 1L;
+
+        private final transient TareaRegion tarea;
+        private final int[] regiones;
+        private final int desde, hasta;
+        // null sin metricas
+        private final transient Metricas.Ejecucion ejecucion;
+
+        Lista(TareaRegion tarea, int[] regiones, int desde, int hasta, Metricas.Ejecucion ejecucion) {
+            this.tarea = tarea;
+            this.regiones = regiones;
+            this.desde = desde;
+            this.hasta = hasta;
+            this.ejecucion = ejecucion;
+        }
+
+        @Override
+        protected void compute() {
+            if (hasta - desde == 1) {
+                int i = 4 * desde;
+                procesarHoja(tarea, regiones[i], regiones[i + 1], regiones[i + 2], regiones[i + 3], ejecucion);
+                return;
+            }
+            int medio = (desde + hasta) >>> 1;
+            invokeAll(new Lista(tarea, regiones, desde, medio, ejecucion),
+                    new Lista(tarea, regiones, medio, hasta, ejecucion));
+        }
+    }
+
+    /**
+     * Divide su region por el lado mas largo (entre los que se pueden partir)
+     * hasta llegar al area objetivo
+     */
+    private static final class Tesela extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient TareaRegion tarea;
+        private final int x0, y0, x1, y1;
+        private final int anchoMinimo, altoMinimo;
+        private final long areaObjetivo;
+        // null sin metricas
+        private final transient Metricas.Ejecucion ejecucion;
+
+        Tesela(TareaRegion tarea, int x0, int y0, int x1, int y1, int anchoMinimo, int altoMinimo,
+                long areaObjetivo, Metricas.Ejecucion ejecucion) {
+            this.tarea = tarea;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.anchoMinimo = anchoMinimo;
+            this.altoMinimo = altoMinimo;
+            this.areaObjetivo = areaObjetivo;
+            this.ejecucion = ejecucion;
+        }
+
+        @Override
+        protected void compute() {
+            int ancho = x1 - x0;
+            int alto = y1 - y0;
+            boolean partirX = ancho >= 2 * anchoMinimo;
+            boolean partirY = alto >= 2 * altoMinimo;
+
+            if ((long) ancho * alto <= areaObjetivo || !(partirX || partirY)) {
+                procesarHoja(tarea, x0, y0, x1, y1, ejecucion);
+                return;
+            }
+
+            if (partirY && (alto >= ancho || !partirX)) {
+                int medio = y0 + alto / 2;
+                invokeAll(new Tesela(tarea, x0, y0, x1, medio, anchoMinimo, altoMinimo, areaObjetivo, ejecucion),
+                        new Tesela(tarea, x0, medio, x1, y1, anchoMinimo, altoMinimo, areaObjetivo, ejecucion));
+            } else {
+                int medio = x0 + ancho / 2;
+                invokeAll(new Tesela(tarea, x0, y0, medio, y1, anchoMinimo, altoMinimo, areaObjetivo, ejecucion),
+                        new Tesela(tarea, medio, y0, x1, y1, anchoMinimo, altoMinimo, areaObjetivo, ejecucion));
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.ImageIO;
+
+/**
+ * Generador de carga para ServidorMorfologia: N clientes en hilos virtuales
+ * mandan la misma imagen en un ciclo cerrado (cada uno espera su respuesta
+ * antes del siguiente pedido) durante los segundos indicados, y al final se
+ * informan pedidos por segundo, latencias p50/p99 y rechazos.
+ *
+ * Con "local" como url levanta un servidor en el mismo proceso, en un
+ * puerto libre, y al terminar imprime tambien su resumen.
+ */
+final class GeneradorCarga {
+
+    private GeneradorCarga() {
+    }
+
+    /**
+     * Resultado de una corrida
+     */
+    static final class Resultado {
+
+        final Histograma latencias = new Histograma();
+        final LongAdder correctos = new LongAdder();
+        final LongAdder rechazados = new LongAdder();
+        final LongAdder errores = new LongAdder();
+        long nanos;
+
+        @Override
+        public String toString() {
+            double segundos = nanos / 1e9;
+            return String.format(Locale.ROOT, "=== CARGA ===%n"
+                    + "Pedidos: %d correctos (%.1f/s), %d rechazados (503), %d con error%n"
+                    + "Latencia: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n"
+                    + "=============",
+                    correctos.sum(), correctos.sum() / segundos, rechazados.sum(), errores.sum(),
+                    latencias.percentil(50) / 1e6, latencias.percentil(99) / 1e6, latencias.getMaximo() / 1e6);
+        }
+    }
+
+    /**
+     * Corre la carga contra la url base (http://host:puerto) y devuelve lo
+     * medido
+     */
+    static Resultado ejecutar(String base, byte[] imagen, String cadena, String elemento,
+            int clientes, int segundos) throws InterruptedException {
+        if (clientes < 1 || segundos < 1) {
+            throw new IllegalArgumentException("Clientes y segundos deben ser al menos 1");
+        }
+        URI destino = URI.create(base + "/procesar?cadena=" + URLEncoder.encode(cadena, StandardCharsets.UTF_8)
+                + "&elemento=" + URLEncoder.encode(elemento, StandardCharsets.UTF_8));
+        Resultado resultado = new Resultado();
+        long inicio = System.nanoTime();
+        long fin = inicio + segundos * 1_000_000_000L;
+
+        try (ExecutorService hilos = Executors.newVirtualThreadPerTaskExecutor();
+             HttpClient cliente = HttpClient.newHttpClient()) {
+            List<Runnable> tareas = new ArrayList<>();
+            for (int i = 0; i < clientes; i++) {
+                tareas.add(() -> {
+                    HttpRequest pedido = HttpRequest.newBuilder(destino)
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(imagen)).build();
+                    while (System.nanoTime() < fin) {
+                        long comienzo = System.nanoTime();
+                        try {
+                            HttpResponse<byte[]> respuesta = cliente.send(pedido, HttpResponse.BodyHandlers.ofByteArray());
+                            if (respuesta.statusCode() == 200) {
+                                resultado.latencias.registrar(System.nanoTime() - comienzo);
+                                resultado.correctos.increment();
+                            } else if (respuesta.statusCode() == 503) {
+                                resultado.rechazados.increment();
+                                // Lo que pide Retry-After, acortado para no frenar la medicion
+                                Thread.sleep(50);
+                            } else {
+                                resultado.errores.increment();
+                            }
+                        } catch (IOException e) {
+                            resultado.errores.increment();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                });
+            }
+            for (Runnable tarea : tareas) {
+                hilos.execute(tarea);
+            }
+            hilos.shutdown();
+            hilos.awaitTermination(segundos + 60L, TimeUnit.SECONDS);
+        }
+        resultado.nanos = System.nanoTime() - inicio;
+        return resultado;
+    }
+
+    /**
+     * Uso: carga url|local imagen cadena [elemento clientes segundos]
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println("Uso: carga <http://host:puerto|local> <imagen> <cadena> [elemento clientes segundos]");
+            return;
+        }
+
+        ServidorMorfologia local = null;
+        try {
+            String elemento = args.length > 3 ? args[3] : "cruz";
+            int clientes = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+            int segundos = args.length > 5 ? Integer.parseInt(args[5]) : 10;
+
+            BufferedImage imagen = ImageIO.read(new File(args[1]));
+            if (imagen == null) {
+                System.err.println("ERROR: No se pudo leer la imagen: " + args[1]);
+                return;
+            }
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            CadenaOperaciones.escribir(imagen, "png", png);
+
+            String base = args[0];
+            if (base.equals("local")) {
+                int hilos = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+                local = new ServidorMorfologia(0, null, hilos, 64 * hilos);
+                local.iniciar();
+                base = "http://" + InetAddress.getLoopbackAddress().getHostAddress() + ":" + local.getPuerto();
+            }
+
+            System.out.println("Carga: " + clientes + " clientes durante " + segundos + " s contra " + base
+                    + " (" + imagen.getWidth() + "x" + imagen.getHeight() + ", " + args[2] + ")");
+            System.out.println(ejecutar(base, png.toByteArray(), args[2], elemento, clientes, segundos));
+            if (local != null) {
+                System.out.println(local.resumen());
+            }
+
+        } catch (IOException e) {
+            System.err.println("ERROR en la carga: " + e.getMessage());
+            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.err.println("Carga interrumpida");
+            Thread.currentThread().interrupt();
+        } finally {
+            if (local != null) {
+                local.detener(0);
+            }
+            MorfologiaMatematicaOptimizada.cerrarEjecutor();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package proyecto1;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de duraciones (u otros valores no negativos) con precision
+ * relativa fija, al estilo de HdrHistogram.
+ *
+ * Los valores menores que 64 se cuentan exactos; por encima, cada potencia
+ * de dos se divide en 32 cubetas, asi que un percentil difiere del valor real
+ * en menos de un 3,2%. Registrar es un incremento atomico sin reservas de
+ * memoria, y se puede hacer desde varios hilos a la vez.
+ */
+final class Histograma {
+
+    private static final int EXACTOS = 64;
+    private static final int SUBCUBETAS = 32;
+    private static final int BITS_SUBCUBETA = 5;
+    // Exponentes de 6 (64) a 62
+    private static final int CUBETAS = EXACTOS + (63 - 6) * SUBCUBETAS;
+
+    private final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+    private final LongAdder cantidad = new LongAdder();
+    private final LongAdder suma = new LongAdder();
+    private final AtomicLong maximo = new AtomicLong();
+
+    /**
+     * Cuenta un valor; los negativos cuentan como 0
+     */
+    void registrar(long valor) {
+        long v = Math.max(0, valor);
+        cuentas.incrementAndGet(indice(v));
+        cantidad.increment();
+        suma.add(v);
+        if (v > maximo.get()) {
+            maximo.accumulateAndGet(v, Math::max);
+        }
+    }
+
+    private static int indice(long v) {
+        if (v < EXACTOS) {
+            return (int) v;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(v);
+        int sub = (int) (v >>> (exponente - BITS_SUBCUBETA)) - SUBCUBETAS;
+        return EXACTOS + (exponente - 6) * SUBCUBETAS + sub;
+    }
+
+    /**
+     * Mayor valor que cae en la cubeta
+     */
+    private static long limiteSuperior(int indice) {
+        if (indice < EXACTOS) {
+            return indice;
+        }
+        int k = indice - EXACTOS;
+        int exponente = 6 + k / SUBCUBETAS;
+        long ancho = 1L << (exponente - BITS_SUBCUBETA);
+        return (SUBCUBETAS + k % SUBCUBETAS) * ancho + ancho - 1;
+    }
+
+    long getCantidad() {
+        return cantidad.sum();
+    }
+
+    long getSuma() {
+        return suma.sum();
+    }
+
+    long getMaximo() {
+        return maximo.get();
+    }
+
+    double getMedia() {
+        long n = cantidad.sum();
+        return n == 0 ? 0 : (double) suma.sum() / n;
+    }
+
+    /**
+     * Valor por debajo del cual queda el porcentaje indicado (0 a 100) de lo
+     * registrado, o 0 si no hay registros
+     */
+    long percentil(double porcentaje) {
+        long total = 0;
+        long[] copia = new long[CUBETAS];
+        for (int i = 0; i < CUBETAS; i++) {
+            copia[i] = cuentas.get(i);
+            total += copia[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long objetivo = Math.max(1, (long) Math.ceil(total * Math.min(100, porcentaje) / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += copia[i];
+            if (acumulado >= objetivo) {
+                return Math.min(limiteSuperior(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    void reiniciar() {
+        for (int i = 0; i < CUBETAS; i++) {
+            cuentas.set(i, 0);
+        }
+        cantidad.reset();
+        suma.reset();
+        maximo.set(0);
+    }
+}
@@ -0,0 +1,161 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Imagen separada en planos de un byte por pixel y por canal.
+ *
+ * Las imagenes TYPE_BYTE_GRAY tienen un solo plano; el resto, tres (R, G y
+ * B). Los valores son los mismos que daria getRGB en cada canal, asi que
+ * cualquier operacion por canal sobre los planos da exactamente lo mismo que
+ * sobre los pixeles empaquetados, leyendo y escribiendo tres o cuatro veces
+ * menos memoria en las imagenes grises.
+ *
+ * El alfa se puede guardar aparte para copiarlo tal cual al resultado; sin el,
+ * el resultado queda con alfa 0, como en el resto de los motores.
+ *
+ * Los planos de color que crean desdeImagen y MotorPlanar salen de
+ * PoolBuffers (pueden ser mas largos que width * height) y liberar los
+ * devuelve cuando la imagen ya no se usa.
+ */
+final class ImagenPlanar {
+
+    final int width;
+    final int height;
+    // Un plano (gris) o tres (R, G, B)
+    final byte[][] canales;
+    // null si no se conserva el alfa
+    final byte[] alfa;
+
+    private ImagenPlanar(int width, int height, byte[][] canales, byte[] alfa) {
+        this.width = width;
+        this.height = height;
+        this.canales = canales;
+        this.alfa = alfa;
+    }
+
+    /**
+     * Indica si la imagen va por el camino de un solo canal
+     */
+    static boolean esGris(BufferedImage imagen) {
+        return imagen.getType() == BufferedImage.TYPE_BYTE_GRAY;
+    }
+
+    /**
+     * Separa la imagen en planos; con conservarAlfa guarda tambien el alfa
+     * (si la imagen lo tiene)
+     */
+    static ImagenPlanar desdeImagen(BufferedImage imagen, boolean conservarAlfa) {
+        int width = imagen.getWidth();
+        int height = imagen.getHeight();
+        int total = width * height;
+
+        if (esGris(imagen)) {
+            byte[] gris = PoolBuffers.tomarBytes(total);
+            byte[] datos = RasterRapido.arregloGris(imagen);
+            if (datos != null) {
+                for (int i = 0; i < total; i++) {
+                    gris[i] = (byte) RasterRapido.grisAArgb(datos[i] & 0xFF);
+                }
+            } else {
+                int[] pixeles = imagen.getRGB(0, 0, width, height, null, 0, width);
+                for (int i = 0; i < total; i++) {
+                    gris[i] = (byte) pixeles[i];
+                }
+            }
+            return new ImagenPlanar(width, height, new byte[][]{gris}, null);
+        }
+
+        int[] pixeles = RasterRapido.leerPixeles(imagen);
+        byte[] r = PoolBuffers.tomarBytes(total);
+        byte[] g = PoolBuffers.tomarBytes(total);
+        byte[] b = PoolBuffers.tomarBytes(total);
+        byte[] a = conservarAlfa && imagen.getColorModel().hasAlpha() ? new byte[total] : null;
+
+        for (int i = 0; i < total; i++) {
+            int argb = pixeles[i];
+            r[i] = (byte) (argb >> 16);
+            g[i] = (byte) (argb >> 8);
+            b[i] = (byte) argb;
+        }
+        if (a != null) {
+            for (int i = 0; i < total; i++) {
+                a[i] = (byte) (pixeles[i] >>> 24);
+            }
+        }
+        return new ImagenPlanar(width, height, new byte[][]{r, g, b}, a);
+    }
+
+    /**
+     * Imagen a partir de planos ya separados (uno o tres, mas el alfa opcional)
+     */
+    static ImagenPlanar desdeCanales(int width, int height, byte[][] canales, byte[] alfa) {
+        if (canales.length != 1 && canales.length != 3) {
+            throw new IllegalArgumentException("Se esperaban 1 o 3 canales: " + canales.length);
+        }
+        return new ImagenPlanar(width, height, canales, alfa);
+    }
+
+    /**
+     * Misma imagen (y mismo alfa) con otros planos
+     */
+    ImagenPlanar conCanales(byte[][] nuevos) {
+        if (nuevos.length != canales.length) {
+            throw new IllegalArgumentException("Se esperaban " + canales.length + " canales");
+        }
+        return new ImagenPlanar(width, height, nuevos, alfa);
+    }
+
+    /**
+     * Devuelve los planos de color al pool; la imagen no se puede usar despues.
+     * El alfa queda, porque lo comparten las imagenes hechas con conCanales.
+     */
+    void liberar() {
+        for (byte[] canal : canales) {
+            PoolBuffers.devolver(canal);
+        }
+    }
+
+    /**
+     * Escribe los planos en el destino, del mismo tamaño, con el mismo
+     * resultado que setRGB de los pixeles empaquetados
+     */
+    void escribir(BufferedImage destino) {
+        int total = width * height;
+
+        byte[] datosGris = canales.length == 1 ? RasterRapido.arregloGris(destino) : null;
+        if (datosGris != null) {
+            byte[] gris = canales[0];
+            for (int i = 0; i < total; i++) {
+                datosGris[i] = RasterRapido.argbAGris(gris[i] & 0xFF);
+            }
+            return;
+        }
+
+        int[] propios = RasterRapido.arregloEnteros(destino);
+        int[] pixeles = propios != null ? propios : PoolBuffers.tomarEnteros(total);
+        if (canales.length == 1) {
+            byte[] gris = canales[0];
+            for (int i = 0; i < total; i++) {
+                int v = gris[i] & 0xFF;
+                pixeles[i] = (v << 16) | (v << 8) | v;
+            }
+        } else {
+            byte[] r = canales[0];
+            byte[] g = canales[1];
+            byte[] b = canales[2];
+            for (int i = 0; i < total; i++) {
+                pixeles[i] = ((r[i] & 0xFF) << 16) | ((g[i] & 0xFF) << 8) | (b[i] & 0xFF);
+            }
+        }
+        if (alfa != null) {
+            for (int i = 0; i < total; i++) {
+                pixeles[i] |= (alfa[i] & 0xFF) << 24;
+            }
+        }
+        RasterRapido.escribirPixeles(pixeles, destino);
+        if (propios == null) {
+            PoolBuffers.devolver(pixeles);
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Contenedor de imagen sin compresion, leido y escrito con FileChannel.map.
+ *
+ * Cabecera de 32 bytes (enteros big-endian):
+ * <pre>
+ *  0  "MRAW"
+ *  4  version (1)
+ *  8  ancho
+ * 12  alto
+ * 16  canales: 1 (gris), 3 (R, G, B) o 4 (R, G, B y alfa)
+ * 20  disposicion: 0 planar (un plano por canal), 1 intercalada (RGB[A] por pixel)
+ * 24  tipo de BufferedImage para volver a convertir la imagen
+ * 28  reservado (0)
+ * </pre>
+ * y despues los pixeles, un byte por canal. Los valores son los de getRGB en
+ * cada canal, como en ImagenPlanar.
+ *
+ * El archivo completo queda mapeado en memoria: abrirlo no decodifica nada y
+ * los motores leen y escriben las filas directamente sobre el mapeo.
+ *
+ * Los temporales (crearTemporal) no se mapean: sus filas pasan por el canal
+ * con lecturas y escrituras posicionales, porque un archivo mapeado no se
+ * puede borrar en Windows hasta que el recolector libera el mapeo, y Java no
+ * ofrece una forma de liberarlo antes.
+ */
+final class ImagenRaw implements Closeable {
+
+    static final int PLANAR = 0;
+    static final int INTERCALADA = 1;
+
+    static final String EXTENSION = ".raw";
+
+    private static final byte[] MAGICO = "MRAW".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final int CABECERA = 32;
+
+    private final FileChannel canal;
+    // null en los temporales, que se leen y escriben con el canal
+    private final MappedByteBuffer datos;
+    private final boolean escritura;
+
+    final int width;
+    final int height;
+    final int canales;
+    final int disposicion;
+    final int tipo;
+
+    private ImagenRaw(FileChannel canal, MappedByteBuffer datos, boolean escritura,
+            int width, int height, int canales, int disposicion, int tipo) {
+        this.canal = canal;
+        this.datos = datos;
+        this.escritura = escritura;
+        this.width = width;
+        this.height = height;
+        this.canales = canales;
+        this.disposicion = disposicion;
+        this.tipo = tipo;
+    }
+
+    /**
+     * Mapea un archivo existente, solo para lectura o tambien para escritura
+     */
+    static ImagenRaw abrir(Path ruta, boolean escritura) throws IOException {
+        FileChannel canal = escritura
+                ? FileChannel.open(ruta, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(ruta, StandardOpenOption.READ);
+        try {
+            long tamano = canal.size();
+            if (tamano < CABECERA || tamano > Integer.MAX_VALUE) {
+                throw new IOException("Tamaño de archivo raw invalido: " + tamano + " bytes");
+            }
+            MappedByteBuffer datos = canal.map(
+                    escritura ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, tamano);
+
+            for (int i = 0; i < MAGICO.length; i++) {
+                if (datos.get(i) != MAGICO[i]) {
+                    throw new IOException("No es un archivo raw de morfologia: " + ruta);
+                }
+            }
+            if (datos.getInt(4) != VERSION) {
+                throw new IOException("Version de archivo raw no soportada: " + datos.getInt(4));
+            }
+            int width = datos.getInt(8);
+            int height = datos.getInt(12);
+            int canales = datos.getInt(16);
+            int disposicion = datos.getInt(20);
+            int tipo = datos.getInt(24);
+            validar(width, height, canales, disposicion);
+            if (CABECERA + (long) width * height * canales != tamano) {
+                throw new IOException("El archivo raw no tiene el tamaño que indica su cabecera: " + ruta);
+            }
+            return new ImagenRaw(canal, datos, escritura, width, height, canales, disposicion, tipo);
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Crea (o reemplaza) un archivo con la cabecera indicada y lo deja mapeado
+     * para escritura, con los pixeles en 0
+     */
+    static ImagenRaw crear(Path ruta, int width, int height, int canales, int disposicion, int tipo)
+            throws IOException {
+        validar(width, height, canales, disposicion);
+        long tamano = CABECERA + (long) width * height * canales;
+        if (tamano > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Imagen demasiado grande para un solo mapeo: "
+                    + width + "x" + height + "x" + canales);
+        }
+
+        FileChannel canal = FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            MappedByteBuffer datos = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamano);
+            for (int i = 0; i < MAGICO.length; i++) {
+                datos.put(i, MAGICO[i]);
+            }
+            datos.putInt(4, VERSION);
+            datos.putInt(8, width);
+            datos.putInt(12, height);
+            datos.putInt(16, canales);
+            datos.putInt(20, disposicion);
+            datos.putInt(24, tipo);
+            datos.putInt(28, 0);
+            return new ImagenRaw(canal, datos, true, width, height, canales, disposicion, tipo);
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Crea un archivo con la misma cabecera que este
+     */
+    ImagenRaw crearIgual(Path ruta) throws IOException {
+        return crear(ruta, width, height, canales, disposicion, tipo);
+    }
+
+    /**
+     * Crea un archivo con la misma cabecera que este, sin mapearlo, que se
+     * borra al cerrarlo
+     */
+    ImagenRaw crearTemporal(Path ruta) throws IOException {
+        long tamano = CABECERA + (long) width * height * canales;
+        FileChannel canal = FileChannel.open(ruta, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.DELETE_ON_CLOSE);
+        try {
+            ByteBuffer cabecera = ByteBuffer.allocate(CABECERA);
+            cabecera.put(MAGICO).putInt(VERSION).putInt(width).putInt(height).putInt(canales)
+                    .putInt(disposicion).putInt(tipo).putInt(0).flip();
+            escribirCompleto(canal, cabecera, 0);
+            // Deja el archivo de su tamaño final, con los pixeles en 0
+            escribirCompleto(canal, ByteBuffer.allocate(1), tamano - 1);
+            return new ImagenRaw(canal, null, false, width, height, canales, disposicion, tipo);
+        } catch (IOException | RuntimeException e) {
+            canal.close();
+            throw e;
+        }
+    }
+
+    private static void validar(int width, int height, int canales, int disposicion) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Dimensiones invalidas: " + width + "x" + height);
+        }
+        if (canales != 1 && canales != 3 && canales != 4) {
+            throw new IllegalArgumentException("Cantidad de canales invalida: " + canales);
+        }
+        if (disposicion != PLANAR && disposicion != INTERCALADA) {
+            throw new IllegalArgumentException("Disposicion invalida: " + disposicion);
+        }
+    }
+
+    /**
+     * Indica si el ultimo canal es el alfa
+     */
+    boolean tieneAlfa() {
+        return canales == 4;
+    }
+
+    /**
+     * Copia las filas [fila0, fila1) del canal a destino, desde offset
+     */
+    void leerFilas(int canal, int fila0, int fila1, byte[] destino, int offset) throws IOException {
+        int cantidad = (fila1 - fila0) * width;
+        if (datos == null) {
+            leerDelCanal(canal, fila0, cantidad, destino, offset);
+            return;
+        }
+        if (disposicion == PLANAR) {
+            datos.get(inicioPlanar(canal, fila0), destino, offset, cantidad);
+            return;
+        }
+        int posicion = CABECERA + fila0 * width * canales + canal;
+        for (int i = 0; i < cantidad; i++, posicion += canales) {
+            destino[offset + i] = datos.get(posicion);
+        }
+    }
+
+    /**
+     * Escribe las filas [fila0, fila1) del canal desde origen, a partir de offset
+     */
+    void escribirFilas(int canal, int fila0, int fila1, byte[] origen, int offset) throws IOException {
+        int cantidad = (fila1 - fila0) * width;
+        if (datos == null) {
+            escribirEnCanal(canal, fila0, cantidad, origen, offset);
+            return;
+        }
+        if (disposicion == PLANAR) {
+            datos.put(inicioPlanar(canal, fila0), origen, offset, cantidad);
+            return;
+        }
+        int posicion = CABECERA + fila0 * width * canales + canal;
+        for (int i = 0; i < cantidad; i++, posicion += canales) {
+            datos.put(posicion, origen[offset + i]);
+        }
+    }
+
+    private int inicioPlanar(int canal, int fila) {
+        return CABECERA + canal * width * height + fila * width;
+    }
+
+    /**
+     * leerFilas de un temporal: en intercalada se leen los pixeles completos
+     * en un buffer prestado y se separa el canal
+     */
+    private void leerDelCanal(int c, int fila0, int cantidad, byte[] destino, int offset) throws IOException {
+        if (disposicion == PLANAR) {
+            leerCompleto(canal, ByteBuffer.wrap(destino, offset, cantidad), inicioPlanar(c, fila0));
+            return;
+        }
+        byte[] pixeles = PoolBuffers.tomarBytes(cantidad * canales);
+        try {
+            leerCompleto(canal, ByteBuffer.wrap(pixeles, 0, cantidad * canales),
+                    CABECERA + (long) fila0 * width * canales);
+            for (int i = 0, j = c; i < cantidad; i++, j += canales) {
+                destino[offset + i] = pixeles[j];
+            }
+        } finally {
+            PoolBuffers.devolver(pixeles);
+        }
+    }
+
+    /**
+     * escribirFilas de un temporal: en intercalada se leen los pixeles, se
+     * reemplaza el canal y se vuelven a escribir
+     */
+    private void escribirEnCanal(int c, int fila0, int cantidad, byte[] origen, int offset) throws IOException {
+        if (disposicion == PLANAR) {
+            escribirCompleto(canal, ByteBuffer.wrap(origen, offset, cantidad), inicioPlanar(c, fila0));
+            return;
+        }
+        long posicion = CABECERA + (long) fila0 * width * canales;
+        byte[] pixeles = PoolBuffers.tomarBytes(cantidad * canales);
+        try {
+            leerCompleto(canal, ByteBuffer.wrap(pixeles, 0, cantidad * canales), posicion);
+            for (int i = 0, j = c; i < cantidad; i++, j += canales) {
+                pixeles[j] = origen[offset + i];
+            }
+            escribirCompleto(canal, ByteBuffer.wrap(pixeles, 0, cantidad * canales), posicion);
+        } finally {
+            PoolBuffers.devolver(pixeles);
+        }
+    }
+
+    private static void leerCompleto(FileChannel canal, ByteBuffer buffer, long posicion) throws IOException {
+        while (buffer.hasRemaining()) {
+            int leidos = canal.read(buffer, posicion);
+            if (leidos < 0) {
+                throw new IOException("Archivo raw truncado en la posicion " + posicion);
+            }
+            posicion += leidos;
+        }
+    }
+
+    private static void escribirCompleto(FileChannel canal, ByteBuffer buffer, long posicion) throws IOException {
+        while (buffer.hasRemaining()) {
+            posicion += canal.write(buffer, posicion);
+        }
+    }
+
+    /**
+     * Escribe la imagen en un archivo raw nuevo
+     */
+    static void guardar(BufferedImage imagen, Path ruta, int disposicion) throws IOException {
+        ImagenPlanar planar = ImagenPlanar.desdeImagen(imagen, true);
+        int canales = planar.canales.length + (planar.alfa != null ? 1 : 0);
+        try (ImagenRaw raw = crear(ruta, planar.width, planar.height, canales, disposicion, imagen.getType())) {
+            for (int c = 0; c < planar.canales.length; c++) {
+                raw.escribirFilas(c, 0, planar.height, planar.canales[c], 0);
+            }
+            if (planar.alfa != null) {
+                raw.escribirFilas(canales - 1, 0, planar.height, planar.alfa, 0);
+            }
+        } finally {
+            planar.liberar();
+        }
+    }
+
+    /**
+     * Convierte el contenido a un BufferedImage del tipo guardado en la cabecera
+     */
+    BufferedImage aImagen() throws IOException {
+        int total = width * height;
+        int color = tieneAlfa() ? canales - 1 : canales;
+        byte[][] planos = new byte[color][total];
+        for (int c = 0; c < color; c++) {
+            leerFilas(c, 0, height, planos[c], 0);
+        }
+        byte[] alfa = null;
+        if (tieneAlfa()) {
+            alfa = new byte[total];
+            leerFilas(canales - 1, 0, height, alfa, 0);
+        }
+
+        int tipoImagen = tipo;
+        if (tipoImagen == BufferedImage.TYPE_CUSTOM) {
+            tipoImagen = color == 1 ? BufferedImage.TYPE_BYTE_GRAY
+                    : tieneAlfa() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        }
+        BufferedImage imagen = new BufferedImage(width, height, tipoImagen);
+        ImagenPlanar.desdeCanales(width, height, planos, alfa).escribir(imagen);
+        return imagen;
+    }
+
+    /**
+     * Baja a disco lo escrito (si el archivo se abrio para escritura) y
+     * cierra el canal. El mapeo se libera cuando el recolector lo descarta;
+     * un temporal se borra aqui.
+     */
+    @Override
+    public void close() throws IOException {
+        if (escritura) {
+            datos.force();
+        }
+        canal.close();
+    }
+}
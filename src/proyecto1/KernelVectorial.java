@@ -0,0 +1,150 @@
+package proyecto1;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Calculo directo con la API de vectores (jdk.incubator.vector).
+ *
+ * Cada vector carga varios pixeles ARGB empaquetados de una fila y los trata
+ * como bytes, de modo que un solo min/max compara R, G y B de todos los
+ * pixeles a la vez. Los bytes son sin signo y la API compara con signo, por
+ * eso se invierte el bit alto (x ^ 0x80) al cargar y al guardar.
+ *
+ * Solo el interior de la region, donde todo el EE cae dentro de la imagen, se
+ * hace con vectores; los bordes y las colas de cada fila usan el calculo
+ * escalar de procesarRegionDirecta, con la misma semantica de siempre. No usar sin consultar
+ * SoporteVectorial.DISPONIBLE.
+ */
+final class KernelVectorial {
+
+    private static final VectorSpecies<Integer> ESPECIE = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> ESPECIE_BYTES = ESPECIE.withLanes(byte.class);
+    // Para los planos de un canal: un byte por pixel
+    private static final VectorSpecies<Byte> ESPECIE_PLANAR = ByteVector.SPECIES_PREFERRED;
+    private static final byte SIGNO = (byte) 0x80;
+
+    private KernelVectorial() {
+    }
+
+    static int carriles() {
+        return ESPECIE.length();
+    }
+
+    /**
+     * Pixeles por vector en un plano de un byte por pixel
+     */
+    static int carrilesPlanares() {
+        return ESPECIE_PLANAR.length();
+    }
+
+    /**
+     * Minimo o maximo sin signo de los vecinos de cantidad pixeles seguidos de
+     * un plano, desde origen[inicio], todos con la vecindad completa dentro.
+     * Solo calcula los vectores completos y devuelve cuantos pixeles hizo; el
+     * resto queda para el calculo escalar.
+     */
+    static int interiorPlanar(byte[] origen, int inicio, int[] desplazamientos, boolean esErosion,
+            byte[] destino, int inicioDestino, int cantidad) {
+        int paso = ESPECIE_PLANAR.length();
+        int hechos = (cantidad / paso) * paso;
+        ByteVector neutro = ByteVector.broadcast(ESPECIE_PLANAR, esErosion ? (byte) 0x7F : SIGNO);
+
+        for (int i = 0; i < hechos; i += paso) {
+            ByteVector acumulado = neutro;
+            int base = inicio + i;
+            for (int d : desplazamientos) {
+                ByteVector vecinos = ByteVector.fromArray(ESPECIE_PLANAR, origen, base + d)
+                        .lanewise(VectorOperators.XOR, SIGNO);
+                acumulado = esErosion ? acumulado.min(vecinos) : acumulado.max(vecinos);
+            }
+            acumulado.lanewise(VectorOperators.XOR, SIGNO).intoArray(destino, inicioDestino + i);
+        }
+        return hechos;
+    }
+
+    /**
+     * Misma firma y resultado que MorfologiaMatematicaOptimizada.procesarRegionDirecta
+     */
+    static void procesarRegion(int[] origen, int offsetOrigen, int strideOrigen,
+            int width, int height, ElementoEstructurante elemento,
+            boolean esErosion, boolean conservarOriginal,
+            int x0, int y0, int x1, int y1, int[] destino, int offsetDestino, int strideDestino) {
+        // Interior: pixeles donde el rectangulo del EE completo cae en la imagen
+        int ix0 = Math.max(x0, elemento.anclaX);
+        int ix1 = Math.min(x1, width - (elemento.width - 1 - elemento.anclaX));
+        int iy0 = Math.max(y0, elemento.anclaY);
+        int iy1 = Math.min(y1, height - (elemento.height - 1 - elemento.anclaY));
+
+        if (elemento.getActivas() == 0 || ix1 - ix0 < ESPECIE.length() || iy1 <= iy0) {
+            MorfologiaMatematicaOptimizada.procesarRegionDirecta(origen, offsetOrigen, strideOrigen,
+                    width, height, elemento, esErosion, conservarOriginal,
+                    x0, y0, x1, y1, destino, offsetDestino, strideDestino);
+            return;
+        }
+
+        int[] desplazamientos = elemento.desplazamientos(strideOrigen);
+
+        // Bordes: arriba, abajo, izquierda y derecha del interior
+        bordeEscalar(origen, offsetOrigen, strideOrigen, width, height, elemento, esErosion,
+                conservarOriginal, x0, y0, x1, iy0, destino, offsetDestino, strideDestino, x0, y0);
+        bordeEscalar(origen, offsetOrigen, strideOrigen, width, height, elemento, esErosion,
+                conservarOriginal, x0, iy1, x1, y1, destino, offsetDestino, strideDestino, x0, y0);
+        bordeEscalar(origen, offsetOrigen, strideOrigen, width, height, elemento, esErosion,
+                conservarOriginal, x0, iy0, ix0, iy1, destino, offsetDestino, strideDestino, x0, y0);
+        bordeEscalar(origen, offsetOrigen, strideOrigen, width, height, elemento, esErosion,
+                conservarOriginal, ix1, iy0, x1, iy1, destino, offsetDestino, strideDestino, x0, y0);
+
+        int paso = ESPECIE.length();
+        int limiteVectorial = ix0 + ((ix1 - ix0) / paso) * paso;
+        // Neutro ya con el bit alto invertido: 0xFF -> 0x7F, 0x00 -> 0x80
+        ByteVector neutro = ByteVector.broadcast(ESPECIE_BYTES,
+                esErosion ? (byte) 0x7F : SIGNO);
+
+        for (int y = iy0; y < iy1; y++) {
+            int filaOrigen = offsetOrigen + y * strideOrigen;
+            int filaDestino = offsetDestino + (y - y0) * strideDestino - x0;
+
+            for (int x = ix0; x < limiteVectorial; x += paso) {
+                ByteVector acumulado = neutro;
+                int base = filaOrigen + x;
+
+                for (int d : desplazamientos) {
+                    ByteVector vecinos = IntVector.fromArray(ESPECIE, origen, base + d)
+                            .reinterpretAsBytes()
+                            .lanewise(VectorOperators.XOR, SIGNO);
+                    acumulado = esErosion ? acumulado.min(vecinos) : acumulado.max(vecinos);
+                }
+
+                acumulado.lanewise(VectorOperators.XOR, SIGNO)
+                        .reinterpretAsInts()
+                        .lanewise(VectorOperators.AND, 0x00FFFFFF)
+                        .intoArray(destino, filaDestino + x);
+            }
+        }
+
+        // Columnas que no llenan un vector (interiores, van por la tabla escalar)
+        bordeEscalar(origen, offsetOrigen, strideOrigen, width, height, elemento, esErosion,
+                conservarOriginal, limiteVectorial, iy0, ix1, iy1, destino, offsetDestino, strideDestino, x0, y0);
+    }
+
+    /**
+     * Calculo escalar de una parte [bx0, bx1) x [by0, by1) de la region que
+     * empieza en (x0, y0)
+     */
+    private static void bordeEscalar(int[] origen, int offsetOrigen, int strideOrigen,
+            int width, int height, ElementoEstructurante elemento,
+            boolean esErosion, boolean conservarOriginal,
+            int bx0, int by0, int bx1, int by1,
+            int[] destino, int offsetDestino, int strideDestino, int x0, int y0) {
+        if (bx1 <= bx0 || by1 <= by0) {
+            return;
+        }
+        MorfologiaMatematicaOptimizada.procesarRegionDirecta(origen, offsetOrigen, strideOrigen,
+                width, height, elemento, esErosion, conservarOriginal, bx0, by0, bx1, by1,
+                destino, offsetDestino + (by0 - y0) * strideDestino + (bx0 - x0), strideDestino);
+    }
+}
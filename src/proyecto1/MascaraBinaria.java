@@ -0,0 +1,355 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Imagen binaria empaquetada de a 64 pixeles por long.
+ *
+ * El bit x % 64 de la palabra x / 64 de cada fila es el pixel x (1 = blanco).
+ * Cada celda activa del EE es un desplazamiento (dx, dy): la fila dy se lee
+ * corrida dx bits, y la erosion es el AND de esas filas corridas y la
+ * dilatacion el OR, 64 pixeles por operacion. Las filas guardan margenes de
+ * palabras a los lados para que los corrimientos no tengan casos de borde;
+ * los margenes (y los bits sobrantes de la ultima palabra) se llenan con el
+ * neutro de la operacion antes de calcular. Si el EE se descompone en pocos
+ * rectangulos (PlanDescomposicion), cada uno se aplica como una pasada
+ * horizontal y una vertical.
+ *
+ * Fuera de la imagen vale lo mismo que en el camino RGB: los vecinos fuera
+ * no cuentan, y un pixel sin ningun vecino dentro queda con su valor
+ * original (paralelo) o con el neutro (secuencial).
+ */
+final class MascaraBinaria {
+
+    // Umbral de luminancia por defecto para pasar de RGB a binario
+    static final int UMBRAL = 128;
+
+    private final int width, height;
+    private final int palabrasPorFila;
+    private final long[] bits;
+
+    private MascaraBinaria(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.palabrasPorFila = (width + 63) >>> 6;
+        this.bits = new long[palabrasPorFila * height];
+    }
+
+    boolean get(int x, int y) {
+        return (bits[y * palabrasPorFila + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * Umbraliza la imagen: blanco si la luminancia de getRGB es al menos
+     * umbral. Las imagenes grises compactas se leen sin pasar a ARGB.
+     */
+    static MascaraBinaria desdeImagen(BufferedImage imagen, int umbral) {
+        int width = imagen.getWidth();
+        int height = imagen.getHeight();
+        byte[] gris = RasterRapido.arregloGris(imagen);
+        if (gris == null) {
+            return desdePixeles(RasterRapido.leerPixeles(imagen), width, height, umbral);
+        }
+
+        // Bit de cada nivel de gris
+        long[] blanco = new long[256];
+        for (int nivel = 0; nivel < 256; nivel++) {
+            blanco[nivel] = esBlanco(RasterRapido.grisAArgb(nivel), umbral << 8);
+        }
+
+        MascaraBinaria mascara = new MascaraBinaria(width, height);
+        for (int y = 0; y < height; y++) {
+            int fila = y * width;
+            int base = y * mascara.palabrasPorFila;
+            for (int x0 = 0; x0 < width; x0 += 64) {
+                int x1 = Math.min(width, x0 + 64);
+                long palabra = 0;
+                for (int x = x0; x < x1; x++) {
+                    palabra |= blanco[gris[fila + x] & 0xFF] << x;
+                }
+                mascara.bits[base + (x0 >>> 6)] = palabra;
+            }
+        }
+        return mascara;
+    }
+
+    /**
+     * Umbraliza pixeles ARGB: blanco si la luminancia es al menos umbral
+     */
+    static MascaraBinaria desdePixeles(int[] pixeles, int width, int height, int umbral) {
+        MascaraBinaria mascara = new MascaraBinaria(width, height);
+        int limite = umbral << 8;
+
+        for (int y = 0; y < height; y++) {
+            int fila = y * width;
+            int base = y * mascara.palabrasPorFila;
+            for (int x0 = 0; x0 < width; x0 += 64) {
+                int x1 = Math.min(width, x0 + 64);
+                long palabra = 0;
+                for (int x = x0; x < x1; x++) {
+                    palabra |= esBlanco(pixeles[fila + x], limite) << x;
+                }
+                mascara.bits[base + (x0 >>> 6)] = palabra;
+            }
+        }
+        return mascara;
+    }
+
+    /**
+     * 1 si la luminancia (pesos BT.601 sobre 256) llega al limite, sin saltos:
+     * es el bit de signo de limite - 1 - luminancia
+     */
+    private static long esBlanco(int p, int limite) {
+        int luminancia = 77 * ((p >> 16) & 0xFF) + 150 * ((p >> 8) & 0xFF) + 29 * (p & 0xFF);
+        return (limite - 1 - luminancia) >>> 31;
+    }
+
+    /**
+     * Escribe la mascara en la imagen (del mismo tamaño) como lo haria el
+     * calculo RGB: 0xFFFFFF para blanco y 0 para negro
+     */
+    void escribir(BufferedImage destino) {
+        byte[] gris = RasterRapido.arregloGris(destino);
+        int[] enteros = RasterRapido.arregloEnteros(destino);
+
+        if (gris != null) {
+            int nivelNegro = RasterRapido.argbAGris(0);
+            int diferencia = RasterRapido.argbAGris(0xFF) ^ nivelNegro;
+            for (int y = 0; y < height; y++) {
+                int fila = y * width;
+                int base = y * palabrasPorFila;
+                for (int x = 0; x < width; x++) {
+                    int bit = (int) (bits[base + (x >>> 6)] >>> x) & 1;
+                    gris[fila + x] = (byte) (nivelNegro ^ (diferencia & -bit));
+                }
+            }
+        } else if (enteros != null) {
+            // Igual que escribirRegion: en INT_RGB el alfa no existe y en INT_ARGB queda en 0
+            desempaquetar(enteros);
+        } else {
+            int[] pixeles = new int[width * height];
+            desempaquetar(pixeles);
+            RasterRapido.escribirPixeles(pixeles, destino);
+        }
+    }
+
+    private void desempaquetar(int[] pixeles) {
+        for (int y = 0; y < height; y++) {
+            int fila = y * width;
+            int base = y * palabrasPorFila;
+            for (int x = 0; x < width; x++) {
+                // -bit es 0 o todo unos
+                int bit = (int) (bits[base + (x >>> 6)] >>> x) & 1;
+                pixeles[fila + x] = -bit & 0xFFFFFF;
+            }
+        }
+    }
+
+    MascaraBinaria erosion(ElementoEstructurante elemento, boolean paralelo) {
+        return operar(elemento, true, paralelo);
+    }
+
+    MascaraBinaria dilatacion(ElementoEstructurante elemento, boolean paralelo) {
+        return operar(elemento, false, paralelo);
+    }
+
+    /**
+     * Aplica cualquier operacion encadenando erosiones y dilataciones; las
+     * restas de las compuestas son AND NOT sobre las palabras
+     */
+    MascaraBinaria aplicar(Operacion operacion, ElementoEstructurante elemento, boolean paralelo) {
+        switch (operacion) {
+            case EROSION:
+                return erosion(elemento, paralelo);
+            case DILATACION:
+                return dilatacion(elemento, paralelo);
+            case APERTURA:
+                return erosion(elemento, paralelo).dilatacion(elemento, paralelo);
+            case CIERRE:
+                return dilatacion(elemento, paralelo).erosion(elemento, paralelo);
+            case GRADIENTE:
+                return dilatacion(elemento, paralelo).menos(erosion(elemento, paralelo));
+            case TOP_HAT:
+                return menos(aplicar(Operacion.APERTURA, elemento, paralelo));
+            case BLACK_HAT:
+                return aplicar(Operacion.CIERRE, elemento, paralelo).menos(this);
+            default:
+                throw new IllegalArgumentException("Operacion no soportada: " + operacion);
+        }
+    }
+
+    /**
+     * this AND NOT otra
+     */
+    MascaraBinaria menos(MascaraBinaria otra) {
+        MascaraBinaria resultado = new MascaraBinaria(width, height);
+        for (int i = 0; i < bits.length; i++) {
+            resultado.bits[i] = bits[i] & ~otra.bits[i];
+        }
+        return resultado;
+    }
+
+    /**
+     * Pixeles sin ningun vecino del EE dentro de la imagen, o null si no
+     * puede haberlos (ancla activa)
+     */
+    MascaraBinaria sinVecinos(ElementoEstructurante elemento) {
+        if (elemento.isActive(elemento.anclaX, elemento.anclaY)) {
+            return null;
+        }
+        MascaraBinaria llena = new MascaraBinaria(width, height);
+        Arrays.fill(llena.bits, -1L);
+        // Dilatar la imagen llena con ceros afuera marca los pixeles con algun vecino
+        MascaraBinaria conVecinos = llena.calcular(elemento, false, false);
+        return llena.menos(conVecinos);
+    }
+
+    private MascaraBinaria operar(ElementoEstructurante elemento, boolean esErosion, boolean paralelo) {
+        MascaraBinaria resultado = calcular(elemento, esErosion, paralelo);
+
+        // En paralelo, los pixeles sin vecinos conservan su valor
+        if (paralelo) {
+            MascaraBinaria sinVecinos = sinVecinos(elemento);
+            if (sinVecinos != null) {
+                for (int i = 0; i < bits.length; i++) {
+                    long m = sinVecinos.bits[i];
+                    resultado.bits[i] = (resultado.bits[i] & ~m) | (bits[i] & m);
+                }
+            }
+        }
+        return resultado;
+    }
+
+    private MascaraBinaria calcular(ElementoEstructurante elemento, boolean esErosion, boolean usarPool) {
+        // Un rectangulo separable cuesta su ancho mas su alto, en lugar de su area
+        PlanDescomposicion plan = PlanDescomposicion.planificar(elemento);
+        int costoSeparable = 0;
+        for (int[] r : plan.getRectangulos()) {
+            costoSeparable += r[2] + r[3];
+        }
+        boolean separable = !plan.getRectangulos().isEmpty() && costoSeparable < plan.getCostoDirecto();
+
+        // Copia con margenes neutros a izquierda y derecha de cada fila
+        long neutro = esErosion ? -1L : 0L;
+        int maxCorrimiento = Math.max(elemento.anclaX, elemento.width - 1 - elemento.anclaX);
+        int margen = (maxCorrimiento + 63) / 64 + 1;
+        int stride = palabrasPorFila + 2 * margen;
+        long[] relleno = new long[stride * height];
+        int sobrantes = width & 63;
+        long mascaraUltima = sobrantes == 0 ? -1L : (1L << sobrantes) - 1;
+
+        for (int y = 0; y < height; y++) {
+            int base = y * stride;
+            Arrays.fill(relleno, base, base + stride, neutro);
+            System.arraycopy(bits, y * palabrasPorFila, relleno, base + margen, palabrasPorFila);
+            int ultima = base + margen + palabrasPorFila - 1;
+            relleno[ultima] = (relleno[ultima] & mascaraUltima) | (neutro & ~mascaraUltima);
+        }
+
+        MascaraBinaria resultado = new MascaraBinaria(width, height);
+
+        if (!separable) {
+            int activas = elemento.getActivas();
+            int[] dx = new int[activas];
+            int[] dy = new int[activas];
+            for (int k = 0; k < activas; k++) {
+                dx[k] = elemento.celdasX[k] - elemento.anclaX;
+                dy[k] = elemento.celdasY[k] - elemento.anclaY;
+            }
+            ejecutar(usarPool, (p0, y0, p1, y1) -> combinar(relleno, stride, margen, dx, dy, esErosion, false,
+                    p0, y0, p1, y1, resultado.bits, 0, palabrasPorFila));
+            return resultado;
+        }
+
+        // Por rectangulo: pasada horizontal a un buffer con los mismos margenes,
+        // luego vertical acumulando en el resultado
+        long[] horizontal = new long[stride * height];
+        Arrays.fill(horizontal, neutro);
+        boolean primero = true;
+
+        for (int[] r : plan.getRectangulos()) {
+            int[] dx = new int[r[2]];
+            for (int i = 0; i < r[2]; i++) {
+                dx[i] = r[0] + i - elemento.anclaX;
+            }
+            int[] dy = new int[r[3]];
+            for (int i = 0; i < r[3]; i++) {
+                dy[i] = r[1] + i - elemento.anclaY;
+            }
+            int[] ceroX = new int[r[3]];
+            int[] ceroY = new int[r[2]];
+            boolean acumular = !primero;
+
+            ejecutar(usarPool, (p0, y0, p1, y1) -> combinar(relleno, stride, margen, dx, ceroY, esErosion, false,
+                    p0, y0, p1, y1, horizontal, margen, stride));
+            ejecutar(usarPool, (p0, y0, p1, y1) -> combinar(horizontal, stride, margen, ceroX, dy, esErosion,
+                    acumular, p0, y0, p1, y1, resultado.bits, 0, palabrasPorFila));
+            primero = false;
+        }
+        return resultado;
+    }
+
+    /**
+     * Recorre toda la mascara, en teselas del pool compartido (medidas en
+     * palabras a lo ancho y filas a lo alto) o en el hilo actual
+     */
+    private void ejecutar(boolean usarPool, EjecutorMorfologia.TareaRegion tarea) {
+        if (usarPool) {
+            EjecutorMorfologia.ejecutar(palabrasPorFila, height, MorfologiaMatematicaOptimizada.LADO_MINIMO_TESELA, tarea);
+        } else {
+            tarea.procesar(0, 0, palabrasPorFila, height);
+        }
+    }
+
+    /**
+     * AND (erosion) u OR (dilatacion) de las filas de origen corridas por cada
+     * (dx, dy), para las palabras [p0, p1) de las filas [y0, y1). El origen
+     * tiene margen palabras neutras a cada lado de las filas; la palabra p de
+     * la fila y queda en destino[offsetDestino + y * strideDestino + p]. Con
+     * acumular se combina con lo que ya hay en el destino.
+     */
+    private void combinar(long[] origen, int strideOrigen, int margen, int[] dx, int[] dy,
+            boolean esErosion, boolean acumular, int p0, int y0, int p1, int y1,
+            long[] destino, int offsetDestino, int strideDestino) {
+        long neutro = esErosion ? -1L : 0L;
+
+        for (int y = y0; y < y1; y++) {
+            int filaDestino = offsetDestino + y * strideDestino;
+            if (!acumular) {
+                Arrays.fill(destino, filaDestino + p0, filaDestino + p1, neutro);
+            }
+
+            for (int c = 0; c < dx.length; c++) {
+                int py = y + dy[c];
+                // Una fila fuera de la imagen es toda neutra
+                if (py < 0 || py >= height) {
+                    continue;
+                }
+                // Posicion en bits del pixel 0 de la fila, corrida dx
+                int inicio = (margen << 6) + dx[c];
+                int palabra = py * strideOrigen + (inicio >> 6);
+                int corrimiento = inicio & 63;
+
+                if (corrimiento == 0) {
+                    for (int p = p0; p < p1; p++) {
+                        long valor = origen[palabra + p];
+                        destino[filaDestino + p] = esErosion
+                                ? destino[filaDestino + p] & valor
+                                : destino[filaDestino + p] | valor;
+                    }
+                } else {
+                    int complemento = 64 - corrimiento;
+                    for (int p = p0; p < p1; p++) {
+                        long valor = (origen[palabra + p] >>> corrimiento)
+                                | (origen[palabra + p + 1] << complemento);
+                        destino[filaDestino + p] = esErosion
+                                ? destino[filaDestino + p] & valor
+                                : destino[filaDestino + p] | valor;
+                    }
+                }
+            }
+        }
+    }
+}
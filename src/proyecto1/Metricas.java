@@ -0,0 +1,489 @@
+package proyecto1;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Metricas de los motores, en lugar de imprimir tiempos en cada llamada.
+ *
+ * Cada operacion registra su latencia (un histograma por operacion), los
+ * pixeles procesados y los bytes que reservo en el heap, contando los de los
+ * hilos del pool. Cada ejecucion en paralelo registra por tesela la espera
+ * en cola (desde que empieza la ejecucion hasta que un hilo toma la tesela)
+ * y el tiempo de calculo, y al terminar el desbalance entre los hilos.
+ *
+ * Todo se publica por JMX (MetricasMorfologiaMXBean) y como eventos de JFR
+ * (proyecto1.Operacion, proyecto1.Tesela), que solo cuestan algo con una
+ * grabacion activa. Con -Dmorfologia.metricas=false los motores no llaman a
+ * nada de esta clase: todas las llamadas estan detras de ACTIVAS, que el JIT
+ * trata como constante.
+ */
+final class Metricas {
+
+    static final boolean ACTIVAS = Boolean.parseBoolean(System.getProperty("morfologia.metricas", "true"));
+
+    static final String NOMBRE_JMX = "proyecto1:type=MetricasMorfologia";
+
+    private static final Map<Operacion, Histograma> LATENCIAS = new EnumMap<>(Operacion.class);
+    private static final Histograma LATENCIAS_TODAS = new Histograma();
+    private static final Histograma TESELAS = new Histograma();
+    private static final Histograma ESPERAS = new Histograma();
+
+    private static final LongAdder OPERACIONES = new LongAdder();
+    private static final LongAdder PIXELES = new LongAdder();
+    private static final LongAdder NANOS_OPERACIONES = new LongAdder();
+    private static final LongAdder NANOS_ESPERA = new LongAdder();
+    private static final LongAdder NANOS_CALCULO = new LongAdder();
+    private static final LongAdder BYTES = new LongAdder();
+    private static final LongAdder EJECUCIONES = new LongAdder();
+    // Desbalance en milesimas, para acumularlo sin sincronizar
+    private static final LongAdder DESBALANCE_SUMA = new LongAdder();
+    private static final AtomicLong DESBALANCE_MAXIMO = new AtomicLong();
+
+    // Operacion en curso en cada hilo, para sumarle lo que hacen las teselas
+    private static final ThreadLocal<Medicion> ACTUAL = new ThreadLocal<>();
+
+    // Ultima operacion terminada, para mostrarla en el menu
+    private static volatile Medicion ultima;
+
+    private static final com.sun.management.ThreadMXBean HILOS = hilosConMemoria();
+
+    static {
+        for (Operacion op : Operacion.values()) {
+            LATENCIAS.put(op, new Histograma());
+        }
+        if (ACTIVAS) {
+            try {
+                ManagementFactory.getPlatformMBeanServer()
+                        .registerMBean(new Vista(), new ObjectName(NOMBRE_JMX));
+            } catch (JMException e) {
+                // Ya registrado (otro cargador de clases) o JMX no disponible: se sigue sin el
+            }
+        }
+    }
+
+    private Metricas() {
+    }
+
+    private static com.sun.management.ThreadMXBean hilosConMemoria() {
+        java.lang.management.ThreadMXBean hilos = ManagementFactory.getThreadMXBean();
+        if (hilos instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean conMemoria = (com.sun.management.ThreadMXBean) hilos;
+            if (conMemoria.isThreadAllocatedMemorySupported() && conMemoria.isThreadAllocatedMemoryEnabled()) {
+                return conMemoria;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bytes reservados en el heap por el hilo actual desde que arranco
+     */
+    static long bytesDelHilo() {
+        return HILOS != null ? HILOS.getCurrentThreadAllocatedBytes() : 0;
+    }
+
+    /**
+     * Empieza a medir una operacion del motor indicado en el hilo actual
+     */
+    static Medicion iniciar(Operacion operacion, String motor, int width, int height) {
+        Medicion medicion = new Medicion(operacion, motor, width, height, ACTUAL.get());
+        ACTUAL.set(medicion);
+        return medicion;
+    }
+
+    /**
+     * Una operacion en curso
+     */
+    static final class Medicion {
+
+        private final Operacion operacion;
+        private final String motor;
+        private final int width;
+        private final int height;
+        private final Medicion anterior;
+        private final long inicio;
+        private final long bytesInicio;
+        private final EventoOperacion evento = new EventoOperacion();
+        private long bytesTeselas;
+        private long teselas;
+        private double desbalance;
+        private long nanos;
+        private long bytes;
+
+        private Medicion(Operacion operacion, String motor, int width, int height, Medicion anterior) {
+            this.operacion = operacion;
+            this.motor = motor;
+            this.width = width;
+            this.height = height;
+            this.anterior = anterior;
+            evento.begin();
+            this.bytesInicio = bytesDelHilo();
+            this.inicio = System.nanoTime();
+        }
+
+        /**
+         * Registra la operacion; se llama en el mismo hilo que iniciar
+         */
+        void terminar() {
+            nanos = System.nanoTime() - inicio;
+            bytes = bytesDelHilo() - bytesInicio + bytesTeselas;
+            if (anterior == null) {
+                ACTUAL.remove();
+            } else {
+                ACTUAL.set(anterior);
+            }
+
+            long pixeles = (long) width * height;
+            LATENCIAS.get(operacion).registrar(nanos);
+            LATENCIAS_TODAS.registrar(nanos);
+            OPERACIONES.increment();
+            PIXELES.add(pixeles);
+            NANOS_OPERACIONES.add(nanos);
+            BYTES.add(bytes);
+
+            evento.end();
+            if (evento.shouldCommit()) {
+                evento.operacion = operacion.getNombre();
+                evento.motor = motor;
+                evento.ancho = width;
+                evento.alto = height;
+                evento.teselas = teselas;
+                evento.bytesAsignados = bytes;
+                evento.desbalance = desbalance;
+                evento.commit();
+            }
+
+            ultima = this;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%s (%s) %dx%d: %.2f ms, %.1f Mpixeles/s, %d teselas, desbalance %.2f, %.1f MB reservados",
+                    operacion.getNombre(), motor, width, height, nanos / 1e6,
+                    nanos == 0 ? 0 : (double) width * height * 1e3 / nanos, teselas, desbalance,
+                    bytes / 1048576.0);
+        }
+    }
+
+    /**
+     * Empieza una ejecucion en paralelo (una etapa repartida en teselas) con
+     * el numero de hilos del pool
+     */
+    static Ejecucion iniciarEjecucion(int hilos) {
+        return new Ejecucion(hilos, ACTUAL.get());
+    }
+
+    /**
+     * Una llamada a EjecutorMorfologia.ejecutar. Las teselas la actualizan
+     * desde los hilos del pool; terminar se llama en el hilo que la inicio.
+     */
+    static final class Ejecucion {
+
+        private final long inicio = System.nanoTime();
+        private final int hilos;
+        // Calculo de cada hilo que proceso teselas de esta ejecucion, incluido
+        // el que la invoco si ayudo
+        private final Map<Thread, LongAdder> calculoPorHilo = new ConcurrentHashMap<>();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder teselas = new LongAdder();
+        private final Medicion medicion;
+
+        private Ejecucion(int hilos, Medicion medicion) {
+            this.hilos = hilos;
+            this.medicion = medicion;
+        }
+
+        /**
+         * Registra una tesela, desde el hilo que la calculo; comienzo y
+         * bytesInicio son System.nanoTime() y bytesDelHilo() al empezarla
+         */
+        void registrarTesela(long comienzo, long bytesInicio, int x0, int y0, int x1, int y1) {
+            long fin = System.nanoTime();
+            long espera = comienzo - inicio;
+            long calculo = fin - comienzo;
+            long reservados = bytesDelHilo() - bytesInicio;
+
+            ESPERAS.registrar(espera);
+            TESELAS.registrar(calculo);
+            NANOS_ESPERA.add(espera);
+            NANOS_CALCULO.add(calculo);
+            bytes.add(reservados);
+            teselas.increment();
+
+            calculoPorHilo.computeIfAbsent(Thread.currentThread(), h -> new LongAdder()).add(calculo);
+
+            EventoTesela evento = new EventoTesela();
+            if (evento.isEnabled()) {
+                evento.x0 = x0;
+                evento.y0 = y0;
+                evento.x1 = x1;
+                evento.y1 = y1;
+                evento.esperaNanos = espera;
+                evento.calculoNanos = calculo;
+                evento.commit();
+            }
+        }
+
+        void terminar() {
+            long maximo = 0;
+            long suma = 0;
+            for (LongAdder porHilo : calculoPorHilo.values()) {
+                long valor = porHilo.sum();
+                maximo = Math.max(maximo, valor);
+                suma += valor;
+            }
+            // Los hilos del pool que no tomaron ninguna tesela cuentan con 0
+            int participantes = Math.max(hilos, calculoPorHilo.size());
+            double desbalance = suma == 0 ? 1 : (double) maximo * participantes / suma;
+            long milesimas = Math.round(desbalance * 1000);
+
+            EJECUCIONES.increment();
+            DESBALANCE_SUMA.add(milesimas);
+            DESBALANCE_MAXIMO.accumulateAndGet(milesimas, Math::max);
+
+            if (medicion != null) {
+                medicion.bytesTeselas += bytes.sum();
+                medicion.teselas += teselas.sum();
+                medicion.desbalance = Math.max(medicion.desbalance, desbalance);
+            }
+        }
+    }
+
+    /**
+     * Resumen de la ultima operacion terminada
+     */
+    static String ultima() {
+        Medicion medicion = ultima;
+        return medicion == null ? "Sin operaciones registradas" : medicion.toString();
+    }
+
+    /**
+     * Resumen de todo lo acumulado, una linea por dato
+     */
+    static String resumen() {
+        Vista vista = new Vista();
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== METRICAS ===\n");
+        sb.append(String.format(Locale.ROOT, "Operaciones: %d, %.1f Mpixeles/s%n",
+                vista.getOperaciones(), vista.getPixelesPorSegundo() / 1e6));
+        for (String linea : vista.getLatenciasPorOperacion()) {
+            sb.append("  ").append(linea).append('\n');
+        }
+        sb.append(String.format(Locale.ROOT, "Teselas: %d, calculo p50 %.1f us, p99 %.1f us%n",
+                vista.getTeselas(), vista.getTeselaP50Us(), vista.getTeselaP99Us()));
+        sb.append(String.format(Locale.ROOT, "Espera en cola: p99 %.1f us, total %.1f ms (calculo %.1f ms)%n",
+                vista.getEsperaColaP99Us(), vista.getEsperaColaTotalMs(), vista.getCalculoTotalMs()));
+        sb.append(String.format(Locale.ROOT, "Desbalance entre hilos: medio %.2f, maximo %.2f%n",
+                vista.getDesbalanceMedio(), vista.getDesbalanceMaximo()));
+        sb.append(String.format(Locale.ROOT, "Reservado en el heap: %.1f MB%n", vista.getBytesAsignados() / 1048576.0));
+        sb.append(PoolBuffers.estadisticas()).append('\n');
+        sb.append("================");
+        return sb.toString();
+    }
+
+    static void reiniciar() {
+        for (Histograma histograma : LATENCIAS.values()) {
+            histograma.reiniciar();
+        }
+        LATENCIAS_TODAS.reiniciar();
+        TESELAS.reiniciar();
+        ESPERAS.reiniciar();
+        OPERACIONES.reset();
+        PIXELES.reset();
+        NANOS_OPERACIONES.reset();
+        NANOS_ESPERA.reset();
+        NANOS_CALCULO.reset();
+        BYTES.reset();
+        EJECUCIONES.reset();
+        DESBALANCE_SUMA.reset();
+        DESBALANCE_MAXIMO.set(0);
+    }
+
+    /**
+     * Implementacion del MXBean sobre los contadores estaticos
+     */
+    private static final class Vista implements MetricasMorfologiaMXBean {
+
+        @Override
+        public long getOperaciones() {
+            return OPERACIONES.sum();
+        }
+
+        @Override
+        public double getPixelesPorSegundo() {
+            long nanos = NANOS_OPERACIONES.sum();
+            return nanos == 0 ? 0 : PIXELES.sum() * 1e9 / nanos;
+        }
+
+        @Override
+        public double getLatenciaP50Ms() {
+            return LATENCIAS_TODAS.percentil(50) / 1e6;
+        }
+
+        @Override
+        public double getLatenciaP99Ms() {
+            return LATENCIAS_TODAS.percentil(99) / 1e6;
+        }
+
+        @Override
+        public double getLatenciaMaximaMs() {
+            return LATENCIAS_TODAS.getMaximo() / 1e6;
+        }
+
+        @Override
+        public long getTeselas() {
+            return TESELAS.getCantidad();
+        }
+
+        @Override
+        public double getTeselaP50Us() {
+            return TESELAS.percentil(50) / 1e3;
+        }
+
+        @Override
+        public double getTeselaP99Us() {
+            return TESELAS.percentil(99) / 1e3;
+        }
+
+        @Override
+        public double getEsperaColaP99Us() {
+            return ESPERAS.percentil(99) / 1e3;
+        }
+
+        @Override
+        public double getEsperaColaTotalMs() {
+            return NANOS_ESPERA.sum() / 1e6;
+        }
+
+        @Override
+        public double getCalculoTotalMs() {
+            return NANOS_CALCULO.sum() / 1e6;
+        }
+
+        @Override
+        public double getDesbalanceMedio() {
+            long ejecuciones = EJECUCIONES.sum();
+            return ejecuciones == 0 ? 0 : DESBALANCE_SUMA.sum() / 1000.0 / ejecuciones;
+        }
+
+        @Override
+        public double getDesbalanceMaximo() {
+            return DESBALANCE_MAXIMO.get() / 1000.0;
+        }
+
+        @Override
+        public long getBytesAsignados() {
+            return BYTES.sum();
+        }
+
+        @Override
+        public long getPoolAciertos() {
+            return PoolBuffers.estadisticas().getAciertos();
+        }
+
+        @Override
+        public long getPoolFallos() {
+            return PoolBuffers.estadisticas().getFallos();
+        }
+
+        @Override
+        public long getPoolBytesRetenidos() {
+            return PoolBuffers.estadisticas().getBytesRetenidos();
+        }
+
+        @Override
+        public long getPoolBytesPico() {
+            return PoolBuffers.estadisticas().getBytesPico();
+        }
+
+        @Override
+        public String[] getLatenciasPorOperacion() {
+            List<String> lineas = new ArrayList<>();
+            for (Map.Entry<Operacion, Histograma> entrada : LATENCIAS.entrySet()) {
+                Histograma histograma = entrada.getValue();
+                if (histograma.getCantidad() == 0) {
+                    continue;
+                }
+                lineas.add(String.format(Locale.ROOT, "%s: %d, p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                        entrada.getKey().getNombre(), histograma.getCantidad(),
+                        histograma.percentil(50) / 1e6, histograma.percentil(99) / 1e6,
+                        histograma.getMaximo() / 1e6));
+            }
+            return lineas.toArray(new String[0]);
+        }
+
+        @Override
+        public void reiniciar() {
+            Metricas.reiniciar();
+        }
+    }
+
+    @Name("proyecto1.Operacion")
+    @Label("Operacion morfologica")
+    @Category("Morfologia")
+    @Description("Una operacion completa de uno de los motores")
+    static final class EventoOperacion extends Event {
+
+        @Label("Operacion")
+        String operacion;
+
+        @Label("Motor")
+        String motor;
+
+        @Label("Ancho")
+        int ancho;
+
+        @Label("Alto")
+        int alto;
+
+        @Label("Teselas")
+        long teselas;
+
+        @Label("Bytes reservados")
+        long bytesAsignados;
+
+        @Label("Desbalance")
+        double desbalance;
+    }
+
+    @Name("proyecto1.Tesela")
+    @Label("Tesela")
+    @Category("Morfologia")
+    @Description("Una region calculada por un hilo del pool")
+    static final class EventoTesela extends Event {
+
+        @Label("x0")
+        int x0;
+
+        @Label("y0")
+        int y0;
+
+        @Label("x1")
+        int x1;
+
+        @Label("y1")
+        int y1;
+
+        @Label("Espera en cola (ns)")
+        long esperaNanos;
+
+        @Label("Calculo (ns)")
+        long calculoNanos;
+    }
+}
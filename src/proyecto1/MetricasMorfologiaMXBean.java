@@ -0,0 +1,54 @@
+package proyecto1;
+
+/**
+ * Vista JMX de las metricas de los motores (proyecto1:type=MetricasMorfologia).
+ *
+ * Las latencias son de la operacion completa; las de tesela, de cada region
+ * que calcula un hilo del pool. El desbalance es el tiempo de calculo del
+ * hilo mas cargado dividido por el promedio de los hilos (1 es perfecto).
+ */
+public interface MetricasMorfologiaMXBean {
+
+    long getOperaciones();
+
+    double getPixelesPorSegundo();
+
+    double getLatenciaP50Ms();
+
+    double getLatenciaP99Ms();
+
+    double getLatenciaMaximaMs();
+
+    long getTeselas();
+
+    double getTeselaP50Us();
+
+    double getTeselaP99Us();
+
+    double getEsperaColaP99Us();
+
+    double getEsperaColaTotalMs();
+
+    double getCalculoTotalMs();
+
+    double getDesbalanceMedio();
+
+    double getDesbalanceMaximo();
+
+    long getBytesAsignados();
+
+    long getPoolAciertos();
+
+    long getPoolFallos();
+
+    long getPoolBytesRetenidos();
+
+    long getPoolBytesPico();
+
+    /**
+     * Una linea por operacion: cantidad, p50, p99 y maximo en milisegundos
+     */
+    String[] getLatenciasPorOperacion();
+
+    void reiniciar();
+}
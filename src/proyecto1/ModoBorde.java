@@ -0,0 +1,46 @@
+package proyecto1;
+
+/**
+ * Que valor toman los vecinos que caen fuera de la imagen. Con cualquiera de
+ * estos modos la imagen se rellena una sola vez con un halo y el calculo no
+ * vuelve a mirar los bordes, asi que el motor paralelo y el secuencial dan
+ * exactamente lo mismo.
+ *
+ * Sin modo (las versiones sin este parametro) se mantiene el comportamiento
+ * original de cada motor.
+ */
+public enum ModoBorde {
+
+    // los vecinos de afuera no cuentan (se rellena con blanco para la erosion
+    // y negro para la dilatacion)
+    IGNORAR("ignorar"),
+    // se repite el pixel del borde: aaa|abcd|ddd
+    REPLICAR("replicar"),
+    // espejo incluyendo el pixel del borde: cba|abcd|dcb
+    REFLEJAR("reflejar"),
+    // un color fijo
+    CONSTANTE("constante");
+
+    private final String nombre;
+
+    ModoBorde(String nombre) {
+        this.nombre = nombre;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    /**
+     * Busca el modo por nombre, sin distinguir mayusculas. Devuelve null si
+     * no existe.
+     */
+    public static ModoBorde desdeNombre(String nombre) {
+        for (ModoBorde modo : values()) {
+            if (modo.nombre.equalsIgnoreCase(nombre.trim())) {
+                return modo;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,185 @@
+package proyecto1;
+
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Operaciones compuestas (apertura, cierre, gradiente, top-hat y black-hat)
+ * calculadas por region, sin pasar por archivos ni imagenes intermedias.
+ *
+ * Las dos etapas de la apertura y el cierre se fusionan por tesela: la primera
+ * etapa se calcula solo sobre la tesela mas el halo que necesita la segunda,
+ * en un buffer local, de modo que el resultado intermedio nunca ocupa la
+ * imagen completa. El gradiente obtiene minimo y maximo en un unico recorrido
+ * de la vecindad cuando el plan es el calculo directo.
+ */
+final class MorfologiaCompuesta {
+
+    private MorfologiaCompuesta() {
+    }
+
+    /**
+     * Calcula la region [x0, x1) x [y0, y1) de la operacion, con las mismas
+     * convenciones de origen y destino que PlanDescomposicion.procesarRegion
+     */
+    static void procesarRegion(Operacion operacion, PlanDescomposicion plan,
+            int[] origen, int offsetOrigen, int strideOrigen, int width, int height,
+            boolean conservarOriginal, int x0, int y0, int x1, int y1,
+            int[] destino, int offsetDestino, int strideDestino) {
+        switch (operacion) {
+            case EROSION:
+            case DILATACION:
+                plan.procesarRegion(origen, offsetOrigen, strideOrigen, width, height,
+                        operacion == Operacion.EROSION, conservarOriginal,
+                        x0, y0, x1, y1, destino, offsetDestino, strideDestino);
+                break;
+
+            case APERTURA:
+            case CIERRE:
+                dosEtapas(plan, operacion == Operacion.APERTURA, origen, offsetOrigen, strideOrigen,
+                        width, height, conservarOriginal, x0, y0, x1, y1,
+                        destino, offsetDestino, strideDestino);
+                break;
+
+            case GRADIENTE:
+                gradiente(plan, origen, offsetOrigen, strideOrigen, width, height,
+                        conservarOriginal, x0, y0, x1, y1, destino, offsetDestino, strideDestino);
+                break;
+
+            case TOP_HAT:
+            case BLACK_HAT: {
+                boolean esTopHat = operacion == Operacion.TOP_HAT;
+                dosEtapas(plan, esTopHat, origen, offsetOrigen, strideOrigen,
+                        width, height, conservarOriginal, x0, y0, x1, y1,
+                        destino, offsetDestino, strideDestino);
+
+                for (int y = y0; y < y1; y++) {
+                    int filaOrigen = offsetOrigen + y * strideOrigen;
+                    int filaDestino = offsetDestino + (y - y0) * strideDestino - x0;
+                    for (int x = x0; x < x1; x++) {
+                        int original = origen[filaOrigen + x];
+                        int filtrado = destino[filaDestino + x];
+                        destino[filaDestino + x] = esTopHat
+                                ? restarCanales(original, filtrado)
+                                : restarCanales(filtrado, original);
+                    }
+                }
+                break;
+            }
+
+            default:
+                throw new IllegalArgumentException("Operacion no soportada: " + operacion);
+        }
+    }
+
+    /**
+     * Primera etapa sobre la tesela con halo en un buffer local, segunda etapa
+     * leyendo de ese buffer
+     */
+    private static void dosEtapas(PlanDescomposicion plan, boolean primeraEsErosion,
+            int[] origen, int offsetOrigen, int strideOrigen, int width, int height,
+            boolean conservarOriginal, int x0, int y0, int x1, int y1,
+            int[] destino, int offsetDestino, int strideDestino) {
+        ElementoEstructurante elemento = plan.getElemento();
+
+        int hx0 = Math.max(0, x0 - elemento.anclaX);
+        int hy0 = Math.max(0, y0 - elemento.anclaY);
+        int hx1 = Math.min(width, x1 + elemento.width - 1 - elemento.anclaX);
+        int hy1 = Math.min(height, y1 + elemento.height - 1 - elemento.anclaY);
+        int anchoHalo = hx1 - hx0;
+
+        int[] intermedio = PoolBuffers.tomarEnteros(anchoHalo * (hy1 - hy0));
+        plan.procesarRegion(origen, offsetOrigen, strideOrigen, width, height,
+                primeraEsErosion, conservarOriginal, hx0, hy0, hx1, hy1, intermedio, 0, anchoHalo);
+
+        // El pixel (px, py) del intermedio esta en (py - hy0) * anchoHalo + (px - hx0)
+        plan.procesarRegion(intermedio, -(hy0 * anchoHalo + hx0), anchoHalo, width, height,
+                !primeraEsErosion, conservarOriginal, x0, y0, x1, y1,
+                destino, offsetDestino, strideDestino);
+        PoolBuffers.devolver(intermedio);
+    }
+
+    private static void gradiente(PlanDescomposicion plan,
+            int[] origen, int offsetOrigen, int strideOrigen, int width, int height,
+            boolean conservarOriginal, int x0, int y0, int x1, int y1,
+            int[] destino, int offsetDestino, int strideDestino) {
+        // Con el kernel vectorial conviene hacer las dos pasadas por separado
+        if (plan.getKernel() == PlanDescomposicion.Kernel.DIRECTO) {
+            ElementoEstructurante elemento = plan.getElemento();
+            for (int y = y0; y < y1; y++) {
+                int filaDestino = offsetDestino + (y - y0) * strideDestino - x0;
+                for (int x = x0; x < x1; x++) {
+                    destino[filaDestino + x] = calcularGradienteRGB(origen, offsetOrigen, strideOrigen,
+                            width, height, elemento, x, y);
+                }
+            }
+            return;
+        }
+
+        // Con la descomposicion, cada pasada ya es O(1) por pixel; con vectores
+        // cada pasada procesa varios pixeles por instruccion
+        int columnas = x1 - x0;
+        int[] erosion = PoolBuffers.tomarEnteros(columnas * (y1 - y0));
+        plan.procesarRegion(origen, offsetOrigen, strideOrigen, width, height, true, conservarOriginal,
+                x0, y0, x1, y1, erosion, 0, columnas);
+        plan.procesarRegion(origen, offsetOrigen, strideOrigen, width, height, false, conservarOriginal,
+                x0, y0, x1, y1, destino, offsetDestino, strideDestino);
+
+        for (int y = y0; y < y1; y++) {
+            int filaDestino = offsetDestino + (y - y0) * strideDestino;
+            int filaErosion = (y - y0) * columnas;
+            for (int i = 0; i < columnas; i++) {
+                destino[filaDestino + i] = restarCanales(destino[filaDestino + i], erosion[filaErosion + i]);
+            }
+        }
+        PoolBuffers.devolver(erosion);
+    }
+
+    /**
+     * Maximo menos minimo por canal en la vecindad de (x, y), en un solo
+     * recorrido. Sin vecinos dentro de la imagen el gradiente es 0, igual que
+     * al restar la dilatacion y la erosion por separado.
+     */
+    static int calcularGradienteRGB(int[] pixeles, int offsetOrigen, int strideOrigen,
+            int width, int height, ElementoEstructurante elemento, int x, int y) {
+        int minR = 255, minG = 255, minB = 255;
+        int maxR = 0, maxG = 0, maxB = 0;
+        boolean encontroPixel = false;
+
+        for (int k = 0; k < elemento.celdasX.length; k++) {
+            int px = x + elemento.celdasX[k] - elemento.anclaX;
+            int py = y + elemento.celdasY[k] - elemento.anclaY;
+
+            if (px >= 0 && px < width && py >= 0 && py < height) {
+                int rgb = pixeles[offsetOrigen + py * strideOrigen + px];
+
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
+
+                minR = Math.min(minR, r);
+                minG = Math.min(minG, g);
+                minB = Math.min(minB, b);
+                maxR = Math.max(maxR, r);
+                maxG = Math.max(maxG, g);
+                maxB = Math.max(maxB, b);
+                encontroPixel = true;
+            }
+        }
+
+        if (!encontroPixel) {
+            return 0;
+        }
+
+        return ((maxR - minR) << 16) | ((maxG - minG) << 8) | (maxB - minB);
+    }
+
+    /**
+     * Resta canal por canal, saturando en 0
+     */
+    static int restarCanales(int a, int b) {
+        int r = Math.max(0, ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF));
+        int g = Math.max(0, ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF));
+        int bb = Math.max(0, (a & 0xFF) - (b & 0xFF));
+        return (r << 16) | (g << 8) | bb;
+    }
+}
@@ -3,8 +3,8 @@ package proyecto1;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Scanner;
-import java.util.concurrent.CountDownLatch;
 import javax.imageio.ImageIO;
 
 public class MorfologiaMatematicaOptimizada {
@@ -12,211 +12,271 @@ public class MorfologiaMatematicaOptimizada {
     // Variable estática para almacenar la ruta de la imagen actual
     private static String rutaImagen = "test_image.png"; // Imagen por defecto
 
-    // Elemento estructurante
-    static class ElementoEstructurante {
+    // Elemento estructurante. Es inmutable: la estructura se copia al
+    // construirlo, asi que se puede compartir entre hilos y usar como parte
+    // de las claves de CacheResultados
+    public static class ElementoEstructurante {
 
-        int[][] estructura;
+        final int[][] estructura;
         //int centerX, centerY;
-        int width, height;
-        int anclaX, anclaY;
+        final int width, height;
+        final int anclaX, anclaY;
+
+        // Celdas activas (columna y fila dentro del EE), en orden de fila;
+        // se calculan una vez al construir
+        final int[] celdasX, celdasY;
 
         public ElementoEstructurante(int[][] estructura, int anchorX, int anchorY) {
-            if (estructura == null || estructura.length == 0 || estructura[0].length == 0) {
+            if (estructura == null || estructura.length == 0 || estructura[0] == null
+                    || estructura[0].length == 0) {
                 throw new IllegalArgumentException("Estructura inválida");
             }
-            this.estructura = estructura;
             this.height = estructura.length;
             this.width = estructura[0].length;
-            setAnchor(anchorX, anchorY);
-        }
-
-        public void setAnchor(int ax, int ay) {
-            if (ax < 0 || ay < 0 || ax >= width || ay >= height) {
+            this.estructura = new int[height][];
+            for (int ey = 0; ey < height; ey++) {
+                if (estructura[ey] == null || estructura[ey].length != width) {
+                    throw new IllegalArgumentException("Estructura inválida: las filas deben tener el mismo largo");
+                }
+                this.estructura[ey] = estructura[ey].clone();
+            }
+            if (anchorX < 0 || anchorY < 0 || anchorX >= width || anchorY >= height) {
                 throw new IllegalArgumentException(
-                        "Ancla fuera de rango (" + ax + "," + ay + ") para EE de " + width + "x" + height
+                        "Ancla fuera de rango (" + anchorX + "," + anchorY + ") para EE de " + width + "x" + height
                 );
             }
-            this.anclaX = ax;
-            this.anclaY = ay;
+            this.anclaX = anchorX;
+            this.anclaY = anchorY;
+
+            int activas = 0;
+            for (int ey = 0; ey < height; ey++) {
+                for (int ex = 0; ex < width; ex++) {
+                    if (isActive(ex, ey)) {
+                        activas++;
+                    }
+                }
+            }
+            celdasX = new int[activas];
+            celdasY = new int[activas];
+            int k = 0;
+            for (int ey = 0; ey < height; ey++) {
+                for (int ex = 0; ex < width; ex++) {
+                    if (isActive(ex, ey)) {
+                        celdasX[k] = ex;
+                        celdasY[k] = ey;
+                        k++;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Copia de la estructura (una fila por arreglo)
+         */
+        public int[][] getEstructura() {
+            int[][] copia = new int[height][];
+            for (int ey = 0; ey < height; ey++) {
+                copia[ey] = estructura[ey].clone();
+            }
+            return copia;
         }
 
         public boolean isActive(int x, int y) {
             return estructura[y][x] == 1;
         }
+
+        int getActivas() {
+            return celdasX.length;
+        }
+
+        /**
+         * Desplazamiento de cada celda activa respecto del ancla como indice
+         * lineal en un buffer con filas de stride elementos
+         */
+        int[] desplazamientos(int stride) {
+            int[] deltas = new int[celdasX.length];
+            for (int k = 0; k < deltas.length; k++) {
+                deltas[k] = (celdasY[k] - anclaY) * stride + (celdasX[k] - anclaX);
+            }
+            return deltas;
+        }
     }
 
-    // Clase que representa el trabajo de cada hilo con matriz local
-    static class HiloMorfologiaOptimizado extends Thread {
-
-        private final BufferedImage imagenOriginal;
-        private final int[][] matrizGlobal;
-        private final int[][] matrizLocal;
-        private final ElementoEstructurante elemento;
-        private final int startY, endY;
-        private final int width, height;
-        private final boolean esErosion;
-        private final CountDownLatch latch;
-        private final Object lockCopia;
-
-        public HiloMorfologiaOptimizado(BufferedImage imagenOriginal, int[][] matrizGlobal,
-                ElementoEstructurante elemento, int startY, int endY,
-                boolean esErosion, CountDownLatch latch, Object lockCopia) {
-            this.imagenOriginal = imagenOriginal;
-            this.matrizGlobal = matrizGlobal;
-            this.elemento = elemento;
-            this.startY = startY;
-            this.endY = endY;
-            this.width = imagenOriginal.getWidth();
-            this.height = imagenOriginal.getHeight();
-            this.esErosion = esErosion;
-            this.latch = latch;
-            this.lockCopia = lockCopia;
-
-            int filasLocales = endY - startY;
-            this.matrizLocal = new int[filasLocales][width];
-        }
-
-        @Override
-        public void run() {
-            try {
-                long tiempoInicio = System.currentTimeMillis();
-                System.out.println("Hilo " + Thread.currentThread().getName()
-                        + " procesando filas " + startY + " a " + (endY - 1));
+    // Lado minimo de una tesela del procesamiento paralelo
+    static final int LADO_MINIMO_TESELA = 64;
 
-                procesarFilasLocalmente();
+    // Filas por banda en el procesamiento secuencial
+    private static final int FILAS_BANDA_SECUENCIAL = 256;
 
-                long tiempoProcesamiento = System.currentTimeMillis() - tiempoInicio;
+    // Resultados del menu, para no recalcular la misma operacion sobre la
+    // misma imagen; se crea al primer uso
+    private static CacheResultados cacheMenu;
 
-                copiarResultadosAMatrizGlobal();
 
-                long tiempoTotal = System.currentTimeMillis() - tiempoInicio;
+    /**
+     * Establece la ruta de la imagen a procesar
+     */
+    public static void setImagen(String ruta) {
+        rutaImagen = ruta;
+    }
 
-                System.out.println("Hilo " + Thread.currentThread().getName()
-                        + " completado - Procesamiento: " + tiempoProcesamiento
-                        + "ms, Total: " + tiempoTotal + "ms");
+    /**
+     * Establece el numero de hilos del pool compartido
+     */
+    public static void setParalelismo(int hilos) {
+        EjecutorMorfologia.setParalelismo(hilos);
+    }
 
-            } catch (Exception e) {
-                System.err.println("Error en hilo " + Thread.currentThread().getName() + ": " + e.getMessage());
-                e.printStackTrace();
-            } finally {
-                latch.countDown();
-            }
-        }
+    /**
+     * Libera los hilos del pool compartido; se vuelven a crear si hace falta
+     */
+    public static void cerrarEjecutor() {
+        EjecutorMorfologia.cerrar();
+    }
 
-        private void procesarFilasLocalmente() {
-            for (int y = startY; y < endY; y++) {
-                int filaLocal = y - startY;
+    /**
+     * Método principal para procesar desde el menú
+     */
+    public static void procesar(String operacion, boolean paralelo) {
+        procesar(operacion, paralelo, false, null, 0);
+    }
 
-                for (int x = 0; x < width; x++) {
-                    int nuevoRGB;
+    /**
+     * Igual que procesar, con el motor binario: la imagen se umbraliza y se
+     * procesa como mascara blanco y negro
+     */
+    public static void procesarBinario(String operacion, boolean paralelo) {
+        procesar(operacion, paralelo, true, null, 0);
+    }
 
-                    if (esErosion) {
-                        nuevoRGB = calcularErosionRGB(x, y);
-                    } else {
-                        nuevoRGB = calcularDilatacionRGB(x, y);
-                    }
+    /**
+     * Igual que procesar, con un modo de borde explicito (constante es el
+     * color RGB para el modo CONSTANTE)
+     */
+    public static void procesarConBorde(String operacion, boolean paralelo, ModoBorde modo, int constante) {
+        procesar(operacion, paralelo, false, modo, constante);
+    }
 
-                    matrizLocal[filaLocal][x] = nuevoRGB;
-                }
+    private static void procesar(String operacion, boolean paralelo, boolean binario,
+            ModoBorde modo, int constante) {
+        try {
+            // Cargar imagen
+            File archivoImagen = new File(rutaImagen);
+            if (!archivoImagen.exists()) {
+                System.err.println("ERROR: No se encuentra el archivo: " + rutaImagen);
+                return;
             }
-        }
 
-        private void copiarResultadosAMatrizGlobal() {
-            synchronized (lockCopia) {
-                for (int filaLocal = 0; filaLocal < matrizLocal.length; filaLocal++) {
-                    int filaGlobal = startY + filaLocal;
-                    System.arraycopy(matrizLocal[filaLocal], 0,
-                            matrizGlobal[filaGlobal], 0, width);
-                }
+            BufferedImage imagen = ImageIO.read(archivoImagen);
+            if (imagen == null) {
+                System.err.println("ERROR: No se pudo leer la imagen: " + rutaImagen);
+                return;
             }
-        }
-
-        private int calcularErosionRGB(int x, int y) {
-            int minR = 255, minG = 255, minB = 255;
-            boolean encontroPixel = false;
 
-            for (int ey = 0; ey < elemento.height; ey++) {
-                for (int ex = 0; ex < elemento.width; ex++) {
-                    if (!elemento.isActive(ex, ey)) {
-                        continue;
-                    }
+            System.out.println("Imagen cargada: " + rutaImagen);
+            System.out.println("Dimensiones: " + imagen.getWidth() + "x" + imagen.getHeight());
 
-                    int px = x + ex - elemento.anclaX;
-                    int py = y + ey - elemento.anclaY;
+            // Seleccionar elemento estructurante
+            ElementoEstructurante elemento = seleccionarElementoEstructurante();
 
-                    if (px >= 0 && px < width && py >= 0 && py < height) {
-                        int rgb = imagenOriginal.getRGB(px, py);
+            // Procesar según operación
+            Operacion op = Operacion.desdeNombre(operacion);
+            if (op == null) {
+                System.err.println("ERROR: Operacion no válida: " + operacion);
+                return;
+            }
 
-                        int r = (rgb >> 16) & 0xFF;
-                        int g = (rgb >> 8) & 0xFF;
-                        int b = rgb & 0xFF;
+            BufferedImage resultado;
+            boolean desdeCache = false;
+            long tiempoInicio = System.nanoTime();
 
-                        minR = Math.min(minR, r);
-                        minG = Math.min(minG, g);
-                        minB = Math.min(minB, b);
-                        encontroPixel = true;
-                    }
+            if (binario) {
+                resultado = operacionBinaria(imagen, elemento, op, paralelo);
+            } else {
+                CacheResultados cache = obtenerCacheMenu();
+                CacheResultados.Clave clave = CacheResultados.claveImagen(imagen)
+                        .con(op, elemento, modo, constante, paralelo);
+                resultado = cache.buscar(clave);
+                desdeCache = resultado != null;
+                if (!desdeCache) {
+                    resultado = paralelo
+                            ? operacionParalela(imagen, elemento, op, modo, constante)
+                            : operacionSecuencial(imagen, elemento, op, modo, constante);
+                    cache.guardar(clave, resultado);
                 }
             }
 
-            if (!encontroPixel) {
-                return imagenOriginal.getRGB(x, y);
+            long tiempoTotal = System.nanoTime() - tiempoInicio;
+
+            // Guardar resultado
+            String sufijo = binario ? "_binaria" : (modo != null ? "_" + modo.getNombre() : "");
+            String nombreSalida = generarNombreSalida(op.getNombre() + sufijo, paralelo);
+            File archivoSalida = new File(nombreSalida);
+            ImageIO.write(resultado, "png", archivoSalida);
+
+            System.out.println("\n=== RESULTADO ===");
+            System.out.println("Operacion: " + operacion + (paralelo ? " (Paralela)" : " (Secuencial)"));
+            System.out.println("Tiempo total: " + tiempoTotal / 1_000_000 + " ms"
+                    + (desdeCache ? " (resultado de la cache)" : ""));
+            System.out.println("Imagen guardada en: " + nombreSalida);
+            if (!desdeCache) {
+                System.out.println(Metricas.ultima());
             }
+            System.out.println("=================\n");
 
-            return (minR << 16) | (minG << 8) | minB;
+        } catch (IOException e) {
+            System.err.println("ERROR al procesar imagen: " + e.getMessage());
+            e.printStackTrace();
         }
+    }
 
-        private int calcularDilatacionRGB(int x, int y) {
-            int maxR = 0, maxG = 0, maxB = 0;
-            boolean encontroPixel = false;
+    /**
+     * Igual que procesar, pero leyendo y escribiendo la imagen por franjas
+     * horizontales, para imagenes mas grandes que la memoria disponible
+     */
+    public static void procesarPorFranjas(String operacion, boolean paralelo) {
+        try {
+            File archivoImagen = new File(rutaImagen);
+            if (!archivoImagen.exists()) {
+                System.err.println("ERROR: No se encuentra el archivo: " + rutaImagen);
+                return;
+            }
 
-            for (int ey = 0; ey < elemento.height; ey++) {
-                for (int ex = 0; ex < elemento.width; ex++) {
-                    if (!elemento.isActive(ex, ey)) {
-                        continue;
-                    }
+            Operacion op = Operacion.desdeNombre(operacion);
+            if (op == null) {
+                System.err.println("ERROR: Operacion no válida: " + operacion);
+                return;
+            }
 
-                    int px = x + ex - elemento.anclaX;
-                    int py = y + ey - elemento.anclaY;
+            ElementoEstructurante elemento = seleccionarElementoEstructurante();
 
-                    if (px >= 0 && px < width && py >= 0 && py < height) {
-                        int rgb = imagenOriginal.getRGB(px, py);
+            String nombreSalida = generarNombreSalida(op.getNombre() + "_franjas", paralelo);
+            long tiempoInicio = System.nanoTime();
 
-                        int r = (rgb >> 16) & 0xFF;
-                        int g = (rgb >> 8) & 0xFF;
-                        int b = rgb & 0xFF;
+            ProcesadorFranjas.procesar(archivoImagen, new File(nombreSalida), "png", elemento, op,
+                    paralelo, ProcesadorFranjas.FILAS_POR_FRANJA);
 
-                        maxR = Math.max(maxR, r);
-                        maxG = Math.max(maxG, g);
-                        maxB = Math.max(maxB, b);
-                        encontroPixel = true;
-                    }
-                }
-            }
+            long tiempoTotal = System.nanoTime() - tiempoInicio;
 
-            if (!encontroPixel) {
-                return imagenOriginal.getRGB(x, y);
-            }
+            System.out.println("\n=== RESULTADO ===");
+            System.out.println("Operacion: " + op.getNombre() + " por franjas"
+                    + (paralelo ? " (Paralela)" : " (Secuencial)"));
+            System.out.println("Tiempo total (lectura y escritura incluidas): " + tiempoTotal / 1_000_000 + " ms");
+            System.out.println("Imagen guardada en: " + nombreSalida);
+            System.out.println("=================\n");
 
-            return (maxR << 16) | (maxG << 8) | maxB;
+        } catch (IOException e) {
+            System.err.println("ERROR al procesar imagen: " + e.getMessage());
+            e.printStackTrace();
         }
     }
 
-    private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
-
-    /**
-     * Establece la ruta de la imagen a procesar
-     */
-    public static void setImagen(String ruta) {
-        rutaImagen = ruta;
-    }
-
     /**
-     * Método principal para procesar desde el menú
+     * Operadores basados en reconstruccion desde el menu: "huecos", "maximos"
+     * o "minimos" (regionales)
      */
-    public static void procesar(String operacion, boolean paralelo) {
+    public static void procesarReconstruccion(String operador, boolean paralelo) {
         try {
-            // Cargar imagen
             File archivoImagen = new File(rutaImagen);
             if (!archivoImagen.exists()) {
                 System.err.println("ERROR: No se encuentra el archivo: " + rutaImagen);
@@ -229,42 +289,32 @@ public class MorfologiaMatematicaOptimizada {
                 return;
             }
 
-            System.out.println("Imagen cargada: " + rutaImagen);
-            System.out.println("Dimensiones: " + imagen.getWidth() + "x" + imagen.getHeight());
+            if (!operador.equals("huecos") && !operador.equals("maximos") && !operador.equals("minimos")) {
+                System.err.println("ERROR: Operador no válido: " + operador);
+                return;
+            }
 
-            // Seleccionar elemento estructurante
             ElementoEstructurante elemento = seleccionarElementoEstructurante();
 
-            // Procesar según operación
-            BufferedImage resultado;
             long tiempoInicio = System.nanoTime();
-
-            if (operacion.equalsIgnoreCase("erosion")) {
-                if (paralelo) {
-                    resultado = erosionParalela(imagen, elemento);
-                } else {
-                    resultado = erosionSecuencial(imagen, elemento);
-                }
-            } else if (operacion.equalsIgnoreCase("dilatacion")) {
-                if (paralelo) {
-                    resultado = dilatacionParalela(imagen, elemento);
-                } else {
-                    resultado = dilatacionSecuencial(imagen, elemento);
-                }
-            } else {
-                System.err.println("ERROR: Operacion no válida: " + operacion);
-                return;
+            BufferedImage resultado;
+            switch (operador) {
+                case "huecos":
+                    resultado = rellenarHuecos(imagen, elemento, paralelo);
+                    break;
+                case "maximos":
+                    resultado = maximosRegionales(imagen, elemento, paralelo);
+                    break;
+                default:
+                    resultado = minimosRegionales(imagen, elemento, paralelo);
             }
-
             long tiempoTotal = System.nanoTime() - tiempoInicio;
 
-            // Guardar resultado
-            String nombreSalida = generarNombreSalida(operacion, paralelo);
-            File archivoSalida = new File(nombreSalida);
-            ImageIO.write(resultado, "png", archivoSalida);
+            String nombreSalida = generarNombreSalida(operador, paralelo);
+            ImageIO.write(resultado, "png", new File(nombreSalida));
 
             System.out.println("\n=== RESULTADO ===");
-            System.out.println("Operacion: " + operacion + (paralelo ? " (Paralela)" : " (Secuencial)"));
+            System.out.println("Operador: " + operador + (paralelo ? " (Paralela)" : " (Secuencial)"));
             System.out.println("Tiempo total: " + tiempoTotal / 1_000_000 + " ms");
             System.out.println("Imagen guardada en: " + nombreSalida);
             System.out.println("=================\n");
@@ -308,6 +358,13 @@ public class MorfologiaMatematicaOptimizada {
         }
     }
 
+    static synchronized CacheResultados obtenerCacheMenu() {
+        if (cacheMenu == null) {
+            cacheMenu = CacheResultados.desdePropiedades(null);
+        }
+        return cacheMenu;
+    }
+
     /**
      * Genera el nombre del archivo de salida
      */
@@ -323,78 +380,400 @@ public class MorfologiaMatematicaOptimizada {
      * Aplica erosión usando hilos optimizados con matrices locales
      */
     public static BufferedImage erosionParalela(BufferedImage imagen, ElementoEstructurante elemento) {
-        return aplicarMorfologiaParalela(imagen, elemento, true);
+        return aplicarMorfologiaParalela(imagen, elemento, Operacion.EROSION);
     }
 
     /**
      * Aplica dilatación usando hilos optimizados con matrices locales
      */
     public static BufferedImage dilatacionParalela(BufferedImage imagen, ElementoEstructurante elemento) {
-        return aplicarMorfologiaParalela(imagen, elemento, false);
+        return aplicarMorfologiaParalela(imagen, elemento, Operacion.DILATACION);
     }
 
     /**
-     * Método principal que coordina los hilos optimizados
+     * Aplica cualquier operacion, simple o compuesta, en paralelo. Las etapas
+     * de las compuestas se calculan tesela por tesela, en memoria.
+     */
+    public static BufferedImage operacionParalela(BufferedImage imagen, ElementoEstructurante elemento,
+            Operacion operacion) {
+        return aplicarMorfologiaParalela(imagen, elemento, operacion);
+    }
+
+    /**
+     * Igual que operacionParalela, pero escribe el resultado en destino (del
+     * mismo tamaño y tipo, y distinto de la imagen) y lo devuelve. Con los
+     * buffers de trabajo del pool, las llamadas repetidas sobre el mismo
+     * destino no reservan arreglos del tamaño de la imagen.
+     */
+    public static BufferedImage operacionParalela(BufferedImage imagen, ElementoEstructurante elemento,
+            Operacion operacion, BufferedImage destino) {
+        validarDestino(imagen, destino);
+        return aplicarMorfologiaParalela(imagen, elemento, operacion, destino);
+    }
+
+    /**
+     * Igual que operacionParalela, pero los vecinos de fuera de la imagen se
+     * toman segun el modo de borde (constante es el color RGB del modo
+     * CONSTANTE). Da exactamente lo mismo que operacionSecuencial con el
+     * mismo modo. Con modo null se usa el comportamiento original.
+     */
+    public static BufferedImage operacionParalela(BufferedImage imagen, ElementoEstructurante elemento,
+            Operacion operacion, ModoBorde modo, int constante) {
+        if (modo == null) {
+            return aplicarMorfologiaParalela(imagen, elemento, operacion);
+        }
+        return aplicarConBorde(imagen, elemento, operacion, modo, constante, true);
+    }
+
+    /**
+     * Aplica la operacion sobre planos de un byte por canal (ver ImagenPlanar).
+     * Con conservarAlfa el resultado mantiene el alfa de la imagen; sin el,
+     * queda en 0 como en el resto de los motores. Las imagenes TYPE_BYTE_GRAY
+     * pasan por aqui automaticamente desde operacionParalela y
+     * operacionSecuencial.
+     */
+    public static BufferedImage operacionPlanar(BufferedImage imagen, ElementoEstructurante elemento,
+            Operacion operacion, boolean paralelo, boolean conservarAlfa) {
+        BufferedImage resultado = new BufferedImage(imagen.getWidth(), imagen.getHeight(), imagen.getType());
+        planarEn(imagen, elemento, operacion, paralelo, conservarAlfa, resultado);
+        return resultado;
+    }
+
+    private static void planarEn(BufferedImage imagen, ElementoEstructurante elemento,
+            Operacion operacion, boolean paralelo, boolean conservarAlfa, BufferedImage resultado) {
+        Metricas.Medicion medicion = Metricas.ACTIVAS ? Metricas.iniciar(operacion,
+                paralelo ? "planar paralelo" : "planar secuencial", imagen.getWidth(), imagen.getHeight()) : null;
+        try {
+            ImagenPlanar planar = ImagenPlanar.desdeImagen(imagen, conservarAlfa);
+            ImagenPlanar procesada = MotorPlanar.procesar(planar, elemento, operacion, paralelo);
+            planar.liberar();
+            procesada.escribir(resultado);
+            procesada.liberar();
+        } finally {
+            if (Metricas.ACTIVAS) {
+                medicion.terminar();
+            }
+        }
+    }
+
+    /**
+     * Método principal que reparte la imagen en teselas sobre el pool compartido.
+     * Cada tesela escribe su region directamente en el raster de salida; como
+     * las regiones no se solapan, no hace falta sincronizar.
      */
     private static BufferedImage aplicarMorfologiaParalela(BufferedImage imagen,
             ElementoEstructurante elemento,
-            boolean esErosion) {
+            Operacion operacion) {
+        return aplicarMorfologiaParalela(imagen, elemento, operacion, null);
+    }
+
+    private static BufferedImage aplicarMorfologiaParalela(BufferedImage imagen,
+            ElementoEstructurante elemento,
+            Operacion operacion, BufferedImage destino) {
+        // Las grises van por un solo plano de bytes
+        if (ImagenPlanar.esGris(imagen)) {
+            return aplicarPlanar(imagen, elemento, operacion, true, destino);
+        }
+
         int width = imagen.getWidth();
         int height = imagen.getHeight();
+        Metricas.Medicion medicion = Metricas.ACTIVAS
+                ? Metricas.iniciar(operacion, "paralelo", width, height) : null;
+        try {
+            int[] propios = RasterRapido.arregloEnteros(imagen);
+            int[] pixeles = propios != null ? propios
+                    : RasterRapido.leerPixeles(imagen, PoolBuffers.tomarEnteros(width * height));
+            BufferedImage resultado = destino != null ? destino : new BufferedImage(width, height, imagen.getType());
+            int[] destinoDirecto = RasterRapido.arregloEnteros(resultado);
+
+            PlanDescomposicion plan = PlanDescomposicion.planificar(elemento);
+            AutoajusteMorfologia.Estrategia estrategia = AutoajusteMorfologia.estrategia(width, height, plan);
+            calcularTeselas(operacion, estrategia != null ? plan.conKernel(estrategia.kernel) : plan,
+                    pixeles, width, height, estrategia, resultado, destinoDirecto);
+
+            if (propios == null) {
+                PoolBuffers.devolver(pixeles);
+            }
+            return resultado;
+        } finally {
+            if (Metricas.ACTIVAS) {
+                medicion.terminar();
+            }
+        }
+    }
 
-        int[][] matrizResultado = new int[height][width];
-        Object lockCopia = new Object();
-        CountDownLatch latch = new CountDownLatch(NUM_THREADS);
-
-        int filasPerHilo = height / NUM_THREADS;
-        int filasRestantes = height % NUM_THREADS;
+    private static BufferedImage aplicarPlanar(BufferedImage imagen, ElementoEstructurante elemento,
+            Operacion operacion, boolean paralelo, BufferedImage destino) {
+        BufferedImage resultado = destino != null ? destino
+                : new BufferedImage(imagen.getWidth(), imagen.getHeight(), imagen.getType());
+        planarEn(imagen, elemento, operacion, paralelo, false, resultado);
+        return resultado;
+    }
 
-        Thread[] hilos = new Thread[NUM_THREADS];
+    /**
+     * Reparte la operacion segun la estrategia del autoajuste: con un hilo,
+     * por franjas en el hilo que llama; si no, en el pool con los hilos y la
+     * forma de tesela que indica. Sin estrategia, teselas por defecto en todo
+     * el pool. Sin vecinos dentro de la imagen se conserva el pixel original,
+     * igual en todos los casos.
+     */
+    static void calcularTeselas(Operacion operacion, PlanDescomposicion plan, int[] pixeles,
+            int width, int height, AutoajusteMorfologia.Estrategia estrategia,
+            BufferedImage resultado, int[] destinoDirecto) {
+        EjecutorMorfologia.TareaRegion tarea = (x0, y0, x1, y1) -> procesarTesela(operacion, plan,
+                pixeles, width, height, true, x0, y0, x1, y1, resultado, destinoDirecto);
+
+        // Las teselas no bajan de un par de veces el halo, para acotar el trabajo repetido
+        ElementoEstructurante elemento = plan.getElemento();
+        int halo = operacion.etapas() * Math.max(elemento.width, elemento.height);
+        if (estrategia == null) {
+            EjecutorMorfologia.ejecutar(width, height, Math.max(LADO_MINIMO_TESELA, 2 * halo), tarea);
+        } else if (estrategia.hilos == 1) {
+            int filas = Math.max(estrategia.lado, 2 * halo);
+            for (int y0 = 0; y0 < height; y0 += filas) {
+                tarea.procesar(0, y0, width, Math.min(height, y0 + filas));
+            }
+        } else {
+            int lado = Math.max(estrategia.lado, 2 * halo);
+            EjecutorMorfologia.ejecutar(width, height, estrategia.franjas ? width : lado, lado,
+                    estrategia.hilos, tarea);
+        }
+    }
 
-        System.out.println("=== Procesamiento Optimizado ===");
-        System.out.println("Hilos: " + NUM_THREADS);
-        System.out.println("Imagen: " + width + "x" + height + " pixeles");
-        System.out.println("Operacion: " + (esErosion ? "Erosion" : "Dilatacion"));
-        System.out.println("Filas por hilo: ~" + filasPerHilo);
+    /**
+     * Calcula una tesela y la deja en el raster de salida: directamente en su
+     * arreglo si es TYPE_INT_*, o convirtiendo un buffer del tamaño de la tesela
+     */
+    static void procesarTesela(Operacion operacion, PlanDescomposicion plan,
+            int[] pixeles, int width, int height, boolean conservarOriginal,
+            int x0, int y0, int x1, int y1, BufferedImage resultado, int[] destinoDirecto) {
+        if (destinoDirecto != null) {
+            MorfologiaCompuesta.procesarRegion(operacion, plan, pixeles, 0, width, width, height,
+                    conservarOriginal, x0, y0, x1, y1, destinoDirecto, y0 * width + x0, width);
+            RasterRapido.escribirRegion(destinoDirecto, y0 * width + x0, width,
+                    x0, y0, x1, y1, resultado);
+        } else {
+            int anchoTesela = x1 - x0;
+            int[] tesela = PoolBuffers.tomarEnteros(anchoTesela * (y1 - y0));
+            MorfologiaCompuesta.procesarRegion(operacion, plan, pixeles, 0, width, width, height,
+                    conservarOriginal, x0, y0, x1, y1, tesela, 0, anchoTesela);
+            RasterRapido.escribirRegion(tesela, 0, anchoTesela, x0, y0, x1, y1, resultado);
+            PoolBuffers.devolver(tesela);
+        }
+    }
 
-        long tiempoInicio = System.currentTimeMillis();
+    /**
+     * Igual que operacionParalela sobre cada imagen, pero con un solo plan y
+     * una sola pasada por el pool para todas: las imagenes se apilan una
+     * debajo de otra y las teselas de todas van en la misma lista, asi que
+     * las chicas no dejan hilos ociosos esperando a la siguiente. Las grises
+     * van por el motor planar una por una.
+     */
+    static BufferedImage[] operacionParalelaJuntas(BufferedImage[] imagenes, ElementoEstructurante elemento,
+            Operacion operacion) {
+        int cantidad = imagenes.length;
+        BufferedImage[] resultados = new BufferedImage[cantidad];
+        int[][] pixeles = new int[cantidad][];
+        boolean[] propios = new boolean[cantidad];
+        int[][] directos = new int[cantidad][];
+        // Fila de la pila donde empieza cada imagen; -1 las que no se juntan
+        int[] inicios = new int[cantidad];
+
+        PlanDescomposicion plan = PlanDescomposicion.planificar(elemento);
+        int halo = operacion.etapas() * Math.max(elemento.width, elemento.height);
+        int lado = Math.max(LADO_MINIMO_TESELA, 2 * halo);
+        int anchoMaximo = 0;
+        int alto = 0;
+        int teselas = 0;
+        for (int i = 0; i < cantidad; i++) {
+            BufferedImage imagen = imagenes[i];
+            if (ImagenPlanar.esGris(imagen)) {
+                resultados[i] = aplicarPlanar(imagen, elemento, operacion, true, null);
+                inicios[i] = -1;
+                continue;
+            }
+            int width = imagen.getWidth();
+            int height = imagen.getHeight();
+            int[] arreglo = RasterRapido.arregloEnteros(imagen);
+            propios[i] = arreglo != null;
+            pixeles[i] = arreglo != null ? arreglo
+                    : RasterRapido.leerPixeles(imagen, PoolBuffers.tomarEnteros(width * height));
+            resultados[i] = new BufferedImage(width, height, imagen.getType());
+            directos[i] = RasterRapido.arregloEnteros(resultados[i]);
+            inicios[i] = alto;
+            alto += height;
+            anchoMaximo = Math.max(anchoMaximo, width);
+            teselas += ((width + lado - 1) / lado) * ((height + lado - 1) / lado);
+        }
+        if (teselas == 0) {
+            return resultados;
+        }
 
-        for (int i = 0; i < NUM_THREADS; i++) {
-            int startY = i * filasPerHilo;
-            int endY = (i == NUM_THREADS - 1) ? startY + filasPerHilo + filasRestantes : startY + filasPerHilo;
+        Metricas.Medicion medicion = Metricas.ACTIVAS
+                ? Metricas.iniciar(operacion, "paralelo en lote", anchoMaximo, alto) : null;
+        try {
+            int[] regiones = new int[4 * teselas];
+            int[] imagenDeTesela = new int[teselas];
+            int n = 0;
+            for (int i = 0; i < cantidad; i++) {
+                if (inicios[i] < 0) {
+                    continue;
+                }
+                int width = imagenes[i].getWidth();
+                int height = imagenes[i].getHeight();
+                for (int y0 = 0; y0 < height; y0 += lado) {
+                    for (int x0 = 0; x0 < width; x0 += lado) {
+                        regiones[4 * n] = x0;
+                        regiones[4 * n + 1] = inicios[i] + y0;
+                        regiones[4 * n + 2] = Math.min(width, x0 + lado);
+                        regiones[4 * n + 3] = inicios[i] + Math.min(height, y0 + lado);
+                        imagenDeTesela[n] = i;
+                        n++;
+                    }
+                }
+            }
 
-            hilos[i] = new HiloMorfologiaOptimizado(imagen, matrizResultado, elemento,
-                    startY, endY, esErosion, latch, lockCopia);
-            hilos[i].setName("" + i);
-            hilos[i].start();
+            // Las teselas de una imagen son consecutivas y de filas crecientes en la pila
+            int[] primeraFila = new int[teselas];
+            for (int t = 0; t < teselas; t++) {
+                primeraFila[t] = regiones[4 * t + 1];
+            }
+            EjecutorMorfologia.ejecutarRegiones(regiones, teselas, (x0, y0, x1, y1) -> {
+                int t = Arrays.binarySearch(primeraFila, y0);
+                // Varias teselas empiezan en la misma fila; todas son de la misma imagen
+                int i = imagenDeTesela[t];
+                int desplazamiento = inicios[i];
+                BufferedImage imagen = imagenes[i];
+                procesarTesela(operacion, plan, pixeles[i], imagen.getWidth(), imagen.getHeight(), true,
+                        x0, y0 - desplazamiento, x1, y1 - desplazamiento, resultados[i], directos[i]);
+            });
+
+            for (int i = 0; i < cantidad; i++) {
+                if (inicios[i] >= 0 && !propios[i]) {
+                    PoolBuffers.devolver(pixeles[i]);
+                }
+            }
+            return resultados;
+        } finally {
+            if (Metricas.ACTIVAS) {
+                medicion.terminar();
+            }
         }
+    }
 
+    /**
+     * Motor binario para mascaras: umbraliza la imagen (luminancia >= 128),
+     * calcula sobre 64 pixeles por palabra y devuelve una imagen blanco y
+     * negro del mismo tipo. Sobre imagenes blanco y negro da el mismo
+     * resultado que operacionParalela (paralelo) u operacionSecuencial.
+     */
+    public static BufferedImage operacionBinaria(BufferedImage imagen, ElementoEstructurante elemento,
+            Operacion operacion, boolean paralelo) {
+        int width = imagen.getWidth();
+        int height = imagen.getHeight();
+        Metricas.Medicion medicion = Metricas.ACTIVAS ? Metricas.iniciar(operacion,
+                paralelo ? "binario paralelo" : "binario secuencial", width, height) : null;
         try {
-            latch.await();
+            MascaraBinaria mascara = MascaraBinaria.desdeImagen(imagen, MascaraBinaria.UMBRAL);
+            BufferedImage resultado = new BufferedImage(width, height, imagen.getType());
+            mascara.aplicar(operacion, elemento, paralelo).escribir(resultado);
+
+            // Los pixeles sin vecinos conservan el pixel original entero (con su alfa),
+            // como en el calculo RGB; en las restas de las compuestas quedan en 0
+            boolean conservaPixel = operacion == Operacion.EROSION || operacion == Operacion.DILATACION
+                    || operacion == Operacion.APERTURA || operacion == Operacion.CIERRE;
+            MascaraBinaria sinVecinos = paralelo && conservaPixel ? mascara.sinVecinos(elemento) : null;
+            if (sinVecinos != null) {
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        if (sinVecinos.get(x, y)) {
+                            resultado.setRGB(x, y, imagen.getRGB(x, y));
+                        }
+                    }
+                }
+            }
+            return resultado;
+        } finally {
+            if (Metricas.ACTIVAS) {
+                medicion.terminar();
+            }
+        }
+    }
 
-            long tiempoProcesamiento = System.currentTimeMillis() - tiempoInicio;
-            System.out.println("Procesamiento paralelo completado en " + tiempoProcesamiento + " ms");
+    /**
+     * Reconstruccion por dilatacion del marcador bajo la mascara: dilatacion
+     * geodesica repetida hasta que nada cambia, calculada con una cola de
+     * pixeles activos en lugar de pasadas completas. Las dos imagenes deben
+     * tener el mismo tamaño; el resultado es del tipo de la mascara.
+     */
+    public static BufferedImage reconstruccionPorDilatacion(BufferedImage marcador, BufferedImage mascara,
+            ElementoEstructurante elemento, boolean paralelo) {
+        validarMismoTamano(marcador, mascara);
+        int[] resultado = ReconstruccionGeodesica.porDilatacion(RasterRapido.leerPixeles(marcador),
+                RasterRapido.leerPixeles(mascara), mascara.getWidth(), mascara.getHeight(), elemento, paralelo);
+        return crearResultado(resultado, mascara);
+    }
 
-        } catch (InterruptedException e) {
-            System.err.println("Error esperando hilos: " + e.getMessage());
-            e.printStackTrace();
-        }
+    /**
+     * Reconstruccion por erosion del marcador sobre la mascara, dual de
+     * reconstruccionPorDilatacion
+     */
+    public static BufferedImage reconstruccionPorErosion(BufferedImage marcador, BufferedImage mascara,
+            ElementoEstructurante elemento, boolean paralelo) {
+        validarMismoTamano(marcador, mascara);
+        int[] resultado = ReconstruccionGeodesica.porErosion(RasterRapido.leerPixeles(marcador),
+                RasterRapido.leerPixeles(mascara), mascara.getWidth(), mascara.getHeight(), elemento, paralelo);
+        return crearResultado(resultado, mascara);
+    }
 
-        return convertirMatrizAImagen(matrizResultado, width, height, imagen.getType());
+    /**
+     * Rellena los huecos (zonas oscuras rodeadas que no tocan el borde)
+     */
+    public static BufferedImage rellenarHuecos(BufferedImage imagen, ElementoEstructurante elemento,
+            boolean paralelo) {
+        int[] resultado = ReconstruccionGeodesica.rellenarHuecos(RasterRapido.leerPixeles(imagen),
+                imagen.getWidth(), imagen.getHeight(), elemento, paralelo);
+        return crearResultado(resultado, imagen);
     }
 
     /**
-     * Convierte la matriz de enteros RGB a BufferedImage
+     * Maximos regionales por canal: blanco en las mesetas rodeadas de valores
+     * mas bajos, negro en el resto
      */
-    private static BufferedImage convertirMatrizAImagen(int[][] matriz, int width, int height, int tipo) {
-        BufferedImage resultado = new BufferedImage(width, height, tipo);
+    public static BufferedImage maximosRegionales(BufferedImage imagen, ElementoEstructurante elemento,
+            boolean paralelo) {
+        int[] resultado = ReconstruccionGeodesica.maximosRegionales(RasterRapido.leerPixeles(imagen),
+                imagen.getWidth(), imagen.getHeight(), elemento, paralelo);
+        return crearResultado(resultado, imagen);
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                resultado.setRGB(x, y, matriz[y][x]);
-            }
+    /**
+     * Minimos regionales por canal, como maximosRegionales
+     */
+    public static BufferedImage minimosRegionales(BufferedImage imagen, ElementoEstructurante elemento,
+            boolean paralelo) {
+        int[] resultado = ReconstruccionGeodesica.minimosRegionales(RasterRapido.leerPixeles(imagen),
+                imagen.getWidth(), imagen.getHeight(), elemento, paralelo);
+        return crearResultado(resultado, imagen);
+    }
+
+    private static void validarMismoTamano(BufferedImage a, BufferedImage b) {
+        if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+            throw new IllegalArgumentException("Las imagenes deben tener el mismo tamaño: "
+                    + a.getWidth() + "x" + a.getHeight() + " y " + b.getWidth() + "x" + b.getHeight());
+        }
+    }
+
+    private static void validarDestino(BufferedImage imagen, BufferedImage destino) {
+        validarMismoTamano(imagen, destino);
+        if (destino.getType() != imagen.getType() || destino == imagen) {
+            throw new IllegalArgumentException("El destino debe ser otra imagen del mismo tipo");
         }
+    }
 
+    private static BufferedImage crearResultado(int[] pixeles, BufferedImage modelo) {
+        BufferedImage resultado = new BufferedImage(modelo.getWidth(), modelo.getHeight(), modelo.getType());
+        RasterRapido.escribirPixeles(pixeles, resultado);
         return resultado;
     }
 
@@ -402,96 +781,290 @@ public class MorfologiaMatematicaOptimizada {
      * Versiones secuenciales para comparación
      */
     public static BufferedImage erosionSecuencial(BufferedImage imagen, ElementoEstructurante elemento) {
-        return aplicarMorfologiaSecuencial(imagen, elemento, true);
+        return aplicarMorfologiaSecuencial(imagen, elemento, Operacion.EROSION);
     }
 
     public static BufferedImage dilatacionSecuencial(BufferedImage imagen, ElementoEstructurante elemento) {
-        return aplicarMorfologiaSecuencial(imagen, elemento, false);
+        return aplicarMorfologiaSecuencial(imagen, elemento, Operacion.DILATACION);
+    }
+
+    public static BufferedImage operacionSecuencial(BufferedImage imagen, ElementoEstructurante elemento,
+            Operacion operacion) {
+        return aplicarMorfologiaSecuencial(imagen, elemento, operacion);
+    }
+
+    /**
+     * Igual que operacionSecuencial, escribiendo en destino como
+     * operacionParalela(imagen, elemento, operacion, destino)
+     */
+    public static BufferedImage operacionSecuencial(BufferedImage imagen, ElementoEstructurante elemento,
+            Operacion operacion, BufferedImage destino) {
+        validarDestino(imagen, destino);
+        return aplicarMorfologiaSecuencial(imagen, elemento, operacion, destino);
+    }
+
+    public static BufferedImage operacionSecuencial(BufferedImage imagen, ElementoEstructurante elemento,
+            Operacion operacion, ModoBorde modo, int constante) {
+        if (modo == null) {
+            return aplicarMorfologiaSecuencial(imagen, elemento, operacion);
+        }
+        return aplicarConBorde(imagen, elemento, operacion, modo, constante, false);
+    }
+
+    /**
+     * Rellena la imagen con el halo del modo y calcula sobre el buffer
+     * rellenado, en paralelo o de una pasada
+     */
+    private static BufferedImage aplicarConBorde(BufferedImage imagen, ElementoEstructurante elemento,
+            Operacion operacion, ModoBorde modo, int constante, boolean paralelo) {
+        int width = imagen.getWidth();
+        int height = imagen.getHeight();
+        Metricas.Medicion medicion = Metricas.ACTIVAS ? Metricas.iniciar(operacion,
+                paralelo ? "borde paralelo" : "borde secuencial", width, height) : null;
+        try {
+            int[] propios = RasterRapido.arregloEnteros(imagen);
+            int[] pixeles = propios != null ? propios
+                    : RasterRapido.leerPixeles(imagen, PoolBuffers.tomarEnteros(width * height));
+
+            // Con TYPE_INT_* la ultima etapa escribe directo en el raster de salida
+            BufferedImage resultado = new BufferedImage(width, height, imagen.getType());
+            int[] destinoDirecto = RasterRapido.arregloEnteros(resultado);
+            int[] calculado = ProcesadorBordes.procesar(pixeles, width, height, elemento, operacion,
+                    modo, constante, paralelo, destinoDirecto);
+            RasterRapido.escribirPixeles(calculado, resultado);
+            if (calculado != destinoDirecto) {
+                PoolBuffers.devolver(calculado);
+            }
+            if (propios == null) {
+                PoolBuffers.devolver(pixeles);
+            }
+            return resultado;
+        } finally {
+            if (Metricas.ACTIVAS) {
+                medicion.terminar();
+            }
+        }
     }
 
     private static BufferedImage aplicarMorfologiaSecuencial(BufferedImage imagen,
             ElementoEstructurante elemento,
-            boolean esErosion) {
+            Operacion operacion) {
+        return aplicarMorfologiaSecuencial(imagen, elemento, operacion, null);
+    }
+
+    private static BufferedImage aplicarMorfologiaSecuencial(BufferedImage imagen,
+            ElementoEstructurante elemento,
+            Operacion operacion, BufferedImage destino) {
+        if (ImagenPlanar.esGris(imagen)) {
+            return aplicarPlanar(imagen, elemento, operacion, false, destino);
+        }
+
         int width = imagen.getWidth();
         int height = imagen.getHeight();
-        BufferedImage resultado = new BufferedImage(width, height, imagen.getType());
+        Metricas.Medicion medicion = Metricas.ACTIVAS
+                ? Metricas.iniciar(operacion, "secuencial", width, height) : null;
+        try {
+            BufferedImage resultado = destino != null ? destino : new BufferedImage(width, height, imagen.getType());
+            int[] propios = RasterRapido.arregloEnteros(imagen);
+            int[] pixeles = propios != null ? propios
+                    : RasterRapido.leerPixeles(imagen, PoolBuffers.tomarEnteros(width * height));
+            int[] destinoDirecto = RasterRapido.arregloEnteros(resultado);
+
+            PlanDescomposicion plan = PlanDescomposicion.planificar(elemento);
+            AutoajusteMorfologia.Estrategia estrategia = AutoajusteMorfologia.estrategia(width, height, plan);
+            if (estrategia != null) {
+                plan = plan.conKernel(estrategia.kernel);
+            }
 
-        System.out.println("Procesamiento secuencial iniciado...");
-        long tiempoInicio = System.currentTimeMillis();
+            // Por bandas, para que los intermedios de las compuestas no ocupen la imagen completa.
+            // Sin vecinos dentro de la imagen se usa blanco (erosion) o negro (dilatacion)
+            for (int y0 = 0; y0 < height; y0 += FILAS_BANDA_SECUENCIAL) {
+                int y1 = Math.min(height, y0 + FILAS_BANDA_SECUENCIAL);
+                procesarTesela(operacion, plan, pixeles, width, height, false,
+                        0, y0, width, y1, resultado, destinoDirecto);
+            }
+
+            if (propios == null) {
+                PoolBuffers.devolver(pixeles);
+            }
+            return resultado;
+        } finally {
+            if (Metricas.ACTIVAS) {
+                medicion.terminar();
+            }
+        }
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int nuevoRGB;
+    /**
+     * Calculo directo de la region [x0, x1) x [y0, y1). El pixel (px, py) de
+     * la imagen se lee de pixeles[offsetOrigen + py * strideOrigen + px], lo
+     * que permite leer de un buffer que solo cubre parte de la imagen.
+     *
+     * Los pixeles cuyo EE completo cae dentro de la imagen se calculan con la
+     * tabla de desplazamientos lineales del EE, sin controles de borde; solo
+     * la franja del borde comprueba cada vecino.
+     */
+    static void procesarRegionDirecta(int[] pixeles, int offsetOrigen, int strideOrigen,
+            int width, int height, ElementoEstructurante elemento,
+            boolean esErosion, boolean conservarOriginal,
+            int x0, int y0, int x1, int y1, int[] destino, int offsetDestino, int strideDestino) {
+        // Interior [ix0, ix1) x [iy0, iy1); vacio si el EE no tiene celdas activas
+        int ix0 = Math.min(x1, Math.max(x0, elemento.anclaX));
+        int ix1 = Math.max(ix0, Math.min(x1, width - (elemento.width - 1 - elemento.anclaX)));
+        int iy0 = Math.min(y1, Math.max(y0, elemento.anclaY));
+        int iy1 = Math.max(iy0, Math.min(y1, height - (elemento.height - 1 - elemento.anclaY)));
+        if (elemento.getActivas() == 0) {
+            ix1 = ix0;
+        }
+        int[] deltas = elemento.desplazamientos(strideOrigen);
+
+        for (int y = y0; y < y1; y++) {
+            int filaDestino = offsetDestino + (y - y0) * strideDestino - x0;
+            boolean filaInterior = y >= iy0 && y < iy1 && ix1 > ix0;
+            int bordeIzquierdo = filaInterior ? ix0 : x1;
+            int bordeDerecho = filaInterior ? ix1 : x1;
+
+            for (int x = x0; x < bordeIzquierdo; x++) {
+                destino[filaDestino + x] = calcularBorde(pixeles, offsetOrigen, strideOrigen,
+                        width, height, elemento, esErosion, x, y, conservarOriginal);
+            }
 
+            if (filaInterior) {
+                int centro = offsetOrigen + y * strideOrigen + ix0;
                 if (esErosion) {
-                    nuevoRGB = calcularErosionRGBSecuencial(imagen, elemento, x, y);
+                    erosionInterior(pixeles, centro, deltas, destino, filaDestino + ix0, ix1 - ix0);
                 } else {
-                    nuevoRGB = calcularDilatacionRGBSecuencial(imagen, elemento, x, y);
+                    dilatacionInterior(pixeles, centro, deltas, destino, filaDestino + ix0, ix1 - ix0);
                 }
+            }
 
-                resultado.setRGB(x, y, nuevoRGB);
+            for (int x = bordeDerecho; x < x1; x++) {
+                destino[filaDestino + x] = calcularBorde(pixeles, offsetOrigen, strideOrigen,
+                        width, height, elemento, esErosion, x, y, conservarOriginal);
             }
         }
+    }
 
-        long tiempoProcesamiento = System.currentTimeMillis() - tiempoInicio;
-        System.out.println("Procesamiento secuencial completado en " + tiempoProcesamiento + " ms");
+    private static int calcularBorde(int[] pixeles, int offsetOrigen, int strideOrigen,
+            int width, int height, ElementoEstructurante elemento, boolean esErosion,
+            int x, int y, boolean conservarOriginal) {
+        return esErosion
+                ? calcularErosionRGB(pixeles, offsetOrigen, strideOrigen, width, height, elemento,
+                        x, y, conservarOriginal)
+                : calcularDilatacionRGB(pixeles, offsetOrigen, strideOrigen, width, height, elemento,
+                        x, y, conservarOriginal);
+    }
 
-        return resultado;
+    /**
+     * Minimo por canal de cantidad pixeles seguidos desde pixeles[centro],
+     * todos con la vecindad completa dentro de la imagen
+     */
+    private static void erosionInterior(int[] pixeles, int centro, int[] deltas,
+            int[] destino, int inicioDestino, int cantidad) {
+        for (int i = 0; i < cantidad; i++) {
+            int base = centro + i;
+            int minR = 255, minG = 255, minB = 255;
+
+            for (int d : deltas) {
+                int rgb = pixeles[base + d];
+                minR = Math.min(minR, (rgb >> 16) & 0xFF);
+                minG = Math.min(minG, (rgb >> 8) & 0xFF);
+                minB = Math.min(minB, rgb & 0xFF);
+            }
+
+            destino[inicioDestino + i] = (minR << 16) | (minG << 8) | minB;
+        }
     }
 
-    private static int calcularErosionRGBSecuencial(BufferedImage imagen, ElementoEstructurante elemento, int x, int y) {
+    /**
+     * Maximo por canal, como erosionInterior
+     */
+    private static void dilatacionInterior(int[] pixeles, int centro, int[] deltas,
+            int[] destino, int inicioDestino, int cantidad) {
+        for (int i = 0; i < cantidad; i++) {
+            int base = centro + i;
+            int maxR = 0, maxG = 0, maxB = 0;
+
+            for (int d : deltas) {
+                int rgb = pixeles[base + d];
+                maxR = Math.max(maxR, (rgb >> 16) & 0xFF);
+                maxG = Math.max(maxG, (rgb >> 8) & 0xFF);
+                maxB = Math.max(maxB, rgb & 0xFF);
+            }
+
+            destino[inicioDestino + i] = (maxR << 16) | (maxG << 8) | maxB;
+        }
+    }
+
+    /**
+     * Minimo por canal en la vecindad de (x, y). Si ningun vecino cae dentro
+     * de la imagen devuelve el pixel original o, si conservarOriginal es
+     * falso, blanco.
+     */
+    static int calcularErosionRGB(int[] pixeles, int offsetOrigen, int strideOrigen,
+            int width, int height, ElementoEstructurante elemento,
+            int x, int y, boolean conservarOriginal) {
         int minR = 255, minG = 255, minB = 255;
+        boolean encontroPixel = false;
 
-        for (int ey = 0; ey < elemento.height; ey++) {
-            for (int ex = 0; ex < elemento.width; ex++) {
-                if (!elemento.isActive(ex, ey)) {
-                    continue;
-                }
+        for (int k = 0; k < elemento.celdasX.length; k++) {
+            int px = x + elemento.celdasX[k] - elemento.anclaX;
+            int py = y + elemento.celdasY[k] - elemento.anclaY;
 
-                int px = x + ex - elemento.anclaX;
-                int py = y + ey - elemento.anclaY;
+            if (px >= 0 && px < width && py >= 0 && py < height) {
+                int rgb = pixeles[offsetOrigen + py * strideOrigen + px];
 
-                if (px >= 0 && px < imagen.getWidth() && py >= 0 && py < imagen.getHeight()) {
-                    int rgb = imagen.getRGB(px, py);
-                    int r = (rgb >> 16) & 0xFF;
-                    int g = (rgb >> 8) & 0xFF;
-                    int b = rgb & 0xFF;
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
 
-                    minR = Math.min(minR, r);
-                    minG = Math.min(minG, g);
-                    minB = Math.min(minB, b);
-                }
+                minR = Math.min(minR, r);
+                minG = Math.min(minG, g);
+                minB = Math.min(minB, b);
+                encontroPixel = true;
             }
         }
 
+        if (!encontroPixel && conservarOriginal) {
+            return pixeles[offsetOrigen + y * strideOrigen + x];
+        }
+
         return (minR << 16) | (minG << 8) | minB;
     }
 
-    private static int calcularDilatacionRGBSecuencial(BufferedImage imagen, ElementoEstructurante elemento, int x, int y) {
+    /**
+     * Maximo por canal en la vecindad de (x, y). Si ningun vecino cae dentro
+     * de la imagen devuelve el pixel original o, si conservarOriginal es
+     * falso, negro.
+     */
+    static int calcularDilatacionRGB(int[] pixeles, int offsetOrigen, int strideOrigen,
+            int width, int height, ElementoEstructurante elemento,
+            int x, int y, boolean conservarOriginal) {
         int maxR = 0, maxG = 0, maxB = 0;
+        boolean encontroPixel = false;
 
-        for (int ey = 0; ey < elemento.height; ey++) {
-            for (int ex = 0; ex < elemento.width; ex++) {
-                if (!elemento.isActive(ex, ey)) {
-                    continue;
-                }
+        for (int k = 0; k < elemento.celdasX.length; k++) {
+            int px = x + elemento.celdasX[k] - elemento.anclaX;
+            int py = y + elemento.celdasY[k] - elemento.anclaY;
 
-                int px = x + ex - elemento.anclaX;
-                int py = y + ey - elemento.anclaY;
+            if (px >= 0 && px < width && py >= 0 && py < height) {
+                int rgb = pixeles[offsetOrigen + py * strideOrigen + px];
 
-                if (px >= 0 && px < imagen.getWidth() && py >= 0 && py < imagen.getHeight()) {
-                    int rgb = imagen.getRGB(px, py);
-                    int r = (rgb >> 16) & 0xFF;
-                    int g = (rgb >> 8) & 0xFF;
-                    int b = rgb & 0xFF;
+                int r = (rgb >> 16) & 0xFF;
+                int g = (rgb >> 8) & 0xFF;
+                int b = rgb & 0xFF;
 
-                    maxR = Math.max(maxR, r);
-                    maxG = Math.max(maxG, g);
-                    maxB = Math.max(maxB, b);
-                }
+                maxR = Math.max(maxR, r);
+                maxG = Math.max(maxG, g);
+                maxB = Math.max(maxB, b);
+                encontroPixel = true;
             }
         }
 
+        if (!encontroPixel && conservarOriginal) {
+            return pixeles[offsetOrigen + y * strideOrigen + x];
+        }
+
         return (maxR << 16) | (maxG << 8) | maxB;
     }
 
@@ -543,12 +1116,149 @@ public class MorfologiaMatematicaOptimizada {
         return new ElementoEstructurante(estructura, 1, 1);
     }
 
+    /**
+     * Elemento por nombre, para los modos no interactivos: cruz, linea,
+     * lineav, x, l, linv o cuadradoN (N x N centrado). Devuelve null si no
+     * existe.
+     */
+    public static ElementoEstructurante crearPorNombre(String nombre) {
+        String n = nombre.trim().toLowerCase();
+        switch (n) {
+            case "cruz":
+                return crearCruz3x3();
+            case "linea":
+                return crearLineaHorizontal();
+            case "lineav":
+                return crearLineaVertical();
+            case "x":
+                return crearX();
+            case "l":
+                return crearLNormal();
+            case "linv":
+                return crearLInvertida();
+            default:
+                if (n.startsWith("cuadrado")) {
+                    try {
+                        int lado = Integer.parseInt(n.substring("cuadrado".length()));
+                        if (lado > 0) {
+                            int[][] estructura = new int[lado][lado];
+                            for (int[] fila : estructura) {
+                                Arrays.fill(fila, 1);
+                            }
+                            return new ElementoEstructurante(estructura, lado / 2, lado / 2);
+                        }
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                }
+                return null;
+        }
+    }
+
+    /**
+     * Elemento a partir de un texto: un nombre de crearPorNombre o una matriz
+     * de 0 y 1 con las filas separadas por '/', opcionalmente seguida del
+     * ancla como @columnaxfila ("010/111/010", "11/01@1x0"). Sin ancla se usa
+     * la celda central. Devuelve null si el texto no es ninguna de las dos
+     * cosas; un ancla fuera de la matriz lanza IllegalArgumentException.
+     */
+    public static ElementoEstructurante crearDesdeDefinicion(String definicion) {
+        String texto = definicion.trim().toLowerCase();
+        if (texto.isEmpty() || (texto.charAt(0) != '0' && texto.charAt(0) != '1')) {
+            return crearPorNombre(texto);
+        }
+
+        String matriz = texto;
+        int anclaX = -1;
+        int anclaY = -1;
+        int arroba = texto.indexOf('@');
+        if (arroba >= 0) {
+            matriz = texto.substring(0, arroba);
+            String[] ancla = texto.substring(arroba + 1).split("x");
+            if (ancla.length != 2) {
+                return null;
+            }
+            try {
+                anclaX = Integer.parseInt(ancla[0].trim());
+                anclaY = Integer.parseInt(ancla[1].trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        String[] filas = matriz.split("/");
+        int ancho = filas[0].trim().length();
+        int[][] estructura = new int[filas.length][ancho];
+        for (int y = 0; y < filas.length; y++) {
+            String fila = filas[y].trim();
+            if (fila.length() != ancho || ancho == 0) {
+                return null;
+            }
+            for (int x = 0; x < ancho; x++) {
+                char c = fila.charAt(x);
+                if (c != '0' && c != '1') {
+                    return null;
+                }
+                estructura[y][x] = c - '0';
+            }
+        }
+        if (arroba < 0) {
+            anclaX = ancho / 2;
+            anclaY = filas.length / 2;
+        }
+        return new ElementoEstructurante(estructura, anclaX, anclaY);
+    }
+
 }
 
 // Clase de prueba optimizada
 class TestMorfologiaOptimizada {
 
     public static void main(String[] args) {
+        // Modo por lotes, sin menu: lote <entrada> <salida> <operaciones> <elemento> ...
+        if (args.length > 0 && args[0].equals("lote")) {
+            ProcesadorLotes.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Archivos raw mapeados en memoria: raw a-raw|a-imagen|procesar ...
+        if (args.length > 0 && args[0].equals("raw")) {
+            ProcesadorRaw.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Una cadena de operaciones sin preguntas: aplicar <entrada> <salida> <cadena> ...
+        if (args.length > 0 && args[0].equals("aplicar")) {
+            ProcesadorCli.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Secuencia de cuadros recalculando solo lo que cambia: cuadros <entrada> <salida> ...
+        if (args.length > 0 && args[0].equals("cuadros")) {
+            ProcesadorIncremental.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Calibracion del autoajuste: autoajuste [archivo] [maxMpx]
+        if (args.length > 0 && args[0].equals("autoajuste")) {
+            AutoajusteMorfologia.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Servicio HTTP y su generador de carga: servidor [puerto ...], carga <url|local> ...
+        if (args.length > 0 && args[0].equals("servidor")) {
+            ServidorMorfologia.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("carga")) {
+            GeneradorCarga.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        // Bandas repartidas entre procesos: trabajador [puerto] [--direccion D], distribuido <entrada> <salida> <cadena> ...
+        if (args.length > 0 && args[0].equals("trabajador")) {
+            TrabajadorMorfologia.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("distribuido")) {
+            CoordinadorMorfologia.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         System.out.println("=== Test Morfologia Matematica Optimizada ===");
         System.out.println("Procesadores disponibles: " + Runtime.getRuntime().availableProcessors());
 
@@ -564,6 +1274,12 @@ class TestMorfologiaOptimizada {
             System.out.println("3. Erosion (Paralela)");
             System.out.println("4. Dilatacion (Paralela)");
             System.out.println("5. Cambiar imagen de entrada");
+            System.out.println("6. Operacion compuesta (Paralela)");
+            System.out.println("7. Procesar por franjas (imagenes grandes)");
+            System.out.println("8. Operacion binaria (mascaras blanco y negro)");
+            System.out.println("9. Operacion con modo de borde (Paralela)");
+            System.out.println("10. Reconstruccion: rellenar huecos, maximos/minimos regionales");
+            System.out.println("11. Ver metricas acumuladas");
             System.out.println("0. Salir");
             System.out.print("Selecciona una opcion: ");
 
@@ -596,8 +1312,59 @@ class TestMorfologiaOptimizada {
                     MorfologiaMatematicaOptimizada.setImagen(nombre);
                     System.out.println("Imagen establecida en: " + nombre);
                     break;
+                case 6:
+                    System.out.print("Operacion (apertura, cierre, gradiente, tophat, blackhat): ");
+                    String operacion = scanner.nextLine().trim();
+                    System.out.println("\nEjecutando " + operacion + " paralela...");
+                    MorfologiaMatematicaOptimizada.procesar(operacion, true);
+                    break;
+                case 7:
+                    System.out.print("Operacion (erosion, dilatacion, apertura, ...): ");
+                    String operacionFranjas = scanner.nextLine().trim();
+                    System.out.println("\nEjecutando " + operacionFranjas + " por franjas...");
+                    MorfologiaMatematicaOptimizada.procesarPorFranjas(operacionFranjas, true);
+                    break;
+                case 8:
+                    System.out.print("Operacion (erosion, dilatacion, apertura, ...): ");
+                    String operacionBinaria = scanner.nextLine().trim();
+                    System.out.println("\nEjecutando " + operacionBinaria + " binaria...");
+                    MorfologiaMatematicaOptimizada.procesarBinario(operacionBinaria, true);
+                    break;
+                case 9:
+                    System.out.print("Operacion (erosion, dilatacion, apertura, ...): ");
+                    String operacionBorde = scanner.nextLine().trim();
+                    System.out.print("Borde (ignorar, replicar, reflejar, constante): ");
+                    ModoBorde modo = ModoBorde.desdeNombre(scanner.nextLine());
+                    if (modo == null) {
+                        System.out.println("Modo de borde invalido");
+                        break;
+                    }
+                    int constante = 0;
+                    if (modo == ModoBorde.CONSTANTE) {
+                        System.out.print("Color en hexadecimal (RRGGBB): ");
+                        try {
+                            constante = Integer.parseInt(scanner.nextLine().trim(), 16);
+                        } catch (NumberFormatException e) {
+                            System.out.println("Color invalido");
+                            break;
+                        }
+                    }
+                    System.out.println("\nEjecutando " + operacionBorde + " con borde " + modo.getNombre() + "...");
+                    MorfologiaMatematicaOptimizada.procesarConBorde(operacionBorde, true, modo, constante);
+                    break;
+                case 10:
+                    System.out.print("Operador (huecos, maximos, minimos): ");
+                    String operador = scanner.nextLine().trim();
+                    System.out.println("\nEjecutando " + operador + " paralelo...");
+                    MorfologiaMatematicaOptimizada.procesarReconstruccion(operador, true);
+                    break;
+                case 11:
+                    System.out.println(Metricas.resumen());
+                    System.out.println(MorfologiaMatematicaOptimizada.obtenerCacheMenu());
+                    break;
                 case 0:
                     System.out.println("Saliendo del programa...");
+                    MorfologiaMatematicaOptimizada.cerrarEjecutor();
                     break;
                 default:
                     System.out.println("Opcion invalida. Intenta nuevamente");
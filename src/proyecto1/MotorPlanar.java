@@ -0,0 +1,378 @@
+package proyecto1;
+
+import java.util.Arrays;
+import java.util.List;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Operaciones sobre una ImagenPlanar, plano por plano.
+ *
+ * Cada plano tiene un byte por pixel, asi que el kernel compara un solo
+ * valor por vecino sin desempaquetar ni volver a empaquetar, y con la API de
+ * vectores cada instruccion cubre cuatro veces mas pixeles que con los
+ * enteros ARGB. Se elige entre el calculo directo y la union de rectangulos
+ * de PlanDescomposicion con el costo de este kernel.
+ *
+ * La semantica es la de los motores empaquetados: en paralelo los pixeles sin
+ * vecinos conservan el valor original y en secuencial toman el neutro, y las
+ * compuestas encadenan etapas completas (que es lo que calculan las teselas
+ * fusionadas) con resta saturada por canal.
+ */
+final class MotorPlanar {
+
+    private static final byte NEUTRO_EROSION = (byte) 0xFF;
+    private static final byte NEUTRO_DILATACION = 0;
+
+    private MotorPlanar() {
+    }
+
+    /**
+     * Aplica la operacion a cada plano de la imagen. Los planos del resultado
+     * salen de PoolBuffers; ImagenPlanar.liberar los devuelve.
+     */
+    static ImagenPlanar procesar(ImagenPlanar imagen, ElementoEstructurante elemento,
+            Operacion operacion, boolean paralelo) {
+        PlanDescomposicion plan = PlanDescomposicion.planificar(elemento);
+        byte[][] resultado = new byte[imagen.canales.length][];
+        for (int c = 0; c < resultado.length; c++) {
+            resultado[c] = procesarCanal(imagen.canales[c], imagen.width, imagen.height,
+                    plan, operacion, paralelo);
+        }
+        return imagen.conCanales(resultado);
+    }
+
+    /**
+     * Indica si el plan de este kernel es la union de rectangulos
+     */
+    static boolean usaDescomposicion(PlanDescomposicion plan) {
+        int carriles = SoporteVectorial.DISPONIBLE ? KernelVectorial.carrilesPlanares() : 1;
+        int activas = plan.getElemento().getActivas();
+        int costoDirecto = carriles > 1 ? Math.max(1, (2 * activas + carriles - 1) / carriles) : activas;
+        return plan.getCostoDescompuesto() < costoDirecto;
+    }
+
+    private static byte[] procesarCanal(byte[] canal, int width, int height, PlanDescomposicion plan,
+            Operacion operacion, boolean paralelo) {
+        switch (operacion) {
+            case EROSION:
+                return etapa(canal, width, height, plan, true, paralelo);
+            case DILATACION:
+                return etapa(canal, width, height, plan, false, paralelo);
+            case APERTURA:
+            case CIERRE: {
+                boolean primeroErosion = operacion == Operacion.APERTURA;
+                byte[] intermedio = etapa(canal, width, height, plan, primeroErosion, paralelo);
+                byte[] resultado = etapa(intermedio, width, height, plan, !primeroErosion, paralelo);
+                PoolBuffers.devolver(intermedio);
+                return resultado;
+            }
+            case GRADIENTE: {
+                byte[] dilatacion = etapa(canal, width, height, plan, false, paralelo);
+                byte[] erosion = etapa(canal, width, height, plan, true, paralelo);
+                restar(dilatacion, erosion, dilatacion, width * height);
+                PoolBuffers.devolver(erosion);
+                return dilatacion;
+            }
+            case TOP_HAT: {
+                byte[] apertura = procesarCanal(canal, width, height, plan, Operacion.APERTURA, paralelo);
+                restar(canal, apertura, apertura, width * height);
+                return apertura;
+            }
+            case BLACK_HAT: {
+                byte[] cierre = procesarCanal(canal, width, height, plan, Operacion.CIERRE, paralelo);
+                restar(cierre, canal, cierre, width * height);
+                return cierre;
+            }
+            default:
+                throw new IllegalArgumentException("Operacion no soportada: " + operacion);
+        }
+    }
+
+    /**
+     * Una erosion o dilatacion del plano completo, por teselas en paralelo
+     */
+    private static byte[] etapa(byte[] origen, int width, int height, PlanDescomposicion plan,
+            boolean esErosion, boolean paralelo) {
+        byte[] destino = PoolBuffers.tomarBytes(width * height);
+        boolean descomponer = usaDescomposicion(plan);
+        EjecutorMorfologia.TareaRegion tarea = (x0, y0, x1, y1) ->
+                procesarRegion(origen, 0, width, height, plan, descomponer, esErosion, paralelo,
+                        x0, y0, x1, y1, destino, 0);
+
+        if (paralelo) {
+            ElementoEstructurante elemento = plan.getElemento();
+            int ladoMinimo = Math.max(MorfologiaMatematicaOptimizada.LADO_MINIMO_TESELA,
+                    2 * Math.max(elemento.width, elemento.height));
+            EjecutorMorfologia.ejecutar(width, height, ladoMinimo, tarea);
+        } else {
+            tarea.procesar(0, 0, width, height);
+        }
+        return destino;
+    }
+
+    /**
+     * Calcula la region [x0, x1) x [y0, y1) de un plano de width x height.
+     * El pixel (px, py) se lee de origen[offsetOrigen + py * width + px] y el
+     * resultado (x, y) queda en destino[offsetDestino + y * width + x], lo que
+     * permite que ambos sean solo una banda de filas del plano.
+     */
+    static void procesarRegion(byte[] origen, int offsetOrigen, int width, int height,
+            PlanDescomposicion plan, boolean descomponer, boolean esErosion, boolean conservarOriginal,
+            int x0, int y0, int x1, int y1, byte[] destino, int offsetDestino) {
+        ElementoEstructurante elemento = plan.getElemento();
+        // Interior [ix0, ix1) x [iy0, iy1); vacio si el EE no tiene celdas activas
+        int ix0 = Math.min(x1, Math.max(x0, elemento.anclaX));
+        int ix1 = Math.max(ix0, Math.min(x1, width - (elemento.width - 1 - elemento.anclaX)));
+        int iy0 = Math.min(y1, Math.max(y0, elemento.anclaY));
+        int iy1 = Math.max(iy0, Math.min(y1, height - (elemento.height - 1 - elemento.anclaY)));
+        if (elemento.getActivas() == 0) {
+            ix1 = ix0;
+        }
+
+        if (descomponer) {
+            procesarDescompuesto(origen, offsetOrigen, width, height, plan, esErosion,
+                    x0, y0, x1, y1, destino, offsetDestino);
+            // Las piezas dejan el neutro donde no hay vecinos; solo pasa fuera del interior
+            if (conservarOriginal && !elemento.isActive(elemento.anclaX, elemento.anclaY)) {
+                for (int y = y0; y < y1; y++) {
+                    if (y < iy0 || y >= iy1) {
+                        borde(origen, offsetOrigen, width, height, elemento, esErosion,
+                                true, y, x0, x1, destino, offsetDestino);
+                    } else {
+                        borde(origen, offsetOrigen, width, height, elemento, esErosion,
+                                true, y, x0, ix0, destino, offsetDestino);
+                        borde(origen, offsetOrigen, width, height, elemento, esErosion,
+                                true, y, ix1, x1, destino, offsetDestino);
+                    }
+                }
+            }
+            return;
+        }
+
+        int[] deltas = elemento.desplazamientos(width);
+        for (int y = y0; y < y1; y++) {
+            if (y < iy0 || y >= iy1 || ix0 == ix1) {
+                borde(origen, offsetOrigen, width, height, elemento, esErosion,
+                        conservarOriginal, y, x0, x1, destino, offsetDestino);
+                continue;
+            }
+            borde(origen, offsetOrigen, width, height, elemento, esErosion,
+                    conservarOriginal, y, x0, ix0, destino, offsetDestino);
+            interior(origen, offsetOrigen + y * width + ix0, deltas, esErosion,
+                    destino, offsetDestino + y * width + ix0, ix1 - ix0);
+            borde(origen, offsetOrigen, width, height, elemento, esErosion,
+                    conservarOriginal, y, ix1, x1, destino, offsetDestino);
+        }
+    }
+
+    /**
+     * Pixeles seguidos desde inicio con todo el EE dentro del plano: con
+     * vectores los bloques completos y con la tabla escalar el resto
+     */
+    private static void interior(byte[] origen, int inicio, int[] deltas, boolean esErosion,
+            byte[] destino, int inicioDestino, int cantidad) {
+        int hechos = SoporteVectorial.DISPONIBLE
+                ? KernelVectorial.interiorPlanar(origen, inicio, deltas, esErosion, destino, inicioDestino, cantidad)
+                : 0;
+
+        for (int i = hechos; i < cantidad; i++) {
+            int base = inicio + i;
+            int valor = esErosion ? 255 : 0;
+            if (esErosion) {
+                for (int d : deltas) {
+                    valor = Math.min(valor, origen[base + d] & 0xFF);
+                }
+            } else {
+                for (int d : deltas) {
+                    valor = Math.max(valor, origen[base + d] & 0xFF);
+                }
+            }
+            destino[inicioDestino + i] = (byte) valor;
+        }
+    }
+
+    /**
+     * Pixeles [bx0, bx1) de la fila y comprobando cada vecino
+     */
+    private static void borde(byte[] origen, int offsetOrigen, int width, int height,
+            ElementoEstructurante elemento, boolean esErosion, boolean conservarOriginal,
+            int y, int bx0, int bx1, byte[] destino, int offsetDestino) {
+        for (int x = bx0; x < bx1; x++) {
+            int valor = esErosion ? 255 : 0;
+            boolean encontroPixel = false;
+
+            for (int k = 0; k < elemento.celdasX.length; k++) {
+                int px = x + elemento.celdasX[k] - elemento.anclaX;
+                int py = y + elemento.celdasY[k] - elemento.anclaY;
+                if (px >= 0 && px < width && py >= 0 && py < height) {
+                    int v = origen[offsetOrigen + py * width + px] & 0xFF;
+                    valor = esErosion ? Math.min(valor, v) : Math.max(valor, v);
+                    encontroPixel = true;
+                }
+            }
+
+            int p = y * width + x;
+            destino[offsetDestino + p] = !encontroPixel && conservarOriginal
+                    ? origen[offsetOrigen + p] : (byte) valor;
+        }
+    }
+
+    /**
+     * Union de rectangulos: el minimo (o maximo) de cada rectangulo resuelto
+     * con van Herk / Gil-Werman sobre bytes
+     */
+    private static void procesarDescompuesto(byte[] origen, int offsetOrigen, int width, int height,
+            PlanDescomposicion plan, boolean esErosion, int x0, int y0, int x1, int y1,
+            byte[] destino, int offsetDestino) {
+        ElementoEstructurante elemento = plan.getElemento();
+        List<int[]> rectangulos = plan.getRectangulos();
+        int filas = y1 - y0;
+        int columnas = x1 - x0;
+        byte[] parcial = rectangulos.size() > 1 ? PoolBuffers.tomarBytes(filas * columnas) : null;
+
+        for (int i = 0; i < rectangulos.size(); i++) {
+            int[] r = rectangulos.get(i);
+            int anclaX = elemento.anclaX - r[0];
+            int anclaY = elemento.anclaY - r[1];
+
+            if (i == 0) {
+                rectangulo(origen, offsetOrigen, width, height, r[2], r[3], anclaX, anclaY, esErosion,
+                        x0, y0, x1, y1, destino, offsetDestino + y0 * width + x0, width);
+                continue;
+            }
+
+            rectangulo(origen, offsetOrigen, width, height, r[2], r[3], anclaX, anclaY, esErosion,
+                    x0, y0, x1, y1, parcial, 0, columnas);
+            for (int j = 0; j < filas; j++) {
+                int fila = offsetDestino + (y0 + j) * width + x0;
+                for (int k = 0; k < columnas; k++) {
+                    destino[fila + k] = combinar(destino[fila + k], parcial[j * columnas + k], esErosion);
+                }
+            }
+        }
+        PoolBuffers.devolver(parcial);
+    }
+
+    /**
+     * Rectangulo de ancho x alto: pasada horizontal por fila y luego vertical
+     * sobre filas completas, como VanHerkGilWerman.procesarRegion
+     */
+    private static void rectangulo(byte[] origen, int offsetOrigen, int width, int height,
+            int ancho, int alto, int anclaX, int anclaY, boolean esErosion,
+            int x0, int y0, int x1, int y1, byte[] destino, int offsetDestino, int strideDestino) {
+        int filas = y1 - y0;
+        int columnas = x1 - x0;
+        if (filas <= 0 || columnas <= 0) {
+            return;
+        }
+        byte neutro = esErosion ? NEUTRO_EROSION : NEUTRO_DILATACION;
+
+        int primeraFila = y0 - anclaY;
+        int largo = filas + alto - 1;
+        byte[] horizontales = PoolBuffers.tomarBytes(largo * columnas);
+        byte[] relleno = PoolBuffers.tomarBytes(columnas + ancho - 1);
+        byte[] prefijo = PoolBuffers.tomarBytes(columnas + ancho - 1);
+
+        for (int j = 0; j < largo; j++) {
+            int py = primeraFila + j;
+            int base = j * columnas;
+            if (py < 0 || py >= height) {
+                Arrays.fill(horizontales, base, base + columnas, neutro);
+                continue;
+            }
+
+            // relleno[i] corresponde a la columna x0 - anclaX + i
+            int primeraColumna = x0 - anclaX;
+            int largoFila = columnas + ancho - 1;
+            int desde = Math.max(0, -primeraColumna);
+            int hasta = Math.min(largoFila, width - primeraColumna);
+            Arrays.fill(relleno, 0, largoFila, neutro);
+            if (hasta > desde) {
+                System.arraycopy(origen, offsetOrigen + py * width + primeraColumna + desde,
+                        relleno, desde, hasta - desde);
+            }
+
+            if (ancho == 1) {
+                System.arraycopy(relleno, 0, horizontales, base, columnas);
+                continue;
+            }
+            acumularPorBloques(relleno, prefijo, largoFila, ancho, esErosion);
+            for (int i = 0; i < columnas; i++) {
+                horizontales[base + i] = combinar(relleno[i], prefijo[i + ancho - 1], esErosion);
+            }
+        }
+        PoolBuffers.devolver(relleno);
+        PoolBuffers.devolver(prefijo);
+
+        if (alto == 1) {
+            for (int j = 0; j < filas; j++) {
+                System.arraycopy(horizontales, j * columnas, destino, offsetDestino + j * strideDestino, columnas);
+            }
+            PoolBuffers.devolver(horizontales);
+            return;
+        }
+
+        // Vertical: acumulados por bloques de 'alto' filas
+        byte[] acumulados = PoolBuffers.tomarBytes(largo * columnas);
+        for (int j = 0; j < largo; j++) {
+            int base = j * columnas;
+            if (j % alto == 0) {
+                System.arraycopy(horizontales, base, acumulados, base, columnas);
+            } else {
+                for (int x = 0; x < columnas; x++) {
+                    acumulados[base + x] = combinar(acumulados[base - columnas + x], horizontales[base + x], esErosion);
+                }
+            }
+        }
+        for (int j = largo - 2; j >= 0; j--) {
+            if (j % alto == alto - 1) {
+                continue;
+            }
+            int base = j * columnas;
+            for (int x = 0; x < columnas; x++) {
+                horizontales[base + x] = combinar(horizontales[base + columnas + x], horizontales[base + x], esErosion);
+            }
+        }
+        for (int j = 0; j < filas; j++) {
+            int sufijo = j * columnas;
+            int acumulado = (j + alto - 1) * columnas;
+            int salida = offsetDestino + j * strideDestino;
+            for (int x = 0; x < columnas; x++) {
+                destino[salida + x] = combinar(horizontales[sufijo + x], acumulados[acumulado + x], esErosion);
+            }
+        }
+        PoolBuffers.devolver(horizontales);
+        PoolBuffers.devolver(acumulados);
+    }
+
+    private static void acumularPorBloques(byte[] valores, byte[] prefijo, int largo,
+            int bloque, boolean esErosion) {
+        for (int i = 0; i < largo; i++) {
+            prefijo[i] = (i % bloque == 0) ? valores[i] : combinar(prefijo[i - 1], valores[i], esErosion);
+        }
+        for (int i = largo - 2; i >= 0; i--) {
+            if (i % bloque != bloque - 1) {
+                valores[i] = combinar(valores[i + 1], valores[i], esErosion);
+            }
+        }
+    }
+
+    /**
+     * Minimo o maximo sin signo de dos bytes
+     */
+    private static byte combinar(byte a, byte b, boolean esErosion) {
+        int va = a & 0xFF;
+        int vb = b & 0xFF;
+        return (byte) (esErosion ? Math.min(va, vb) : Math.max(va, vb));
+    }
+
+    /**
+     * a - b saturado en 0, como MorfologiaCompuesta.restarCanales, en los
+     * primeros cantidad bytes; el resultado puede pisar a o b
+     */
+    private static void restar(byte[] a, byte[] b, byte[] resultado, int cantidad) {
+        for (int i = 0; i < cantidad; i++) {
+            resultado[i] = (byte) Math.max(0, (a[i] & 0xFF) - (b[i] & 0xFF));
+        }
+    }
+}
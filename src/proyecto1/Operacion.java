@@ -0,0 +1,63 @@
+package proyecto1;
+
+/**
+ * Operaciones morfologicas disponibles. Las compuestas se arman con la
+ * erosion y la dilatacion del mismo elemento estructurante.
+ */
+public enum Operacion {
+
+    EROSION("erosion"),
+    DILATACION("dilatacion"),
+    // erosion seguida de dilatacion
+    APERTURA("apertura"),
+    // dilatacion seguida de erosion
+    CIERRE("cierre"),
+    // dilatacion - erosion
+    GRADIENTE("gradiente"),
+    // original - apertura
+    TOP_HAT("tophat"),
+    // cierre - original
+    BLACK_HAT("blackhat");
+
+    private final String nombre;
+
+    Operacion(String nombre) {
+        this.nombre = nombre;
+    }
+
+    /**
+     * Nombre usado en el menu y en los archivos de salida
+     */
+    public String getNombre() {
+        return nombre;
+    }
+
+    /**
+     * Busca la operacion por nombre, sin distinguir mayusculas. Devuelve null
+     * si no existe.
+     */
+    public static Operacion desdeNombre(String nombre) {
+        for (Operacion op : values()) {
+            if (op.nombre.equalsIgnoreCase(nombre.trim())) {
+                return op;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Erosiones/dilataciones encadenadas que necesita la operacion; cada etapa
+     * agrega un EE de vecindad alrededor de una tesela
+     */
+    int etapas() {
+        switch (this) {
+            case APERTURA:
+            case CIERRE:
+            case TOP_HAT:
+            case BLACK_HAT:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+}
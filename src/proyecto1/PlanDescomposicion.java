@@ -0,0 +1,393 @@
+package proyecto1;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Planificador que descompone un elemento estructurante arbitrario en una
+ * union de rectangulos y elige la forma mas barata de aplicarlo.
+ *
+ * Como min(A ∪ B) = min(min A, min B), la erosion (o dilatacion) por el EE es
+ * el minimo (o maximo) de las erosiones por cada rectangulo, y cada rectangulo
+ * se resuelve con van Herk / Gil-Werman como una linea horizontal seguida de
+ * una vertical. Una cruz queda como dos lineas y un disco de radio r como unos
+ * r rectangulos anidados, con lo que el costo pasa de crecer con el area del
+ * EE a crecer con su radio.
+ */
+final class PlanDescomposicion {
+
+    // Costos aproximados por pixel, medidos en comparaciones min/max
+    private static final int COSTO_COPIA = 1;
+    private static final int COSTO_PASADA = 3;
+    private static final int COSTO_UNION = 1;
+    // Operaciones por celda activa y vector en el kernel vectorial (xor + min/max)
+    private static final int COSTO_CELDA_VECTORIAL = 2;
+
+    /**
+     * Forma de calcular cada region: con la tabla de desplazamientos del EE
+     * pixel por pixel, con el kernel vectorial o como union de rectangulos
+     */
+    enum Kernel {
+        DIRECTO, VECTORIAL, DESCOMPUESTO
+    }
+
+    private final ElementoEstructurante elemento;
+    private final List<int[]> rectangulos;
+    private final boolean anclaActiva;
+    private final int costoDirecto;
+    private final int costoDirectoEfectivo;
+    private final int costoDescompuesto;
+    private final Kernel kernel;
+
+    private PlanDescomposicion(ElementoEstructurante elemento, List<int[]> rectangulos) {
+        this.elemento = elemento;
+        this.rectangulos = Collections.unmodifiableList(rectangulos);
+        this.anclaActiva = elemento.isActive(elemento.anclaX, elemento.anclaY);
+
+        int activas = elemento.getActivas();
+        this.costoDirecto = activas;
+        // Con vectores cada celda se lee una vez para varios pixeles
+        int carriles = SoporteVectorial.carriles();
+        this.costoDirectoEfectivo = carriles > 1
+                ? Math.max(1, (COSTO_CELDA_VECTORIAL * activas + carriles - 1) / carriles)
+                : activas;
+
+        int costo = 0;
+        for (int[] r : rectangulos) {
+            costo += COSTO_COPIA;
+            if (r[2] > 1) {
+                costo += COSTO_PASADA;
+            }
+            if (r[3] > 1) {
+                costo += COSTO_PASADA;
+            }
+        }
+        costo += COSTO_UNION * Math.max(0, rectangulos.size() - 1);
+        this.costoDescompuesto = rectangulos.isEmpty() ? Integer.MAX_VALUE : costo;
+
+        if (costoDescompuesto < costoDirectoEfectivo) {
+            this.kernel = Kernel.DESCOMPUESTO;
+        } else {
+            this.kernel = SoporteVectorial.DISPONIBLE ? Kernel.VECTORIAL : Kernel.DIRECTO;
+        }
+    }
+
+    private PlanDescomposicion(PlanDescomposicion plan, Kernel kernel) {
+        this.elemento = plan.elemento;
+        this.rectangulos = plan.rectangulos;
+        this.anclaActiva = plan.anclaActiva;
+        this.costoDirecto = plan.costoDirecto;
+        this.costoDirectoEfectivo = plan.costoDirectoEfectivo;
+        this.costoDescompuesto = plan.costoDescompuesto;
+        this.kernel = kernel;
+    }
+
+    /**
+     * Descompone el elemento en rectangulos maximos. Cada tramo horizontal de
+     * celdas activas se extiende hacia arriba y hacia abajo mientras el tramo
+     * completo siga activo; luego se descartan repetidos y contenidos.
+     */
+    static PlanDescomposicion planificar(ElementoEstructurante elemento) {
+        List<int[]> candidatos = new ArrayList<>();
+
+        for (int ey = 0; ey < elemento.height; ey++) {
+            int ex = 0;
+            while (ex < elemento.width) {
+                if (!elemento.isActive(ex, ey)) {
+                    ex++;
+                    continue;
+                }
+
+                int inicio = ex;
+                while (ex < elemento.width && elemento.isActive(ex, ey)) {
+                    ex++;
+                }
+                int fin = ex; // exclusivo
+
+                int arriba = ey;
+                while (arriba > 0 && tramoActivo(elemento, arriba - 1, inicio, fin)) {
+                    arriba--;
+                }
+                int abajo = ey;
+                while (abajo < elemento.height - 1 && tramoActivo(elemento, abajo + 1, inicio, fin)) {
+                    abajo++;
+                }
+
+                candidatos.add(new int[]{inicio, arriba, fin - inicio, abajo - arriba + 1});
+            }
+        }
+
+        List<int[]> rectangulos = new ArrayList<>();
+        for (int i = 0; i < candidatos.size(); i++) {
+            int[] r = candidatos.get(i);
+            boolean redundante = false;
+
+            for (int j = 0; j < candidatos.size() && !redundante; j++) {
+                if (i == j) {
+                    continue;
+                }
+                int[] otro = candidatos.get(j);
+                boolean contenido = contiene(otro, r);
+                // Entre dos iguales se queda el primero
+                redundante = contenido && (!contiene(r, otro) || j < i);
+            }
+
+            if (!redundante) {
+                rectangulos.add(r);
+            }
+        }
+
+        return new PlanDescomposicion(elemento, rectangulos);
+    }
+
+    private static boolean tramoActivo(ElementoEstructurante elemento, int ey, int inicio, int fin) {
+        for (int ex = inicio; ex < fin; ex++) {
+            if (!elemento.isActive(ex, ey)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean contiene(int[] a, int[] b) {
+        return b[0] >= a[0] && b[1] >= a[1]
+                && b[0] + b[2] <= a[0] + a[2]
+                && b[1] + b[3] <= a[1] + a[3];
+    }
+
+    ElementoEstructurante getElemento() {
+        return elemento;
+    }
+
+    /**
+     * Indica si el plan elegido es la descomposicion (y no el calculo directo)
+     */
+    boolean usaDescomposicion() {
+        return kernel == Kernel.DESCOMPUESTO;
+    }
+
+    Kernel getKernel() {
+        return kernel;
+    }
+
+    /**
+     * Indica si el kernel se puede usar con este EE en esta JVM
+     */
+    boolean admite(Kernel candidato) {
+        switch (candidato) {
+            case VECTORIAL:
+                return SoporteVectorial.DISPONIBLE;
+            case DESCOMPUESTO:
+                return !rectangulos.isEmpty();
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * El mismo plan calculado con otro kernel, en lugar del que elige el
+     * modelo de costos. Todos dan el mismo resultado; si el kernel no se
+     * puede usar, devuelve este plan.
+     */
+    PlanDescomposicion conKernel(Kernel otro) {
+        if (otro == null || otro == kernel || !admite(otro)) {
+            return this;
+        }
+        return new PlanDescomposicion(this, otro);
+    }
+
+    /**
+     * Costo estimado por pixel del plan elegido
+     */
+    int getCostoEstimado() {
+        return Math.min(costoDirectoEfectivo, costoDescompuesto);
+    }
+
+    /**
+     * Costo por pixel de la descomposicion (Integer.MAX_VALUE si no hay
+     * rectangulos)
+     */
+    int getCostoDescompuesto() {
+        return costoDescompuesto;
+    }
+
+    /**
+     * Costo por pixel del calculo directo (una lectura por celda activa)
+     */
+    int getCostoDirecto() {
+        return costoDirecto;
+    }
+
+    /**
+     * Rectangulos de la descomposicion, como {x, y, ancho, alto} dentro del EE
+     */
+    List<int[]> getRectangulos() {
+        return rectangulos;
+    }
+
+    /**
+     * Calcula la region [x0, x1) x [y0, y1) con el plan mas barato. El pixel
+     * (px, py) se lee de origen[offsetOrigen + py * strideOrigen + px] y el
+     * resultado (x, y) queda en destino[offsetDestino + (y - y0) * strideDestino + (x - x0)].
+     */
+    void procesarRegion(int[] origen, int offsetOrigen, int strideOrigen,
+            int width, int height, boolean esErosion,
+            boolean conservarOriginal, int x0, int y0, int x1, int y1,
+            int[] destino, int offsetDestino, int strideDestino) {
+        if (kernel == Kernel.DESCOMPUESTO) {
+            procesarDescompuesto(origen, offsetOrigen, strideOrigen, width, height,
+                    esErosion, conservarOriginal, x0, y0, x1, y1, destino, offsetDestino, strideDestino);
+        } else if (kernel == Kernel.VECTORIAL) {
+            KernelVectorial.procesarRegion(origen, offsetOrigen, strideOrigen, width, height, elemento,
+                    esErosion, conservarOriginal, x0, y0, x1, y1, destino, offsetDestino, strideDestino);
+        } else {
+            MorfologiaMatematicaOptimizada.procesarRegionDirecta(origen, offsetOrigen, strideOrigen,
+                    width, height, elemento,
+                    esErosion, conservarOriginal, x0, y0, x1, y1, destino, offsetDestino, strideDestino);
+        }
+    }
+
+    private void procesarDescompuesto(int[] origen, int offsetOrigen, int strideOrigen,
+            int width, int height, boolean esErosion,
+            boolean conservarOriginal, int x0, int y0, int x1, int y1,
+            int[] destino, int offsetDestino, int strideDestino) {
+        int filas = y1 - y0;
+        int columnas = x1 - x0;
+        int[] parcial = rectangulos.size() > 1 ? PoolBuffers.tomarEnteros(filas * columnas) : null;
+
+        for (int i = 0; i < rectangulos.size(); i++) {
+            int[] r = rectangulos.get(i);
+            // Ancla relativa al rectangulo; puede quedar fuera de el
+            int anclaX = elemento.anclaX - r[0];
+            int anclaY = elemento.anclaY - r[1];
+
+            if (i == 0) {
+                VanHerkGilWerman.procesarRegion(origen, offsetOrigen, strideOrigen, width, height,
+                        r[2], r[3], anclaX, anclaY,
+                        esErosion, x0, y0, x1, y1, destino, offsetDestino, strideDestino);
+                continue;
+            }
+
+            VanHerkGilWerman.procesarRegion(origen, offsetOrigen, strideOrigen, width, height,
+                    r[2], r[3], anclaX, anclaY,
+                    esErosion, x0, y0, x1, y1, parcial, 0, columnas);
+            for (int j = 0; j < filas; j++) {
+                int fila = offsetDestino + j * strideDestino;
+                for (int k = 0; k < columnas; k++) {
+                    destino[fila + k] = VanHerkGilWerman.combinar(destino[fila + k],
+                            parcial[j * columnas + k], esErosion);
+                }
+            }
+        }
+        PoolBuffers.devolver(parcial);
+
+        // Las piezas dejan el neutro donde no hay vecinos; el calculo directo
+        // conserva el pixel original en ese caso
+        if (conservarOriginal && !anclaActiva) {
+            corregirPixelesSinVecinos(origen, offsetOrigen, strideOrigen, width, height, x0, y0, x1, y1,
+                    destino, offsetDestino, strideDestino);
+        }
+    }
+
+    /**
+     * Solo los pixeles cuyo EE se sale de la imagen pueden quedar sin vecinos
+     */
+    private void corregirPixelesSinVecinos(int[] origen, int offsetOrigen, int strideOrigen,
+            int width, int height,
+            int x0, int y0, int x1, int y1, int[] destino, int offsetDestino, int strideDestino) {
+        int xInterior0 = elemento.anclaX;
+        int xInterior1 = width - (elemento.width - 1 - elemento.anclaX);
+
+        for (int y = y0; y < y1; y++) {
+            boolean filaInterior = y >= elemento.anclaY
+                    && y + (elemento.height - 1 - elemento.anclaY) < height;
+            int filaDestino = offsetDestino + (y - y0) * strideDestino - x0;
+
+            for (int x = x0; x < x1; x++) {
+                if (filaInterior && x >= xInterior0 && x < xInterior1) {
+                    x = xInterior1 - 1;
+                    continue;
+                }
+                if (!tieneVecino(width, height, x, y)) {
+                    destino[filaDestino + x] = origen[offsetOrigen + y * strideOrigen + x];
+                }
+            }
+        }
+    }
+
+    private boolean tieneVecino(int width, int height, int x, int y) {
+        for (int ey = 0; ey < elemento.height; ey++) {
+            int py = y + ey - elemento.anclaY;
+            if (py < 0 || py >= height) {
+                continue;
+            }
+            for (int ex = 0; ex < elemento.width; ex++) {
+                int px = x + ex - elemento.anclaX;
+                if (px >= 0 && px < width && elemento.isActive(ex, ey)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compara la descomposicion contra el calculo directo sobre una imagen,
+     * para erosion y dilatacion, con y sin conservar el pixel original
+     */
+    boolean verificarExactitud(int[] pixeles, int width, int height) {
+        if (rectangulos.isEmpty()) {
+            return true;
+        }
+
+        int[] esperado = new int[width * height];
+        int[] obtenido = new int[width * height];
+
+        for (boolean esErosion : new boolean[]{true, false}) {
+            for (boolean conservarOriginal : new boolean[]{true, false}) {
+                MorfologiaMatematicaOptimizada.procesarRegionDirecta(pixeles, 0, width, width, height,
+                        elemento, esErosion, conservarOriginal, 0, 0, width, height, esperado, 0, width);
+                procesarDescompuesto(pixeles, 0, width, width, height, esErosion, conservarOriginal,
+                        0, 0, width, height, obtenido, 0, width);
+
+                for (int i = 0; i < esperado.length; i++) {
+                    if (esperado[i] != obtenido[i]) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(usaDescomposicion() ? "union de " : "directo (descomposicion de ")
+                .append(rectangulos.size()).append(" rectangulo(s) [");
+
+        for (int i = 0; i < rectangulos.size(); i++) {
+            int[] r = rectangulos.get(i);
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(r[2]).append('x').append(r[3]);
+        }
+        sb.append(']');
+        if (!usaDescomposicion()) {
+            sb.append(')');
+        }
+
+        sb.append(", costo estimado ")
+                .append(costoDescompuesto == Integer.MAX_VALUE ? "-" : String.valueOf(costoDescompuesto))
+                .append(" vs directo ").append(costoDirectoEfectivo);
+        if (costoDirectoEfectivo != costoDirecto) {
+            sb.append(" (").append(SoporteVectorial.carriles()).append(" carriles, ")
+                    .append(costoDirecto).append(" escalar)");
+        }
+        sb.append(" por pixel");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,273 @@
+package proyecto1;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Arreglos de trabajo reutilizables entre llamadas.
+ *
+ * Los buffers intermedios (teselas con halo, pasadas de van Herk, etapas de
+ * las compuestas, planos de bytes) se piden aqui y se devuelven al terminar,
+ * asi que con cargas sostenidas las llamadas repetidas no generan basura del
+ * tamaño de la imagen. Los arreglos se redondean a clases de tamaño (cuatro
+ * por potencia de dos, a lo sumo un 25% mas grandes que lo pedido) y su
+ * contenido al tomarlos es el que haya quedado: quien los usa debe escribir
+ * antes de leer y no fiarse de length.
+ *
+ * Lo retenido en el pool esta acotado por morfologia.pool.limite (bytes);
+ * lo que no entra se deja al recolector. Con -Dmorfologia.pool=false cada
+ * pedido es un arreglo nuevo y las devoluciones se ignoran.
+ */
+final class PoolBuffers {
+
+    static final boolean ACTIVO = Boolean.parseBoolean(System.getProperty("morfologia.pool", "true"));
+    static final long LIMITE_RETENIDO = Long.getLong("morfologia.pool.limite", 256L << 20);
+
+    // Arreglos libres por clase de tamaño; los pedidos mas chicos van a la primera clase
+    private static final int POR_CLASE = 64;
+    private static final int TAMANO_MINIMO = 64;
+    private static final int[] TAMANOS = calcularTamanos();
+
+    private static final Clase[] ENTEROS = crearClases();
+    private static final Clase[] BYTES = crearClases();
+
+    private static final LongAdder ACIERTOS = new LongAdder();
+    private static final LongAdder FALLOS = new LongAdder();
+    private static final AtomicLong RESERVADOS = new AtomicLong();
+    private static final AtomicLong RETENIDOS = new AtomicLong();
+    private static final AtomicLong PRESTADOS = new AtomicLong();
+    private static final AtomicLong PICO = new AtomicLong();
+
+    private PoolBuffers() {
+    }
+
+    /**
+     * Pila de arreglos libres de un mismo tamaño
+     */
+    private static final class Clase {
+
+        private final Object[] libres = new Object[POR_CLASE];
+        private int cantidad;
+
+        synchronized Object tomar() {
+            if (cantidad == 0) {
+                return null;
+            }
+            Object arreglo = libres[--cantidad];
+            libres[cantidad] = null;
+            return arreglo;
+        }
+
+        synchronized boolean devolver(Object arreglo) {
+            if (cantidad == POR_CLASE) {
+                return false;
+            }
+            libres[cantidad++] = arreglo;
+            return true;
+        }
+
+        synchronized int vaciar() {
+            int soltados = cantidad;
+            Arrays.fill(libres, 0, cantidad, null);
+            cantidad = 0;
+            return soltados;
+        }
+    }
+
+    private static int[] calcularTamanos() {
+        int[] tamanos = new int[4 * 32];
+        int n = 0;
+        for (long base = TAMANO_MINIMO; base <= Integer.MAX_VALUE; base <<= 1) {
+            for (int paso = 0; paso < 4; paso++) {
+                long tamano = base + paso * (base >> 2);
+                // Los arreglos de Java no llegan a Integer.MAX_VALUE
+                if (tamano <= Integer.MAX_VALUE - 8) {
+                    tamanos[n++] = (int) tamano;
+                }
+            }
+        }
+        return Arrays.copyOf(tamanos, n);
+    }
+
+    private static Clase[] crearClases() {
+        Clase[] clases = new Clase[TAMANOS.length];
+        for (int i = 0; i < clases.length; i++) {
+            clases[i] = new Clase();
+        }
+        return clases;
+    }
+
+    /**
+     * Indice de la clase mas chica que admite minimo elementos
+     */
+    private static int clasePara(int minimo) {
+        int i = Arrays.binarySearch(TAMANOS, minimo);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Arreglo de al menos minimo enteros, con contenido indefinido
+     */
+    static int[] tomarEnteros(int minimo) {
+        if (!ACTIVO) {
+            return new int[minimo];
+        }
+        int clase = clasePara(minimo);
+        if (clase == TAMANOS.length) {
+            return new int[minimo];
+        }
+        int[] arreglo = (int[]) ENTEROS[clase].tomar();
+        if (arreglo == null) {
+            arreglo = new int[TAMANOS[clase]];
+            registrarReserva(4L * arreglo.length);
+        } else {
+            ACIERTOS.increment();
+            RETENIDOS.addAndGet(-4L * arreglo.length);
+        }
+        registrarPrestamo(4L * arreglo.length);
+        return arreglo;
+    }
+
+    /**
+     * Arreglo de al menos minimo bytes, con contenido indefinido
+     */
+    static byte[] tomarBytes(int minimo) {
+        if (!ACTIVO) {
+            return new byte[minimo];
+        }
+        int clase = clasePara(minimo);
+        if (clase == TAMANOS.length) {
+            return new byte[minimo];
+        }
+        byte[] arreglo = (byte[]) BYTES[clase].tomar();
+        if (arreglo == null) {
+            arreglo = new byte[TAMANOS[clase]];
+            registrarReserva(arreglo.length);
+        } else {
+            ACIERTOS.increment();
+            RETENIDOS.addAndGet(-arreglo.length);
+        }
+        registrarPrestamo(arreglo.length);
+        return arreglo;
+    }
+
+    /**
+     * Devuelve un arreglo obtenido con tomarEnteros, que no se debe volver a
+     * usar; null se ignora
+     */
+    static void devolver(int[] arreglo) {
+        if (arreglo != null) {
+            devolver(ENTEROS, arreglo, arreglo.length, 4L * arreglo.length);
+        }
+    }
+
+    /**
+     * Devuelve un arreglo obtenido con tomarBytes
+     */
+    static void devolver(byte[] arreglo) {
+        if (arreglo != null) {
+            devolver(BYTES, arreglo, arreglo.length, arreglo.length);
+        }
+    }
+
+    private static void devolver(Clase[] clases, Object arreglo, int largo, long bytes) {
+        if (!ACTIVO) {
+            return;
+        }
+        int clase = Arrays.binarySearch(TAMANOS, largo);
+        if (clase < 0) {
+            return;
+        }
+        PRESTADOS.addAndGet(-bytes);
+        if (RETENIDOS.addAndGet(bytes) > LIMITE_RETENIDO || !clases[clase].devolver(arreglo)) {
+            RETENIDOS.addAndGet(-bytes);
+        }
+    }
+
+    private static void registrarReserva(long bytes) {
+        FALLOS.increment();
+        RESERVADOS.addAndGet(bytes);
+    }
+
+    private static void registrarPrestamo(long bytes) {
+        long ocupado = PRESTADOS.addAndGet(bytes) + RETENIDOS.get();
+        PICO.accumulateAndGet(ocupado, Math::max);
+    }
+
+    /**
+     * Suelta todos los arreglos libres; las estadisticas acumuladas se conservan
+     */
+    static void vaciar() {
+        for (int i = 0; i < TAMANOS.length; i++) {
+            RETENIDOS.addAndGet(-4L * TAMANOS[i] * ENTEROS[i].vaciar());
+            RETENIDOS.addAndGet(-(long) TAMANOS[i] * BYTES[i].vaciar());
+        }
+    }
+
+    static Estadisticas estadisticas() {
+        return new Estadisticas(ACIERTOS.sum(), FALLOS.sum(), RESERVADOS.get(),
+                RETENIDOS.get(), PRESTADOS.get(), PICO.get());
+    }
+
+    /**
+     * Foto de los contadores del pool
+     */
+    static final class Estadisticas {
+
+        private final long aciertos;
+        private final long fallos;
+        private final long bytesReservados;
+        private final long bytesRetenidos;
+        private final long bytesPrestados;
+        private final long bytesPico;
+
+        Estadisticas(long aciertos, long fallos, long bytesReservados,
+                long bytesRetenidos, long bytesPrestados, long bytesPico) {
+            this.aciertos = aciertos;
+            this.fallos = fallos;
+            this.bytesReservados = bytesReservados;
+            this.bytesRetenidos = bytesRetenidos;
+            this.bytesPrestados = bytesPrestados;
+            this.bytesPico = bytesPico;
+        }
+
+        /** Pedidos resueltos con un arreglo libre del pool */
+        long getAciertos() {
+            return aciertos;
+        }
+
+        /** Pedidos que tuvieron que reservar un arreglo nuevo */
+        long getFallos() {
+            return fallos;
+        }
+
+        /** Bytes reservados por el pool desde el arranque */
+        long getBytesReservados() {
+            return bytesReservados;
+        }
+
+        /** Bytes en arreglos libres dentro del pool */
+        long getBytesRetenidos() {
+            return bytesRetenidos;
+        }
+
+        /** Bytes en arreglos entregados y todavia no devueltos */
+        long getBytesPrestados() {
+            return bytesPrestados;
+        }
+
+        /** Maximo de retenidos mas prestados */
+        long getBytesPico() {
+            return bytesPico;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Pool: %d aciertos, %d fallos, %.1f MB reservados, "
+                    + "%.1f MB retenidos, %.1f MB prestados, pico %.1f MB",
+                    aciertos, fallos, bytesReservados / 1048576.0, bytesRetenidos / 1048576.0,
+                    bytesPrestados / 1048576.0, bytesPico / 1048576.0);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package proyecto1;
+
+import java.util.Arrays;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Operaciones con un modo de borde explicito.
+ *
+ * La entrada se copia una vez a un buffer con un halo del tamaño del EE
+ * alrededor, relleno segun el modo. Sobre ese buffer toda la imagen es
+ * interior: el calculo (directo o descompuesto) nunca encuentra vecinos
+ * fuera, no hay caso "sin vecinos" y el motor paralelo y el secuencial hacen
+ * exactamente las mismas cuentas.
+ *
+ * Las compuestas encadenan etapas completas, rellenando de nuevo la entrada
+ * de cada una, para que el modo se aplique a la imagen que ve cada etapa.
+ */
+final class ProcesadorBordes {
+
+    private ProcesadorBordes() {
+    }
+
+    /**
+     * Aplica la operacion a los pixeles (width x height, ARGB). El resultado
+     * queda en destino si no es null (puede ser el arreglo del raster de
+     * salida) o en un arreglo de PoolBuffers, que se devuelve y que quien
+     * llama debe devolver al pool.
+     */
+    static int[] procesar(int[] pixeles, int width, int height, ElementoEstructurante elemento,
+            Operacion operacion, ModoBorde modo, int constante, boolean paralelo, int[] destino) {
+        PlanDescomposicion plan = PlanDescomposicion.planificar(elemento);
+
+        switch (operacion) {
+            case EROSION:
+                return etapa(pixeles, width, height, plan, true, modo, constante, paralelo, destino);
+            case DILATACION:
+                return etapa(pixeles, width, height, plan, false, modo, constante, paralelo, destino);
+            case APERTURA:
+            case CIERRE: {
+                boolean primeroErosion = operacion == Operacion.APERTURA;
+                int[] intermedio = etapa(pixeles, width, height, plan, primeroErosion,
+                        modo, constante, paralelo, null);
+                int[] resultado = etapa(intermedio, width, height, plan, !primeroErosion,
+                        modo, constante, paralelo, destino);
+                PoolBuffers.devolver(intermedio);
+                return resultado;
+            }
+            case GRADIENTE: {
+                int[] dilatacion = etapa(pixeles, width, height, plan, false, modo, constante, paralelo, null);
+                int[] erosion = etapa(pixeles, width, height, plan, true, modo, constante, paralelo, null);
+                int[] resultado = restar(dilatacion, erosion, destino != null ? destino : dilatacion,
+                        width * height);
+                PoolBuffers.devolver(erosion);
+                if (resultado != dilatacion) {
+                    PoolBuffers.devolver(dilatacion);
+                }
+                return resultado;
+            }
+            case TOP_HAT:
+            case BLACK_HAT: {
+                boolean topHat = operacion == Operacion.TOP_HAT;
+                int[] filtrada = procesar(pixeles, width, height, elemento,
+                        topHat ? Operacion.APERTURA : Operacion.CIERRE, modo, constante, paralelo, null);
+                int[] resultado = destino != null ? destino : filtrada;
+                if (topHat) {
+                    restar(pixeles, filtrada, resultado, width * height);
+                } else {
+                    restar(filtrada, pixeles, resultado, width * height);
+                }
+                if (resultado != filtrada) {
+                    PoolBuffers.devolver(filtrada);
+                }
+                return resultado;
+            }
+            default:
+                throw new IllegalArgumentException("Operacion no soportada: " + operacion);
+        }
+    }
+
+    /**
+     * Una erosion o dilatacion sobre la imagen rellenada
+     */
+    private static int[] etapa(int[] pixeles, int width, int height, PlanDescomposicion plan,
+            boolean esErosion, ModoBorde modo, int constante, boolean paralelo, int[] destino) {
+        ElementoEstructurante elemento = plan.getElemento();
+        int izquierda = elemento.anclaX;
+        int arriba = elemento.anclaY;
+        int derecha = elemento.width - 1 - elemento.anclaX;
+        int abajo = elemento.height - 1 - elemento.anclaY;
+
+        int anchoRelleno = width + izquierda + derecha;
+        int altoRelleno = height + arriba + abajo;
+        int[] relleno = rellenar(pixeles, width, height, izquierda, arriba, derecha, abajo,
+                modo, constante, esErosion, PoolBuffers.tomarEnteros(anchoRelleno * altoRelleno));
+        int[] resultado = destino != null ? destino : PoolBuffers.tomarEnteros(width * height);
+
+        // La imagen ocupa [izquierda, izquierda + width) x [arriba, arriba + height)
+        // del buffer, donde todo el EE cae dentro
+        EjecutorMorfologia.TareaRegion tarea = (x0, y0, x1, y1) ->
+                plan.procesarRegion(relleno, 0, anchoRelleno, anchoRelleno, altoRelleno, esErosion, false,
+                        x0 + izquierda, y0 + arriba, x1 + izquierda, y1 + arriba,
+                        resultado, y0 * width + x0, width);
+
+        if (paralelo) {
+            int ladoMinimo = Math.max(MorfologiaMatematicaOptimizada.LADO_MINIMO_TESELA,
+                    2 * Math.max(elemento.width, elemento.height));
+            EjecutorMorfologia.ejecutar(width, height, ladoMinimo, tarea);
+        } else {
+            tarea.procesar(0, 0, width, height);
+        }
+        PoolBuffers.devolver(relleno);
+        return resultado;
+    }
+
+    /**
+     * Copia los pixeles al centro de un buffer con el halo indicado a cada
+     * lado, rellenado segun el modo
+     */
+    static int[] rellenar(int[] pixeles, int width, int height,
+            int izquierda, int arriba, int derecha, int abajo,
+            ModoBorde modo, int constante, boolean esErosion) {
+        int[] relleno = new int[(width + izquierda + derecha) * (height + arriba + abajo)];
+        return rellenar(pixeles, width, height, izquierda, arriba, derecha, abajo,
+                modo, constante, esErosion, relleno);
+    }
+
+    /**
+     * Igual que el anterior, pero sobre un buffer dado (de al menos el
+     * tamaño con halo), que se devuelve
+     */
+    static int[] rellenar(int[] pixeles, int width, int height,
+            int izquierda, int arriba, int derecha, int abajo,
+            ModoBorde modo, int constante, boolean esErosion, int[] relleno) {
+        int ancho = width + izquierda + derecha;
+        int alto = height + arriba + abajo;
+
+        if (modo == ModoBorde.IGNORAR || modo == ModoBorde.CONSTANTE) {
+            // Blanco o negro no cambian el minimo o maximo de los vecinos de adentro
+            int valor = modo == ModoBorde.CONSTANTE ? constante : (esErosion ? 0xFFFFFF : 0);
+            Arrays.fill(relleno, 0, ancho * alto, valor);
+            for (int y = 0; y < height; y++) {
+                System.arraycopy(pixeles, y * width, relleno, (y + arriba) * ancho + izquierda, width);
+            }
+            return relleno;
+        }
+
+        // Columna de origen de cada columna del buffer
+        int[] columnas = new int[ancho];
+        for (int x = 0; x < ancho; x++) {
+            columnas[x] = indiceFuente(x - izquierda, width, modo);
+        }
+
+        for (int y = 0; y < alto; y++) {
+            int filaFuente = indiceFuente(y - arriba, height, modo) * width;
+            int filaRelleno = y * ancho;
+
+            for (int x = 0; x < izquierda; x++) {
+                relleno[filaRelleno + x] = pixeles[filaFuente + columnas[x]];
+            }
+            System.arraycopy(pixeles, filaFuente, relleno, filaRelleno + izquierda, width);
+            for (int x = izquierda + width; x < ancho; x++) {
+                relleno[filaRelleno + x] = pixeles[filaFuente + columnas[x]];
+            }
+        }
+        return relleno;
+    }
+
+    /**
+     * Coordenada dentro de [0, n) que corresponde a i, que puede estar fuera
+     */
+    private static int indiceFuente(int i, int n, ModoBorde modo) {
+        if (i >= 0 && i < n) {
+            return i;
+        }
+        if (modo == ModoBorde.REPLICAR) {
+            return i < 0 ? 0 : n - 1;
+        }
+        // Espejo con periodo 2n, por si el halo es mas grande que la imagen
+        int periodo = 2 * n;
+        int j = Math.floorMod(i, periodo);
+        return j < n ? j : periodo - 1 - j;
+    }
+
+    /**
+     * a - b canal por canal en los primeros cantidad pixeles; el resultado
+     * puede pisar a o b
+     */
+    private static int[] restar(int[] a, int[] b, int[] resultado, int cantidad) {
+        for (int i = 0; i < cantidad; i++) {
+            resultado[i] = MorfologiaCompuesta.restarCanales(a[i], b[i]);
+        }
+        return resultado;
+    }
+}
@@ -0,0 +1,157 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+
+/**
+ * Una cadena de operaciones sobre un archivo, sin menu ni preguntas, para
+ * scripts y tuberias del shell. Con "-" como entrada o salida se usa la
+ * entrada o la salida estandar, y los mensajes van a la salida de error
+ * para no mezclarse con la imagen. Termina con codigo 1 si algo falla.
+ */
+final class ProcesadorCli {
+
+    private ProcesadorCli() {
+    }
+
+    /**
+     * Uso: aplicar entrada salida cadena [opciones]
+     *
+     * Opciones: --elemento E (para los pasos sin elemento, por defecto cruz),
+     * --secuencial, --formato F (por defecto la extension de la salida, o
+     * png), --hilos N, --cache DIR (guarda y reutiliza los resultados de
+     * cada paso en el directorio), --autoajuste ARCHIVO (reparte y elige el
+     * kernel segun el perfil del archivo, calibrando lo que falte) y
+     * --metricas (imprime el resumen al terminar).
+     */
+    public static void main(String[] args) {
+        int codigo = ejecutar(args);
+        if (codigo != 0) {
+            System.exit(codigo);
+        }
+    }
+
+    static int ejecutar(String[] args) {
+        if (args.length < 3) {
+            imprimirUso();
+            return 1;
+        }
+
+        String elemento = "cruz";
+        boolean paralelo = true;
+        String formato = null;
+        boolean metricas = false;
+        CacheResultados cache = null;
+        try {
+            for (int i = 3; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--elemento":
+                        elemento = valor(args, ++i);
+                        break;
+                    case "--secuencial":
+                        paralelo = false;
+                        break;
+                    case "--formato":
+                        formato = valor(args, ++i).toLowerCase(Locale.ROOT);
+                        break;
+                    case "--hilos":
+                        MorfologiaMatematicaOptimizada.setParalelismo(Integer.parseInt(valor(args, ++i)));
+                        break;
+                    case "--metricas":
+                        metricas = true;
+                        break;
+                    case "--cache":
+                        cache = CacheResultados.desdePropiedades(valor(args, ++i));
+                        break;
+                    case "--autoajuste":
+                        AutoajusteMorfologia.activar(Paths.get(valor(args, ++i)));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Opcion desconocida: " + args[i]);
+                }
+            }
+
+            String entrada = args[0];
+            String salida = args[1];
+            if (formato == null) {
+                int punto = salida.lastIndexOf('.');
+                formato = salida.equals("-") || punto < 0
+                        ? "png" : salida.substring(punto + 1).toLowerCase(Locale.ROOT);
+            }
+            if (!ImageIO.getImageWritersByFormatName(formato).hasNext()) {
+                throw new IllegalArgumentException("Formato de salida no soportado: " + formato);
+            }
+            CadenaOperaciones cadena = CadenaOperaciones.desdeTexto(args[2], elemento, paralelo);
+            PrintStream mensajes = salida.equals("-") ? System.err : System.out;
+
+            BufferedImage imagen;
+            try (InputStream in = entrada.equals("-")
+                    ? new BufferedInputStream(System.in) : Files.newInputStream(Paths.get(entrada))) {
+                imagen = CadenaOperaciones.leer(in);
+            }
+
+            long inicio = System.nanoTime();
+            BufferedImage resultado = cache != null ? cadena.aplicar(imagen, cache) : cadena.aplicar(imagen);
+            long fin = System.nanoTime();
+
+            // La salida se abre recien con el resultado, para no dejar un
+            // archivo vacio si la lectura o el calculo fallan; si el escritor
+            // no acepta el tipo de imagen, se borra lo que haya quedado
+            try (OutputStream out = new BufferedOutputStream(salida.equals("-")
+                    ? System.out : Files.newOutputStream(Paths.get(salida)))) {
+                CadenaOperaciones.escribir(resultado, formato, out);
+            } catch (IOException e) {
+                if (!salida.equals("-")) {
+                    Files.deleteIfExists(Paths.get(salida));
+                }
+                throw e;
+            }
+
+            mensajes.println(cadena + ": " + (fin - inicio) / 1_000_000 + " ms");
+            if (metricas) {
+                mensajes.println(Metricas.resumen());
+                if (cache != null) {
+                    mensajes.println(cache);
+                }
+            }
+            return 0;
+
+        } catch (NoSuchFileException e) {
+            System.err.println("ERROR: No se encuentra el archivo: " + e.getFile());
+            return 1;
+        } catch (IOException e) {
+            System.err.println("ERROR al procesar imagen: " + e.getMessage());
+            return 1;
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+            return 1;
+        } finally {
+            MorfologiaMatematicaOptimizada.cerrarEjecutor();
+        }
+    }
+
+    private static String valor(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Falta el valor de " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static void imprimirUso() {
+        System.err.println("Uso: aplicar <entrada|-> <salida|-> <cadena> [--elemento E] [--secuencial]"
+                + " [--formato F] [--hilos N] [--cache DIR] [--autoajuste ARCHIVO] [--metricas]");
+        System.err.println("Cadena: op[:elemento[:borde]],... por ejemplo apertura:cuadrado5,gradiente:cruz:replicar");
+        System.err.println("Elementos: cruz, linea, lineav, x, l, linv, cuadradoN o una matriz como 010/111/010@1x1");
+        System.err.println("Bordes: ignorar, replicar, reflejar, constante=RRGGBB");
+    }
+}
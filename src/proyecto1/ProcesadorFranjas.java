@@ -0,0 +1,815 @@
+package proyecto1;
+
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Procesamiento por franjas horizontales para imagenes que no caben en memoria.
+ *
+ * La entrada se lee de a filas en una sola pasada y se mantiene una ventana
+ * con la franja actual mas las filas de halo que piden el EE y la operacion;
+ * al avanzar, las filas de halo se mueven al principio de la ventana en lugar
+ * de releerse. La salida se entrega al ImageWriter como un RenderedImage que
+ * calcula cada franja cuando el escritor pide sus filas, asi que la memoria
+ * depende del tamaño de la franja y no de la imagen.
+ *
+ * Los PNG no entrelazados de 8 bits (gris, RGB, RGBA y paleta) se decodifican
+ * aqui mismo, inflando los IDAT una sola vez y comprobando el CRC de cada
+ * bloque. Para el resto de las entradas (PNG entrelazados, de 16 bits o con
+ * conversion de color, y los demas formatos) se usa el ImageReader con
+ * setSourceRegion, que segun el formato puede volver a decodificar desde el
+ * principio en cada franja.
+ *
+ * Solo se escribe PNG: su escritor pide las filas en orden de arriba hacia
+ * abajo. Otros escritores las piden de abajo hacia arriba (BMP) o la imagen
+ * entera (JPEG, GIF), lo que obligaria a tenerla completa en memoria.
+ */
+final class ProcesadorFranjas {
+
+    static final int FILAS_POR_FRANJA = 256;
+
+    private ProcesadorFranjas() {
+    }
+
+    /**
+     * Procesa la imagen de entrada franja por franja y la escribe como PNG
+     * (el unico formato que acepta)
+     */
+    public static void procesar(File entrada, File salida, String formato,
+            ElementoEstructurante elemento, Operacion operacion, boolean paralelo,
+            int filasPorFranja) throws IOException {
+        if (filasPorFranja < 1) {
+            throw new IllegalArgumentException("Filas por franja invalidas: " + filasPorFranja);
+        }
+        // Se rechaza antes de abrir nada para no dejar una salida a medias
+        if (!"png".equalsIgnoreCase(formato)) {
+            throw new IOException("El procesamiento por franjas solo escribe PNG: " + formato);
+        }
+
+        try (ImageInputStream in = ImageIO.createImageInputStream(entrada)) {
+            if (in == null) {
+                throw new IOException("No se pudo abrir: " + entrada);
+            }
+            Iterator<ImageReader> lectores = ImageIO.getImageReaders(in);
+            if (!lectores.hasNext()) {
+                throw new IOException("Formato de entrada no soportado: " + entrada);
+            }
+            ImageReader lector = lectores.next();
+
+            Iterator<ImageWriter> escritores = ImageIO.getImageWritersByFormatName(formato);
+            if (!escritores.hasNext()) {
+                lector.dispose();
+                throw new IOException("Formato de salida no soportado: " + formato);
+            }
+            ImageWriter escritor = escritores.next();
+
+            FuenteFilas fuente = null;
+            try {
+                lector.setInput(in, true, true);
+                int width = lector.getWidth(0);
+                int height = lector.getHeight(0);
+                ImageTypeSpecifier tipo = lector.getImageTypes(0).next();
+
+                fuente = FilasPng.abrir(entrada, width, height);
+                if (fuente == null) {
+                    fuente = new FilasLector(lector, width);
+                }
+
+                // Sin esto quedarian restos de una salida anterior mas larga
+                if (salida.exists() && !salida.delete()) {
+                    throw new IOException("No se pudo reemplazar: " + salida);
+                }
+
+                try (ImageOutputStream out = ImageIO.createImageOutputStream(salida)) {
+                    escritor.setOutput(out);
+                    ImagenFranjas imagen = new ImagenFranjas(fuente, tipo, width, height,
+                            elemento, operacion, paralelo, filasPorFranja);
+                    escritor.write(null, new IIOImage(imagen, null, null), null);
+                } catch (IllegalStateException e) {
+                    // ImagenFranjas no puede lanzar IOException al escritor y la envuelve
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw e;
+                }
+            } finally {
+                if (fuente != null) {
+                    fuente.close();
+                }
+                escritor.dispose();
+                lector.dispose();
+            }
+        }
+    }
+
+    /**
+     * Entrega las filas de la entrada como ARGB, siempre en orden creciente
+     */
+    private interface FuenteFilas {
+
+        /**
+         * Deja las filas [y0, y1) en destino a partir de offset. y0 es la
+         * fila siguiente a la ultima entregada.
+         */
+        void leer(int y0, int y1, int[] destino, int offset) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    /**
+     * Filas leidas con el ImageReader, una region por llamada
+     */
+    private static final class FilasLector implements FuenteFilas {
+
+        private final ImageReader lector;
+        private final int width;
+
+        FilasLector(ImageReader lector, int width) {
+            this.lector = lector;
+            this.width = width;
+        }
+
+        @Override
+        public void leer(int y0, int y1, int[] destino, int offset) throws IOException {
+            ImageReadParam parametros = lector.getDefaultReadParam();
+            parametros.setSourceRegion(new Rectangle(0, y0, width, y1 - y0));
+            BufferedImage leida = lector.read(0, parametros);
+
+            int[] pixeles = RasterRapido.leerPixeles(leida);
+            System.arraycopy(pixeles, 0, destino, offset, (y1 - y0) * width);
+        }
+
+        @Override
+        public void close() {
+            // El flujo lo cierra procesar
+        }
+    }
+
+    /**
+     * Decodificador secuencial de PNG no entrelazado de 8 bits: infla los IDAT
+     * a medida que se piden filas y solo guarda la fila anterior para los
+     * filtros.
+     *
+     * Los pixeles salen igual que de RasterRapido.leerPixeles sobre la imagen
+     * que devolveria ImageIO; por eso se dejan al ImageReader los casos en que
+     * ImageIO convierte el color (perfil iCCP, gris con alfa, tRNS en gris o
+     * RGB, 16 bits). Un bloque con el CRC equivocado es un error, como un
+     * archivo truncado, y no se pasa al ImageReader.
+     */
+    private static final class FilasPng implements FuenteFilas {
+
+        private static final long FIRMA = 0x89504E470D0A1A0AL;
+        private static final int IHDR = 0x49484452;
+        private static final int PLTE = 0x504C5445;
+        private static final int TRNS = 0x74524E53;
+        private static final int ICCP = 0x69434350;
+        private static final int IDAT = 0x49444154;
+
+        private final DataInputStream entrada;
+        private final FlujoIdat idat;
+        private final InflaterInputStream datos;
+        private final Inflater inflador = new Inflater();
+        private final int width;
+        private final int height;
+        private final int tipoColor;
+        private final int bitsPorMuestra;
+        private final int bytesPorPixel;
+        private final int[] paleta;
+
+        private byte[] fila;
+        private byte[] anterior;
+        private int siguiente = 0;
+
+        private FilasPng(DataInputStream entrada, CRC32 crc, int width, int height, int tipoColor,
+                int bitsPorMuestra, int[] paleta, int primerIdat) {
+            this.entrada = entrada;
+            this.width = width;
+            this.height = height;
+            this.tipoColor = tipoColor;
+            this.bitsPorMuestra = bitsPorMuestra;
+            this.paleta = paleta;
+
+            int canales = tipoColor == 2 ? 3 : tipoColor == 6 ? 4 : 1;
+            this.bytesPorPixel = Math.max(1, canales * bitsPorMuestra / 8);
+            int bytesFila = (width * canales * bitsPorMuestra + 7) / 8;
+            this.fila = new byte[bytesFila];
+            this.anterior = new byte[bytesFila];
+            this.idat = new FlujoIdat(entrada, crc, primerIdat);
+            this.datos = new InflaterInputStream(idat, inflador, 1 << 16);
+        }
+
+        /**
+         * Abre el archivo si es un PNG que este decodificador cubre, o
+         * devuelve null para usar el ImageReader
+         */
+        static FilasPng abrir(File archivo, int width, int height) throws IOException {
+            // El CRC cubre el tipo y los datos de cada bloque; se reinicia despues de leer el largo
+            CRC32 crc = new CRC32();
+            DataInputStream in = new DataInputStream(new CheckedInputStream(
+                    new BufferedInputStream(Files.newInputStream(archivo.toPath()), 1 << 16), crc));
+            FilasPng fuente = null;
+            try {
+                fuente = leerCabecera(in, crc, width, height);
+                return fuente;
+            } finally {
+                if (fuente == null) {
+                    in.close();
+                }
+            }
+        }
+
+        private static FilasPng leerCabecera(DataInputStream in, CRC32 crc, int width, int height)
+                throws IOException {
+            if (in.readLong() != FIRMA) {
+                return null;
+            }
+            int tipoColor = -1, bits = -1;
+            int[] paleta = null;
+            while (true) {
+                int largo = in.readInt();
+                crc.reset();
+                int tipo = in.readInt();
+                if (largo < 0) {
+                    throw new IOException("Bloque PNG invalido");
+                }
+                switch (tipo) {
+                    case IHDR: {
+                        if (in.readInt() != width || in.readInt() != height) {
+                            return null;
+                        }
+                        bits = in.readUnsignedByte();
+                        tipoColor = in.readUnsignedByte();
+                        in.readUnsignedByte(); // compresion
+                        in.readUnsignedByte(); // filtro
+                        int entrelazado = in.readUnsignedByte();
+                        saltar(in, largo - 13);
+                        verificarCrc(in, crc, tipo);
+                        boolean soportado = entrelazado == 0
+                                && (tipoColor == 3 ? bits <= 8 : bits == 8)
+                                && (tipoColor == 0 || tipoColor == 2 || tipoColor == 3 || tipoColor == 6);
+                        if (!soportado) {
+                            return null;
+                        }
+                        break;
+                    }
+                    case PLTE: {
+                        paleta = new int[1 << Math.max(bits, 1)];
+                        int entradas = Math.min(largo / 3, paleta.length);
+                        for (int i = 0; i < entradas; i++) {
+                            int r = in.readUnsignedByte();
+                            int g = in.readUnsignedByte();
+                            int b = in.readUnsignedByte();
+                            paleta[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+                        }
+                        // Los indices fuera de la paleta repiten la ultima entrada
+                        for (int i = entradas; i < paleta.length && entradas > 0; i++) {
+                            paleta[i] = paleta[entradas - 1];
+                        }
+                        saltar(in, largo - 3 * entradas);
+                        verificarCrc(in, crc, tipo);
+                        break;
+                    }
+                    case TRNS: {
+                        if (tipoColor != 3 || paleta == null) {
+                            return null;
+                        }
+                        int entradas = Math.min(largo, paleta.length);
+                        for (int i = 0; i < entradas; i++) {
+                            paleta[i] = (in.readUnsignedByte() << 24) | (paleta[i] & 0x00FFFFFF);
+                        }
+                        saltar(in, largo - entradas);
+                        verificarCrc(in, crc, tipo);
+                        break;
+                    }
+                    case ICCP:
+                        return null;
+                    case IDAT:
+                        if (tipoColor < 0 || (tipoColor == 3 && paleta == null)) {
+                            return null;
+                        }
+                        return new FilasPng(in, crc, width, height, tipoColor, bits, paleta, largo);
+                    default:
+                        saltar(in, largo);
+                        verificarCrc(in, crc, tipo);
+                }
+            }
+        }
+
+        /**
+         * Lee el CRC guardado al final del bloque y lo compara con el de lo
+         * leido desde el tipo
+         */
+        static void verificarCrc(DataInputStream in, CRC32 crc, int tipo) throws IOException {
+            int calculado = (int) crc.getValue();
+            if (in.readInt() != calculado) {
+                throw new IOException("PNG corrupto: CRC incorrecto en el bloque " + nombre(tipo));
+            }
+        }
+
+        private static String nombre(int tipo) {
+            return new String(new char[] {(char) (tipo >>> 24), (char) ((tipo >>> 16) & 0xFF),
+                (char) ((tipo >>> 8) & 0xFF), (char) (tipo & 0xFF)});
+        }
+
+        private static void saltar(InputStream in, long bytes) throws IOException {
+            while (bytes > 0) {
+                long saltados = in.skip(bytes);
+                if (saltados <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException("PNG truncado");
+                    }
+                    saltados = 1;
+                }
+                bytes -= saltados;
+            }
+        }
+
+        @Override
+        public void leer(int y0, int y1, int[] destino, int offset) throws IOException {
+            if (y0 != siguiente) {
+                throw new IllegalStateException("Las filas deben leerse en orden: " + y0);
+            }
+            for (int y = y0; y < y1; y++, offset += width) {
+                leerFila();
+                convertir(destino, offset);
+            }
+            siguiente = y1;
+            // El inflador para al final de los datos comprimidos, quizas sin
+            // llegar al final del ultimo IDAT; se recorre para comprobar su CRC
+            if (siguiente == height) {
+                idat.terminar();
+            }
+        }
+
+        /**
+         * Infla la fila siguiente y deshace su filtro
+         */
+        private void leerFila() throws IOException {
+            byte[] t = anterior;
+            anterior = fila;
+            fila = t;
+
+            int filtro = datos.read();
+            if (filtro < 0) {
+                throw new EOFException("PNG truncado en la fila " + siguiente);
+            }
+            int leidos = 0;
+            while (leidos < fila.length) {
+                int n = datos.read(fila, leidos, fila.length - leidos);
+                if (n < 0) {
+                    throw new EOFException("PNG truncado en la fila " + siguiente);
+                }
+                leidos += n;
+            }
+
+            byte[] f = fila, a = anterior;
+            int bpp = bytesPorPixel, n = f.length;
+            switch (filtro) {
+                case 0:
+                    break;
+                case 1:
+                    for (int i = bpp; i < n; i++) {
+                        f[i] += f[i - bpp];
+                    }
+                    break;
+                case 2:
+                    for (int i = 0; i < n; i++) {
+                        f[i] += a[i];
+                    }
+                    break;
+                case 3:
+                    for (int i = 0; i < bpp; i++) {
+                        f[i] += (byte) ((a[i] & 0xFF) >>> 1);
+                    }
+                    for (int i = bpp; i < n; i++) {
+                        f[i] += (byte) (((f[i - bpp] & 0xFF) + (a[i] & 0xFF)) >>> 1);
+                    }
+                    break;
+                case 4:
+                    for (int i = 0; i < bpp; i++) {
+                        f[i] += a[i];
+                    }
+                    for (int i = bpp; i < n; i++) {
+                        f[i] += (byte) paeth(f[i - bpp] & 0xFF, a[i] & 0xFF, a[i - bpp] & 0xFF);
+                    }
+                    break;
+                default:
+                    throw new IOException("Filtro PNG desconocido: " + filtro);
+            }
+            siguiente++;
+        }
+
+        private static int paeth(int izq, int arriba, int diag) {
+            int p = izq + arriba - diag;
+            int pa = Math.abs(p - izq);
+            int pb = Math.abs(p - arriba);
+            int pc = Math.abs(p - diag);
+            if (pa <= pb && pa <= pc) {
+                return izq;
+            }
+            return pb <= pc ? arriba : diag;
+        }
+
+        /**
+         * Convierte la fila decodificada a ARGB como lo haria leerPixeles
+         */
+        private void convertir(int[] destino, int offset) {
+            byte[] f = fila;
+            switch (tipoColor) {
+                case 0:
+                    for (int x = 0; x < width; x++) {
+                        destino[offset + x] = RasterRapido.grisAArgb(f[x] & 0xFF);
+                    }
+                    break;
+                case 2:
+                    for (int x = 0, j = 0; x < width; x++, j += 3) {
+                        destino[offset + x] = 0xFF000000 | ((f[j] & 0xFF) << 16)
+                                | ((f[j + 1] & 0xFF) << 8) | (f[j + 2] & 0xFF);
+                    }
+                    break;
+                case 6:
+                    for (int x = 0, j = 0; x < width; x++, j += 4) {
+                        destino[offset + x] = ((f[j + 3] & 0xFF) << 24) | ((f[j] & 0xFF) << 16)
+                                | ((f[j + 1] & 0xFF) << 8) | (f[j + 2] & 0xFF);
+                    }
+                    break;
+                default: {
+                    int bits = bitsPorMuestra;
+                    int mascara = (1 << bits) - 1;
+                    int porByte = 8 / bits;
+                    for (int x = 0; x < width; x++) {
+                        int b = f[x / porByte] & 0xFF;
+                        int desplazamiento = 8 - bits * (x % porByte + 1);
+                        destino[offset + x] = paleta[(b >>> desplazamiento) & mascara];
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflador.end();
+            entrada.close();
+        }
+    }
+
+    /**
+     * Contenido de los IDAT consecutivos como un solo flujo. El CRC de cada
+     * IDAT se comprueba al pasar al siguiente; el del ultimo, al llegar al
+     * bloque que le sigue.
+     */
+    private static final class FlujoIdat extends InputStream {
+
+        private final DataInputStream in;
+        private final CRC32 crc;
+        private int restante;
+        private boolean terminado = false;
+
+        FlujoIdat(DataInputStream in, CRC32 crc, int primerLargo) {
+            this.in = in;
+            this.crc = crc;
+            this.restante = primerLargo;
+        }
+
+        /**
+         * Pasa al IDAT siguiente si el actual se agoto; false si no hay mas
+         */
+        private boolean disponible() throws IOException {
+            while (restante == 0 && !terminado) {
+                FilasPng.verificarCrc(in, crc, FilasPng.IDAT);
+                int largo = in.readInt();
+                crc.reset();
+                int tipo = in.readInt();
+                if (tipo != FilasPng.IDAT || largo < 0) {
+                    terminado = true;
+                } else {
+                    restante = largo;
+                }
+            }
+            return restante > 0;
+        }
+
+        /**
+         * Salta lo que quede de los IDAT, comprobando sus CRC
+         */
+        void terminar() throws IOException {
+            while (disponible()) {
+                FilasPng.saltar(in, restante);
+                restante = 0;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!disponible()) {
+                return -1;
+            }
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("PNG truncado");
+            }
+            restante--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!disponible()) {
+                return -1;
+            }
+            int n = in.read(b, off, Math.min(len, restante));
+            if (n < 0) {
+                throw new EOFException("PNG truncado");
+            }
+            restante -= n;
+            return n;
+        }
+    }
+
+    /**
+     * Imagen de salida calculada bajo demanda, una franja a la vez
+     */
+    private static final class ImagenFranjas implements RenderedImage {
+
+        private final FuenteFilas fuente;
+        private final ImageTypeSpecifier tipo;
+        private final ElementoEstructurante elemento;
+        private final Operacion operacion;
+        private final PlanDescomposicion plan;
+        private final boolean paralelo;
+        private final int width, height;
+        private final int filasPorFranja;
+
+        // Filas de la entrada necesarias por encima y por debajo de cada franja
+        private final int haloArriba, haloAbajo;
+
+        // Ventana de entrada: filas [ventanaY0, ventanaY1) en pixeles ARGB
+        private final int[] ventana;
+        private int ventanaY0, ventanaY1;
+
+        // Franja de salida actual: filas [franjaY0, franjaY1)
+        private final int[] salida;
+        private BufferedImage franja;
+        private int franjaY0 = 0, franjaY1 = 0;
+
+        ImagenFranjas(FuenteFilas fuente, ImageTypeSpecifier tipo, int width, int height,
+                ElementoEstructurante elemento, Operacion operacion, boolean paralelo,
+                int filasPorFranja) throws IOException {
+            this.fuente = fuente;
+            this.tipo = tipo;
+            this.elemento = elemento;
+            this.operacion = operacion;
+            this.plan = PlanDescomposicion.planificar(elemento);
+            this.paralelo = paralelo;
+            this.width = width;
+            this.height = height;
+            this.filasPorFranja = Math.min(filasPorFranja, height);
+
+            this.haloArriba = operacion.etapas() * elemento.anclaY;
+            this.haloAbajo = operacion.etapas() * (elemento.height - 1 - elemento.anclaY);
+
+            this.ventana = new int[(this.filasPorFranja + haloArriba + haloAbajo) * width];
+            this.salida = new int[this.filasPorFranja * width];
+            this.ventanaY0 = 0;
+            this.ventanaY1 = 0;
+
+            calcularFranja(0);
+        }
+
+        /**
+         * Calcula las filas de salida que empiezan en y0
+         */
+        private void calcularFranja(int y0) throws IOException {
+            int y1 = Math.min(height, y0 + filasPorFranja);
+            int necesarioY0 = Math.max(0, y0 - haloArriba);
+            int necesarioY1 = Math.min(height, y1 + haloAbajo);
+
+            avanzarVentana(necesarioY0, necesarioY1);
+
+            int filas = y1 - y0;
+            int[] origen = ventana;
+            int offsetOrigen = -ventanaY0 * width;
+            boolean conservarOriginal = paralelo;
+
+            if (paralelo) {
+                int halo = operacion.etapas() * Math.max(elemento.width, elemento.height);
+                int ladoMinimo = Math.max(MorfologiaMatematicaOptimizada.LADO_MINIMO_TESELA, 2 * halo);
+                EjecutorMorfologia.ejecutar(width, filas, ladoMinimo, (x0, ty0, x1, ty1) ->
+                        MorfologiaCompuesta.procesarRegion(operacion, plan, origen, offsetOrigen, width,
+                                width, height, conservarOriginal, x0, y0 + ty0, x1, y0 + ty1,
+                                salida, ty0 * width + x0, width));
+            } else {
+                MorfologiaCompuesta.procesarRegion(operacion, plan, origen, offsetOrigen, width,
+                        width, height, conservarOriginal, 0, y0, width, y1, salida, 0, width);
+            }
+
+            if (franja == null || franja.getHeight() != filas) {
+                franja = tipo.createBufferedImage(width, filas);
+            }
+            RasterRapido.escribirRegion(salida, 0, width, 0, 0, width, filas, franja);
+
+            franjaY0 = y0;
+            franjaY1 = y1;
+        }
+
+        /**
+         * Deja en la ventana las filas [y0, y1) de la entrada, conservando las
+         * que ya estaban y leyendo solo las nuevas
+         */
+        private void avanzarVentana(int y0, int y1) throws IOException {
+            int conservarDesde = Math.max(y0, ventanaY0);
+            int conservarHasta = Math.min(y1, ventanaY1);
+
+            int primeraNueva = y0;
+            if (conservarHasta > conservarDesde) {
+                System.arraycopy(ventana, (conservarDesde - ventanaY0) * width,
+                        ventana, (conservarDesde - y0) * width, (conservarHasta - conservarDesde) * width);
+                primeraNueva = conservarHasta;
+            }
+
+            if (primeraNueva < y1) {
+                fuente.leer(primeraNueva, y1, ventana, (primeraNueva - y0) * width);
+            }
+
+            ventanaY0 = y0;
+            ventanaY1 = y1;
+        }
+
+        /**
+         * Avanza hasta la franja que contiene la fila y
+         */
+        private void avanzarHasta(int y) {
+            if (y < franjaY0) {
+                throw new IllegalStateException("Las filas deben pedirse en orden: " + y);
+            }
+            try {
+                while (y >= franjaY1) {
+                    calcularFranja(franjaY1);
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException("Error leyendo la franja en la fila " + y, e);
+            }
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            avanzarHasta(rect.y);
+            if (rect.y + rect.height <= franjaY1) {
+                return franja.getRaster().createChild(rect.x, rect.y - franjaY0, rect.width,
+                        rect.height, rect.x, rect.y, null);
+            }
+            // Region de varias franjas: se arma copiandolas en orden
+            WritableRaster raster = franja.getRaster().createCompatibleWritableRaster(
+                    rect.x, rect.y, rect.width, rect.height);
+            return copyData(raster);
+        }
+
+        @Override
+        public Raster getData() {
+            return getData(new Rectangle(0, 0, width, height));
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster raster) {
+            if (raster == null) {
+                raster = franja.getRaster().createCompatibleWritableRaster(width, height);
+            }
+            int y0 = Math.max(0, raster.getMinY());
+            int y1 = Math.min(height, raster.getMinY() + raster.getHeight());
+            int x0 = Math.max(0, raster.getMinX());
+            int x1 = Math.min(width, raster.getMinX() + raster.getWidth());
+            if (x0 >= x1) {
+                return raster;
+            }
+            for (int y = y0; y < y1; y = franjaY1) {
+                avanzarHasta(y);
+                int hasta = Math.min(y1, franjaY1);
+                raster.setRect(franja.getRaster().createChild(x0, y - franjaY0, x1 - x0, hasta - y,
+                        x0, y, null));
+            }
+            return raster;
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            return getData(new Rectangle(0, tileY * filasPorFranja, width,
+                    Math.min(filasPorFranja, height - tileY * filasPorFranja)));
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return franja.getColorModel();
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return franja.getSampleModel().createCompatibleSampleModel(width, filasPorFranja);
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return (height + filasPorFranja - 1) / filasPorFranja;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return width;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return filasPorFranja;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,325 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import javax.imageio.ImageIO;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Una operacion aplicada a una secuencia de cuadros (video, time-lapse)
+ * recalculando solo lo que cambio respecto del cuadro anterior.
+ *
+ * Cada cuadro se compara con el anterior por teselas de LADO_TESELA pixeles.
+ * Un pixel de entrada que cambia afecta a los de salida que lo tienen en su
+ * vecindad, asi que cada tesela sucia se agranda por el alcance del EE a cada
+ * lado del ancla (multiplicado por las etapas de la operacion) y se marcan
+ * las teselas de salida que toca. Esas se recalculan con los mismos kernels
+ * que el motor completo (procesarTesela) y se escriben sobre la salida del
+ * cuadro anterior; el resto de la salida no se toca. El resultado es el
+ * mismo que operacionParalela (o operacionSecuencial) sobre el cuadro.
+ *
+ * No es seguro usar una misma instancia desde varios hilos a la vez.
+ */
+public final class ProcesadorIncremental {
+
+    static final int LADO_TESELA = 32;
+
+    // Por encima de esta fraccion de teselas sucias se recalcula todo
+    private static final double FRACCION_COMPLETA = 0.6;
+
+    private final ElementoEstructurante elemento;
+    private final Operacion operacion;
+    private final boolean paralelo;
+    private final PlanDescomposicion plan;
+
+    // Alcance del EE: cuantos pixeles de salida a cada lado de un pixel de
+    // entrada pueden cambiar con el
+    private final int alcanceIzquierda, alcanceDerecha, alcanceArriba, alcanceAbajo;
+
+    private int width, height, tipo;
+    // Copia del cuadro anterior; se actualiza solo en las teselas que cambian
+    private int[] anterior;
+    // Para los tipos que hay que convertir a ARGB; los TYPE_INT_* se leen directo
+    private int[] conversion;
+    // Pixeles del cuadro en curso
+    private int[] actual;
+    private BufferedImage salida;
+    private int[] salidaDirecta;
+
+    private long cuadros;
+    private long teselasCalculadas;
+    private long teselasTotales;
+    private double fraccionUltimo;
+
+    public ProcesadorIncremental(ElementoEstructurante elemento, Operacion operacion, boolean paralelo) {
+        if (elemento == null || operacion == null) {
+            throw new IllegalArgumentException("Faltan el elemento o la operacion");
+        }
+        this.elemento = elemento;
+        this.operacion = operacion;
+        this.paralelo = paralelo;
+        this.plan = PlanDescomposicion.planificar(elemento);
+
+        // La salida en p lee la entrada en p + (celda - ancla)
+        int etapas = operacion.etapas();
+        alcanceIzquierda = etapas * (elemento.width - 1 - elemento.anclaX);
+        alcanceDerecha = etapas * elemento.anclaX;
+        alcanceArriba = etapas * (elemento.height - 1 - elemento.anclaY);
+        alcanceAbajo = etapas * elemento.anclaY;
+    }
+
+    /**
+     * Procesa el siguiente cuadro. Un cuadro de otro tamaño o tipo que el
+     * anterior se calcula completo. La imagen devuelta es la misma en todos
+     * los cuadros y se actualiza en el siguiente; hay que copiarla para
+     * conservarla.
+     */
+    public BufferedImage procesar(BufferedImage cuadro) {
+        int w = cuadro.getWidth();
+        int h = cuadro.getHeight();
+        Metricas.Medicion medicion = Metricas.ACTIVAS ? Metricas.iniciar(operacion,
+                paralelo ? "incremental paralelo" : "incremental secuencial", w, h) : null;
+        try {
+            boolean completo = salida == null || w != width || h != height || cuadro.getType() != tipo;
+            if (completo) {
+                reiniciar(w, h, cuadro.getType());
+            }
+
+            actual = RasterRapido.leerPixeles(cuadro, conversion);
+
+            int teselasX = (width + LADO_TESELA - 1) / LADO_TESELA;
+            int teselasY = (height + LADO_TESELA - 1) / LADO_TESELA;
+            int cantidad = teselasX * teselasY;
+            boolean[] recalcular = null;
+            int marcadas = cantidad;
+            if (!completo) {
+                recalcular = marcarTeselas(teselasX, teselasY);
+                marcadas = 0;
+                for (boolean marcada : recalcular) {
+                    if (marcada) {
+                        marcadas++;
+                    }
+                }
+                completo = marcadas > FRACCION_COMPLETA * cantidad;
+            }
+
+            if (completo) {
+                calcularTodo();
+                // Quien llama puede reutilizar su imagen: el cuadro se copia
+                System.arraycopy(actual, 0, anterior, 0, width * height);
+                marcadas = cantidad;
+            } else if (marcadas > 0) {
+                calcularTeselas(recalcular, teselasX, teselasY);
+            }
+            actual = null;
+
+            cuadros++;
+            teselasCalculadas += marcadas;
+            teselasTotales += cantidad;
+            fraccionUltimo = (double) marcadas / cantidad;
+            return salida;
+        } finally {
+            if (Metricas.ACTIVAS) {
+                medicion.terminar();
+            }
+        }
+    }
+
+    private void reiniciar(int w, int h, int nuevoTipo) {
+        width = w;
+        height = h;
+        tipo = nuevoTipo;
+        anterior = new int[w * h];
+        salida = new BufferedImage(w, h, nuevoTipo);
+        salidaDirecta = RasterRapido.arregloEnteros(salida);
+        conversion = salidaDirecta == null ? new int[w * h] : null;
+    }
+
+    /**
+     * Teselas de salida a recalcular: las que alcanza alguna tesela de
+     * entrada que cambio. Las teselas que cambiaron se copian a anterior.
+     */
+    private boolean[] marcarTeselas(int teselasX, int teselasY) {
+        boolean[] recalcular = new boolean[teselasX * teselasY];
+        for (int ty = 0; ty < teselasY; ty++) {
+            int y0 = ty * LADO_TESELA;
+            int y1 = Math.min(height, y0 + LADO_TESELA);
+            for (int tx = 0; tx < teselasX; tx++) {
+                int x0 = tx * LADO_TESELA;
+                int x1 = Math.min(width, x0 + LADO_TESELA);
+                if (!cambio(x0, y0, x1, y1)) {
+                    continue;
+                }
+                int sx0 = Math.max(0, x0 - alcanceIzquierda) / LADO_TESELA;
+                int sx1 = (Math.min(width, x1 + alcanceDerecha) - 1) / LADO_TESELA;
+                int sy0 = Math.max(0, y0 - alcanceArriba) / LADO_TESELA;
+                int sy1 = (Math.min(height, y1 + alcanceAbajo) - 1) / LADO_TESELA;
+                for (int sy = sy0; sy <= sy1; sy++) {
+                    Arrays.fill(recalcular, sy * teselasX + sx0, sy * teselasX + sx1 + 1, true);
+                }
+            }
+        }
+        return recalcular;
+    }
+
+    private boolean cambio(int x0, int y0, int x1, int y1) {
+        for (int y = y0; y < y1; y++) {
+            int desde = y * width + x0;
+            int hasta = y * width + x1;
+            if (!Arrays.equals(actual, desde, hasta, anterior, desde, hasta)) {
+                // Las filas anteriores de la tesela son iguales
+                for (int fila = y; fila < y1; fila++) {
+                    System.arraycopy(actual, fila * width + x0, anterior, fila * width + x0, x1 - x0);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void calcularTodo() {
+        // Sin vecinos dentro de la imagen el motor paralelo conserva el pixel
+        // original y el secuencial usa el neutro
+        EjecutorMorfologia.TareaRegion tarea = (x0, y0, x1, y1) ->
+                MorfologiaMatematicaOptimizada.procesarTesela(operacion, plan, actual, width, height,
+                        paralelo, x0, y0, x1, y1, salida, salidaDirecta);
+        if (paralelo) {
+            int halo = operacion.etapas() * Math.max(elemento.width, elemento.height);
+            EjecutorMorfologia.ejecutar(width, height,
+                    Math.max(MorfologiaMatematicaOptimizada.LADO_MINIMO_TESELA, 2 * halo), tarea);
+        } else {
+            tarea.procesar(0, 0, width, height);
+        }
+    }
+
+    /**
+     * Recalcula las teselas marcadas, juntando las consecutivas de cada fila
+     * de teselas en una sola region para no repetir el halo entre ellas
+     */
+    private void calcularTeselas(boolean[] recalcular, int teselasX, int teselasY) {
+        int[] regiones = new int[4 * recalcular.length];
+        int cantidad = 0;
+        for (int ty = 0; ty < teselasY; ty++) {
+            int tx = 0;
+            while (tx < teselasX) {
+                if (!recalcular[ty * teselasX + tx]) {
+                    tx++;
+                    continue;
+                }
+                int inicio = tx;
+                while (tx < teselasX && recalcular[ty * teselasX + tx]) {
+                    tx++;
+                }
+                regiones[4 * cantidad] = inicio * LADO_TESELA;
+                regiones[4 * cantidad + 1] = ty * LADO_TESELA;
+                regiones[4 * cantidad + 2] = Math.min(width, tx * LADO_TESELA);
+                regiones[4 * cantidad + 3] = Math.min(height, (ty + 1) * LADO_TESELA);
+                cantidad++;
+            }
+        }
+
+        EjecutorMorfologia.TareaRegion tarea = (x0, y0, x1, y1) ->
+                MorfologiaMatematicaOptimizada.procesarTesela(operacion, plan, actual, width, height,
+                        paralelo, x0, y0, x1, y1, salida, salidaDirecta);
+        if (paralelo) {
+            EjecutorMorfologia.ejecutarRegiones(regiones, cantidad, tarea);
+        } else {
+            for (int i = 0; i < cantidad; i++) {
+                tarea.procesar(regiones[4 * i], regiones[4 * i + 1], regiones[4 * i + 2], regiones[4 * i + 3]);
+            }
+        }
+    }
+
+    /**
+     * Fraccion de la salida recalculada en el ultimo cuadro (1 si fue completo)
+     */
+    public double getFraccionUltimo() {
+        return fraccionUltimo;
+    }
+
+    /**
+     * Fraccion de la salida recalculada en todos los cuadros
+     */
+    public double getFraccionTotal() {
+        return teselasTotales == 0 ? 0 : (double) teselasCalculadas / teselasTotales;
+    }
+
+    public long getCuadros() {
+        return cuadros;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "Incremental: %d cuadros, %.1f%% recalculado (ultimo %.1f%%)",
+                cuadros, 100 * getFraccionTotal(), 100 * fraccionUltimo);
+    }
+
+    /**
+     * Uso: cuadros entrada salida operacion elemento [secuencial]
+     *
+     * entrada es un directorio o un patron como "video/*.png"; los cuadros se
+     * procesan en orden de nombre y cada resultado queda en salida con el
+     * mismo nombre en PNG.
+     */
+    public static void main(String[] args) {
+        if (args.length < 4 || args.length > 5) {
+            System.err.println("Uso: cuadros <directorio|patron> <salida> <operacion> <elemento> [secuencial]");
+            System.err.println("Elementos: cruz, linea, lineav, x, l, linv, cuadradoN o una matriz como 010/111/010");
+            return;
+        }
+
+        try {
+            Operacion op = Operacion.desdeNombre(args[2]);
+            if (op == null) {
+                System.err.println("ERROR: Operacion no válida: " + args[2]);
+                return;
+            }
+            ElementoEstructurante elemento = MorfologiaMatematicaOptimizada.crearDesdeDefinicion(args[3]);
+            if (elemento == null) {
+                System.err.println("ERROR: Elemento no válido: " + args[3]);
+                return;
+            }
+            boolean paralelo = !(args.length > 4 && args[4].equals("secuencial"));
+
+            File dirSalida = new File(args[1]);
+            if (!dirSalida.isDirectory() && !dirSalida.mkdirs()) {
+                System.err.println("ERROR: No se pudo crear el directorio de salida: " + dirSalida);
+                return;
+            }
+
+            List<File> archivos = ProcesadorLotes.listarEntradas(args[0]);
+            ProcesadorIncremental incremental = new ProcesadorIncremental(elemento, op, paralelo);
+            long nanosCalculo = 0;
+            for (File archivo : archivos) {
+                BufferedImage cuadro = ImageIO.read(archivo);
+                if (cuadro == null) {
+                    System.err.println("ERROR: No se pudo leer la imagen: " + archivo);
+                    continue;
+                }
+                long inicio = System.nanoTime();
+                BufferedImage resultado = incremental.procesar(cuadro);
+                nanosCalculo += System.nanoTime() - inicio;
+
+                String nombre = archivo.getName();
+                int punto = nombre.lastIndexOf('.');
+                File salida = new File(dirSalida, (punto > 0 ? nombre.substring(0, punto) : nombre) + ".png");
+                ImageIO.write(resultado, "png", salida);
+            }
+
+            System.out.println(incremental);
+            System.out.println("Tiempo de calculo: " + nanosCalculo / 1_000_000 + " ms");
+
+        } catch (IOException e) {
+            System.err.println("ERROR al procesar los cuadros: " + e.getMessage());
+            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        } finally {
+            MorfologiaMatematicaOptimizada.cerrarEjecutor();
+        }
+    }
+}
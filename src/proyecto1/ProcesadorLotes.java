@@ -0,0 +1,482 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Procesamiento por lotes de un directorio (o un patron glob) sin menu.
+ *
+ * Cada archivo pasa por tres etapas: lectura, calculo y escritura en PNG. Las
+ * etapas corren a la vez con sus propios hilos y se comunican por colas
+ * acotadas, asi que mientras unas imagenes se decodifican otras se calculan y
+ * otras se escriben. Si una etapa se atrasa, la cola que la alimenta se llena
+ * y la anterior se bloquea, con lo que las imagenes en memoria quedan
+ * acotadas por la capacidad de las colas.
+ *
+ * El calculo usa el motor paralelo (el pool compartido), asi que los hilos de
+ * esa etapa solo fijan cuantas imagenes se calculan a la vez. Un archivo que
+ * falla en cualquier etapa (incluso con un Error como OutOfMemoryError) se
+ * anota y el lote sigue.
+ */
+final class ProcesadorLotes {
+
+    static final int HILOS_LECTURA = 2;
+    static final int HILOS_CALCULO = 2;
+    static final int HILOS_ESCRITURA = 2;
+    static final int CAPACIDAD_COLA = 8;
+
+    // Marca de fin de cola; cada hilo de una etapa consume una
+    private static final Trabajo FIN = new Trabajo(null, null);
+
+    private ProcesadorLotes() {
+    }
+
+    /**
+     * Uso: lote entrada salida operaciones elemento [lectura calculo escritura capacidad]
+     *
+     * entrada es un directorio o un patron como "fotos/*.png"; operaciones es
+     * una lista separada por comas que se aplica en orden ("apertura,gradiente").
+     */
+    public static void main(String[] args) {
+        if (args.length < 4 || args.length > 8) {
+            System.err.println("Uso: lote <directorio|patron> <salida> <op1,op2,...> <elemento>"
+                    + " [hilosLectura hilosCalculo hilosEscritura capacidadCola]");
+            System.err.println("Elementos: cruz, linea, lineav, x, l, linv, cuadradoN");
+            return;
+        }
+
+        try {
+            List<Operacion> operaciones = new ArrayList<>();
+            for (String nombre : args[2].split(",")) {
+                Operacion op = Operacion.desdeNombre(nombre);
+                if (op == null) {
+                    System.err.println("ERROR: Operacion no válida: " + nombre);
+                    return;
+                }
+                operaciones.add(op);
+            }
+
+            ElementoEstructurante elemento = MorfologiaMatematicaOptimizada.crearPorNombre(args[3]);
+            if (elemento == null) {
+                System.err.println("ERROR: Elemento no válido: " + args[3]);
+                return;
+            }
+
+            int lectura = args.length > 4 ? Integer.parseInt(args[4]) : HILOS_LECTURA;
+            int calculo = args.length > 5 ? Integer.parseInt(args[5]) : HILOS_CALCULO;
+            int escritura = args.length > 6 ? Integer.parseInt(args[6]) : HILOS_ESCRITURA;
+            int capacidad = args.length > 7 ? Integer.parseInt(args[7]) : CAPACIDAD_COLA;
+
+            List<File> archivos = listarEntradas(args[0]);
+            System.out.println("Archivos a procesar: " + archivos.size());
+
+            Resumen resumen = procesar(archivos, new File(args[1]), operaciones, elemento,
+                    lectura, calculo, escritura, capacidad);
+            System.out.println(resumen);
+
+        } catch (IOException e) {
+            System.err.println("ERROR en el lote: " + e.getMessage());
+            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        } catch (InterruptedException e) {
+            System.err.println("Lote interrumpido");
+            Thread.currentThread().interrupt();
+        } finally {
+            MorfologiaMatematicaOptimizada.cerrarEjecutor();
+        }
+    }
+
+    /**
+     * Archivos de imagen de un directorio, o los que coinciden con un patron
+     * glob en su ultimo componente ("dir/*.png"), ordenados por nombre
+     */
+    static List<File> listarEntradas(String patron) throws IOException {
+        File directorio;
+        PathMatcher filtro = null;
+
+        File comoArchivo = new File(patron);
+        if (comoArchivo.isDirectory()) {
+            directorio = comoArchivo;
+        } else {
+            int corte = Math.max(patron.lastIndexOf('/'), patron.lastIndexOf(File.separatorChar));
+            directorio = new File(corte < 0 ? "." : patron.substring(0, corte + 1));
+            filtro = FileSystems.getDefault().getPathMatcher("glob:" + patron.substring(corte + 1));
+        }
+
+        File[] contenido = directorio.listFiles();
+        if (contenido == null) {
+            throw new IOException("No se puede leer el directorio: " + directorio);
+        }
+
+        Set<String> extensiones = new HashSet<>();
+        for (String sufijo : ImageIO.getReaderFileSuffixes()) {
+            extensiones.add(sufijo.toLowerCase(Locale.ROOT));
+        }
+
+        List<File> archivos = new ArrayList<>();
+        for (File archivo : contenido) {
+            if (!archivo.isFile()) {
+                continue;
+            }
+            String nombre = archivo.getName();
+            if (filtro != null) {
+                if (filtro.matches(Paths.get(nombre))) {
+                    archivos.add(archivo);
+                }
+            } else {
+                int punto = nombre.lastIndexOf('.');
+                if (punto > 0 && extensiones.contains(nombre.substring(punto + 1).toLowerCase(Locale.ROOT))) {
+                    archivos.add(archivo);
+                }
+            }
+        }
+        Collections.sort(archivos);
+        return archivos;
+    }
+
+    /**
+     * Procesa los archivos aplicando las operaciones en orden y deja cada
+     * resultado en dirSalida como nombre_op1_op2.png. Vuelve cuando todos los
+     * archivos terminaron, bien o con error.
+     *
+     * Si dos archivos dan la misma salida (a.png y a.jpg), se procesa el
+     * primero y el otro se anota como fallo en lugar de sobrescribirlo.
+     */
+    public static Resumen procesar(List<File> archivos, File dirSalida, List<Operacion> operaciones,
+            ElementoEstructurante elemento, int hilosLectura, int hilosCalculo, int hilosEscritura,
+            int capacidadCola) throws IOException, InterruptedException {
+        if (hilosLectura < 1 || hilosCalculo < 1 || hilosEscritura < 1) {
+            throw new IllegalArgumentException("Cada etapa necesita al menos un hilo");
+        }
+        if (capacidadCola < 1) {
+            throw new IllegalArgumentException("Capacidad de cola invalida: " + capacidadCola);
+        }
+        if (operaciones.isEmpty()) {
+            throw new IllegalArgumentException("No hay operaciones");
+        }
+        if (!dirSalida.isDirectory() && !dirSalida.mkdirs()) {
+            throw new IOException("No se pudo crear el directorio de salida: " + dirSalida);
+        }
+
+        StringBuilder sufijo = new StringBuilder();
+        for (Operacion op : operaciones) {
+            sufijo.append('_').append(op.getNombre());
+        }
+        String sufijoSalida = sufijo.toString();
+
+        ConcurrentLinkedQueue<String> fallos = new ConcurrentLinkedQueue<>();
+        List<Trabajo> pendientes = new ArrayList<>();
+        Map<String, File> salidas = new HashMap<>();
+        for (File archivo : archivos) {
+            String nombre = archivo.getName();
+            int punto = nombre.lastIndexOf('.');
+            File salida = new File(dirSalida,
+                    (punto > 0 ? nombre.substring(0, punto) : nombre) + sufijoSalida + ".png");
+            // En minusculas por los sistemas de archivos que no distinguen mayusculas
+            File anterior = salidas.putIfAbsent(salida.getName().toLowerCase(Locale.ROOT), archivo);
+            if (anterior != null) {
+                fallos.add(archivo + " (salida): " + salida.getName() + " ya es la salida de " + anterior);
+            } else {
+                pendientes.add(new Trabajo(archivo, salida));
+            }
+        }
+
+        BlockingQueue<Trabajo> leidas = new ArrayBlockingQueue<>(capacidadCola);
+        BlockingQueue<Trabajo> calculadas = new ArrayBlockingQueue<>(capacidadCola);
+
+        Etapa lectura = new Etapa("lectura", hilosLectura);
+        Etapa calculo = new Etapa("calculo", hilosCalculo);
+        Etapa escritura = new Etapa("escritura", hilosEscritura);
+        AtomicInteger siguiente = new AtomicInteger();
+
+        List<Thread> hilos = new ArrayList<>();
+
+        for (int i = 0; i < hilosLectura; i++) {
+            hilos.add(lectura.hilo(i, leidas, hilosCalculo, () -> {
+                int indice = siguiente.getAndIncrement();
+                if (indice >= pendientes.size()) {
+                    return null;
+                }
+                Trabajo trabajo = pendientes.get(indice);
+                long inicio = System.nanoTime();
+                try {
+                    trabajo.imagen = ImageIO.read(trabajo.archivo);
+                    if (trabajo.imagen == null) {
+                        throw new IOException("formato no reconocido");
+                    }
+                } catch (Throwable e) {
+                    fallos.add(trabajo.archivo + " (lectura): " + describir(e));
+                    trabajo.imagen = null;
+                }
+                lectura.registrar(System.nanoTime() - inicio, trabajo.imagen);
+                return trabajo;
+            }));
+        }
+
+        for (int i = 0; i < hilosCalculo; i++) {
+            hilos.add(calculo.hilo(i, calculadas, hilosEscritura, () -> {
+                Trabajo trabajo = calculo.tomar(leidas);
+                if (trabajo == FIN) {
+                    return null;
+                }
+                if (trabajo.imagen == null) {
+                    return trabajo;
+                }
+                long inicio = System.nanoTime();
+                try {
+                    BufferedImage imagen = trabajo.imagen;
+                    for (Operacion op : operaciones) {
+                        imagen = MorfologiaMatematicaOptimizada.operacionParalela(imagen, elemento, op);
+                    }
+                    trabajo.imagen = imagen;
+                } catch (Throwable e) {
+                    fallos.add(trabajo.archivo + " (calculo): " + e);
+                    trabajo.imagen = null;
+                }
+                calculo.registrar(System.nanoTime() - inicio, trabajo.imagen);
+                return trabajo;
+            }));
+        }
+
+        for (int i = 0; i < hilosEscritura; i++) {
+            hilos.add(escritura.hilo(i, null, 0, () -> {
+                Trabajo trabajo = escritura.tomar(calculadas);
+                if (trabajo == FIN) {
+                    return null;
+                }
+                if (trabajo.imagen == null) {
+                    return trabajo;
+                }
+                long inicio = System.nanoTime();
+                try {
+                    if (!ImageIO.write(trabajo.imagen, "png", trabajo.salida)) {
+                        throw new IOException("no hay escritor PNG para este tipo de imagen");
+                    }
+                } catch (Throwable e) {
+                    fallos.add(trabajo.archivo + " (escritura): " + describir(e));
+                    trabajo.imagen = null;
+                }
+                escritura.registrar(System.nanoTime() - inicio, trabajo.imagen);
+                return trabajo;
+            }));
+        }
+
+        long inicio = System.nanoTime();
+        for (Thread hilo : hilos) {
+            hilo.start();
+        }
+        try {
+            for (Thread hilo : hilos) {
+                hilo.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread hilo : hilos) {
+                hilo.interrupt();
+            }
+            throw e;
+        }
+        long total = System.nanoTime() - inicio;
+
+        List<String> listaFallos = new ArrayList<>(fallos);
+        Collections.sort(listaFallos);
+        return new Resumen(archivos.size(), escritura.archivos.get(), listaFallos, total,
+                Arrays.asList(lectura, calculo, escritura));
+    }
+
+    /**
+     * Mensaje de un fallo: el de las IOException es legible por si solo, en
+     * el resto hace falta la clase (OutOfMemoryError: Java heap space)
+     */
+    private static String describir(Throwable e) {
+        return e instanceof IOException ? e.getMessage() : e.toString();
+    }
+
+    /**
+     * Un archivo en transito entre etapas; imagen queda en null si fallo
+     */
+    private static final class Trabajo {
+
+        final File archivo;
+        final File salida;
+        BufferedImage imagen;
+
+        Trabajo(File archivo, File salida) {
+            this.archivo = archivo;
+            this.salida = salida;
+        }
+    }
+
+    /**
+     * Paso de una etapa: devuelve el trabajo a pasar a la siguiente, o null
+     * cuando no queda nada
+     */
+    private interface Paso {
+
+        Trabajo ejecutar() throws InterruptedException;
+    }
+
+    /**
+     * Contadores de una etapa. El tiempo ocupado excluye las esperas en las
+     * colas, que se cuentan aparte para ver donde esta el cuello de botella.
+     */
+    static final class Etapa {
+
+        private final String nombre;
+        private final int hilos;
+        private final AtomicInteger activos;
+        private final AtomicInteger archivos = new AtomicInteger();
+        private final AtomicLong pixeles = new AtomicLong();
+        private final AtomicLong nanosOcupado = new AtomicLong();
+        private final AtomicLong nanosEspera = new AtomicLong();
+        private final AtomicLong primerInicio = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong ultimoFin = new AtomicLong(Long.MIN_VALUE);
+
+        Etapa(String nombre, int hilos) {
+            this.nombre = nombre;
+            this.hilos = hilos;
+            this.activos = new AtomicInteger(hilos);
+        }
+
+        /**
+         * Hilo que repite el paso y entrega cada trabajo a la cola de salida
+         * (si hay). El ultimo hilo en terminar deja una marca de fin por cada
+         * hilo de la etapa siguiente, aunque termine por un error, para que
+         * esa etapa no quede esperando.
+         */
+        Thread hilo(int numero, BlockingQueue<Trabajo> salida, int hilosSiguientes, Paso paso) {
+            Thread hilo = new Thread(() -> {
+                try {
+                    Trabajo trabajo;
+                    while ((trabajo = paso.ejecutar()) != null) {
+                        if (salida != null) {
+                            entregar(salida, trabajo);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    if (activos.decrementAndGet() == 0 && salida != null) {
+                        try {
+                            for (int i = 0; i < hilosSiguientes; i++) {
+                                entregar(salida, FIN);
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            }, "lote-" + nombre + "-" + numero);
+            hilo.setDaemon(true);
+            return hilo;
+        }
+
+        private void entregar(BlockingQueue<Trabajo> cola, Trabajo trabajo) throws InterruptedException {
+            long inicio = System.nanoTime();
+            cola.put(trabajo);
+            nanosEspera.addAndGet(System.nanoTime() - inicio);
+        }
+
+        Trabajo tomar(BlockingQueue<Trabajo> cola) throws InterruptedException {
+            long inicio = System.nanoTime();
+            Trabajo trabajo = cola.take();
+            nanosEspera.addAndGet(System.nanoTime() - inicio);
+            return trabajo;
+        }
+
+        /**
+         * Anota un archivo terminado; imagen es null si fallo
+         */
+        void registrar(long nanos, BufferedImage imagen) {
+            long fin = System.nanoTime();
+            primerInicio.accumulateAndGet(fin - nanos, Math::min);
+            ultimoFin.accumulateAndGet(fin, Math::max);
+            nanosOcupado.addAndGet(nanos);
+            if (imagen != null) {
+                archivos.incrementAndGet();
+                pixeles.addAndGet((long) imagen.getWidth() * imagen.getHeight());
+            }
+        }
+
+        @Override
+        public String toString() {
+            double segundos = Math.max(1, ultimoFin.get() - primerInicio.get()) / 1e9;
+            if (archivos.get() == 0) {
+                segundos = 0;
+            }
+            return String.format(Locale.ROOT,
+                    "%-9s %d hilo(s): %d archivos, %.1f archivos/s, %.1f MP/s, ocupado %.0f ms, en colas %.0f ms",
+                    nombre, hilos, archivos.get(),
+                    segundos > 0 ? archivos.get() / segundos : 0,
+                    segundos > 0 ? pixeles.get() / 1e6 / segundos : 0,
+                    nanosOcupado.get() / 1e6, nanosEspera.get() / 1e6);
+        }
+    }
+
+    /**
+     * Resultado de un lote
+     */
+    static final class Resumen {
+
+        private final int total;
+        private final int procesados;
+        private final List<String> fallos;
+        private final long nanos;
+        private final List<Etapa> etapas;
+
+        Resumen(int total, int procesados, List<String> fallos, long nanos, List<Etapa> etapas) {
+            this.total = total;
+            this.procesados = procesados;
+            this.fallos = Collections.unmodifiableList(fallos);
+            this.nanos = nanos;
+            this.etapas = etapas;
+        }
+
+        int getProcesados() {
+            return procesados;
+        }
+
+        List<String> getFallos() {
+            return fallos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("\n=== LOTE ===\n");
+            sb.append("Archivos: ").append(procesados).append(" de ").append(total)
+                    .append(" en ").append(nanos / 1_000_000).append(" ms\n");
+            for (Etapa etapa : etapas) {
+                sb.append(etapa).append('\n');
+            }
+            if (!fallos.isEmpty()) {
+                sb.append("Fallos (").append(fallos.size()).append("):\n");
+                for (String fallo : fallos) {
+                    sb.append("  ").append(fallo).append('\n');
+                }
+            }
+            sb.append("============");
+            return sb.toString();
+        }
+    }
+}
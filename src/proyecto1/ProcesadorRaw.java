@@ -0,0 +1,303 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import javax.imageio.ImageIO;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Morfologia sobre archivos ImagenRaw mapeados en memoria, sin decodificar.
+ *
+ * Cada canal se recorre por franjas horizontales: las filas de la franja mas
+ * las de halo que pide el EE se copian del mapeo a un buffer que se reutiliza,
+ * MotorPlanar calcula la franja sobre ese buffer y el resultado se escribe
+ * directamente en el mapeo de salida. En disposicion planar cada copia es un
+ * solo get/put en bloque; en intercalada se separa el canal al copiar.
+ *
+ * Las operaciones compuestas encadenan etapas entre archivos temporales en el
+ * directorio de la salida, que se borran al terminar. Los temporales no se
+ * mapean (ver ImagenRaw.crearTemporal), asi que se pueden borrar aunque el
+ * recolector todavia no haya liberado los mapeos. El alfa (si lo hay) se
+ * copia tal cual, como ImagenPlanar con conservarAlfa.
+ */
+final class ProcesadorRaw {
+
+    static final int FILAS_POR_FRANJA = 256;
+
+    private ProcesadorRaw() {
+    }
+
+    /**
+     * Uso: raw a-raw imagen salida.raw [planar|intercalada]
+     *      raw a-imagen entrada.raw salida.png
+     *      raw procesar entrada.raw salida.raw operacion elemento [secuencial]
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            imprimirUso();
+            return;
+        }
+
+        try {
+            switch (args[0]) {
+                case "a-raw": {
+                    int disposicion = ImagenRaw.PLANAR;
+                    if (args.length > 3) {
+                        if (args[3].equals("intercalada")) {
+                            disposicion = ImagenRaw.INTERCALADA;
+                        } else if (!args[3].equals("planar")) {
+                            System.err.println("ERROR: Disposicion no válida: " + args[3]);
+                            return;
+                        }
+                    }
+                    BufferedImage imagen = ImageIO.read(new File(args[1]));
+                    if (imagen == null) {
+                        System.err.println("ERROR: No se pudo leer la imagen: " + args[1]);
+                        return;
+                    }
+                    ImagenRaw.guardar(imagen, Paths.get(args[2]), disposicion);
+                    System.out.println("Imagen raw guardada como: " + args[2]);
+                    break;
+                }
+                case "a-imagen": {
+                    BufferedImage imagen;
+                    try (ImagenRaw raw = ImagenRaw.abrir(Paths.get(args[1]), false)) {
+                        imagen = raw.aImagen();
+                    }
+                    String formato = formatoDe(args[2]);
+                    if (!ImageIO.write(imagen, formato, new File(args[2]))) {
+                        System.err.println("ERROR: Formato de salida no soportado: " + formato);
+                        return;
+                    }
+                    System.out.println("Imagen guardada como: " + args[2]);
+                    break;
+                }
+                case "procesar": {
+                    if (args.length < 5) {
+                        imprimirUso();
+                        return;
+                    }
+                    Operacion op = Operacion.desdeNombre(args[3]);
+                    if (op == null) {
+                        System.err.println("ERROR: Operacion no válida: " + args[3]);
+                        return;
+                    }
+                    ElementoEstructurante elemento = MorfologiaMatematicaOptimizada.crearPorNombre(args[4]);
+                    if (elemento == null) {
+                        System.err.println("ERROR: Elemento no válido: " + args[4]);
+                        return;
+                    }
+                    boolean paralelo = !(args.length > 5 && args[5].equals("secuencial"));
+
+                    long inicio = System.nanoTime();
+                    procesar(Paths.get(args[1]), Paths.get(args[2]), elemento, op, paralelo);
+                    long fin = System.nanoTime();
+                    System.out.println("Tiempo: " + (fin - inicio) / 1_000_000 + " ms");
+                    System.out.println(Metricas.ultima());
+                    System.out.println("Imagen raw guardada como: " + args[2]);
+                    break;
+                }
+                default:
+                    imprimirUso();
+            }
+        } catch (IOException e) {
+            System.err.println("ERROR con el archivo raw: " + e.getMessage());
+            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        } finally {
+            MorfologiaMatematicaOptimizada.cerrarEjecutor();
+        }
+    }
+
+    private static void imprimirUso() {
+        System.err.println("Uso: raw a-raw <imagen> <salida.raw> [planar|intercalada]");
+        System.err.println("     raw a-imagen <entrada.raw> <salida.png>");
+        System.err.println("     raw procesar <entrada.raw> <salida.raw> <operacion> <elemento> [secuencial]");
+        System.err.println("Elementos: cruz, linea, lineav, x, l, linv, cuadradoN");
+    }
+
+    private static String formatoDe(String nombre) {
+        int punto = nombre.lastIndexOf('.');
+        return punto < 0 ? "png" : nombre.substring(punto + 1).toLowerCase();
+    }
+
+    /**
+     * Aplica la operacion al archivo de entrada y deja el resultado en un
+     * archivo raw nuevo con la misma cabecera
+     */
+    static void procesar(Path entrada, Path salida, ElementoEstructurante elemento,
+            Operacion operacion, boolean paralelo) throws IOException {
+        Path directorio = salida.toAbsolutePath().getParent();
+        PlanDescomposicion plan = PlanDescomposicion.planificar(elemento);
+
+        try (ImagenRaw origen = ImagenRaw.abrir(entrada, false);
+             ImagenRaw destino = origen.crearIgual(salida)) {
+            Metricas.Medicion medicion = Metricas.ACTIVAS ? Metricas.iniciar(operacion,
+                    paralelo ? "raw paralelo" : "raw secuencial", origen.width, origen.height) : null;
+            try {
+                procesar(origen, destino, plan, operacion, paralelo, directorio);
+                if (origen.tieneAlfa()) {
+                    copiarCanal(origen, destino, origen.canales - 1);
+                }
+            } finally {
+                if (Metricas.ACTIVAS) {
+                    medicion.terminar();
+                }
+            }
+        }
+    }
+
+    private static void procesar(ImagenRaw origen, ImagenRaw destino, PlanDescomposicion plan,
+            Operacion operacion, boolean paralelo, Path directorio) throws IOException {
+        switch (operacion) {
+            case EROSION:
+                etapa(origen, destino, plan, true, paralelo);
+                return;
+            case DILATACION:
+                etapa(origen, destino, plan, false, paralelo);
+                return;
+            case APERTURA:
+            case CIERRE: {
+                boolean primeroErosion = operacion == Operacion.APERTURA;
+                Path temporal = temporal(directorio);
+                try (ImagenRaw intermedio = origen.crearTemporal(temporal)) {
+                    etapa(origen, intermedio, plan, primeroErosion, paralelo);
+                    etapa(intermedio, destino, plan, !primeroErosion, paralelo);
+                } finally {
+                    Files.deleteIfExists(temporal);
+                }
+                return;
+            }
+            case GRADIENTE: {
+                Path temporal = temporal(directorio);
+                try (ImagenRaw erosion = origen.crearTemporal(temporal)) {
+                    etapa(origen, destino, plan, false, paralelo);
+                    etapa(origen, erosion, plan, true, paralelo);
+                    restar(destino, erosion, destino);
+                } finally {
+                    Files.deleteIfExists(temporal);
+                }
+                return;
+            }
+            case TOP_HAT:
+            case BLACK_HAT: {
+                boolean topHat = operacion == Operacion.TOP_HAT;
+                Path temporal = temporal(directorio);
+                try (ImagenRaw filtrada = origen.crearTemporal(temporal)) {
+                    procesar(origen, filtrada, plan, topHat ? Operacion.APERTURA : Operacion.CIERRE,
+                            paralelo, directorio);
+                    if (topHat) {
+                        restar(origen, filtrada, destino);
+                    } else {
+                        restar(filtrada, origen, destino);
+                    }
+                } finally {
+                    Files.deleteIfExists(temporal);
+                }
+                return;
+            }
+            default:
+                throw new IllegalArgumentException("Operacion no soportada: " + operacion);
+        }
+    }
+
+    private static Path temporal(Path directorio) throws IOException {
+        return Files.createTempFile(directorio, "morfologia", ImagenRaw.EXTENSION);
+    }
+
+    private static int canalesColor(ImagenRaw imagen) {
+        return imagen.tieneAlfa() ? imagen.canales - 1 : imagen.canales;
+    }
+
+    /**
+     * Una erosion o dilatacion de todos los canales de color, franja por
+     * franja; en paralelo, cada franja se reparte en teselas
+     */
+    private static void etapa(ImagenRaw origen, ImagenRaw destino, PlanDescomposicion plan,
+            boolean esErosion, boolean paralelo) throws IOException {
+        int width = origen.width;
+        int height = origen.height;
+        ElementoEstructurante elemento = plan.getElemento();
+        int arriba = elemento.anclaY;
+        int abajo = elemento.height - 1 - elemento.anclaY;
+        int filas = Math.min(FILAS_POR_FRANJA, height);
+        boolean descomponer = MotorPlanar.usaDescomposicion(plan);
+        int ladoMinimo = Math.max(MorfologiaMatematicaOptimizada.LADO_MINIMO_TESELA,
+                2 * Math.max(elemento.width, elemento.height));
+
+        byte[] entrada = PoolBuffers.tomarBytes(Math.min(height, filas + arriba + abajo) * width);
+        byte[] salida = PoolBuffers.tomarBytes(filas * width);
+
+        for (int c = 0; c < canalesColor(origen); c++) {
+            for (int y0 = 0; y0 < height; y0 += filas) {
+                int y1 = Math.min(height, y0 + filas);
+                int fila0 = Math.max(0, y0 - arriba);
+                int fila1 = Math.min(height, y1 + abajo);
+                origen.leerFilas(c, fila0, fila1, entrada, 0);
+
+                // Los indices del motor son de la imagen completa; los offsets
+                // negativos los trasladan al buffer de la franja
+                int offsetOrigen = -fila0 * width;
+                int offsetDestino = -y0 * width;
+                int franja = y0;
+                EjecutorMorfologia.TareaRegion tarea = (x0, ya, x1, yb) ->
+                        MotorPlanar.procesarRegion(entrada, offsetOrigen, width, height, plan, descomponer,
+                                esErosion, paralelo, x0, franja + ya, x1, franja + yb, salida, offsetDestino);
+
+                if (paralelo) {
+                    EjecutorMorfologia.ejecutar(width, y1 - y0, ladoMinimo, tarea);
+                } else {
+                    tarea.procesar(0, 0, width, y1 - y0);
+                }
+                destino.escribirFilas(c, y0, y1, salida, 0);
+            }
+        }
+        PoolBuffers.devolver(entrada);
+        PoolBuffers.devolver(salida);
+    }
+
+    /**
+     * a - b saturado en 0 en cada canal de color, como MotorPlanar.restar;
+     * el destino puede ser a
+     */
+    private static void restar(ImagenRaw a, ImagenRaw b, ImagenRaw destino) throws IOException {
+        int width = a.width;
+        int height = a.height;
+        int filas = Math.min(FILAS_POR_FRANJA, height);
+        byte[] franjaA = PoolBuffers.tomarBytes(filas * width);
+        byte[] franjaB = PoolBuffers.tomarBytes(filas * width);
+
+        for (int c = 0; c < canalesColor(a); c++) {
+            for (int y0 = 0; y0 < height; y0 += filas) {
+                int y1 = Math.min(height, y0 + filas);
+                a.leerFilas(c, y0, y1, franjaA, 0);
+                b.leerFilas(c, y0, y1, franjaB, 0);
+                int cantidad = (y1 - y0) * width;
+                for (int i = 0; i < cantidad; i++) {
+                    franjaA[i] = (byte) Math.max(0, (franjaA[i] & 0xFF) - (franjaB[i] & 0xFF));
+                }
+                destino.escribirFilas(c, y0, y1, franjaA, 0);
+            }
+        }
+        PoolBuffers.devolver(franjaA);
+        PoolBuffers.devolver(franjaB);
+    }
+
+    private static void copiarCanal(ImagenRaw origen, ImagenRaw destino, int canal) throws IOException {
+        int width = origen.width;
+        int height = origen.height;
+        int filas = Math.min(FILAS_POR_FRANJA, height);
+        byte[] franja = PoolBuffers.tomarBytes(filas * width);
+        for (int y0 = 0; y0 < height; y0 += filas) {
+            int y1 = Math.min(height, y0 + filas);
+            origen.leerFilas(canal, y0, y1, franja, 0);
+            destino.escribirFilas(canal, y0, y1, franja, 0);
+        }
+        PoolBuffers.devolver(franja);
+    }
+}
@@ -0,0 +1,128 @@
+package proyecto1;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Mensajes entre CoordinadorMorfologia y TrabajadorMorfologia, sobre un
+ * socket TCP con DataInput/OutputStream (enteros en big endian).
+ *
+ * Al conectarse el coordinador manda MAGIA y el trabajador responde MAGIA y
+ * sus procesadores. Despues cada pedido es un codigo y sus datos, y cada
+ * respuesta empieza con OK o con ERROR y un mensaje:
+ *
+ *   CARGAR banda ancho alto y0 y1 tipo pixeles      -> OK
+ *   ETAPA banda operacion elemento
+ *         filasArriba pixeles filasAbajo pixeles
+ *         bordeArriba bordeAbajo                    -> OK pixeles pixeles
+ *   RESULTADO banda                                 -> OK pixeles
+ *   LIBERAR                                         -> OK
+ *
+ * Las filas de pixeles van completas (ancho enteros cada una) y su cantidad
+ * la conocen los dos lados, asi que no se repite en el mensaje. tipo es el
+ * de la BufferedImage original.
+ *
+ * El trabajador valida los tamaños contra MAXIMO_PIXELES_BANDA y
+ * MAXIMO_CELDAS_ELEMENTO antes de reservar nada, para que un pedido no le
+ * agote la memoria.
+ */
+final class ProtocoloDistribuido {
+
+    static final int MAGIA = 0x4D444953; // "MDIS"
+
+    static final int CARGAR = 1;
+    static final int ETAPA = 2;
+    static final int RESULTADO = 3;
+    static final int LIBERAR = 4;
+
+    static final int OK = 0;
+    static final int ERROR = 1;
+
+    // Pixeles de una banda (64 M, 256 MB); el coordinador corta bandas mas chicas
+    static final int MAXIMO_PIXELES_BANDA = 1 << 26;
+
+    // Celdas de un elemento estructurante
+    static final int MAXIMO_CELDAS_ELEMENTO = 1 << 20;
+
+    // Enteros por escritura o lectura del socket
+    private static final int ENTEROS_POR_BLOQUE = 16 << 10;
+
+    private ProtocoloDistribuido() {
+    }
+
+    static void escribirEnteros(DataOutputStream out, int[] datos, int desde, int cantidad) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * Math.min(cantidad, ENTEROS_POR_BLOQUE));
+        IntBuffer enteros = buffer.asIntBuffer();
+        for (int i = 0; i < cantidad; i += ENTEROS_POR_BLOQUE) {
+            int n = Math.min(ENTEROS_POR_BLOQUE, cantidad - i);
+            enteros.clear();
+            enteros.put(datos, desde + i, n);
+            out.write(buffer.array(), 0, 4 * n);
+        }
+    }
+
+    static void leerEnteros(DataInputStream in, int[] datos, int desde, int cantidad) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * Math.min(cantidad, ENTEROS_POR_BLOQUE));
+        IntBuffer enteros = buffer.asIntBuffer();
+        for (int i = 0; i < cantidad; i += ENTEROS_POR_BLOQUE) {
+            int n = Math.min(ENTEROS_POR_BLOQUE, cantidad - i);
+            in.readFully(buffer.array(), 0, 4 * n);
+            enteros.clear();
+            enteros.get(datos, desde + i, n);
+        }
+    }
+
+    /**
+     * Ancho, alto, ancla y una celda por byte
+     */
+    static void escribirElemento(DataOutputStream out, ElementoEstructurante elemento) throws IOException {
+        out.writeInt(elemento.width);
+        out.writeInt(elemento.height);
+        out.writeInt(elemento.anclaX);
+        out.writeInt(elemento.anclaY);
+        for (int ey = 0; ey < elemento.height; ey++) {
+            for (int ex = 0; ex < elemento.width; ex++) {
+                out.writeByte(elemento.isActive(ex, ey) ? 1 : 0);
+            }
+        }
+    }
+
+    static ElementoEstructurante leerElemento(DataInputStream in) throws IOException {
+        int width = in.readInt();
+        int height = in.readInt();
+        int anclaX = in.readInt();
+        int anclaY = in.readInt();
+        if (width < 1 || height < 1 || (long) width * height > MAXIMO_CELDAS_ELEMENTO) {
+            throw new IOException("Elemento estructurante invalido: " + width + "x" + height);
+        }
+        int[][] estructura = new int[height][width];
+        for (int ey = 0; ey < height; ey++) {
+            for (int ex = 0; ex < width; ex++) {
+                estructura[ey][ex] = in.readByte();
+            }
+        }
+        try {
+            return new ElementoEstructurante(estructura, anclaX, anclaY);
+        } catch (IllegalArgumentException e) {
+            throw new IOException(e.getMessage());
+        }
+    }
+
+    /**
+     * Lee el estado de una respuesta; con ERROR lanza IllegalStateException
+     * con el mensaje del trabajador, que no es una falla de la conexion
+     */
+    static void leerEstado(DataInputStream in, String trabajador) throws IOException {
+        int estado = in.readInt();
+        if (estado == ERROR) {
+            throw new IllegalStateException("El trabajador " + trabajador + " respondio: " + in.readUTF());
+        }
+        if (estado != OK) {
+            throw new IOException("Respuesta desconocida de " + trabajador + ": " + estado);
+        }
+    }
+}
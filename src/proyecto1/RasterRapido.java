@@ -0,0 +1,282 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Acceso directo al arreglo primitivo que respalda un BufferedImage.
+ *
+ * Los pixeles se manejan como enteros ARGB empaquetados, con el mismo valor
+ * que devolveria getRGB, pero se leen y escriben sobre el DataBuffer sin
+ * pasar por el ColorModel en cada pixel. Los tipos sin camino directo usan
+ * getRGB/setRGB en bloque, que producen exactamente el mismo resultado.
+ */
+final class RasterRapido {
+
+    private RasterRapido() {
+    }
+
+    /**
+     * Indica si la imagen tiene un camino directo sobre su DataBuffer
+     */
+    static boolean soportaAccesoDirecto(BufferedImage imagen) {
+        switch (imagen.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_BYTE_GRAY:
+                return esCompacto(imagen.getRaster());
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Un raster es compacto si no es una subimagen y sus filas van seguidas
+     */
+    private static boolean esCompacto(WritableRaster raster) {
+        if (raster.getParent() != null
+                || raster.getSampleModelTranslateX() != 0
+                || raster.getSampleModelTranslateY() != 0) {
+            return false;
+        }
+
+        DataBuffer buffer = raster.getDataBuffer();
+        if (buffer.getNumBanks() != 1 || buffer.getOffset() != 0) {
+            return false;
+        }
+
+        SampleModel modelo = raster.getSampleModel();
+        int width = raster.getWidth();
+
+        if (modelo instanceof SinglePixelPackedSampleModel) {
+            return ((SinglePixelPackedSampleModel) modelo).getScanlineStride() == width;
+        }
+        if (modelo instanceof ComponentSampleModel) {
+            ComponentSampleModel csm = (ComponentSampleModel) modelo;
+            return csm.getScanlineStride() == width * csm.getPixelStride();
+        }
+        return false;
+    }
+
+    /**
+     * Devuelve los pixeles de la imagen como ARGB empaquetado (fila por fila).
+     * Para imagenes TYPE_INT_* devuelve el propio arreglo de la imagen, por lo
+     * que el resultado no debe modificarse.
+     */
+    static int[] leerPixeles(BufferedImage imagen) {
+        return leerPixeles(imagen, null);
+    }
+
+    /**
+     * Igual que leerPixeles, pero los tipos que necesitan conversion la dejan
+     * en destino (de al menos width * height) si no es null
+     */
+    static int[] leerPixeles(BufferedImage imagen, int[] destino) {
+        int width = imagen.getWidth();
+        int height = imagen.getHeight();
+        int total = width * height;
+
+        if (!soportaAccesoDirecto(imagen)) {
+            return imagen.getRGB(0, 0, width, height, destino, 0, width);
+        }
+
+        DataBuffer buffer = imagen.getRaster().getDataBuffer();
+
+        switch (imagen.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+                return ((DataBufferInt) buffer).getData();
+
+            case BufferedImage.TYPE_3BYTE_BGR: {
+                byte[] datos = ((DataBufferByte) buffer).getData();
+                int[] pixeles = destino != null ? destino : new int[total];
+                for (int i = 0, j = 0; i < total; i++, j += 3) {
+                    int b = datos[j] & 0xFF;
+                    int g = datos[j + 1] & 0xFF;
+                    int r = datos[j + 2] & 0xFF;
+                    pixeles[i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+                }
+                return pixeles;
+            }
+
+            case BufferedImage.TYPE_BYTE_GRAY: {
+                byte[] datos = ((DataBufferByte) buffer).getData();
+                int[] tabla = TablasGris.GRIS_A_ARGB;
+                int[] pixeles = destino != null ? destino : new int[total];
+                for (int i = 0; i < total; i++) {
+                    pixeles[i] = tabla[datos[i] & 0xFF];
+                }
+                return pixeles;
+            }
+
+            default:
+                throw new IllegalStateException("Tipo sin acceso directo: " + imagen.getType());
+        }
+    }
+
+    /**
+     * Devuelve el arreglo de enteros de una imagen TYPE_INT_* compacta, para
+     * escribir resultados directamente en ella, o null si no tiene uno
+     */
+    static int[] arregloEnteros(BufferedImage imagen) {
+        int tipo = imagen.getType();
+        if ((tipo == BufferedImage.TYPE_INT_RGB || tipo == BufferedImage.TYPE_INT_ARGB)
+                && esCompacto(imagen.getRaster())) {
+            return ((DataBufferInt) imagen.getRaster().getDataBuffer()).getData();
+        }
+        return null;
+    }
+
+    /**
+     * Devuelve el arreglo de bytes de una imagen TYPE_BYTE_GRAY compacta, o
+     * null si no tiene uno
+     */
+    static byte[] arregloGris(BufferedImage imagen) {
+        if (imagen.getType() == BufferedImage.TYPE_BYTE_GRAY && esCompacto(imagen.getRaster())) {
+            return ((DataBufferByte) imagen.getRaster().getDataBuffer()).getData();
+        }
+        return null;
+    }
+
+    /**
+     * Pixel ARGB de cada nivel de TYPE_BYTE_GRAY, como lo devuelve getRGB
+     */
+    static int grisAArgb(int nivel) {
+        return TablasGris.GRIS_A_ARGB[nivel];
+    }
+
+    /**
+     * Nivel de TYPE_BYTE_GRAY que guarda setRGB para el gris (v, v, v)
+     */
+    static byte argbAGris(int v) {
+        return TablasGris.RGB_A_GRIS[v];
+    }
+
+    /**
+     * Escribe todos los pixeles ARGB empaquetados en la imagen destino
+     */
+    static void escribirPixeles(int[] pixeles, BufferedImage destino) {
+        escribirRegion(pixeles, 0, destino.getWidth(),
+                0, 0, destino.getWidth(), destino.getHeight(), destino);
+    }
+
+    /**
+     * Escribe la region [x0, x1) x [y0, y1) en el destino, con el mismo
+     * resultado que llamar a setRGB pixel por pixel. El pixel (x, y) se toma
+     * de pixeles[offset + (y - y0) * stride + (x - x0)].
+     *
+     * Si pixeles es el propio arreglo de enteros del destino (el resultado ya
+     * se calculo en su lugar), solo se ajusta lo que setRGB habria cambiado.
+     */
+    static void escribirRegion(int[] pixeles, int offset, int stride,
+            int x0, int y0, int x1, int y1, BufferedImage destino) {
+        int columnas = x1 - x0;
+        if (columnas <= 0 || y1 <= y0) {
+            return;
+        }
+
+        if (!soportaAccesoDirecto(destino)) {
+            destino.setRGB(x0, y0, columnas, y1 - y0, pixeles, offset, stride);
+            return;
+        }
+
+        DataBuffer buffer = destino.getRaster().getDataBuffer();
+        int width = destino.getWidth();
+
+        switch (destino.getType()) {
+            case BufferedImage.TYPE_INT_RGB: {
+                // TYPE_INT_RGB no guarda alfa
+                int[] datos = ((DataBufferInt) buffer).getData();
+                for (int y = y0; y < y1; y++) {
+                    int origen = offset + (y - y0) * stride;
+                    int base = y * width + x0;
+                    for (int i = 0; i < columnas; i++) {
+                        datos[base + i] = pixeles[origen + i] & 0x00FFFFFF;
+                    }
+                }
+                break;
+            }
+
+            case BufferedImage.TYPE_INT_ARGB: {
+                int[] datos = ((DataBufferInt) buffer).getData();
+                if (datos == pixeles) {
+                    break;
+                }
+                for (int y = y0; y < y1; y++) {
+                    System.arraycopy(pixeles, offset + (y - y0) * stride, datos, y * width + x0, columnas);
+                }
+                break;
+            }
+
+            case BufferedImage.TYPE_3BYTE_BGR: {
+                byte[] datos = ((DataBufferByte) buffer).getData();
+                for (int y = y0; y < y1; y++) {
+                    int origen = offset + (y - y0) * stride;
+                    for (int i = 0, j = (y * width + x0) * 3; i < columnas; i++, j += 3) {
+                        int rgb = pixeles[origen + i];
+                        datos[j] = (byte) rgb;
+                        datos[j + 1] = (byte) (rgb >> 8);
+                        datos[j + 2] = (byte) (rgb >> 16);
+                    }
+                }
+                break;
+            }
+
+            case BufferedImage.TYPE_BYTE_GRAY: {
+                byte[] datos = ((DataBufferByte) buffer).getData();
+                ColorModel modelo = destino.getColorModel();
+                byte[] tabla = TablasGris.RGB_A_GRIS;
+                for (int y = y0; y < y1; y++) {
+                    int origen = offset + (y - y0) * stride;
+                    int base = y * width + x0;
+                    for (int i = 0; i < columnas; i++) {
+                        int rgb = pixeles[origen + i];
+                        int r = (rgb >> 16) & 0xFF;
+                        int g = (rgb >> 8) & 0xFF;
+                        int b = rgb & 0xFF;
+
+                        if (r == g && g == b) {
+                            datos[base + i] = tabla[b];
+                        } else {
+                            datos[base + i] = ((byte[]) modelo.getDataElements(rgb, null))[0];
+                        }
+                    }
+                }
+                break;
+            }
+
+            default:
+                throw new IllegalStateException("Tipo sin acceso directo: " + destino.getType());
+        }
+    }
+
+    /**
+     * Tablas de conversion del ColorModel estandar de TYPE_BYTE_GRAY.
+     * Se calculan una sola vez, la primera vez que se procesa una imagen gris.
+     */
+    private static final class TablasGris {
+
+        static final int[] GRIS_A_ARGB = new int[256];
+        static final byte[] RGB_A_GRIS = new byte[256];
+
+        static {
+            ColorModel modelo = new BufferedImage(1, 1, BufferedImage.TYPE_BYTE_GRAY).getColorModel();
+            byte[] muestra = new byte[1];
+            for (int v = 0; v < 256; v++) {
+                muestra[0] = (byte) v;
+                GRIS_A_ARGB[v] = modelo.getRGB(muestra);
+
+                int rgb = (v << 16) | (v << 8) | v;
+                RGB_A_GRIS[v] = ((byte[]) modelo.getDataElements(rgb, null))[0];
+            }
+        }
+    }
+}
@@ -0,0 +1,411 @@
+package proyecto1;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Reconstruccion morfologica (dilatacion/erosion geodesica iterada hasta
+ * estabilizar) y los operadores que se construyen sobre ella: rellenado de
+ * huecos y maximos/minimos regionales.
+ *
+ * En lugar de repetir pasadas completas hasta que nada cambie, se usa el
+ * algoritmo hibrido de Vincent: un barrido en orden de filas, uno en orden
+ * inverso y una cola FIFO con los pixeles que todavia pueden propagar. Cada
+ * pixel se visita unas pocas veces.
+ *
+ * Cada canal se reconstruye por separado, igual que calcularDilatacionRGB y
+ * calcularErosionRGB toman el maximo y el minimo por canal. La vecindad son
+ * las celdas activas del EE respecto al ancla, mas el propio pixel; los
+ * vecinos fuera de la imagen no cuentan.
+ *
+ * La version paralela reparte la imagen en teselas sobre el pool compartido.
+ * Cada tesela hace el algoritmo hibrido leyendo el resto de la imagen tal
+ * como esta; despues, por rondas, cada tesela revisa la franja de su borde
+ * que depende de otras teselas y propaga lo que haya cambiado, hasta una
+ * ronda sin cambios. Los valores solo crecen y nunca pasan del resultado,
+ * asi que leer un vecino desactualizado de otra tesela solo retrasa la
+ * propagacion hasta la ronda siguiente.
+ */
+final class ReconstruccionGeodesica {
+
+    private static final int[] DESPLAZAMIENTOS_CANAL = {16, 8, 0};
+
+    private ReconstruccionGeodesica() {
+    }
+
+    /**
+     * Reconstruccion por dilatacion del marcador bajo la mascara. El marcador
+     * se recorta a la mascara antes de empezar.
+     */
+    static int[] porDilatacion(int[] marcador, int[] mascara, int width, int height,
+            ElementoEstructurante elemento, boolean paralelo) {
+        return reconstruir(marcador, mascara, width, height, elemento, true, paralelo);
+    }
+
+    /**
+     * Reconstruccion por erosion del marcador sobre la mascara. El marcador
+     * se lleva a la mascara donde este por debajo.
+     */
+    static int[] porErosion(int[] marcador, int[] mascara, int width, int height,
+            ElementoEstructurante elemento, boolean paralelo) {
+        return reconstruir(marcador, mascara, width, height, elemento, false, paralelo);
+    }
+
+    /**
+     * Rellena los huecos: las zonas oscuras que no se pueden alcanzar desde
+     * el borde de la imagen sin subir quedan al nivel de su contorno
+     */
+    static int[] rellenarHuecos(int[] pixeles, int width, int height,
+            ElementoEstructurante elemento, boolean paralelo) {
+        // Marcador blanco con el borde de la imagen; se erosiona sobre la imagen
+        int[] marcador = new int[pixeles.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean borde = x == 0 || y == 0 || x == width - 1 || y == height - 1;
+                marcador[y * width + x] = borde ? pixeles[y * width + x] : 0xFFFFFF;
+            }
+        }
+        return reconstruir(marcador, pixeles, width, height, elemento, false, paralelo);
+    }
+
+    /**
+     * Maximos regionales por canal: 255 en las mesetas de las que no se puede
+     * subir, 0 en el resto
+     */
+    static int[] maximosRegionales(int[] pixeles, int width, int height,
+            ElementoEstructurante elemento, boolean paralelo) {
+        return extremosRegionales(pixeles, width, height, elemento, false, paralelo);
+    }
+
+    /**
+     * Minimos regionales por canal, como maximosRegionales
+     */
+    static int[] minimosRegionales(int[] pixeles, int width, int height,
+            ElementoEstructurante elemento, boolean paralelo) {
+        return extremosRegionales(pixeles, width, height, elemento, true, paralelo);
+    }
+
+    private static int[] reconstruir(int[] marcador, int[] mascara, int width, int height,
+            ElementoEstructurante elemento, boolean porDilatacion, boolean paralelo) {
+        Vecindad vecindad = new Vecindad(elemento, width);
+        int[] resultado = new int[width * height];
+        int[] j = new int[width * height];
+        int[] i = new int[width * height];
+
+        for (int desplazamiento : DESPLAZAMIENTOS_CANAL) {
+            // La erosion se hace como dilatacion de los complementos
+            for (int p = 0; p < resultado.length; p++) {
+                int valorMascara = (mascara[p] >> desplazamiento) & 0xFF;
+                int valorMarcador = (marcador[p] >> desplazamiento) & 0xFF;
+                if (porDilatacion) {
+                    i[p] = valorMascara;
+                    j[p] = Math.min(valorMarcador, valorMascara);
+                } else {
+                    i[p] = 255 - valorMascara;
+                    j[p] = 255 - Math.max(valorMarcador, valorMascara);
+                }
+            }
+
+            reconstruirPlano(j, i, width, height, vecindad, paralelo);
+
+            for (int p = 0; p < resultado.length; p++) {
+                int valor = porDilatacion ? j[p] : 255 - j[p];
+                resultado[p] |= valor << desplazamiento;
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Los maximos regionales de f son donde f - R(f - 1) es positivo; los
+     * minimos, los maximos del complemento
+     */
+    private static int[] extremosRegionales(int[] pixeles, int width, int height,
+            ElementoEstructurante elemento, boolean minimos, boolean paralelo) {
+        Vecindad vecindad = new Vecindad(elemento, width);
+        int[] resultado = new int[width * height];
+        int[] j = new int[width * height];
+        int[] i = new int[width * height];
+
+        for (int desplazamiento : DESPLAZAMIENTOS_CANAL) {
+            for (int p = 0; p < resultado.length; p++) {
+                int valor = (pixeles[p] >> desplazamiento) & 0xFF;
+                i[p] = minimos ? 255 - valor : valor;
+                j[p] = i[p] - 1;
+            }
+
+            reconstruirPlano(j, i, width, height, vecindad, paralelo);
+
+            for (int p = 0; p < resultado.length; p++) {
+                if (i[p] > j[p]) {
+                    resultado[p] |= 0xFF << desplazamiento;
+                }
+            }
+        }
+        return resultado;
+    }
+
+    /**
+     * Reconstruye j bajo i en su lugar (j <= i en todos los pixeles)
+     */
+    private static void reconstruirPlano(int[] j, int[] i, int width, int height,
+            Vecindad vecindad, boolean paralelo) {
+        if (!paralelo) {
+            hibrido(j, i, width, height, vecindad, 0, 0, width, height, new Cola());
+            return;
+        }
+
+        // Teselas grandes respecto al alcance, para que la franja del borde sea poca cosa
+        int ladoMinimo = Math.max(MorfologiaMatematicaOptimizada.LADO_MINIMO_TESELA, 4 * vecindad.alcance);
+        // La division se calcula una vez y se usa en todas las pasadas: cada
+        // ronda solo mira lo que llega de las teselas vecinas, lo que vale si
+        // las teselas no cambian aunque cambie el paralelismo entre medio
+        int[] teselas = EjecutorMorfologia.dividir(width, height, ladoMinimo);
+        int cantidad = teselas.length / 4;
+        EjecutorMorfologia.ejecutarRegiones(teselas, cantidad, (x0, y0, x1, y1) ->
+                hibrido(j, i, width, height, vecindad, x0, y0, x1, y1, new Cola()));
+
+        AtomicBoolean cambio = new AtomicBoolean(true);
+        while (cambio.get()) {
+            cambio.set(false);
+            EjecutorMorfologia.ejecutarRegiones(teselas, cantidad, (x0, y0, x1, y1) -> {
+                if (propagarBordes(j, i, width, height, vecindad, x0, y0, x1, y1, new Cola())) {
+                    cambio.set(true);
+                }
+            });
+        }
+    }
+
+    /**
+     * Algoritmo hibrido sobre la region [x0, x1) x [y0, y1). Lee vecinos de
+     * toda la imagen pero solo escribe dentro de la region.
+     */
+    private static void hibrido(int[] j, int[] i, int width, int height, Vecindad v,
+            int x0, int y0, int x1, int y1, Cola cola) {
+        // Barrido en orden: cada pixel toma el maximo de los vecinos ya visitados
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                int p = y * width + x;
+                boolean interior = v.interior(x, y, width, height);
+                int valor = j[p];
+                for (int k : v.anteriores) {
+                    if (interior || v.dentro(k, x, y, width, height)) {
+                        valor = Math.max(valor, j[p + v.delta[k]]);
+                    }
+                }
+                j[p] = Math.min(valor, i[p]);
+            }
+        }
+
+        // Barrido inverso; los pixeles que aun pueden subir a un vecino ya
+        // visitado en este barrido van a la cola
+        for (int y = y1 - 1; y >= y0; y--) {
+            for (int x = x1 - 1; x >= x0; x--) {
+                int p = y * width + x;
+                boolean interior = v.interior(x, y, width, height);
+                int valor = j[p];
+                for (int k : v.posteriores) {
+                    if (interior || v.dentro(k, x, y, width, height)) {
+                        valor = Math.max(valor, j[p + v.delta[k]]);
+                    }
+                }
+                valor = Math.min(valor, i[p]);
+                j[p] = valor;
+
+                // q = p - d recibe de p; con d anterior, q viene despues de p
+                for (int k : v.anteriores) {
+                    int qx = x - v.dx[k];
+                    int qy = y - v.dy[k];
+                    if (qx >= x0 && qx < x1 && qy >= y0 && qy < y1) {
+                        int q = p - v.delta[k];
+                        if (j[q] < valor && j[q] < i[q]) {
+                            cola.agregar(p);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        propagar(j, i, width, v, x0, y0, x1, y1, cola);
+    }
+
+    /**
+     * Vuelve a calcular la franja de la region que lee pixeles de fuera y
+     * propaga lo que suba. Devuelve true si algo cambio.
+     */
+    private static boolean propagarBordes(int[] j, int[] i, int width, int height, Vecindad v,
+            int x0, int y0, int x1, int y1, Cola cola) {
+        boolean cambio = false;
+        int finIzquierda = Math.min(x1, x0 + v.izquierda);
+        int inicioDerecha = Math.max(finIzquierda, x1 - v.derecha);
+
+        for (int y = y0; y < y1; y++) {
+            boolean filaCompleta = y < y0 + v.arriba || y >= y1 - v.abajo;
+            for (int x = x0; x < x1; x++) {
+                if (!filaCompleta && x == finIzquierda) {
+                    x = inicioDerecha;
+                    if (x >= x1) {
+                        break;
+                    }
+                }
+                int p = y * width + x;
+                int valor = j[p];
+                for (int k = 0; k < v.delta.length; k++) {
+                    if (v.dentro(k, x, y, width, height)) {
+                        valor = Math.max(valor, j[p + v.delta[k]]);
+                    }
+                }
+                valor = Math.min(valor, i[p]);
+                if (valor > j[p]) {
+                    j[p] = valor;
+                    cola.agregar(p);
+                    cambio = true;
+                }
+            }
+        }
+
+        propagar(j, i, width, v, x0, y0, x1, y1, cola);
+        return cambio;
+    }
+
+    /**
+     * Vacia la cola: cada pixel sube a los que lo tienen de vecino dentro de
+     * la region, y los que cambian vuelven a la cola
+     */
+    private static void propagar(int[] j, int[] i, int width, Vecindad v,
+            int x0, int y0, int x1, int y1, Cola cola) {
+        while (!cola.vacia()) {
+            int p = cola.sacar();
+            int x = p % width;
+            int y = p / width;
+            int valor = j[p];
+
+            for (int k = 0; k < v.delta.length; k++) {
+                int qx = x - v.dx[k];
+                int qy = y - v.dy[k];
+                if (qx >= x0 && qx < x1 && qy >= y0 && qy < y1) {
+                    int q = p - v.delta[k];
+                    if (j[q] < valor && j[q] != i[q]) {
+                        j[q] = Math.min(valor, i[q]);
+                        cola.agregar(q);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Celdas activas del EE sin el ancla, como desplazamientos desde el
+     * pixel, separadas en las que el recorrido por filas visita antes
+     * (anteriores) y despues (posteriores) del pixel
+     */
+    private static final class Vecindad {
+
+        final int[] dx, dy, delta;
+        final int[] anteriores, posteriores;
+        // Alcance hacia cada lado; el pixel (x, y) lee de x - izquierda a x + derecha
+        final int izquierda, derecha, arriba, abajo, alcance;
+
+        Vecindad(ElementoEstructurante elemento, int width) {
+            int n = 0;
+            for (int k = 0; k < elemento.celdasX.length; k++) {
+                if (elemento.celdasX[k] != elemento.anclaX || elemento.celdasY[k] != elemento.anclaY) {
+                    n++;
+                }
+            }
+            dx = new int[n];
+            dy = new int[n];
+            delta = new int[n];
+
+            int cantidadAnteriores = 0;
+            int m = 0;
+            for (int k = 0; k < elemento.celdasX.length; k++) {
+                int ox = elemento.celdasX[k] - elemento.anclaX;
+                int oy = elemento.celdasY[k] - elemento.anclaY;
+                if (ox == 0 && oy == 0) {
+                    continue;
+                }
+                dx[m] = ox;
+                dy[m] = oy;
+                delta[m] = oy * width + ox;
+                if (esAnterior(ox, oy)) {
+                    cantidadAnteriores++;
+                }
+                m++;
+            }
+
+            anteriores = new int[cantidadAnteriores];
+            posteriores = new int[n - cantidadAnteriores];
+            int a = 0, b = 0;
+            int izq = 0, der = 0, arr = 0, abj = 0;
+            for (int k = 0; k < n; k++) {
+                if (esAnterior(dx[k], dy[k])) {
+                    anteriores[a++] = k;
+                } else {
+                    posteriores[b++] = k;
+                }
+                izq = Math.max(izq, -dx[k]);
+                der = Math.max(der, dx[k]);
+                arr = Math.max(arr, -dy[k]);
+                abj = Math.max(abj, dy[k]);
+            }
+            izquierda = izq;
+            derecha = der;
+            arriba = arr;
+            abajo = abj;
+            alcance = Math.max(Math.max(izq, der), Math.max(arr, abj));
+        }
+
+        private static boolean esAnterior(int ox, int oy) {
+            return oy < 0 || (oy == 0 && ox < 0);
+        }
+
+        /**
+         * Si todos los vecinos de (x, y) caen dentro de la imagen
+         */
+        boolean interior(int x, int y, int width, int height) {
+            return x >= izquierda && x < width - derecha && y >= arriba && y < height - abajo;
+        }
+
+        boolean dentro(int k, int x, int y, int width, int height) {
+            int px = x + dx[k];
+            int py = y + dy[k];
+            return px >= 0 && px < width && py >= 0 && py < height;
+        }
+    }
+
+    /**
+     * Cola FIFO de indices de pixel sobre un arreglo circular que crece
+     */
+    private static final class Cola {
+
+        private int[] datos = new int[1024];
+        private int inicio;
+        private int cantidad;
+
+        void agregar(int valor) {
+            if (cantidad == datos.length) {
+                int[] nuevos = new int[datos.length * 2];
+                for (int k = 0; k < cantidad; k++) {
+                    nuevos[k] = datos[(inicio + k) & (datos.length - 1)];
+                }
+                datos = nuevos;
+                inicio = 0;
+            }
+            datos[(inicio + cantidad) & (datos.length - 1)] = valor;
+            cantidad++;
+        }
+
+        int sacar() {
+            int valor = datos[inicio];
+            inicio = (inicio + 1) & (datos.length - 1);
+            cantidad--;
+            return valor;
+        }
+
+        boolean vacia() {
+            return cantidad == 0;
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package proyecto1;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Servicio HTTP de morfologia sobre el servidor del JDK.
+ *
+ * Cada conexion se atiende en un hilo virtual, que tambien decodifica la
+ * imagen y codifica la respuesta; el calculo corre en un pool acotado de
+ * hilos de plataforma (que a su vez reparten las teselas en el pool
+ * compartido del motor). Asi los hilos virtuales pueden ser miles mientras
+ * esperan la red sin competir con el calculo.
+ *
+ * Los pedidos chicos con la misma cadena se juntan en lotes: el primero abre
+ * el lote y espera VENTANA_LOTE_MS (o a que se llene) antes de mandarlo al
+ * pool como una sola tarea. La tarea calcula cada paso para todas las
+ * imagenes del lote con un solo plan y una sola pasada por el pool del motor.
+ * Asi una imagen chica, que por si sola llena pocas teselas, no deja hilos
+ * ociosos.
+ *
+ * Admision: como mucho maxPendientes pedidos entre cola y calculo; el resto
+ * recibe 503 con Retry-After en lugar de encolarse sin limite, y los cuerpos
+ * de mas de MAXIMO_CUERPO bytes o las imagenes de mas de MAXIMO_PIXELES, 413.
+ * El tamaño de la imagen se lee de la cabecera antes de decodificarla: un
+ * PNG de pocos KB puede declarar millones de pixeles.
+ *
+ *   POST /procesar?cadena=apertura:cuadrado5&elemento=cruz&formato=png[&motor=secuencial]
+ *   GET  /metricas
+ *   GET  /salud
+ *
+ * No hay autenticacion: como TrabajadorMorfologia, por defecto solo escucha
+ * en loopback, y para exponerlo hay que darle una direccion (--direccion).
+ */
+final class ServidorMorfologia {
+
+    static final int PUERTO = 8080;
+    static final int MAXIMO_CUERPO = 64 << 20;
+    // 256 MB como int[] ARGB; el resultado y los intermedios se suman aparte
+    static final long MAXIMO_PIXELES = 1L << 26;
+    // Pixeles hasta los que un pedido se puede juntar con otros
+    static final int PIXELES_LOTE = 256 * 256;
+    static final int MAXIMO_LOTE = 16;
+    static final long VENTANA_LOTE_MS = 2;
+    // Cadenas leidas que se recuerdan; las claves vienen del cliente
+    static final int MAXIMO_CADENAS = 64;
+
+    private final HttpServer servidor;
+    private final ExecutorService conexiones;
+    private final ThreadPoolExecutor calculo;
+    private final Semaphore admision;
+
+    // Lotes abiertos por cadena; se protegen con el monitor de lotes
+    private final Map<String, Lote> lotes = new HashMap<>();
+    // Cadenas ya leidas, para no volver a interpretar el texto en cada pedido.
+    // Las menos usadas se descartan para que los clientes no puedan hacerla
+    // crecer sin limite; se protege con su propio monitor
+    private final Map<String, CadenaOperaciones> cadenas =
+            new LinkedHashMap<String, CadenaOperaciones>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CadenaOperaciones> mayor) {
+                    return size() > MAXIMO_CADENAS;
+                }
+            };
+
+    private final Histograma latencias = new Histograma();
+    private final Histograma esperas = new Histograma();
+    private final Histograma calculos = new Histograma();
+    private final LongAdder aceptados = new LongAdder();
+    private final LongAdder rechazados = new LongAdder();
+    private final LongAdder errores = new LongAdder();
+    private final LongAdder lotesEjecutados = new LongAdder();
+    private final LongAdder pedidosEnLotes = new LongAdder();
+    private final AtomicInteger enCurso = new AtomicInteger();
+    private final long inicio = System.nanoTime();
+
+    /**
+     * Servidor en el puerto (0 para uno libre) de la direccion dada; con
+     * direccion null, en la de loopback
+     */
+    ServidorMorfologia(int puerto, InetAddress direccion, int hilosCalculo, int maxPendientes)
+            throws IOException {
+        if (hilosCalculo < 1 || maxPendientes < 1) {
+            throw new IllegalArgumentException("Hilos y pendientes deben ser al menos 1");
+        }
+        admision = new Semaphore(maxPendientes);
+        AtomicInteger numero = new AtomicInteger();
+        // La cola admite todo lo aceptado; la admision ya acota cuanto es
+        calculo = new ThreadPoolExecutor(hilosCalculo, hilosCalculo, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(maxPendientes), r -> {
+                    Thread hilo = new Thread(r, "servidor-calculo-" + numero.getAndIncrement());
+                    hilo.setDaemon(true);
+                    return hilo;
+                });
+        conexiones = Executors.newVirtualThreadPerTaskExecutor();
+
+        servidor = HttpServer.create(new InetSocketAddress(
+                direccion != null ? direccion : InetAddress.getLoopbackAddress(), puerto), 0);
+        servidor.setExecutor(conexiones);
+        servidor.createContext("/procesar", this::atenderProcesar);
+        servidor.createContext("/metricas", this::atenderMetricas);
+        servidor.createContext("/salud", intercambio -> responder(intercambio, 200, "ok\n"));
+    }
+
+    void iniciar() {
+        servidor.start();
+    }
+
+    int getPuerto() {
+        return servidor.getAddress().getPort();
+    }
+
+    /**
+     * Deja de aceptar conexiones, espera hasta segundos a las que estan en
+     * curso y libera los pools
+     */
+    void detener(int segundos) {
+        servidor.stop(segundos);
+        calculo.shutdown();
+        conexiones.shutdown();
+    }
+
+    /**
+     * Un pedido esperando su resultado
+     */
+    private static final class Pedido {
+
+        final BufferedImage imagen;
+        final long llegada = System.nanoTime();
+        final CompletableFuture<BufferedImage> resultado = new CompletableFuture<>();
+
+        Pedido(BufferedImage imagen) {
+            this.imagen = imagen;
+        }
+    }
+
+    /**
+     * Pedidos con la misma cadena que se calculan en una sola tarea
+     */
+    private static final class Lote {
+
+        final CadenaOperaciones cadena;
+        final List<Pedido> pedidos = new ArrayList<>();
+
+        Lote(CadenaOperaciones cadena) {
+            this.cadena = cadena;
+        }
+    }
+
+    private void atenderProcesar(HttpExchange intercambio) throws IOException {
+        try {
+            if (!intercambio.getRequestMethod().equals("POST")) {
+                responder(intercambio, 405, "Solo POST\n");
+                return;
+            }
+            if (!admision.tryAcquire()) {
+                rechazados.increment();
+                // Sin leer el cuerpo el cliente puede ver la conexion
+                // cortada mientras todavia lo esta mandando
+                descartarCuerpo(intercambio.getRequestBody());
+                intercambio.getResponseHeaders().set("Retry-After", "1");
+                responder(intercambio, 503, "Servidor saturado, reintentar\n");
+                return;
+            }
+            try {
+                enCurso.incrementAndGet();
+                procesar(intercambio);
+            } finally {
+                enCurso.decrementAndGet();
+                admision.release();
+            }
+        } catch (IllegalArgumentException e) {
+            errores.increment();
+            responder(intercambio, 400, "ERROR: " + e.getMessage() + "\n");
+        } catch (IOException e) {
+            errores.increment();
+            responder(intercambio, 400, "ERROR al leer la imagen: " + e.getMessage() + "\n");
+        } catch (RuntimeException e) {
+            errores.increment();
+            e.printStackTrace();
+            responder(intercambio, 500, "ERROR interno: " + e + "\n");
+        } finally {
+            intercambio.close();
+        }
+    }
+
+    private void procesar(HttpExchange intercambio) throws IOException {
+        long llegada = System.nanoTime();
+        String largo = intercambio.getRequestHeaders().getFirst("Content-Length");
+        if (largo != null && Long.parseLong(largo) > MAXIMO_CUERPO) {
+            rechazarCuerpo(intercambio);
+            return;
+        }
+        Map<String, String> parametros = parametros(intercambio.getRequestURI().getRawQuery());
+        String texto = parametros.get("cadena");
+        if (texto == null) {
+            throw new IllegalArgumentException("Falta el parametro cadena");
+        }
+        String elemento = parametros.getOrDefault("elemento", "cruz");
+        String formato = parametros.getOrDefault("formato", "png").toLowerCase(Locale.ROOT);
+        boolean paralelo = !"secuencial".equals(parametros.get("motor"));
+        // Se valida antes de calcular: un formato sin escritor no es un error de la imagen
+        if (!ImageIO.getImageWritersByFormatName(formato).hasNext()) {
+            throw new IllegalArgumentException("Formato de salida no soportado: " + formato);
+        }
+        String clave = texto + "|" + elemento + "|" + paralelo;
+        CadenaOperaciones cadena;
+        synchronized (cadenas) {
+            cadena = cadenas.get(clave);
+        }
+        if (cadena == null) {
+            cadena = CadenaOperaciones.desdeTexto(texto, elemento, paralelo);
+            synchronized (cadenas) {
+                cadenas.putIfAbsent(clave, cadena);
+            }
+        }
+
+        byte[] cuerpo = leerCuerpo(intercambio.getRequestBody());
+        if (cuerpo == null) {
+            rechazarCuerpo(intercambio);
+            return;
+        }
+        // Vale para los dos caminos: el de lotes y el de un pedido solo
+        long pixeles = pixeles(cuerpo);
+        if (pixeles > MAXIMO_PIXELES) {
+            responder(intercambio, 413, "La imagen supera " + MAXIMO_PIXELES + " pixeles\n");
+            return;
+        }
+        BufferedImage imagen = CadenaOperaciones.leer(new ByteArrayInputStream(cuerpo));
+
+        Pedido pedido = new Pedido(imagen);
+        if ((long) imagen.getWidth() * imagen.getHeight() <= PIXELES_LOTE) {
+            juntar(clave, cadena, pedido);
+        } else {
+            Lote solo = new Lote(cadena);
+            solo.pedidos.add(pedido);
+            despachar(solo);
+        }
+
+        BufferedImage resultado;
+        try {
+            resultado = pedido.resultado.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Pedido interrumpido");
+        }
+
+        ByteArrayOutputStream salida = new ByteArrayOutputStream(cuerpo.length);
+        try {
+            CadenaOperaciones.escribir(resultado, formato, salida);
+        } catch (IOException e) {
+            // Hay escritor pero no para este tipo de imagen (JPEG con alfa, por ejemplo)
+            throw new IllegalArgumentException("No se pudo escribir en " + formato + ": " + e.getMessage());
+        }
+        intercambio.getResponseHeaders().set("Content-Type", "image/" + formato);
+        intercambio.sendResponseHeaders(200, salida.size());
+        try (OutputStream out = intercambio.getResponseBody()) {
+            salida.writeTo(out);
+        }
+        aceptados.increment();
+        latencias.registrar(System.nanoTime() - llegada);
+    }
+
+    /**
+     * Agrega el pedido al lote abierto de su cadena. Quien abre el lote
+     * espera la ventana (en su hilo virtual, sin ocupar uno de plataforma) y
+     * lo despacha; si el lote se llena antes, lo despacha quien lo lleno.
+     */
+    private void juntar(String clave, CadenaOperaciones cadena, Pedido pedido) {
+        Lote lote;
+        boolean abrio = false;
+        boolean lleno = false;
+        synchronized (lotes) {
+            lote = lotes.get(clave);
+            if (lote == null) {
+                lote = new Lote(cadena);
+                lotes.put(clave, lote);
+                abrio = true;
+            }
+            lote.pedidos.add(pedido);
+            if (lote.pedidos.size() >= MAXIMO_LOTE) {
+                lotes.remove(clave);
+                lleno = true;
+            }
+        }
+        if (lleno) {
+            despachar(lote);
+            return;
+        }
+        if (!abrio) {
+            return;
+        }
+
+        try {
+            Thread.sleep(VENTANA_LOTE_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lotes) {
+            // Si se lleno mientras tanto, ya lo despacho otro
+            if (lotes.get(clave) != lote) {
+                return;
+            }
+            lotes.remove(clave);
+        }
+        despachar(lote);
+    }
+
+    private void despachar(Lote lote) {
+        try {
+            calculo.execute(() -> calcular(lote));
+        } catch (RejectedExecutionException e) {
+            // Solo pasa al detener el servidor
+            for (Pedido pedido : lote.pedidos) {
+                pedido.resultado.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Calcula todas las imagenes del lote juntas (ver aplicarJuntas). Si eso
+     * falla se repite pedido por pedido, para que el error le llegue solo a
+     * quien mando la imagen que lo causa.
+     */
+    private void calcular(Lote lote) {
+        lotesEjecutados.increment();
+        pedidosEnLotes.add(lote.pedidos.size());
+        long comienzo = System.nanoTime();
+        BufferedImage[] imagenes = new BufferedImage[lote.pedidos.size()];
+        for (int i = 0; i < imagenes.length; i++) {
+            Pedido pedido = lote.pedidos.get(i);
+            esperas.registrar(comienzo - pedido.llegada);
+            imagenes[i] = pedido.imagen;
+        }
+        BufferedImage[] resultados = null;
+        try {
+            resultados = lote.cadena.aplicarJuntas(imagenes);
+        } catch (RuntimeException | Error e) {
+            if (imagenes.length == 1) {
+                lote.pedidos.get(0).resultado.completeExceptionally(e);
+            }
+        }
+        if (resultados != null) {
+            long calculo = System.nanoTime() - comienzo;
+            for (int i = 0; i < imagenes.length; i++) {
+                calculos.registrar(calculo);
+                lote.pedidos.get(i).resultado.complete(resultados[i]);
+            }
+            return;
+        }
+        for (Pedido pedido : lote.pedidos) {
+            if (pedido.resultado.isDone()) {
+                continue;
+            }
+            long inicio = System.nanoTime();
+            try {
+                pedido.resultado.complete(lote.cadena.aplicar(pedido.imagen));
+            } catch (RuntimeException | Error e) {
+                pedido.resultado.completeExceptionally(e);
+            }
+            calculos.registrar(System.nanoTime() - inicio);
+        }
+    }
+
+    /**
+     * Cuerpo completo, o null si supera MAXIMO_CUERPO
+     */
+    private static byte[] leerCuerpo(InputStream entrada) throws IOException {
+        ByteArrayOutputStream cuerpo = new ByteArrayOutputStream();
+        byte[] bloque = new byte[64 << 10];
+        int leidos;
+        while ((leidos = entrada.read(bloque)) > 0) {
+            if (cuerpo.size() + leidos > MAXIMO_CUERPO) {
+                return null;
+            }
+            cuerpo.write(bloque, 0, leidos);
+        }
+        return cuerpo.toByteArray();
+    }
+
+    /**
+     * 413 para un cuerpo que no se leyo entero. Lo que queda del cuerpo
+     * seguiria en la conexion y se tomaria por el pedido siguiente, asi que
+     * en lugar de leerlo sin limite se cierra la conexion con la respuesta.
+     */
+    private static void rechazarCuerpo(HttpExchange intercambio) throws IOException {
+        intercambio.getResponseHeaders().set("Connection", "close");
+        responder(intercambio, 413, "La imagen supera " + MAXIMO_CUERPO + " bytes\n");
+    }
+
+    /**
+     * Ancho por alto declarados en la cabecera de la imagen, sin decodificarla
+     */
+    private static long pixeles(byte[] cuerpo) throws IOException {
+        try (ImageInputStream flujo = ImageIO.createImageInputStream(new ByteArrayInputStream(cuerpo))) {
+            Iterator<ImageReader> lectores = ImageIO.getImageReaders(flujo);
+            if (!lectores.hasNext()) {
+                throw new IOException("No se pudo leer la imagen: formato no reconocido");
+            }
+            ImageReader lector = lectores.next();
+            try {
+                lector.setInput(flujo, true, true);
+                return (long) lector.getWidth(0) * lector.getHeight(0);
+            } finally {
+                lector.dispose();
+            }
+        }
+    }
+
+    private static void descartarCuerpo(InputStream entrada) throws IOException {
+        byte[] bloque = new byte[64 << 10];
+        long total = 0;
+        int leidos;
+        while (total <= MAXIMO_CUERPO && (leidos = entrada.read(bloque)) > 0) {
+            total += leidos;
+        }
+    }
+
+    private static Map<String, String> parametros(String consulta) {
+        Map<String, String> parametros = new HashMap<>();
+        if (consulta == null) {
+            return parametros;
+        }
+        for (String par : consulta.split("&")) {
+            int igual = par.indexOf('=');
+            if (igual > 0) {
+                parametros.put(URLDecoder.decode(par.substring(0, igual), StandardCharsets.UTF_8),
+                        URLDecoder.decode(par.substring(igual + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parametros;
+    }
+
+    private static void responder(HttpExchange intercambio, int codigo, String texto) throws IOException {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        intercambio.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        intercambio.sendResponseHeaders(codigo, bytes.length);
+        try (OutputStream out = intercambio.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private void atenderMetricas(HttpExchange intercambio) throws IOException {
+        try {
+            responder(intercambio, 200, resumen() + "\n" + Metricas.resumen() + "\n");
+        } finally {
+            intercambio.close();
+        }
+    }
+
+    String resumen() {
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        long lotesHechos = lotesEjecutados.sum();
+        StringBuilder sb = new StringBuilder();
+        sb.append("=== SERVIDOR ===\n");
+        sb.append(String.format(Locale.ROOT, "Pedidos: %d aceptados (%.1f/s), %d rechazados por saturacion, "
+                + "%d con error, %d en curso%n", aceptados.sum(), aceptados.sum() / segundos,
+                rechazados.sum(), errores.sum(), enCurso.get()));
+        sb.append(String.format(Locale.ROOT, "Latencia de los aceptados: p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                latencias.percentil(50) / 1e6, latencias.percentil(99) / 1e6, latencias.getMaximo() / 1e6));
+        sb.append(String.format(Locale.ROOT, "Espera hasta el calculo: p50 %.2f ms, p99 %.2f ms%n",
+                esperas.percentil(50) / 1e6, esperas.percentil(99) / 1e6));
+        sb.append(String.format(Locale.ROOT, "Calculo: p50 %.2f ms, p99 %.2f ms%n",
+                calculos.percentil(50) / 1e6, calculos.percentil(99) / 1e6));
+        sb.append(String.format(Locale.ROOT, "Lotes: %d, %.2f pedidos por lote%n", lotesHechos,
+                lotesHechos == 0 ? 0.0 : (double) pedidosEnLotes.sum() / lotesHechos));
+        sb.append("================");
+        return sb.toString();
+    }
+
+    /**
+     * Uso: servidor [puerto] [hilosCalculo] [maxPendientes] [--direccion D].
+     * Sin --direccion escucha solo en loopback; "--direccion 0.0.0.0" acepta
+     * clientes de cualquier interfaz.
+     */
+    public static void main(String[] args) {
+        try {
+            InetAddress direccion = null;
+            List<String> posicionales = new ArrayList<>();
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--direccion")) {
+                    if (i + 1 >= args.length) {
+                        throw new IllegalArgumentException("Falta el valor de --direccion");
+                    }
+                    direccion = InetAddress.getByName(args[++i]);
+                } else {
+                    posicionales.add(args[i]);
+                }
+            }
+            int puerto = posicionales.size() > 0 ? Integer.parseInt(posicionales.get(0)) : PUERTO;
+            int hilos = posicionales.size() > 1 ? Integer.parseInt(posicionales.get(1))
+                    : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            int pendientes = posicionales.size() > 2 ? Integer.parseInt(posicionales.get(2)) : 64 * hilos;
+
+            ServidorMorfologia servicio = new ServidorMorfologia(puerto, direccion, hilos, pendientes);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                servicio.detener(2);
+                System.out.println(servicio.resumen());
+                MorfologiaMatematicaOptimizada.cerrarEjecutor();
+            }));
+            servicio.iniciar();
+            System.out.println("Servidor en el puerto " + servicio.getPuerto() + " con " + hilos
+                    + " hilo(s) de calculo y hasta " + pendientes + " pedidos pendientes");
+        } catch (IOException e) {
+            System.err.println("ERROR al iniciar el servidor: " + e.getMessage());
+            e.printStackTrace();
+        } catch (IllegalArgumentException e) {
+            System.err.println("Uso: servidor [puerto] [hilosCalculo] [maxPendientes] [--direccion D]");
+            System.err.println("ERROR: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package proyecto1;
+
+/**
+ * Decide en tiempo de ejecucion si se usa el kernel de jdk.incubator.vector.
+ *
+ * El modulo es de incubacion y solo esta presente si la JVM se lanzo con
+ * --add-modules jdk.incubator.vector. Esta clase no toca tipos del modulo,
+ * asi que puede cargarse siempre; KernelVectorial solo se carga si el modulo
+ * esta. Con -Dmorfologia.vectorial=false se fuerza el camino escalar.
+ */
+final class SoporteVectorial {
+
+    static final boolean DISPONIBLE = detectar();
+
+    private SoporteVectorial() {
+    }
+
+    private static boolean detectar() {
+        if (!Boolean.parseBoolean(System.getProperty("morfologia.vectorial", "true"))) {
+            return false;
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return false;
+        }
+        try {
+            // Fuerza la inicializacion para descartar plataformas sin soporte
+            return KernelVectorial.carriles() > 1;
+        } catch (LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Pixeles que procesa cada instruccion vectorial, o 1 si no hay soporte
+     */
+    static int carriles() {
+        return DISPONIBLE ? KernelVectorial.carriles() : 1;
+    }
+}
@@ -0,0 +1,310 @@
+package proyecto1;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Proceso trabajador del modo distribuido (ver CoordinadorMorfologia).
+ *
+ * Guarda las bandas de filas que le asigna el coordinador y les aplica las
+ * etapas de la cadena con los kernels de siempre, repartidas en su propio
+ * pool. Entre etapas solo recibe las filas de halo que le faltan y devuelve
+ * las de sus bordes, que el coordinador pasa a las bandas vecinas; la banda
+ * completa solo viaja al cargarla y al pedir el resultado.
+ *
+ * Cada conexion tiene sus propias bandas, que se descartan al cerrarse.
+ *
+ * El protocolo no tiene autenticacion: por defecto el trabajador solo
+ * escucha en la interfaz de loopback, y para recibir coordinadores de otras
+ * maquinas hay que darle una direccion explicita (--direccion).
+ */
+final class TrabajadorMorfologia {
+
+    private final ServerSocket servidor;
+    private final ExecutorService conexiones = Executors.newVirtualThreadPerTaskExecutor();
+
+    /**
+     * Escucha en el puerto (0 para uno libre) de la direccion dada; con
+     * direccion null, en la de loopback
+     */
+    TrabajadorMorfologia(int puerto, InetAddress direccion) throws IOException {
+        servidor = new ServerSocket(puerto, 50,
+                direccion != null ? direccion : InetAddress.getLoopbackAddress());
+    }
+
+    int getPuerto() {
+        return servidor.getLocalPort();
+    }
+
+    /**
+     * Banda de filas [y0, y1) de una imagen de width x height y del tipo de
+     * BufferedImage tipo, con el resultado de la ultima etapa
+     */
+    private static final class Banda {
+
+        final int width, height, y0, y1, tipo;
+        int[] pixeles;
+
+        Banda(int width, int height, int y0, int y1, int tipo, int[] pixeles) {
+            this.width = width;
+            this.height = height;
+            this.y0 = y0;
+            this.y1 = y1;
+            this.tipo = tipo;
+            this.pixeles = pixeles;
+        }
+    }
+
+    /**
+     * Acepta conexiones hasta que se cierra el socket; cada una se atiende
+     * en un hilo virtual
+     */
+    void atender() {
+        while (!servidor.isClosed()) {
+            try {
+                Socket socket = servidor.accept();
+                conexiones.execute(() -> atender(socket));
+            } catch (IOException e) {
+                if (!servidor.isClosed()) {
+                    System.err.println("ERROR al aceptar una conexion: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    void detener() {
+        try {
+            servidor.close();
+        } catch (IOException e) {
+            // ya no acepta conexiones de todos modos
+        }
+        conexiones.shutdownNow();
+    }
+
+    private void atender(Socket socket) {
+        Map<Integer, Banda> bandas = new HashMap<>();
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16))) {
+            socket.setTcpNoDelay(true);
+            if (in.readInt() != ProtocoloDistribuido.MAGIA) {
+                return;
+            }
+            out.writeInt(ProtocoloDistribuido.MAGIA);
+            out.writeInt(Runtime.getRuntime().availableProcessors());
+            out.flush();
+
+            while (true) {
+                int codigo;
+                try {
+                    codigo = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                try {
+                    procesar(codigo, in, out, bandas);
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    // El pedido ya se leyo completo; la conexion sigue sirviendo
+                    out.writeInt(ProtocoloDistribuido.ERROR);
+                    out.writeUTF(String.valueOf(e.getMessage()));
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // El coordinador se fue o la conexion se corto: se descartan sus bandas
+        } catch (RuntimeException | Error e) {
+            // Un pedido a medio leer (por ejemplo sin memoria para la banda) deja
+            // el flujo desalineado: se corta la conexion y el coordinador reasigna
+            System.err.println("ERROR atendiendo al coordinador " + socket.getRemoteSocketAddress()
+                    + ": " + e);
+        }
+    }
+
+    private static void procesar(int codigo, DataInputStream in, DataOutputStream out,
+            Map<Integer, Banda> bandas) throws IOException {
+        switch (codigo) {
+            case ProtocoloDistribuido.CARGAR: {
+                int id = in.readInt();
+                int width = in.readInt();
+                int height = in.readInt();
+                int y0 = in.readInt();
+                int y1 = in.readInt();
+                int tipo = in.readInt();
+                if (width < 1 || height < 1 || y0 < 0 || y1 <= y0 || y1 > height
+                        || (long) width * (y1 - y0) > ProtocoloDistribuido.MAXIMO_PIXELES_BANDA) {
+                    throw new IOException("Banda invalida: " + width + "x" + height + " filas " + y0 + "-" + y1);
+                }
+                int[] pixeles = new int[width * (y1 - y0)];
+                ProtocoloDistribuido.leerEnteros(in, pixeles, 0, pixeles.length);
+                bandas.put(id, new Banda(width, height, y0, y1, tipo, pixeles));
+                out.writeInt(ProtocoloDistribuido.OK);
+                break;
+            }
+
+            case ProtocoloDistribuido.ETAPA: {
+                int id = in.readInt();
+                int ordinal = in.readInt();
+                ElementoEstructurante elemento = ProtocoloDistribuido.leerElemento(in);
+                Banda banda = bandas.get(id);
+                if (banda == null) {
+                    // Sin la banda no se sabe el ancho de los halos que siguen, asi que
+                    // el resto del pedido no se puede leer y se corta la conexion
+                    throw new IOException("Banda desconocida: " + id);
+                }
+                int width = banda.width;
+                int filas = banda.y1 - banda.y0;
+
+                // Entrada con halo: filas [y0 - arriba, y1 + abajo) de la imagen. El
+                // coordinador arma bandas de al menos el halo mas alto, asi que
+                // cada halo tiene como mucho las filas de la banda
+                int arriba = leerFilas(in, Math.min(banda.y0, filas));
+                int[] halo = new int[width * arriba];
+                ProtocoloDistribuido.leerEnteros(in, halo, 0, halo.length);
+                int abajo = leerFilas(in, Math.min(banda.height - banda.y1, filas));
+                int[] entrada = new int[width * (arriba + filas + abajo)];
+                System.arraycopy(halo, 0, entrada, 0, halo.length);
+                System.arraycopy(banda.pixeles, 0, entrada, halo.length, banda.pixeles.length);
+                ProtocoloDistribuido.leerEnteros(in, entrada, halo.length + banda.pixeles.length, width * abajo);
+
+                int bordeArriba = in.readInt();
+                int bordeAbajo = in.readInt();
+                if (ordinal < 0 || ordinal >= Operacion.values().length
+                        || bordeArriba < 0 || bordeAbajo < 0 || bordeArriba > filas || bordeAbajo > filas) {
+                    throw new IllegalArgumentException("Etapa invalida para la banda " + id);
+                }
+
+                calcular(Operacion.values()[ordinal], elemento, banda, entrada, arriba);
+                out.writeInt(ProtocoloDistribuido.OK);
+                ProtocoloDistribuido.escribirEnteros(out, banda.pixeles, 0, width * bordeArriba);
+                ProtocoloDistribuido.escribirEnteros(out, banda.pixeles, width * (filas - bordeAbajo),
+                        width * bordeAbajo);
+                break;
+            }
+
+            case ProtocoloDistribuido.RESULTADO: {
+                Banda banda = bandas.remove(in.readInt());
+                if (banda == null) {
+                    throw new IllegalStateException("Banda desconocida");
+                }
+                out.writeInt(ProtocoloDistribuido.OK);
+                ProtocoloDistribuido.escribirEnteros(out, banda.pixeles, 0, banda.pixeles.length);
+                break;
+            }
+
+            case ProtocoloDistribuido.LIBERAR:
+                bandas.clear();
+                out.writeInt(ProtocoloDistribuido.OK);
+                break;
+
+            default:
+                throw new IOException("Pedido desconocido: " + codigo);
+        }
+    }
+
+    /**
+     * Cantidad de filas de halo, que no puede pasar de las que hay en la
+     * imagen de ese lado de la banda
+     */
+    private static int leerFilas(DataInputStream in, int maximo) throws IOException {
+        int filas = in.readInt();
+        if (filas < 0 || filas > maximo) {
+            throw new IOException("Halo invalido: " + filas + " filas");
+        }
+        return filas;
+    }
+
+    /**
+     * Aplica la operacion a la banda. entrada tiene las filas desde
+     * y0 - arriba, asi que el pixel (px, py) de la imagen esta en
+     * (py - y0 + arriba) * width + px; fuera de la imagen se conserva el
+     * pixel original, como en el motor paralelo.
+     */
+    private static void calcular(Operacion operacion, ElementoEstructurante elemento, Banda banda,
+            int[] entrada, int arriba) {
+        int width = banda.width;
+        int filas = banda.y1 - banda.y0;
+        PlanDescomposicion plan = PlanDescomposicion.planificar(elemento);
+        AutoajusteMorfologia.Estrategia estrategia = AutoajusteMorfologia.estrategia(width, filas, plan);
+        PlanDescomposicion elegido = estrategia != null ? plan.conKernel(estrategia.kernel) : plan;
+
+        int offsetOrigen = -(banda.y0 - arriba) * width;
+        int[] destino = new int[width * filas];
+        int halo = operacion.etapas() * Math.max(elemento.width, elemento.height);
+        EjecutorMorfologia.ejecutar(width, filas,
+                Math.max(MorfologiaMatematicaOptimizada.LADO_MINIMO_TESELA, 2 * halo),
+                (x0, y0, x1, y1) -> MorfologiaCompuesta.procesarRegion(operacion, elegido,
+                        entrada, offsetOrigen, width, width, banda.height, true,
+                        x0, banda.y0 + y0, x1, banda.y0 + y1, destino, y0 * width + x0, width));
+
+        // Como en CadenaOperaciones, cada etapa queda guardada en el tipo de la
+        // imagen (sin alfa, en niveles de gris, ...) antes de la siguiente
+        if (banda.tipo != BufferedImage.TYPE_INT_ARGB) {
+            BufferedImage convertida = new BufferedImage(width, filas, banda.tipo);
+            RasterRapido.escribirPixeles(destino, convertida);
+            banda.pixeles = RasterRapido.leerPixeles(convertida, destino);
+        } else {
+            banda.pixeles = destino;
+        }
+    }
+
+    /**
+     * Uso: trabajador [puerto] [--direccion D] [local]. Imprime el puerto en
+     * la primera linea de la salida. Sin --direccion escucha solo en
+     * loopback; "--direccion 0.0.0.0" acepta coordinadores de cualquier
+     * interfaz. Con "local" termina cuando termina el proceso que lo lanzo
+     * (CoordinadorMorfologia con --locales).
+     */
+    public static void main(String[] args) {
+        String textoPuerto = null;
+        try {
+            int puerto = 0;
+            InetAddress direccion = null;
+            boolean local = false;
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("local")) {
+                    local = true;
+                } else if (args[i].equals("--direccion")) {
+                    if (i + 1 >= args.length) {
+                        throw new IllegalArgumentException("Falta el valor de --direccion");
+                    }
+                    direccion = InetAddress.getByName(args[++i]);
+                } else {
+                    textoPuerto = args[i];
+                    puerto = Integer.parseInt(textoPuerto);
+                }
+            }
+            TrabajadorMorfologia trabajador = new TrabajadorMorfologia(puerto, direccion);
+            if (local) {
+                ProcessHandle.current().parent().ifPresent(padre -> padre.onExit().thenRun(() -> {
+                    trabajador.detener();
+                    System.exit(0);
+                }));
+            }
+            System.out.println("Trabajador en el puerto " + trabajador.getPuerto());
+            System.out.flush();
+            trabajador.atender();
+        } catch (NumberFormatException e) {
+            System.err.println("ERROR: Puerto no válido: " + textoPuerto);
+        } catch (IllegalArgumentException e) {
+            System.err.println("ERROR: " + e.getMessage());
+        } catch (IOException e) {
+            System.err.println("ERROR al iniciar el trabajador: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            MorfologiaMatematicaOptimizada.cerrarEjecutor();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package proyecto1;
+
+import java.util.Arrays;
+import proyecto1.MorfologiaMatematicaOptimizada.ElementoEstructurante;
+
+/**
+ * Erosion y dilatacion con elementos estructurantes rectangulares usando el
+ * algoritmo de van Herk / Gil-Werman.
+ *
+ * Un rectangulo se separa en una linea horizontal seguida de una vertical, y
+ * cada linea se resuelve con minimos/maximos acumulados por bloques del largo
+ * de la linea. El costo por pixel es constante, sin importar el tamaño del EE.
+ * Los pixeles fuera de la imagen se tratan como el neutro de la operacion, lo
+ * que equivale a ignorarlos como hace el calculo directo.
+ */
+final class VanHerkGilWerman {
+
+    private static final int NEUTRO_EROSION = 0x00FFFFFF;
+    private static final int NEUTRO_DILATACION = 0;
+
+    private VanHerkGilWerman() {
+    }
+
+    /**
+     * Indica si todas las celdas del elemento estan activas
+     */
+    static boolean esRectangulo(ElementoEstructurante elemento) {
+        for (int ey = 0; ey < elemento.height; ey++) {
+            for (int ex = 0; ex < elemento.width; ex++) {
+                if (!elemento.isActive(ex, ey)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Calcula la region [x0, x1) x [y0, y1) del resultado. El pixel (px, py)
+     * se lee de origen[offsetOrigen + py * strideOrigen + px] y el resultado
+     * (x, y) queda en destino[offsetDestino + (y - y0) * strideDestino + (x - x0)].
+     */
+    static void procesarRegion(int[] origen, int offsetOrigen, int strideOrigen,
+            int width, int height, ElementoEstructurante elemento, boolean esErosion,
+            int x0, int y0, int x1, int y1,
+            int[] destino, int offsetDestino, int strideDestino) {
+        procesarRegion(origen, offsetOrigen, strideOrigen, width, height,
+                elemento.width, elemento.height,
+                elemento.anclaX, elemento.anclaY, esErosion, x0, y0, x1, y1,
+                destino, offsetDestino, strideDestino);
+    }
+
+    /**
+     * Igual que la version con ElementoEstructurante, para un rectangulo de
+     * ancho x alto cuya ancla puede quedar fuera del rectangulo (util para las
+     * piezas de una descomposicion). Si la ventana de un pixel queda
+     * completamente fuera de la imagen, el resultado es el neutro.
+     */
+    static void procesarRegion(int[] origen, int offsetOrigen, int strideOrigen,
+            int width, int height, int ancho, int alto, int anclaX, int anclaY, boolean esErosion,
+            int x0, int y0, int x1, int y1,
+            int[] destino, int offsetDestino, int strideDestino) {
+        int filas = y1 - y0;
+        int columnas = x1 - x0;
+        if (filas <= 0 || columnas <= 0) {
+            return;
+        }
+
+        int neutro = neutro(esErosion);
+
+        // Filas de la imagen que necesita la region, con relleno neutro afuera
+        int primeraFila = y0 - anclaY;
+        int largo = filas + alto - 1;
+
+        int[] filasHorizontales = PoolBuffers.tomarEnteros(largo * columnas);
+        int[] auxiliar = PoolBuffers.tomarEnteros(columnas + ancho - 1);
+        int[] prefijo = PoolBuffers.tomarEnteros(columnas + ancho - 1);
+
+        for (int j = 0; j < largo; j++) {
+            int py = primeraFila + j;
+            int base = j * columnas;
+
+            if (py < 0 || py >= height) {
+                Arrays.fill(filasHorizontales, base, base + columnas, neutro);
+            } else {
+                pasadaHorizontal(origen, offsetOrigen + py * strideOrigen, width, x0, x1, ancho, anclaX,
+                        esErosion, neutro, filasHorizontales, base, auxiliar, prefijo);
+            }
+        }
+        PoolBuffers.devolver(auxiliar);
+        PoolBuffers.devolver(prefijo);
+
+        if (alto == 1) {
+            for (int j = 0; j < filas; j++) {
+                System.arraycopy(filasHorizontales, j * columnas,
+                        destino, offsetDestino + j * strideDestino, columnas);
+            }
+        } else {
+            pasadaVertical(filasHorizontales, largo, columnas, alto, esErosion,
+                    destino, offsetDestino, strideDestino, filas);
+        }
+        PoolBuffers.devolver(filasHorizontales);
+    }
+
+    /**
+     * Minimo/maximo sobre una ventana horizontal de largo 'ancho' para las
+     * columnas [x0, x1) de una fila. La ventana del pixel x cubre las columnas
+     * [x - ancla, x - ancla + ancho).
+     */
+    private static void pasadaHorizontal(int[] origen, int offsetFila, int width,
+            int x0, int x1, int ancho, int ancla, boolean esErosion, int neutro,
+            int[] salida, int offsetSalida, int[] relleno, int[] prefijo) {
+        int columnas = x1 - x0;
+
+        // relleno[i] corresponde a la columna x0 - ancla + i
+        int primeraColumna = x0 - ancla;
+        int largo = columnas + ancho - 1;
+        for (int i = 0; i < largo; i++) {
+            int px = primeraColumna + i;
+            relleno[i] = (px >= 0 && px < width) ? origen[offsetFila + px] & 0x00FFFFFF : neutro;
+        }
+
+        if (ancho == 1) {
+            System.arraycopy(relleno, 0, salida, offsetSalida, columnas);
+            return;
+        }
+
+        acumularPorBloques(relleno, prefijo, largo, ancho, esErosion);
+
+        // Tras acumular, relleno contiene los sufijos de cada bloque
+        for (int i = 0; i < columnas; i++) {
+            salida[offsetSalida + i] = combinar(relleno[i], prefijo[i + ancho - 1], esErosion);
+        }
+    }
+
+    /**
+     * Deja en prefijo el acumulado hacia adelante dentro de cada bloque de
+     * tamaño 'bloque', y reemplaza valores por el acumulado hacia atras
+     */
+    private static void acumularPorBloques(int[] valores, int[] prefijo, int largo,
+            int bloque, boolean esErosion) {
+        for (int i = 0; i < largo; i++) {
+            prefijo[i] = (i % bloque == 0) ? valores[i] : combinar(prefijo[i - 1], valores[i], esErosion);
+        }
+        for (int i = largo - 2; i >= 0; i--) {
+            if (i % bloque != bloque - 1) {
+                valores[i] = combinar(valores[i + 1], valores[i], esErosion);
+            }
+        }
+    }
+
+    /**
+     * Misma idea que la pasada horizontal, pero cada elemento es una fila
+     * completa, lo que mantiene los accesos a memoria contiguos
+     */
+    private static void pasadaVertical(int[] filasHorizontales, int largo, int columnas,
+            int alto, boolean esErosion, int[] destino, int offsetDestino, int strideDestino,
+            int filas) {
+        int[] prefijo = PoolBuffers.tomarEnteros(largo * columnas);
+
+        for (int j = 0; j < largo; j++) {
+            int base = j * columnas;
+            if (j % alto == 0) {
+                System.arraycopy(filasHorizontales, base, prefijo, base, columnas);
+            } else {
+                int anterior = base - columnas;
+                for (int x = 0; x < columnas; x++) {
+                    prefijo[base + x] = combinar(prefijo[anterior + x], filasHorizontales[base + x], esErosion);
+                }
+            }
+        }
+
+        for (int j = largo - 2; j >= 0; j--) {
+            if (j % alto == alto - 1) {
+                continue;
+            }
+            int base = j * columnas;
+            int siguiente = base + columnas;
+            for (int x = 0; x < columnas; x++) {
+                filasHorizontales[base + x] = combinar(filasHorizontales[siguiente + x],
+                        filasHorizontales[base + x], esErosion);
+            }
+        }
+
+        for (int j = 0; j < filas; j++) {
+            int sufijo = j * columnas;
+            int acumulado = (j + alto - 1) * columnas;
+            int salida = offsetDestino + j * strideDestino;
+            for (int x = 0; x < columnas; x++) {
+                destino[salida + x] = combinar(filasHorizontales[sufijo + x], prefijo[acumulado + x], esErosion);
+            }
+        }
+        PoolBuffers.devolver(prefijo);
+    }
+
+    /**
+     * Valor que no altera el resultado: blanco para erosion, negro para dilatacion
+     */
+    static int neutro(boolean esErosion) {
+        return esErosion ? NEUTRO_EROSION : NEUTRO_DILATACION;
+    }
+
+    /**
+     * Minimo o maximo canal por canal de dos pixeles RGB empaquetados
+     */
+    static int combinar(int a, int b, boolean esErosion) {
+        if (esErosion) {
+            return Math.min(a & 0xFF0000, b & 0xFF0000)
+                    | Math.min(a & 0xFF00, b & 0xFF00)
+                    | Math.min(a & 0xFF, b & 0xFF);
+        }
+        return Math.max(a & 0xFF0000, b & 0xFF0000)
+                | Math.max(a & 0xFF00, b & 0xFF00)
+                | Math.max(a & 0xFF, b & 0xFF);
+    }
+}